@@ -1,5 +1,6 @@
 package org.theseed.genome;
 
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -8,6 +9,7 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
 import org.theseed.locations.Region;
+import org.theseed.sequence.PackedDna;
 import org.theseed.sequence.Sequence;
 
 import com.github.cliftonlabs.json_simple.JsonKey;
@@ -17,6 +19,12 @@ import com.github.cliftonlabs.json_simple.JsonObject;
  * This class implements a contig.  It contains the ID, sequence, and genetic code, and is
  * constructible from a JsonObject.
  *
+ * To save memory, the sequence can be packed at two bits per base (see PackedDna).  A packed
+ * contig does not keep a strong copy of its sequence or reverse complement.  The decoded sequence
+ * is cached through a soft reference, so repeated calls to getSequence are cheap, but the garbage
+ * collector can reclaim the string when memory is short.  Region extraction and kmer traversal work
+ * directly on the packed form.
+ *
  * @author Bruce Parrello
  *
  */
@@ -37,6 +45,10 @@ public class Contig implements Comparable<Contig> {
     private String description;
     /** cached copy of reverse complement (not always available) */
     private String rSequence;
+    /** packed DNA sequence, or NULL if the sequence is not packed */
+    private PackedDna packed;
+    /** soft cache of the decoded sequence of a packed contig, or NULL if none has been decoded */
+    private SoftReference<String> unpacked;
     /** string containing nucleic acids */
     private static final String NUCLEOTIDES = "acgtu";
     /** pattern for coverage keywords in the comment */
@@ -178,17 +190,76 @@ public class Contig implements Comparable<Contig> {
      * @return the sequence
      */
     public String getSequence() {
-        return this.sequence;
+        String retVal;
+        final PackedDna dna = this.packed;
+        if (dna == null)
+            retVal = this.sequence;
+        else {
+            // The sequence string is immutable, so a race here only costs an extra decode.
+            SoftReference<String> cached = this.unpacked;
+            retVal = (cached == null ? null : cached.get());
+            if (retVal == null) {
+                retVal = dna.toString();
+                this.unpacked = new SoftReference<>(retVal);
+            }
+        }
+        return retVal;
     }
 
     /**
      * @return the reverse compliment of the sequence
      */
     public String getRSequence() {
-        // Note we cache the reverse complement in case we need it again.
-        if (this.rSequence == null)
-            this.rSequence = reverse(this.sequence);
-        return this.rSequence;
+        String retVal;
+        if (this.packed != null)
+            retVal = this.packed.reverseComplement(0, this.packed.length());
+        else {
+            // Note we cache the reverse complement in case we need it again.
+            if (this.rSequence == null)
+                this.rSequence = reverse(this.sequence);
+            retVal = this.rSequence;
+        }
+        return retVal;
+    }
+
+    /**
+     * Convert this contig's sequence to packed form.  The sequence string and any cached reverse
+     * complement are released.
+     *
+     * @param offHeap	TRUE to store the packed sequence outside the heap
+     */
+    public void pack(boolean offHeap) {
+        if (this.packed == null) {
+            this.packed = new PackedDna(this.sequence, offHeap);
+            this.sequence = null;
+            this.rSequence = null;
+            this.unpacked = null;
+        }
+    }
+
+    /**
+     * Convert this contig's sequence back to string form.
+     */
+    public void unpack() {
+        if (this.packed != null) {
+            this.sequence = this.getSequence();
+            this.packed = null;
+            this.unpacked = null;
+        }
+    }
+
+    /**
+     * @return TRUE if this contig's sequence is packed
+     */
+    public boolean isPacked() {
+        return (this.packed != null);
+    }
+
+    /**
+     * @return the length of the stored sequence (which may be 0 if the sequence is not available)
+     */
+    public int getSequenceLength() {
+        return (this.packed != null ? this.packed.length() : this.sequence.length());
     }
 
     /**
@@ -216,10 +287,49 @@ public class Contig implements Comparable<Contig> {
             left = 0;
         }
         int right = region.getRight();
-        if (right < 0 || right > this.sequence.length()) {
-            right = this.sequence.length();
+        final int seqLen = this.getSequenceLength();
+        if (right < 0 || right > seqLen) {
+            right = seqLen;
         }
-        return this.sequence.substring(left, right);
+        String retVal;
+        if (this.packed != null)
+            retVal = this.packed.substring(left, right);
+        else
+            retVal = this.sequence.substring(left, right);
+        return retVal;
+    }
+
+    /**
+     * @return the reverse complement of the DNA string for the specified region on this contig
+     *
+     * @param region	the region whose reverse-strand DNA is desired
+     */
+    public String getReverseDna(Region region) {
+        String retVal;
+        if (this.packed != null) {
+            int left = Math.max(0, region.getLeft() - 1);
+            int right = region.getRight();
+            if (right < 0 || right > this.packed.length())
+                right = this.packed.length();
+            retVal = this.packed.reverseComplement(left, right);
+        } else
+            retVal = reverse(this.getDna(region));
+        return retVal;
+    }
+
+    /**
+     * @return a cursor for traversing the kmers in this contig
+     *
+     * @param k			kmer size (1 to 32)
+     * @param reverse	TRUE to traverse the reverse complement strand, else FALSE
+     */
+    public PackedDna.Cursor kmerCursor(int k, boolean reverse) {
+        PackedDna.Cursor retVal;
+        if (this.packed != null)
+            retVal = this.packed.cursor(k, reverse);
+        else
+            retVal = PackedDna.cursor(this.sequence, k, reverse);
+        return retVal;
     }
 
     /**
@@ -252,7 +362,7 @@ public class Contig implements Comparable<Contig> {
         JsonObject retVal = new JsonObject();
         retVal.put(ContigKeys.ID.getKey(), this.id);
         retVal.put(ContigKeys.GENETIC_CODE.getKey(), this.geneticCode);
-        retVal.put(ContigKeys.DNA.getKey(), this.sequence);
+        retVal.put(ContigKeys.DNA.getKey(), this.getSequence());
         retVal.put(ContigKeys.LENGTH.getKey(), this.length);
         if (! this.accession.isEmpty() || ! this.description.isEmpty()) {
             JsonObject genbank_locus = new JsonObject();
@@ -316,6 +426,8 @@ public class Contig implements Comparable<Contig> {
         this.sequence = sequence;
         this.length = sequence.length();
         this.rSequence = null;
+        this.packed = null;
+        this.unpacked = null;
     }
 
     /**
@@ -391,6 +503,8 @@ public class Contig implements Comparable<Contig> {
     public void clearSequence() {
         this.sequence = "";
         this.rSequence = "";
+        this.packed = null;
+        this.unpacked = null;
     }
 
     @Override
@@ -409,7 +523,7 @@ public class Contig implements Comparable<Contig> {
         Contig other = (Contig) obj;
         return Objects.equals(this.accession, other.accession) && Objects.equals(this.description, other.description)
                 && this.geneticCode == other.geneticCode && Objects.equals(this.id, other.id)
-                && this.length == other.length && Objects.equals(this.sequence, other.sequence);
+                && this.length == other.length && Objects.equals(this.getSequence(), other.getSequence());
     }
 
 }
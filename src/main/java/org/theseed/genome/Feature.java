@@ -29,6 +29,8 @@ import org.theseed.proteins.Role;
 import org.theseed.proteins.RoleMap;
 import org.theseed.roles.RoleUtilities;
 import org.theseed.sequence.MD5Hex;
+import org.theseed.subsystems.StrictRole;
+import org.theseed.subsystems.StrictRoleMap;
 
 import com.github.cliftonlabs.json_simple.JsonArray;
 import com.github.cliftonlabs.json_simple.JsonKey;
@@ -722,6 +724,17 @@ public class Feature implements Comparable<Feature> {
         return usefulRoles(map, this.function);
     }
 
+    /**
+     * @return the subsystem roles in this feature's functional assignment
+     *
+     * The list comes from the role map's function cache, so it is shared and cannot be modified.
+     *
+     * @param map	strict role map containing the subsystem roles
+     */
+    public List<StrictRole> getUsefulRoles(StrictRoleMap map) {
+        return map.cachedRoles(this.function);
+    }
+
     /**
      * This a version of "getUsefulRoles" for just deciding if a feature is interesting based
      * on its roles.  It is slightly faster than the other method, and more convenient.
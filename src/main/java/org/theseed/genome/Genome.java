@@ -4,7 +4,6 @@
 package org.theseed.genome;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -33,6 +32,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.theseed.io.CompressionUtils;
 import org.theseed.locations.Location;
 import org.theseed.locations.Region;
 import org.theseed.proteins.Function;
@@ -263,7 +263,7 @@ public class Genome  {
     }
 
     /**
-     * Read a genome object from a file.
+     * Read a genome object from a file.  A compressed file is decompressed automatically.
      *
      * @param inFile	the file containing the GTO
      *
@@ -271,7 +271,7 @@ public class Genome  {
      */
     public Genome(File inFile) throws IOException {
         // Get a reader for the named file.
-        try (FileReader reader = new FileReader(inFile)) {
+        try (InputStreamReader reader = new InputStreamReader(CompressionUtils.openInput(inFile))) {
             this.read(reader);
         }
     }
@@ -582,12 +582,17 @@ public class Genome  {
         if (loc != null) {
             Contig contig = this.getContig(loc.getContigId());
             if (contig != null) {
-                for (Region region : loc.getRegions()) {
-                    retVal += contig.getDna(region);
-                }
+                List<Region> regions = loc.getRegions();
+                StringBuilder buffer = new StringBuilder(Math.max(0, loc.getRegionLength()));
                 if (loc.getDir() == '-') {
-                    retVal = Contig.reverse(retVal);
+                    // The reverse complement of the whole is the reverse complements of the parts in reverse order.
+                    for (int i = regions.size() - 1; i >= 0; i--)
+                        buffer.append(contig.getReverseDna(regions.get(i)));
+                } else {
+                    for (Region region : regions)
+                        buffer.append(contig.getDna(region));
                 }
+                retVal = buffer.toString();
             }
         }
         return retVal;
@@ -748,14 +753,15 @@ public class Genome  {
 
     /**
      * Write the internal GTO to the specified file in JSON format.  This is useful
-     * if the GTO has been updated.
+     * if the GTO has been updated.  If the file name ends in ".gz", the output will be
+     * compressed.
      *
      * @param outFile	output file
      *
      * @throws IOException
      */
     public void save(File outFile) throws IOException {
-        try (PrintWriter gtoStream = new PrintWriter(outFile)) {
+        try (PrintWriter gtoStream = CompressionUtils.openWriter(outFile)) {
             saveToStream(gtoStream);
         }
     }
@@ -936,6 +942,16 @@ public class Genome  {
         return home;
     }
 
+    /**
+     * Pack the DNA of all the contigs in this genome to save memory.
+     *
+     * @param offHeap	TRUE to store the packed DNA outside the heap
+     */
+    public void packContigs(boolean offHeap) {
+        for (Contig contig : this.contigs.values())
+            contig.pack(offHeap);
+    }
+
     /**
      * @return TRUE if contig DNA is present, else FALSE
      */
@@ -943,7 +959,7 @@ public class Genome  {
         boolean retVal = true;
         for (Contig contig : this.contigs.values()) {
             // If this is a nonempty contig but it has no DNA, then DNA is not present.
-            if (contig.length() > 0 && contig.getSequence().length() == 0)
+            if (contig.length() > 0 && contig.getSequenceLength() == 0)
                 retVal = false;
         }
         return retVal;
@@ -1100,13 +1116,8 @@ public class Genome  {
      */
     public void savePegs(File fastaFile) throws IOException {
         try (FastaOutputStream outStream = new FastaOutputStream(fastaFile)) {
-            Sequence pegSeq = new Sequence();
-            for (Feature peg : this.getPegs()) {
-                pegSeq.setLabel(peg.getId());
-                pegSeq.setComment(peg.getFunction());
-                pegSeq.setSequence(peg.getProteinTranslation());
-                outStream.write(pegSeq);
-            }
+            outStream.writeParallel(this.getPegs(),
+                    x -> new Sequence(x.getId(), x.getFunction(), x.getProteinTranslation()));
         }
     }
 
@@ -1120,15 +1131,12 @@ public class Genome  {
      */
     public void saveFeatures(File fastaFile, String type) throws IOException {
         try (FastaOutputStream outStream = new FastaOutputStream(fastaFile)) {
-            Sequence fidSeq = new Sequence();
+            List<Feature> fids = new ArrayList<>(this.features.size());
             for (Feature fid : this.getFeatures()) {
-                if (fid.getType().contentEquals(type)) {
-                    fidSeq.setLabel(fid.getId());
-                    fidSeq.setComment(fid.getFunction());
-                    fidSeq.setSequence(this.getDna(fid.getLocation()));
-                    outStream.write(fidSeq);
-                }
+                if (fid.getType().contentEquals(type))
+                    fids.add(fid);
             }
+            outStream.writeParallel(fids, x -> new Sequence(x.getId(), x.getFunction(), this.getDna(x.getLocation())));
         }
     }
 
@@ -1141,13 +1149,8 @@ public class Genome  {
      */
     public void saveFeatures(File fastaFile) throws IOException {
         try (FastaOutputStream outStream = new FastaOutputStream(fastaFile)) {
-            Sequence fidSeq = new Sequence();
-            for (Feature fid : this.getFeatures()) {
-                fidSeq.setLabel(fid.getId());
-                fidSeq.setComment(fid.getFunction());
-                fidSeq.setSequence(this.getDna(fid.getLocation()));
-                outStream.write(fidSeq);
-            }
+            List<Feature> fids = new ArrayList<>(this.getFeatures());
+            outStream.writeParallel(fids, x -> new Sequence(x.getId(), x.getFunction(), this.getDna(x.getLocation())));
         }
     }
 
@@ -196,7 +196,7 @@ public class GenomeDirectory implements Iterable<Genome> {
      *
      * @param genomeId	ID of the target genome
      */
-    private File getGenomeFile(String genomeId) {
+    public File getGenomeFile(String genomeId) {
         return new File(dirName, genomeId + ".gto");
     }
 
@@ -0,0 +1,166 @@
+/**
+ *
+ */
+package org.theseed.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This class contains static methods for opening files that may be compressed.  On input, a
+ * compressed file is detected by its magic bytes rather than its name, and is decompressed on
+ * a separate thread (see ThreadedInputStream).  On output, a file whose name ends in ".gz" is
+ * compressed in parallel blocks (see ParallelGzipOutputStream).  Other files are read and
+ * written normally.
+ *
+ * Only GZIP is supported by the JDK.  Zstandard input is recognized so that we can fail with a
+ * useful message instead of parsing binary garbage.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class CompressionUtils {
+
+    /** GZIP magic bytes */
+    private static final int GZIP_MAGIC_0 = 0x1F;
+    private static final int GZIP_MAGIC_1 = 0x8B;
+    /** Zstandard magic bytes */
+    private static final int[] ZSTD_MAGIC = new int[] { 0x28, 0xB5, 0x2F, 0xFD };
+    /** filename suffix indicating compressed output */
+    public static final String GZIP_SUFFIX = ".gz";
+    /** buffer size for file streams */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Open a file for input, decompressing it if necessary.
+     *
+     * @param inFile	file to open
+     *
+     * @return an input stream for the uncompressed file content
+     *
+     * @throws IOException
+     */
+    public static InputStream openInput(File inFile) throws IOException {
+        InputStream fileStream = new FileInputStream(inFile);
+        InputStream retVal;
+        try {
+            retVal = wrapInput(fileStream);
+        } catch (IOException e) {
+            fileStream.close();
+            throw e;
+        }
+        return retVal;
+    }
+
+    /**
+     * Wrap an input stream so that it is decompressed if necessary.  The incoming stream is
+     * owned by the returned stream and will be closed with it.
+     *
+     * @param inStream	input stream to examine
+     *
+     * @return an input stream for the uncompressed content
+     *
+     * @throws IOException
+     */
+    public static InputStream wrapInput(InputStream inStream) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(inStream, BUFFER_SIZE);
+        int[] magic = peek(buffered, ZSTD_MAGIC.length);
+        InputStream retVal;
+        if (magic[0] == GZIP_MAGIC_0 && magic[1] == GZIP_MAGIC_1)
+            retVal = new ThreadedInputStream(new GZIPInputStream(buffered, BUFFER_SIZE));
+        else if (matches(magic, ZSTD_MAGIC))
+            throw new IOException("Zstandard-compressed input is not supported.");
+        else
+            retVal = buffered;
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the specified file is compressed
+     *
+     * @param inFile	file to examine
+     *
+     * @throws IOException
+     */
+    public static boolean isCompressed(File inFile) throws IOException {
+        try (BufferedInputStream inStream = new BufferedInputStream(new FileInputStream(inFile), ZSTD_MAGIC.length)) {
+            int[] magic = peek(inStream, ZSTD_MAGIC.length);
+            return (magic[0] == GZIP_MAGIC_0 && magic[1] == GZIP_MAGIC_1) || matches(magic, ZSTD_MAGIC);
+        }
+    }
+
+    /**
+     * Open a file for output.  If the file name ends in ".gz", the output will be compressed.
+     *
+     * @param outFile	file to open
+     *
+     * @return an output stream for writing to the file
+     *
+     * @throws FileNotFoundException
+     */
+    public static OutputStream openOutput(File outFile) throws FileNotFoundException {
+        OutputStream fileStream = new FileOutputStream(outFile);
+        OutputStream retVal;
+        if (outFile.getName().endsWith(GZIP_SUFFIX))
+            retVal = new ParallelGzipOutputStream(fileStream);
+        else
+            retVal = new BufferedOutputStream(fileStream, BUFFER_SIZE);
+        return retVal;
+    }
+
+    /**
+     * Open a file for text output.  If the file name ends in ".gz", the output will be compressed.
+     *
+     * @param outFile	file to open
+     *
+     * @return a print writer for writing to the file
+     *
+     * @throws FileNotFoundException
+     */
+    public static PrintWriter openWriter(File outFile) throws FileNotFoundException {
+        return new PrintWriter(new OutputStreamWriter(openOutput(outFile)));
+    }
+
+    /**
+     * Read the first few bytes of a stream without consuming them.
+     *
+     * @param inStream	buffered input stream to examine
+     * @param len		number of bytes to peek at
+     *
+     * @return an array of the bytes found, with -1 in positions past end-of-file
+     *
+     * @throws IOException
+     */
+    private static int[] peek(BufferedInputStream inStream, int len) throws IOException {
+        int[] retVal = new int[len];
+        inStream.mark(len);
+        for (int i = 0; i < len; i++)
+            retVal[i] = inStream.read();
+        inStream.reset();
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the bytes read match the specified magic number
+     *
+     * @param bytes		bytes read from the stream
+     * @param magic		magic number to check
+     */
+    private static boolean matches(int[] bytes, int[] magic) {
+        boolean retVal = (bytes.length >= magic.length);
+        for (int i = 0; retVal && i < magic.length; i++)
+            retVal = (bytes[i] == magic[i]);
+        return retVal;
+    }
+
+}
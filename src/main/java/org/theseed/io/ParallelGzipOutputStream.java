@@ -0,0 +1,197 @@
+/**
+ *
+ */
+package org.theseed.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This is an output stream that produces GZIP-compressed output using multiple threads.  The
+ * output is accumulated in fixed-size blocks, and each block is compressed as a separate GZIP
+ * member on the common fork-join pool.  The compressed blocks are written to the underlying
+ * stream in order.  A concatenation of GZIP members is itself a valid GZIP file, so the result
+ * can be read by any GZIP decompressor, including the one in the JDK.
+ *
+ * The number of blocks in flight is limited to twice the pool parallelism, so memory use is
+ * bounded no matter how much data is written.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    // FIELDS
+    /** underlying output stream */
+    private final OutputStream target;
+    /** current uncompressed block */
+    private byte[] block;
+    /** number of bytes used in the current block */
+    private int used;
+    /** queue of compressed blocks waiting to be written, in order */
+    private final Deque<CompletableFuture<byte[]>> pending;
+    /** maximum number of blocks in flight */
+    private final int maxPending;
+    /** TRUE if at least one block has been submitted */
+    private boolean started;
+    /** TRUE if this stream is closed */
+    private boolean closed;
+
+    /** default block size */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    /**
+     * Create a parallel GZIP output stream with the default block size.
+     *
+     * @param target	underlying output stream to receive the compressed data
+     */
+    public ParallelGzipOutputStream(OutputStream target) {
+        this(target, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a parallel GZIP output stream with a specified block size.
+     *
+     * @param target	underlying output stream to receive the compressed data
+     * @param blockSize	number of uncompressed bytes per GZIP member
+     */
+    public ParallelGzipOutputStream(OutputStream target, int blockSize) {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("Block size must be positive.");
+        this.target = target;
+        this.block = new byte[blockSize];
+        this.used = 0;
+        this.pending = new ArrayDeque<>();
+        this.maxPending = ForkJoinPool.getCommonPoolParallelism() * 2;
+        this.started = false;
+        this.closed = false;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.checkOpen();
+        if (this.used >= this.block.length)
+            this.submitBlock();
+        this.block[this.used] = (byte) b;
+        this.used++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.checkOpen();
+        while (len > 0) {
+            if (this.used >= this.block.length)
+                this.submitBlock();
+            int n = Math.min(len, this.block.length - this.used);
+            System.arraycopy(b, off, this.block, this.used, n);
+            this.used += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Queue the current block for compression and start a new one.  If too many blocks are
+     * in flight, the oldest ones are written first.
+     *
+     * @throws IOException
+     */
+    private void submitBlock() throws IOException {
+        final byte[] data = this.block;
+        final int len = this.used;
+        this.pending.addLast(CompletableFuture.supplyAsync(() -> compress(data, len), ForkJoinPool.commonPool()));
+        this.started = true;
+        this.block = new byte[data.length];
+        this.used = 0;
+        while (this.pending.size() > this.maxPending)
+            this.writeNext();
+    }
+
+    /**
+     * Write the oldest compressed block to the underlying stream.
+     *
+     * @throws IOException
+     */
+    private void writeNext() throws IOException {
+        CompletableFuture<byte[]> next = this.pending.removeFirst();
+        try {
+            this.target.write(next.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing output.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException)
+                throw ((UncheckedIOException) cause).getCause();
+            throw new IOException("Error compressing output.", cause);
+        }
+    }
+
+    /**
+     * @return a byte array containing a single GZIP member for the specified data
+     *
+     * @param data	array containing the data to compress
+     * @param len	number of bytes to compress
+     */
+    private static byte[] compress(byte[] data, int len) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(len / 3 + 64);
+        try (GZIPOutputStream zipper = new GZIPOutputStream(buffer)) {
+            zipper.write(data, 0, len);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Insure this stream is still open.
+     *
+     * @throws IOException
+     */
+    private void checkOpen() throws IOException {
+        if (this.closed)
+            throw new IOException("Attempt to write to a closed stream.");
+    }
+
+    /**
+     * Write all the data so far.  This forces out a partial block, which costs some compression
+     * efficiency, so it should not be done often.
+     */
+    @Override
+    public void flush() throws IOException {
+        this.checkOpen();
+        if (this.used > 0)
+            this.submitBlock();
+        while (! this.pending.isEmpty())
+            this.writeNext();
+        this.target.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (! this.closed) {
+            try {
+                // An empty file still needs one member to be valid GZIP.
+                if (this.used > 0 || ! this.started)
+                    this.submitBlock();
+                while (! this.pending.isEmpty())
+                    this.writeNext();
+                this.target.flush();
+            } finally {
+                this.closed = true;
+                this.block = null;
+                this.pending.clear();
+                this.target.close();
+            }
+        }
+    }
+
+}
@@ -4,7 +4,6 @@
 package org.theseed.io;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,6 +29,8 @@ import org.slf4j.LoggerFactory;
  * indicates the last column and a negative number indicates a column that many positions before the end.
  * An invalid column index or name will cause an ArrayIndexOutOfBoundsException.
  *
+ * Input files that are compressed are decompressed automatically.
+ *
  * @author Bruce Parrello
  *
  */
@@ -256,7 +257,7 @@ public class TabbedLineReader implements AutoCloseable, Iterable<TabbedLineReade
      */
     private void openFile(File inFile, char delimiter) throws IOException {
         this.delim = delimiter;
-        this.stream = new FileInputStream(inFile);
+        this.stream = CompressionUtils.openInput(inFile);
         this.reader = new LineReader(this.stream);
     }
 
@@ -0,0 +1,203 @@
+/**
+ *
+ */
+package org.theseed.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This is an input stream that reads ahead from an underlying stream on a separate thread.  The
+ * background thread fills a ring buffer and the client drains it.  The primary use is to move
+ * decompression off the client thread:  while the client is parsing one block of text, the
+ * background thread is inflating the next.
+ *
+ * The underlying stream is owned by this object, and it is closed by the background thread when
+ * it finishes.  An error on the background thread is reported to the client on its next read.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ThreadedInputStream extends InputStream {
+
+    // FIELDS
+    /** underlying input stream */
+    private final InputStream source;
+    /** ring buffer of bytes read ahead */
+    private final byte[] ring;
+    /** position of the next byte to return to the client */
+    private int head;
+    /** number of bytes available in the ring buffer */
+    private int count;
+    /** TRUE if the underlying stream is exhausted */
+    private boolean eof;
+    /** TRUE if the client has closed this stream */
+    private boolean closed;
+    /** error encountered by the background thread, or NULL if none */
+    private IOException error;
+    /** background thread filling the ring buffer */
+    private final Thread pump;
+
+    /** default ring buffer size */
+    public static final int DEFAULT_RING_SIZE = 1 << 20;
+
+    /**
+     * Create a threaded input stream with the default ring buffer size.
+     *
+     * @param source	underlying input stream to read ahead
+     */
+    public ThreadedInputStream(InputStream source) {
+        this(source, DEFAULT_RING_SIZE);
+    }
+
+    /**
+     * Create a threaded input stream with a specified ring buffer size.
+     *
+     * @param source	underlying input stream to read ahead
+     * @param ringSize	size of the ring buffer, in bytes
+     */
+    public ThreadedInputStream(InputStream source, int ringSize) {
+        if (ringSize <= 0)
+            throw new IllegalArgumentException("Ring buffer size must be positive.");
+        this.source = source;
+        this.ring = new byte[ringSize];
+        this.head = 0;
+        this.count = 0;
+        this.eof = false;
+        this.closed = false;
+        this.error = null;
+        this.pump = new Thread(this::fill, "ThreadedInputStream");
+        this.pump.setDaemon(true);
+        this.pump.start();
+    }
+
+    /**
+     * Fill the ring buffer from the underlying stream.  This is the body of the background thread.
+     * Note that the region being filled is never visible to the client until the count is updated,
+     * so the actual read can be done outside the lock.
+     */
+    private void fill() {
+        try {
+            boolean done = false;
+            while (! done) {
+                int tail;
+                int len;
+                synchronized (this) {
+                    while (this.count == this.ring.length && ! this.closed)
+                        this.wait();
+                    if (this.closed)
+                        done = true;
+                    tail = (this.head + this.count) % this.ring.length;
+                    len = Math.min(this.ring.length - this.count, this.ring.length - tail);
+                }
+                if (! done) {
+                    int n = this.source.read(this.ring, tail, len);
+                    synchronized (this) {
+                        if (n < 0) {
+                            this.eof = true;
+                            done = true;
+                        } else
+                            this.count += n;
+                        this.notifyAll();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                this.error = e;
+                this.notifyAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                this.source.close();
+            } catch (IOException e) {
+                // We are already finished, so a close error is not interesting.
+            }
+            synchronized (this) {
+                this.eof = true;
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait for data to become available.
+     *
+     * @return TRUE if there is data to read, FALSE at end-of-stream
+     *
+     * @throws IOException
+     */
+    private boolean waitForData() throws IOException {
+        try {
+            while (this.count == 0 && ! this.eof && this.error == null)
+                this.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for input.", e);
+        }
+        if (this.count == 0 && this.error != null)
+            throw this.error;
+        return (this.count > 0);
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        int retVal = -1;
+        if (this.closed)
+            throw new IOException("Attempt to read from a closed stream.");
+        if (this.waitForData()) {
+            retVal = this.ring[this.head] & 0xFF;
+            this.consume(1);
+        }
+        return retVal;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        int retVal;
+        if (this.closed)
+            throw new IOException("Attempt to read from a closed stream.");
+        if (len == 0)
+            retVal = 0;
+        else if (! this.waitForData())
+            retVal = -1;
+        else {
+            retVal = Math.min(len, Math.min(this.count, this.ring.length - this.head));
+            System.arraycopy(this.ring, this.head, b, off, retVal);
+            this.consume(retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * Denote that bytes have been taken from the ring buffer.
+     *
+     * @param n		number of bytes taken
+     */
+    private void consume(int n) {
+        this.head = (this.head + n) % this.ring.length;
+        this.count -= n;
+        this.notifyAll();
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        return this.count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            this.closed = true;
+            this.notifyAll();
+        }
+        try {
+            this.pump.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
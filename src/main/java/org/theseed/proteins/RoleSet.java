@@ -14,7 +14,6 @@ import java.util.Set;
 import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
-import org.theseed.genome.Feature;
 import org.theseed.subsystems.StrictRole;
 import org.theseed.subsystems.StrictRoleMap;
 
@@ -91,13 +90,10 @@ public class RoleSet implements Iterable<String>, Comparable<RoleSet> {
      * @return the role set representing this function
      */
     public static RoleSet create(String function, StrictRoleMap roleMap) {
-        String[] roleDescs = Feature.rolesOfFunction(function);
-        List<String> buffer = new ArrayList<String>(roleDescs.length);
-        for (String roleDesc : roleDescs) {
-            StrictRole found = roleMap.getByName(roleDesc);
-            if (found != null)
-                buffer.add(found.getId());
-        }
+        List<StrictRole> roles = roleMap.cachedRoles(function);
+        List<String> buffer = new ArrayList<String>(roles.size());
+        for (StrictRole found : roles)
+            buffer.add(found.getId());
         // As a minor memory optimization, we return a constant if there are no known roles.
         RoleSet retVal = (buffer.isEmpty() ? NO_ROLES : new RoleSet(buffer));
         return retVal;
@@ -53,12 +53,10 @@ public class ClassifierXMatrixReporter extends Dl4jDirXMatrixReporter {
     }
 
     @Override
-    public void processRow(String id, double[] feats, String value) {
+    protected void checkValue(String value) {
         // If this value is not an example of the negative label, save it in the label set.
         if (! value.contentEquals(this.negLabel))
             this.labels.add(value);
-        // Write the output row.
-        this.writeRow(id, feats, value);
     }
 
     @Override
@@ -33,12 +33,6 @@ public class CsvXMatrixReporter extends XMatrixReporter {
         this.openOutFile();
     }
 
-    @Override
-    public void processRow(String id, double[] feats, String value) {
-        // Write out the row using our delimiter.
-        this.writeRow(id, feats, value);
-    }
-
     @Override
     public void finish() throws IOException {
     }
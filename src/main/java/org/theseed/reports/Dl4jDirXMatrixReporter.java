@@ -68,11 +68,6 @@ public abstract class Dl4jDirXMatrixReporter extends XMatrixReporter {
      */
     protected abstract void initializeDirectory(String idCol, List<String> featCols, String outCol) throws IOException;
 
-    @Override
-    public void processRow(String id, double[] feats, String value) {
-        this.writeRow(id, feats, value);
-    }
-
     /**
      * Finish writing the report.
      *
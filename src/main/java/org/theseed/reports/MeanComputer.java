@@ -3,13 +3,9 @@
  */
 package org.theseed.reports;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * This is the base class for computing the mean of a list of observations.  Each subclass supports a different algorithm for
@@ -43,6 +39,30 @@ public abstract class MeanComputer {
         public abstract MeanComputer create();
     }
 
+    /**
+     * Compute an error-corrected mean for a segment of an array of good numbers.  The segment is used as a
+     * work area, so the order of the numbers in it may be changed.
+     *
+     * @param nums			array of input numbers
+     * @param offset		index of the first number in the segment
+     * @param length		number of numbers in the segment
+     *
+     * @return the bias-corrected mean, or 0 if the segment is empty
+     */
+    public abstract double goodMean(double[] nums, int offset, int length);
+
+    /**
+     * Compute an error-corrected mean for an array of good numbers.  The order of the numbers in the array
+     * may be changed.
+     *
+     * @param nums			array of input numbers
+     *
+     * @return the bias-corrected mean
+     */
+    public double goodMean(double[] nums) {
+        return this.goodMean(nums, 0, nums.length);
+    }
+
     /**
      * Compute an error-corrected mean for a set of numbers.
      *
@@ -51,7 +71,15 @@ public abstract class MeanComputer {
      *
      * @return the bias-corrected mean
      */
-    public abstract double goodMean(List<Double> nums, BitSet goodLevels);
+    public double goodMean(List<Double> nums, BitSet goodLevels) {
+        double[] good = new double[nums.size()];
+        int n = 0;
+        for (int i = 0; i < good.length; i++) {
+            if (goodLevels == null || goodLevels.get(i))
+                good[n++] = nums.get(i);
+        }
+        return this.goodMean(good, 0, n);
+    }
 
     /**
      * Compute an error-corrected mean for a set of good numbers.
@@ -72,12 +100,77 @@ public abstract class MeanComputer {
      */
     public static List<Double> getGood(List<Double> nums, BitSet goodLevels) {
         List<Double> retVal = nums;
-        if (goodLevels != null)
-            retVal = IntStream.range(0, nums.size()).filter(i -> goodLevels.get(i))
-                    .mapToObj(i -> nums.get(i)).collect(Collectors.toList());
+        if (goodLevels != null) {
+            retVal = new ArrayList<>(goodLevels.cardinality());
+            for (int i = goodLevels.nextSetBit(0); i >= 0 && i < nums.size(); i = goodLevels.nextSetBit(i + 1))
+                retVal.add(nums.get(i));
+        }
         return retVal;
     }
 
+    /**
+     * Find the value that would be at a specified position in a segment of an array if the segment were sorted.
+     * On exit, the value is at that position, all the values before it in the segment are less than or equal to
+     * it, and all the values after it are greater than or equal to it.  Values are ordered as by Double#compare.
+     *
+     * This is a quickselect with a three-way partition, so it takes linear time on average, even when there are
+     * many duplicate values.
+     *
+     * @param nums		array containing the segment
+     * @param lo		index of the first value in the segment
+     * @param hi		index of the last value in the segment
+     * @param k			position of the desired value (must be in the segment)
+     *
+     * @return the value at position K
+     */
+    protected static double select(double[] nums, int lo, int hi, int k) {
+        while (hi > lo) {
+            // Use the median of the first, middle, and last values as the pivot.
+            final double a = nums[lo];
+            final double b = nums[(lo + hi) >>> 1];
+            final double c = nums[hi];
+            final double pivot;
+            if (Double.compare(a, b) < 0)
+                pivot = (Double.compare(b, c) < 0 ? b : (Double.compare(a, c) < 0 ? c : a));
+            else
+                pivot = (Double.compare(a, c) < 0 ? a : (Double.compare(b, c) < 0 ? c : b));
+            // Partition the segment into values less than, equal to, and greater than the pivot.
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i <= gt) {
+                final int comp = Double.compare(nums[i], pivot);
+                if (comp < 0)
+                    swap(nums, lt++, i++);
+                else if (comp > 0)
+                    swap(nums, i, gt--);
+                else
+                    i++;
+            }
+            // Narrow the search to the partition containing K.
+            if (k < lt)
+                hi = lt - 1;
+            else if (k > gt)
+                lo = gt + 1;
+            else
+                lo = hi;
+        }
+        return nums[k];
+    }
+
+    /**
+     * Swap two values in an array.
+     *
+     * @param nums	array of values
+     * @param i		index of the first value
+     * @param j		index of the second value
+     */
+    private static void swap(double[] nums, int i, int j) {
+        final double temp = nums[i];
+        nums[i] = nums[j];
+        nums[j] = temp;
+    }
+
     /**
      * This class computes the trimean, that is, the weighted average of the median and the upper
      * and lower quartiles.
@@ -85,36 +178,38 @@ public abstract class MeanComputer {
     public static class Trimean extends MeanComputer {
 
         @Override
-        public double goodMean(List<Double> nums, BitSet goodLevels) {
+        public double goodMean(double[] nums, int offset, int length) {
             double retVal = 0.0;
-            nums = getGood(nums, goodLevels);
-            if (nums.size() == 1)
-                retVal = nums.get(0);
-            else if (nums.size() == 2)
-                retVal = (nums.get(0) + nums.get(1)) / 2.0;
-            else if (nums.size() > 2) {
-                double[] sorted = nums.stream().mapToDouble(x -> x).sorted().toArray();
-                // Sort the array.  The most extreme negative error will be first and the most extreme positive
-                // error will be last.
-                Arrays.sort(sorted, 0, sorted.length);
-                // Get the midpoint index rounded up and rounded down.
-                int floor = (sorted.length - 1) >> 1;
-                int ceil = sorted.length >> 1;
-                if (floor < 0 || ceil < 0)
-                    System.err.println("Error case.");
-                // Average the values to get the median.
-                double q2 = (sorted[floor] + sorted[ceil]) / 2.0;
-                // Get the quartile index rounded up and rounded down.
-                floor = (sorted.length - 2) >> 2;
-                ceil = sorted.length >> 2;
-                // Average the values to get the first quartile.
-                double q1 = (sorted[floor] + sorted[ceil]) / 2.0;
-                // Get the third quartile index rounded up and rounded down.
-                int length3 = sorted.length * 3;
-                floor = (length3 - 1) >> 2;
-                ceil = (length3 + 1) >> 2;
-                // Average the values to get the third quartile.
-                double q3 = (sorted[floor] + sorted[ceil]) / 2.0;
+            if (length == 1)
+                retVal = nums[offset];
+            else if (length == 2)
+                retVal = (nums[offset] + nums[offset + 1]) / 2.0;
+            else if (length > 2) {
+                // Each quartile is the average of the values at two positions in sorted order (which may be the
+                // same).  Rather than sorting, we select the positions in ascending order.  After each selection,
+                // the values to the right of the selected position are all greater than or equal to it, so the
+                // next selection only needs to search from there.
+                final int end = offset + length - 1;
+                // Get the first quartile index rounded down and rounded up.
+                int lo = offset + ((length - 2) >> 2);
+                double q1 = select(nums, offset, end, lo);
+                int k = offset + (length >> 2);
+                q1 = (q1 + select(nums, lo, end, k)) / 2.0;
+                lo = k;
+                // Get the midpoint index rounded down and rounded up.
+                k = offset + ((length - 1) >> 1);
+                double q2 = select(nums, lo, end, k);
+                lo = k;
+                k = offset + (length >> 1);
+                q2 = (q2 + select(nums, lo, end, k)) / 2.0;
+                lo = k;
+                // Get the third quartile index rounded down and rounded up.
+                int length3 = length * 3;
+                k = offset + ((length3 - 1) >> 2);
+                double q3 = select(nums, lo, end, k);
+                lo = k;
+                k = offset + ((length3 + 1) >> 2);
+                q3 = (q3 + select(nums, lo, end, k)) / 2.0;
                 // Compute the trimean.
                 retVal = q2 / 2.0 + (q1 + q3) / 4.0;
             }
@@ -131,26 +226,29 @@ public abstract class MeanComputer {
     public static class Middle extends MeanComputer {
 
         @Override
-        public double goodMean(List<Double> nums, BitSet goodLevels) {
+        public double goodMean(double[] nums, int offset, int length) {
             double retVal = 0.0;
-            nums = getGood(nums, goodLevels);
-            if (nums.size() == 1)
-                retVal = nums.get(0);
-            else if (nums.size() == 2)
-                retVal = (nums.get(0) + nums.get(1)) / 2.0;
-            else {
-                double min = nums.get(0);
-                double max = nums.get(0);
-                retVal = nums.get(0);
-                for (int i = 1; i < nums.size(); i++) {
-                    double num = nums.get(i);
+            if (length == 1)
+                retVal = nums[offset];
+            else if (length == 2)
+                retVal = (nums[offset] + nums[offset + 1]) / 2.0;
+            else if (length > 2) {
+                final int end = offset + length;
+                double min = nums[offset];
+                double max = nums[offset];
+                retVal = nums[offset];
+                for (int i = offset + 1; i < end; i++) {
+                    double num = nums[i];
                     retVal += num;
                     if (num > max) max = num;
                     if (num < min) min = num;
                 }
                 if (max != min) {
                     retVal -= (max + min);
-                    retVal /= (nums.size() - 2);
+                    retVal /= (length - 2);
+                } else {
+                    // All the values are the same.
+                    retVal = min;
                 }
             }
             return retVal;
@@ -182,30 +280,34 @@ public abstract class MeanComputer {
          * Values outside the N-sigma range are thrown out, and the error-corrected mean is computed from the
          * result.
          *
-         * @param nums		list of input numbers
+         * @param nums		array of input numbers
+         * @param offset	index of the first number to use
+         * @param length	number of numbers to use
          *
          * @return the bias-corrected mean
          */
         @Override
-        public double goodMean(List<Double> nums, BitSet goodLevels) {
+        public double goodMean(double[] nums, int offset, int length) {
             double retVal = 0.0;
-            nums = getGood(nums, goodLevels);
-            if (nums.size() == 1)
-                retVal = nums.get(0);
-            else if (nums.size() > 1) {
+            final int end = offset + length;
+            if (length == 1)
+                retVal = nums[offset];
+            else if (length > 1) {
                 double sum = 0.0;
                 double sqSum = 0.0;
-                for (double val : nums) {
+                for (int i = offset; i < end; i++) {
+                    final double val = nums[i];
                     sum += val;
                     sqSum += val * val;
                 }
-                double mean = sum / nums.size();
-                double stdv = Math.sqrt((sqSum - mean * mean) / nums.size());
+                double mean = sum / length;
+                double stdv = Math.sqrt((sqSum - mean * mean) / length);
                 double min = mean - this.nSigma * stdv;
                 double max = mean + this.nSigma * stdv;
                 // Now compute the mean for the values inside the 6-sigma range.
                 int count = 0;
-                for (double val : nums) {
+                for (int i = offset; i < end; i++) {
+                    final double val = nums[i];
                     if (val >= min && val <= max) {
                         retVal += val;
                         count++;
@@ -224,11 +326,16 @@ public abstract class MeanComputer {
     public static class Max extends MeanComputer {
 
         @Override
-        public double goodMean(List<Double> nums, BitSet goodLevels) {
+        public double goodMean(double[] nums, int offset, int length) {
             double retVal = 0.0;
-            Optional<Double> result = getGood(nums, goodLevels).stream().max(Comparator.naturalOrder());
-            if (result.isPresent())
-                retVal = result.get();
+            final int end = offset + length;
+            if (length > 0) {
+                retVal = nums[offset];
+                for (int i = offset + 1; i < end; i++) {
+                    if (Double.compare(nums[i], retVal) > 0)
+                        retVal = nums[i];
+                }
+            }
             return retVal;
         }
     }
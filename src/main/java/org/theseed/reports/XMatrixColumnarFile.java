@@ -0,0 +1,240 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This object writes XMatrix data in a binary columnar format.  The rows are written in blocks, and within each
+ * block the values are stored one feature column at a time, so a client can load whole columns without parsing
+ * text.  Because the blocks are independent, the file can be written as the rows are produced.
+ *
+ * The file layout is as follows.  All numbers are big-endian and all strings are modified UTF-8.
+ *
+ *  prefix			magic number (int), format version (int), number of feature columns (int)
+ *  headers			ID column name, feature column names, output column name
+ *  blocks			for each block, the number of rows (int), the row IDs, the values for each feature column
+ *  				(doubles), and the output values
+ *  trailer			a zero row count (int), followed by the total number of rows (long)
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class XMatrixColumnarFile implements AutoCloseable {
+
+    // FIELDS
+    /** output stream */
+    private DataOutputStream outStream;
+    /** number of feature columns */
+    private final int width;
+    /** total number of rows written */
+    private long rowCount;
+    /** magic number identifying the file format ("XMTX") */
+    public static final int MAGIC = 0x584D5458;
+    /** current format version */
+    public static final int VERSION = 1;
+    /** buffer size for stream I/O */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * This object contains the data loaded from a columnar file.
+     */
+    public static class Contents {
+
+        /** column headers (ID column, feature columns, output column) */
+        private final String[] headers;
+        /** row IDs */
+        private final List<String> ids;
+        /** feature columns */
+        private final double[][] columns;
+        /** output values */
+        private final List<String> values;
+
+        /**
+         * Construct the file contents.
+         *
+         * @param headers	column headers
+         * @param ids		row IDs
+         * @param columns	feature columns
+         * @param values	output values
+         */
+        private Contents(String[] headers, List<String> ids, double[][] columns, List<String> values) {
+            this.headers = headers;
+            this.ids = ids;
+            this.columns = columns;
+            this.values = values;
+        }
+
+        /**
+         * @return the column headers (ID column, feature columns, output column)
+         */
+        public String[] getHeaders() {
+            return this.headers;
+        }
+
+        /**
+         * @return the row IDs
+         */
+        public List<String> getIds() {
+            return this.ids;
+        }
+
+        /**
+         * @return the values in a feature column
+         *
+         * @param col	index of the feature column
+         */
+        public double[] getColumn(int col) {
+            return this.columns[col];
+        }
+
+        /**
+         * @return the output values
+         */
+        public List<String> getValues() {
+            return this.values;
+        }
+
+        /**
+         * @return the number of rows
+         */
+        public int size() {
+            return this.ids.size();
+        }
+
+    }
+
+    /**
+     * Create a columnar file and write the headers.
+     *
+     * @param outFile	output file
+     * @param headers	column headers (ID column, feature columns, output column)
+     *
+     * @throws IOException
+     */
+    public XMatrixColumnarFile(File outFile, String[] headers) throws IOException {
+        this.width = headers.length - 2;
+        this.rowCount = 0;
+        this.outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFile), BUFFER_SIZE));
+        this.outStream.writeInt(MAGIC);
+        this.outStream.writeInt(VERSION);
+        this.outStream.writeInt(this.width);
+        for (String header : headers)
+            this.outStream.writeUTF(header);
+    }
+
+    /**
+     * Write a block of rows.
+     *
+     * @param ids		array of row IDs
+     * @param feats		array of feature value arrays
+     * @param values	array of output values
+     * @param n			number of rows to write from the arrays
+     *
+     * @throws IOException
+     */
+    public void writeBlock(String[] ids, double[][] feats, String[] values, int n) throws IOException {
+        if (n > 0) {
+            for (int i = 0; i < n; i++) {
+                if (feats[i].length != this.width)
+                    throw new IllegalArgumentException("Row " + ids[i] + " has " + feats[i].length
+                            + " feature values, but " + this.width + " are required.");
+            }
+            this.outStream.writeInt(n);
+            for (int i = 0; i < n; i++)
+                this.outStream.writeUTF(ids[i]);
+            ByteBuffer column = ByteBuffer.allocate(n * Double.BYTES);
+            for (int c = 0; c < this.width; c++) {
+                column.clear();
+                for (int i = 0; i < n; i++)
+                    column.putDouble(feats[i][c]);
+                this.outStream.write(column.array(), 0, column.position());
+            }
+            for (int i = 0; i < n; i++)
+                this.outStream.writeUTF(values[i]);
+            this.rowCount += n;
+        }
+    }
+
+    /**
+     * @return the number of rows written so far
+     */
+    public long getRowCount() {
+        return this.rowCount;
+    }
+
+    /**
+     * Write the trailer and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.outStream != null) {
+            this.outStream.writeInt(0);
+            this.outStream.writeLong(this.rowCount);
+            this.outStream.close();
+            this.outStream = null;
+        }
+    }
+
+    /**
+     * Load the contents of a columnar file.
+     *
+     * @param inFile	file to load
+     *
+     * @return the contents of the file
+     *
+     * @throws IOException
+     */
+    public static Contents load(File inFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile),
+                BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(inFile + " is not an XMatrix columnar file.");
+            int version = in.readInt();
+            if (version < 1 || version > VERSION)
+                throw new IOException("Unsupported XMatrix columnar file version " + version + " in " + inFile + ".");
+            final int width = in.readInt();
+            String[] headers = new String[width + 2];
+            for (int i = 0; i < headers.length; i++)
+                headers[i] = in.readUTF();
+            List<String> ids = new ArrayList<>();
+            List<String> values = new ArrayList<>();
+            double[][] columns = new double[width][1024];
+            int n = in.readInt();
+            while (n > 0) {
+                final int start = ids.size();
+                for (int i = 0; i < n; i++)
+                    ids.add(in.readUTF());
+                byte[] bytes = new byte[n * Double.BYTES];
+                for (int c = 0; c < width; c++) {
+                    if (columns[c].length < start + n)
+                        columns[c] = Arrays.copyOf(columns[c], Math.max(columns[c].length * 2, start + n));
+                    in.readFully(bytes);
+                    ByteBuffer.wrap(bytes).asDoubleBuffer().get(columns[c], start, n);
+                }
+                for (int i = 0; i < n; i++)
+                    values.add(in.readUTF());
+                n = in.readInt();
+            }
+            long total = in.readLong();
+            if (total != ids.size())
+                throw new IOException(inFile + " is corrupt:  expected " + total + " rows but found " + ids.size() + ".");
+            for (int c = 0; c < width; c++)
+                columns[c] = Arrays.copyOf(columns[c], ids.size());
+            return new Contents(headers, ids, columns, values);
+        }
+    }
+
+}
@@ -3,11 +3,15 @@
  */
 package org.theseed.reports;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Arrays;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -20,6 +24,11 @@ import org.theseed.basic.ParseFailureException;
  * forest, DL4J regression, and python CSV.  For the DL4J formats, the output is a directory.  For the
  * other formats, the output is a file.
  *
+ * The data rows are buffered in blocks.  When a block is full, its lines are formatted in parallel and then
+ * written in order through a large output buffer.  Optionally, each block is also written to a binary columnar
+ * file (see XMatrixColumnarFile).  Because of the buffering, the feature values are copied when a row is
+ * processed, and the output files are only complete after the reporter is closed.
+ *
  * @author Bruce Parrello
  *
  */
@@ -35,11 +44,33 @@ public abstract class XMatrixReporter implements AutoCloseable {
     /** full array of header column names */
     private String[] headers;
     /** main data file output writer */
-    private PrintWriter writer;
-    /** data line output buffer */
-    private StringBuffer buffer;
+    private Writer writer;
     /** delimiter to use for output rows in the main file */
     private char delim;
+    /** binary columnar output file (or NULL if none) */
+    private File columnarFile;
+    /** binary columnar output writer (or NULL if none) */
+    private XMatrixColumnarFile columnar;
+    /** IDs of the rows in the current block */
+    private String[] blockIds;
+    /** feature values of the rows in the current block */
+    private double[][] blockFeats;
+    /** output values of the rows in the current block */
+    private String[] blockValues;
+    /** number of rows in the current block */
+    private int blockSize;
+    /** maximum number of rows in a block for the current headers */
+    private int blockLimit;
+    /** maximum number of rows per block */
+    private static final int BLOCK_ROWS = 1024;
+    /** target number of feature values per block */
+    private static final int BLOCK_CELLS = 1 << 21;
+    /** number of rows formatted by each parallel task */
+    private static final int SLICE_ROWS = 64;
+    /** size of the output buffer */
+    private static final int BUFFER_SIZE = 1 << 20;
+    /** line separator */
+    private static final String EOL = System.lineSeparator();
 
     /**
      * This interface defines the parameters a command processor needs to support in order to generate
@@ -118,6 +149,22 @@ public abstract class XMatrixReporter implements AutoCloseable {
         this.outLoc = outDir;
         this.writer = null;
         this.delim = this.getDelim();
+        this.columnarFile = null;
+        this.columnar = null;
+        this.blockIds = new String[BLOCK_ROWS];
+        this.blockFeats = new double[BLOCK_ROWS][];
+        this.blockValues = new String[BLOCK_ROWS];
+        this.blockSize = 0;
+        this.blockLimit = BLOCK_ROWS;
+    }
+
+    /**
+     * Request a binary columnar copy of the data rows.  This must be called before the headers are set.
+     *
+     * @param columnarFile	file to contain the columnar data, or NULL to turn it off
+     */
+    public void setColumnarFile(File columnarFile) {
+        this.columnarFile = columnarFile;
     }
 
     /**
@@ -146,11 +193,12 @@ public abstract class XMatrixReporter implements AutoCloseable {
      * @throws IOException
      */
     protected void openOutFile() throws IOException {
+        File outFile = this.outLoc;
         if (this.outLoc.isDirectory()) {
             // We use "data.tbl" if we output to a directory.
-            this.writer = new PrintWriter(new File(this.outLoc, "data.tbl"));
-        } else
-            this.writer = new PrintWriter(this.outLoc);
+            outFile = new File(this.outLoc, "data.tbl");
+        }
+        this.writer = new BufferedWriter(new FileWriter(outFile), BUFFER_SIZE);
     }
 
     /**
@@ -169,10 +217,15 @@ public abstract class XMatrixReporter implements AutoCloseable {
         for (int i = 0; i < n; i++)
             this.headers[i+1] = featCols.get(i);
         this.headers[n + 1] = outCol;
-        // Allocate an output buffer for this line.
-        this.buffer = new StringBuffer(n * 15 + idCol.length() + outCol.length() + 10);
+        // Limit the block size so that wide rows do not use too much memory.
+        this.blockLimit = Math.max(SLICE_ROWS, Math.min(BLOCK_ROWS, BLOCK_CELLS / (n + 1)));
         // Allow the subclass to process the headers.
         this.initialize(idCol, featCols, outCol);
+        // Set up the columnar output.
+        if (this.columnarFile != null) {
+            log.info("Columnar data will be written to {}.", this.columnarFile);
+            this.columnar = new XMatrixColumnarFile(this.columnarFile, this.headers);
+        }
     }
 
     /**
@@ -198,7 +251,60 @@ public abstract class XMatrixReporter implements AutoCloseable {
      * @param feats		array of feature values
      * @param value		output value, in string form
      */
-    public abstract void processRow(String id, double[] feats, String value);
+    public void processRow(String id, double[] feats, String value) {
+        this.checkValue(value);
+        this.writeRow(id, feats, value);
+    }
+
+    /**
+     * Process a batch of data rows.  The feature arrays are requested in parallel, so the row source must be
+     * thread-safe, and it must return a new array for each row.
+     *
+     * @param ids		list of row IDs
+     * @param feats		function that returns the array of feature values for the row with a given index
+     * @param values	list of output values, in string form
+     */
+    public void processRows(List<String> ids, IntFunction<double[]> feats, List<String> values) {
+        final int n = ids.size();
+        if (values.size() != n)
+            throw new IllegalArgumentException("There are " + n + " row IDs but " + values.size() + " output values.");
+        this.flushBlock();
+        for (int start = 0; start < n; start += this.blockLimit) {
+            final int size = Math.min(this.blockLimit, n - start);
+            final int offset = start;
+            IntStream.range(0, size).parallel().forEach(i -> this.blockFeats[i] = feats.apply(offset + i));
+            for (int i = 0; i < size; i++) {
+                String value = values.get(start + i);
+                this.checkValue(value);
+                this.checkWidth(ids.get(start + i), this.blockFeats[i]);
+                this.blockIds[i] = ids.get(start + i);
+                this.blockValues[i] = value;
+            }
+            this.blockSize = size;
+            this.flushBlock();
+        }
+    }
+
+    /**
+     * Examine the output value of a data row before it is written.  The default is to do nothing.
+     *
+     * @param value		output value, in string form
+     */
+    protected void checkValue(String value) { }
+
+    /**
+     * Insure a data row has the correct number of feature values.  This is checked when the row is added,
+     * so that a bad row never leaves the output files out of step with each other.
+     *
+     * @param id		ID for the data row
+     * @param feats		array of feature values
+     */
+    private void checkWidth(String id, double[] feats) {
+        final int width = this.headers.length - 2;
+        if (feats.length != width)
+            throw new IllegalArgumentException("Row " + id + " has " + feats.length + " feature values, but "
+                    + width + " are required.");
+    }
 
     /**
      * Finish writing the report.
@@ -215,23 +321,71 @@ public abstract class XMatrixReporter implements AutoCloseable {
     }
 
     /**
-     * Write a row of data to the main output file.
+     * Write a row of data to the main output file.  The row is added to the current block, and the block
+     * is written when it is full.
      *
      * @param id		ID for this data row
      * @param feats		array of feature values
      * @param value		output value, in string form
      */
     protected void writeRow(String id, double[] feats, String value) {
-        // Empty the output buffer.
-        this.buffer.setLength(0);
-        // Add the ID column.
-        this.buffer.append(id);
-        // Add the feature values.
-        Arrays.stream(feats).forEach(x -> this.buffer.append(this.delim).append(x));
-        // Add the output value.
-        this.buffer.append(this.delim).append(value);
-        // Write the buffer.
-        this.writeLine(this.buffer.toString());
+        this.checkWidth(id, feats);
+        // The client may reuse the feature array, so we save a copy.
+        this.blockIds[this.blockSize] = id;
+        this.blockFeats[this.blockSize] = feats.clone();
+        this.blockValues[this.blockSize] = value;
+        this.blockSize++;
+        if (this.blockSize >= this.blockLimit)
+            this.flushBlock();
+    }
+
+    /**
+     * Write the current block of data rows.  The rows are formatted in parallel slices, and the slices are
+     * written in order.
+     */
+    private void flushBlock() {
+        final int n = this.blockSize;
+        if (n > 0) {
+            final int slices = (n + SLICE_ROWS - 1) / SLICE_ROWS;
+            String[] text = IntStream.range(0, slices).parallel()
+                    .mapToObj(k -> this.formatRows(k * SLICE_ROWS, Math.min(n, (k + 1) * SLICE_ROWS)))
+                    .toArray(String[]::new);
+            try {
+                for (String slice : text)
+                    this.writer.write(slice);
+                if (this.columnar != null)
+                    this.columnar.writeBlock(this.blockIds, this.blockFeats, this.blockValues, n);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            // Release the rows.
+            for (int i = 0; i < n; i++) {
+                this.blockIds[i] = null;
+                this.blockFeats[i] = null;
+                this.blockValues[i] = null;
+            }
+            this.blockSize = 0;
+        }
+    }
+
+    /**
+     * @return the text of a range of data lines in the current block
+     *
+     * @param start		index of the first row to format
+     * @param end		index past the last row to format
+     */
+    private String formatRows(int start, int end) {
+        StringBuilder retVal = new StringBuilder((end - start) * (this.headers.length * 12 + 20));
+        for (int i = start; i < end; i++) {
+            // Add the ID column.
+            retVal.append(this.blockIds[i]);
+            // Add the feature values.
+            for (double x : this.blockFeats[i])
+                retVal.append(this.delim).append(x);
+            // Add the output value.
+            retVal.append(this.delim).append(this.blockValues[i]).append(EOL);
+        }
+        return retVal.toString();
     }
 
     /**
@@ -251,17 +405,51 @@ public abstract class XMatrixReporter implements AutoCloseable {
      * @param line		line to write
      */
     protected void writeLine(String line) {
-        this.writer.println(line);
+        // Insure the line comes after the data rows already processed.
+        this.flushBlock();
+        try {
+            this.writer.write(line);
+            this.writer.write(EOL);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
-     * Insure the main output file is closed.
+     * Write any buffered data rows and insure the output files are closed.
      */
     @Override
     public void close() {
-        if (this.writer != null)
-            this.writer.close();
-        this.writer = null;
+        try {
+            if (this.writer != null)
+                this.flushBlock();
+        } finally {
+            try {
+                if (this.writer != null)
+                    this.writer.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                this.writer = null;
+                this.closeColumnar();
+            }
+        }
+    }
+
+    /**
+     * Close the columnar output file, if there is one.
+     */
+    private void closeColumnar() {
+        try {
+            if (this.columnar != null) {
+                this.columnar.close();
+                log.info("{} rows written to {}.", this.columnar.getRowCount(), this.columnarFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.columnar = null;
+        }
     }
 
 }
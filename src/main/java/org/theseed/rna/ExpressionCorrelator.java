@@ -0,0 +1,591 @@
+/**
+ *
+ */
+package org.theseed.rna;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * This object computes similarity scores between all pairs of rows (features) or all pairs of columns (samples)
+ * in an RNA database.  Only good values (finite exact hits) are used, and each pair is compared on the positions
+ * where both members have good values.
+ *
+ * The pairs are processed in square tiles, so that the vectors for a tile stay in cache while all of its pairs are
+ * scored, and the tile rows are distributed across processors.  The caller can ask for the full score matrix or,
+ * to avoid quadratic memory, for the best K partners of each item.
+ *
+ * Three scoring methods are supported.
+ *
+ *  PEARSON			Pearson correlation coefficient
+ *  SPEARMAN		Spearman rank correlation; the values of each pair are re-ranked on the positions they share,
+ *  				so masked values in one member do not affect the ranks of the other
+ *  TRIMEAN_ERROR	trimean of the absolute difference between the min-max scaled vectors, as computed by
+ *  				CorrelationVariance (lower is better)
+ *
+ * A pair with too few shared positions to score (fewer than two for the correlations, none for the error) gets
+ * a score of NaN.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ExpressionCorrelator {
+
+    // FIELDS
+    /** scoring method */
+    private final Type type;
+    /** item labels */
+    private final List<String> labels;
+    /** item vectors (NaN for a masked position) */
+    private final double[][] vectors;
+    /** for the rank method, the unmasked positions of each vector sorted by value */
+    private final int[][] order;
+    /** vector length */
+    private final int width;
+
+    /** number of items per side of a tile */
+    private static final int TILE = 32;
+    /** relative variance below which a series is considered constant */
+    private static final double VAR_TOLERANCE = 1e-12;
+
+    /**
+     * This enumeration describes the scoring methods.
+     */
+    public static enum Type {
+        PEARSON {
+            @Override
+            public boolean isBetter(double score1, double score2) {
+                return score1 > score2;
+            }
+        }, SPEARMAN {
+            @Override
+            public boolean isBetter(double score1, double score2) {
+                return score1 > score2;
+            }
+        }, TRIMEAN_ERROR {
+            @Override
+            public boolean isBetter(double score1, double score2) {
+                return score1 < score2;
+            }
+        };
+
+        /**
+         * @return TRUE if the first score indicates a closer relationship than the second
+         *
+         * @param score1	first score to compare
+         * @param score2	second score to compare
+         */
+        public abstract boolean isBetter(double score1, double score2);
+
+    }
+
+    /**
+     * This object describes a partner of an item in a best-K list.
+     */
+    public static class Neighbor {
+
+        /** index of the partner */
+        private final int index;
+        /** score of the pair */
+        private final double score;
+
+        /**
+         * Create a neighbor descriptor.
+         *
+         * @param index		index of the partner
+         * @param score		score of the pair
+         */
+        protected Neighbor(int index, double score) {
+            this.index = index;
+            this.score = score;
+        }
+
+        /**
+         * @return the index of the partner
+         */
+        public int getIndex() {
+            return this.index;
+        }
+
+        /**
+         * @return the score of the pair
+         */
+        public double getScore() {
+            return this.score;
+        }
+
+    }
+
+    /**
+     * This object contains the work areas for scoring pairs.  Each thread needs its own.
+     */
+    private class Workspace {
+
+        /** shared values from the first vector */
+        private final double[] x;
+        /** shared values from the second vector */
+        private final double[] y;
+        /** shared positions */
+        private final int[] pos;
+
+        /**
+         * Create the work areas.
+         */
+        protected Workspace() {
+            this.x = new double[ExpressionCorrelator.this.width];
+            this.y = new double[ExpressionCorrelator.this.width];
+            this.pos = new int[ExpressionCorrelator.this.width];
+        }
+
+    }
+
+    /**
+     * Construct a correlator for a set of item vectors.
+     *
+     * @param type		scoring method
+     * @param labels	item labels
+     * @param vectors	item vectors, all the same length, with NaN for each masked position (these are
+     * 					centered in place for the Pearson method)
+     */
+    protected ExpressionCorrelator(Type type, List<String> labels, double[][] vectors) {
+        this.type = type;
+        this.labels = labels;
+        this.vectors = vectors;
+        this.width = (vectors.length == 0 ? 0 : vectors[0].length);
+        // Prepare the vectors for the correlation methods.  The rank method can only sort each vector here,
+        // because the ranks depend on which positions are shared by the pair.
+        if (type == Type.SPEARMAN) {
+            this.order = new int[vectors.length][];
+            IntStream.range(0, vectors.length).parallel().forEach(i -> this.order[i] = sortPositions(vectors[i]));
+        } else {
+            this.order = null;
+            if (type == Type.PEARSON)
+                IntStream.range(0, vectors.length).parallel().forEach(i -> center(vectors[i]));
+        }
+    }
+
+    /**
+     * Create a correlator for the rows (features) of an RNA database.  The rows are ordered by location.
+     *
+     * @param data		RNA database of interest
+     * @param type		scoring method
+     *
+     * @return a correlator whose items are the database rows, labeled with the feature IDs
+     */
+    public static ExpressionCorrelator forRows(RnaData data, Type type) {
+        List<RnaData.Row> rows = new ArrayList<>(data.getRows());
+        Collections.sort(rows);
+        final int n = data.size();
+        List<String> labels = new ArrayList<>(rows.size());
+        double[][] vectors = new double[rows.size()][n];
+        for (int i = 0; i < vectors.length; i++) {
+            RnaData.Row row = rows.get(i);
+            labels.add(row.getFeat().getId());
+            for (int c = 0; c < n; c++)
+                vectors[i][c] = (row.isGood(c) ? row.getValue(c) : Double.NaN);
+        }
+        return new ExpressionCorrelator(type, labels, vectors);
+    }
+
+    /**
+     * Create a correlator for the columns (samples) of an RNA database.  The vector positions are the rows
+     * ordered by location.
+     *
+     * @param data		RNA database of interest
+     * @param type		scoring method
+     *
+     * @return a correlator whose items are the database samples, labeled with the sample names
+     */
+    public static ExpressionCorrelator forSamples(RnaData data, Type type) {
+        List<RnaData.Row> rows = new ArrayList<>(data.getRows());
+        Collections.sort(rows);
+        final int n = data.size();
+        List<String> labels = new ArrayList<>(n);
+        double[][] vectors = new double[n][rows.size()];
+        for (int c = 0; c < n; c++) {
+            labels.add(data.getJob(c).getName());
+            for (int r = 0; r < rows.size(); r++) {
+                RnaData.Row row = rows.get(r);
+                vectors[c][r] = (row.isGood(c) ? row.getValue(c) : Double.NaN);
+            }
+        }
+        return new ExpressionCorrelator(type, labels, vectors);
+    }
+
+    /**
+     * @return the positions of the unmasked values in a vector, sorted by value
+     *
+     * @param vector	vector to sort
+     */
+    private static int[] sortPositions(double[] vector) {
+        Integer[] retVal = IntStream.range(0, vector.length).filter(i -> ! Double.isNaN(vector[i]))
+                .boxed().toArray(Integer[]::new);
+        Arrays.sort(retVal, (a, b) -> Double.compare(vector[a], vector[b]));
+        return Arrays.stream(retVal).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Rank the values of a vector on the positions where another vector is also unmasked (ties get the
+     * average rank).
+     *
+     * @param sorted	unmasked positions of the vector, sorted by value
+     * @param vector	vector to rank
+     * @param other		other vector of the pair
+     * @param ranks		output array for the ranks, indexed by position
+     * @param shared	output array for the shared positions, in value order
+     *
+     * @return the number of shared positions
+     */
+    private static int rankShared(int[] sorted, double[] vector, double[] other, double[] ranks, int[] shared) {
+        int retVal = 0;
+        for (int p : sorted) {
+            if (! Double.isNaN(other[p]))
+                shared[retVal++] = p;
+        }
+        int i = 0;
+        while (i < retVal) {
+            // Find the end of this run of ties.
+            int j = i + 1;
+            final double value = vector[shared[i]];
+            while (j < retVal && vector[shared[j]] == value)
+                j++;
+            // Ranks are 1-based, so the average rank of positions i to j-1 is (i + j + 1) / 2.
+            final double rank = (i + j + 1) / 2.0;
+            for (int k = i; k < j; k++)
+                ranks[shared[k]] = rank;
+            i = j;
+        }
+        return retVal;
+    }
+
+    /**
+     * Subtract the mean of the unmasked values from each unmasked value in a vector.  This does not change the
+     * correlations, but it improves the accuracy of the single-pass sums.
+     *
+     * @param vector	vector to convert
+     */
+    private static void center(double[] vector) {
+        double sum = 0.0;
+        int n = 0;
+        for (double v : vector) {
+            if (! Double.isNaN(v)) {
+                sum += v;
+                n++;
+            }
+        }
+        if (n > 0) {
+            final double mean = sum / n;
+            for (int i = 0; i < vector.length; i++)
+                vector[i] -= mean;
+        }
+    }
+
+    /**
+     * @return the number of items
+     */
+    public int size() {
+        return this.vectors.length;
+    }
+
+    /**
+     * @return the item labels, in item index order
+     */
+    public List<String> getLabels() {
+        return Collections.unmodifiableList(this.labels);
+    }
+
+    /**
+     * @return the scoring method
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * @return the score for a pair of items
+     *
+     * @param i		index of the first item
+     * @param j		index of the second item
+     */
+    public double score(int i, int j) {
+        return this.score(i, j, new Workspace());
+    }
+
+    /**
+     * @return the score for a pair of items
+     *
+     * @param i		index of the first item
+     * @param j		index of the second item
+     * @param work	work areas for the computation
+     */
+    private double score(int i, int j, Workspace work) {
+        double retVal;
+        switch (this.type) {
+        case TRIMEAN_ERROR -> retVal = this.trimeanError(this.vectors[i], this.vectors[j], work);
+        case SPEARMAN -> retVal = this.rankCorrelation(i, j, work);
+        default -> retVal = correlation(this.vectors[i], this.vectors[j]);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the Spearman correlation of two items on their shared unmasked positions, or NaN if it is undefined
+     *
+     * @param i		index of the first item
+     * @param j		index of the second item
+     * @param work	work areas for the computation
+     */
+    private double rankCorrelation(int i, int j, Workspace work) {
+        final double[] x = this.vectors[i];
+        final double[] y = this.vectors[j];
+        // Both calls find the same shared positions, so the position list from the second is valid for both.
+        rankShared(this.order[i], x, y, work.x, work.pos);
+        final int n = rankShared(this.order[j], y, x, work.y, work.pos);
+        // Center the ranks on their mean to improve the accuracy of the sums.
+        final double mean = (n + 1) / 2.0;
+        double sx = 0.0;
+        double sy = 0.0;
+        double sxx = 0.0;
+        double syy = 0.0;
+        double sxy = 0.0;
+        for (int k = 0; k < n; k++) {
+            final int p = work.pos[k];
+            final double xk = work.x[p] - mean;
+            final double yk = work.y[p] - mean;
+            sx += xk;
+            sy += yk;
+            sxx += xk * xk;
+            syy += yk * yk;
+            sxy += xk * yk;
+        }
+        return pearson(n, sx, sy, sxx, syy, sxy);
+    }
+
+    /**
+     * @return the Pearson correlation of two vectors on their shared unmasked positions, or NaN if it is undefined
+     *
+     * @param x		first vector
+     * @param y		second vector
+     */
+    private static double correlation(double[] x, double[] y) {
+        int n = 0;
+        double sx = 0.0;
+        double sy = 0.0;
+        double sxx = 0.0;
+        double syy = 0.0;
+        double sxy = 0.0;
+        for (int k = 0; k < x.length; k++) {
+            final double xk = x[k];
+            final double yk = y[k];
+            // NaN fails every comparison, so this tests both values at once.
+            if (xk == xk && yk == yk) {
+                n++;
+                sx += xk;
+                sy += yk;
+                sxx += xk * xk;
+                syy += yk * yk;
+                sxy += xk * yk;
+            }
+        }
+        return pearson(n, sx, sy, sxx, syy, sxy);
+    }
+
+    /**
+     * @return the Pearson correlation computed from the sums for a pair of series, or NaN if it is undefined
+     *
+     * @param n		number of values in each series
+     * @param sx	sum of the first series
+     * @param sy	sum of the second series
+     * @param sxx	sum of the squares of the first series
+     * @param syy	sum of the squares of the second series
+     * @param sxy	sum of the products of the two series
+     */
+    private static double pearson(int n, double sx, double sy, double sxx, double syy, double sxy) {
+        double retVal = Double.NaN;
+        if (n >= 2) {
+            final double vx = n * sxx - sx * sx;
+            final double vy = n * syy - sy * sy;
+            // A series that is constant on the shared positions can leave a tiny variance due to rounding.
+            if (vx > VAR_TOLERANCE * n * sxx && vy > VAR_TOLERANCE * n * syy) {
+                retVal = (n * sxy - sx * sy) / Math.sqrt(vx * vy);
+                // Rounding can push a perfect correlation slightly out of range.
+                retVal = Math.max(-1.0, Math.min(1.0, retVal));
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the CorrelationVariance trimean error of two vectors on their shared unmasked positions, or NaN
+     * 		   if there are none
+     *
+     * @param x		first vector
+     * @param y		second vector
+     * @param work	work areas for the computation
+     */
+    private double trimeanError(double[] x, double[] y, Workspace work) {
+        final double[] xs = work.x;
+        final double[] ys = work.y;
+        // Extract the shared values and compute the ranges.
+        int n = 0;
+        double xMin = Double.POSITIVE_INFINITY;
+        double xMax = Double.NEGATIVE_INFINITY;
+        double yMin = Double.POSITIVE_INFINITY;
+        double yMax = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < x.length; k++) {
+            final double xk = x[k];
+            final double yk = y[k];
+            if (xk == xk && yk == yk) {
+                xs[n] = xk;
+                ys[n] = yk;
+                n++;
+                if (xk < xMin) xMin = xk;
+                if (xk > xMax) xMax = xk;
+                if (yk < yMin) yMin = yk;
+                if (yk > yMax) yMax = yk;
+            }
+        }
+        double retVal = Double.NaN;
+        if (n > 0) {
+            // Scale each series to the unit interval.  A constant series collapses to 0.5.
+            double xScale = xMax - xMin;
+            if (xScale == 0.0) {
+                xMin -= 0.5;
+                xScale = 1.0;
+            }
+            double yScale = yMax - yMin;
+            if (yScale == 0.0) {
+                yMin -= 0.5;
+                yScale = 1.0;
+            }
+            for (int k = 0; k < n; k++)
+                xs[k] = Math.abs((xs[k] - xMin) / xScale - (ys[k] - yMin) / yScale);
+            if (n < 4)
+                retVal = RowStatistics.mean(xs, n);
+            else {
+                Arrays.sort(xs, 0, n);
+                retVal = (RowStatistics.percentile(xs, n, 50.0) + (RowStatistics.percentile(xs, n, 25.0)
+                        + RowStatistics.percentile(xs, n, 75.0)) / 2.0) / 2.0;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of tiles per side
+     */
+    private int tiles() {
+        return (this.vectors.length + TILE - 1) / TILE;
+    }
+
+    /**
+     * Compute the full score matrix.  Only the upper triangle is computed; the lower triangle is filled in by
+     * symmetry.
+     *
+     * @return a square matrix containing the score for each pair of items
+     */
+    public double[][] computeMatrix() {
+        final int n = this.vectors.length;
+        double[][] retVal = new double[n][n];
+        final int tiles = this.tiles();
+        // Each task processes one tile row.
+        IntStream.range(0, tiles).parallel().forEach(ti -> {
+            Workspace work = new Workspace();
+            final int iStart = ti * TILE;
+            final int iEnd = Math.min(n, iStart + TILE);
+            for (int tj = ti; tj < tiles; tj++) {
+                final int jStart = tj * TILE;
+                final int jEnd = Math.min(n, jStart + TILE);
+                for (int i = iStart; i < iEnd; i++) {
+                    for (int j = Math.max(i, jStart); j < jEnd; j++) {
+                        double score = this.score(i, j, work);
+                        retVal[i][j] = score;
+                        retVal[j][i] = score;
+                    }
+                }
+            }
+        });
+        return retVal;
+    }
+
+    /**
+     * Compute the best partners for each item.  Pairs with a score of NaN are skipped.  Each pair is scored
+     * once for each member, but only K partners per item are kept in memory.
+     *
+     * @param k		maximum number of partners to keep for each item
+     *
+     * @return an array containing, for each item, a list of its best partners, best first
+     */
+    public Neighbor[][] computeBest(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("Number of partners must be at least 1.");
+        final int n = this.vectors.length;
+        Neighbor[][] retVal = new Neighbor[n][];
+        final int tiles = this.tiles();
+        IntStream.range(0, tiles).parallel().forEach(ti -> {
+            Workspace work = new Workspace();
+            final int iStart = ti * TILE;
+            final int iEnd = Math.min(n, iStart + TILE);
+            // These arrays hold the partners for each item in the tile row, sorted best first.
+            final int rows = iEnd - iStart;
+            int[][] bestIdx = new int[rows][k];
+            double[][] bestScore = new double[rows][k];
+            int[] found = new int[rows];
+            for (int tj = 0; tj < tiles; tj++) {
+                final int jStart = tj * TILE;
+                final int jEnd = Math.min(n, jStart + TILE);
+                for (int i = iStart; i < iEnd; i++) {
+                    final int r = i - iStart;
+                    for (int j = jStart; j < jEnd; j++) {
+                        if (j != i) {
+                            double score = this.score(i, j, work);
+                            if (! Double.isNaN(score))
+                                found[r] = this.insert(bestIdx[r], bestScore[r], found[r], j, score);
+                        }
+                    }
+                }
+            }
+            for (int r = 0; r < rows; r++) {
+                Neighbor[] list = new Neighbor[found[r]];
+                for (int q = 0; q < found[r]; q++)
+                    list[q] = new Neighbor(bestIdx[r][q], bestScore[r][q]);
+                retVal[iStart + r] = list;
+            }
+        });
+        return retVal;
+    }
+
+    /**
+     * Insert a partner into a best-K list.
+     *
+     * @param idx		array of partner indices, best first
+     * @param scores	array of partner scores, best first
+     * @param count		number of partners currently in the list
+     * @param j			index of the new partner
+     * @param score		score of the new partner
+     *
+     * @return the new number of partners in the list
+     */
+    private int insert(int[] idx, double[] scores, int count, int j, double score) {
+        final int k = idx.length;
+        int retVal = count;
+        if (count < k || this.type.isBetter(score, scores[k - 1])) {
+            // Find the insertion point.  Earlier partners win ties.
+            int pos = Math.min(count, k - 1);
+            while (pos > 0 && this.type.isBetter(score, scores[pos - 1])) {
+                idx[pos] = idx[pos - 1];
+                scores[pos] = scores[pos - 1];
+                pos--;
+            }
+            idx[pos] = j;
+            scores[pos] = score;
+            if (count < k)
+                retVal++;
+        }
+        return retVal;
+    }
+
+}
@@ -0,0 +1,465 @@
+/**
+ *
+ */
+package org.theseed.rna;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * This object stores the expression values for an RNA database as a dense matrix of primitives.  Each
+ * cell contains a weight and an exact-hit flag.  Missing cells are represented by NaN weights.
+ *
+ * The matrix is stored in column-major order, so that each sample's values are contiguous.  The column
+ * stride is always a multiple of 64, so that the exact-hit flags for a column occupy whole words of the
+ * flag array.  Both dimensions grow as needed, with the capacity doubling each time.
+ *
+ * The whole-matrix passes operate on the columns in parallel when the matrix is large.  Because each column
+ * occupies its own region of the value and flag arrays, the columns can be processed independently, and
+ * each column is still processed in row order, so the results are identical to a serial pass.
+ *
+ * This object is not thread-safe.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ExpressionMatrix implements Serializable {
+
+    // FIELDS
+    /** object version ID */
+    private static final long serialVersionUID = -4630474135818227162L;
+    /** number of rows in use */
+    private int rows;
+    /** number of columns in use */
+    private int cols;
+    /** number of row slots in each column (always a multiple of 64) */
+    private int stride;
+    /** number of column slots allocated */
+    private int colCap;
+    /** weight values, in column-major order (NaN for a missing cell) */
+    private double[] values;
+    /** exact-hit flags, one bit per cell, in the same order as the values */
+    private long[] exact;
+
+    /** minimum row capacity */
+    private static final int MIN_STRIDE = 64;
+    /** minimum number of cells for a whole-matrix pass to be done in parallel */
+    private static final long PARALLEL_CELLS = 1 << 16;
+    /** maximum number of cell slots (limited by the maximum Java array size) */
+    private static final long MAX_CELLS = Integer.MAX_VALUE - 64;
+
+    /**
+     * Create a new, empty expression matrix.
+     *
+     * @param cols		initial number of columns
+     * @param rowCap	expected number of rows
+     */
+    public ExpressionMatrix(int cols, int rowCap) {
+        this.rows = 0;
+        this.cols = cols;
+        this.stride = roundStride(rowCap);
+        this.colCap = Math.max(cols, 1);
+        this.values = new double[cellCount(this.stride, this.colCap)];
+        Arrays.fill(this.values, Double.NaN);
+        this.exact = new long[this.values.length >>> 6];
+    }
+
+    /**
+     * @return a row capacity rounded up to a whole number of flag words
+     *
+     * @param rowCap	desired row capacity
+     */
+    private static int roundStride(int rowCap) {
+        return Math.max(MIN_STRIDE, (rowCap + 63) & ~63);
+    }
+
+    /**
+     * @return the number of cell slots needed for a given row and column capacity
+     *
+     * @param stride	row capacity
+     * @param colCap	column capacity
+     *
+     * @throws IllegalStateException if the matrix would be too big for a Java array
+     */
+    private static int cellCount(int stride, int colCap) {
+        long retVal = (long) stride * colCap;
+        if (stride < 0 || colCap < 0 || retVal > MAX_CELLS)
+            throw new IllegalStateException("Expression matrix capacity overflow:  cannot allocate "
+                    + Integer.toUnsignedLong(stride) + " row slots for " + Integer.toUnsignedLong(colCap) + " columns.");
+        return (int) retVal;
+    }
+
+    /**
+     * Reallocate the matrix with a new row and column capacity, preserving the contents.
+     *
+     * @param newStride		new row capacity (must be a multiple of 64)
+     * @param newColCap		new column capacity
+     */
+    private void realloc(int newStride, int newColCap) {
+        double[] newValues = new double[cellCount(newStride, newColCap)];
+        long[] newExact = new long[newValues.length >>> 6];
+        this.copyTo(newValues, newExact, newStride);
+        this.values = newValues;
+        this.exact = newExact;
+        this.stride = newStride;
+        this.colCap = newColCap;
+    }
+
+    /**
+     * Copy the contents of this matrix into new arrays with a different row capacity.  Unused cells
+     * in the new value array are set to NaN.
+     *
+     * @param newValues		new value array
+     * @param newExact		new exact-hit flag array
+     * @param newStride		row capacity of the new arrays (must be a multiple of 64)
+     */
+    private void copyTo(double[] newValues, long[] newExact, int newStride) {
+        Arrays.fill(newValues, Double.NaN);
+        final int oldWords = this.stride >>> 6;
+        final int newWords = newStride >>> 6;
+        final int copyWords = (this.rows + 63) >>> 6;
+        for (int c = 0; c < this.cols; c++) {
+            System.arraycopy(this.values, c * this.stride, newValues, c * newStride, this.rows);
+            System.arraycopy(this.exact, c * oldWords, newExact, c * newWords, copyWords);
+        }
+    }
+
+    /**
+     * Add an empty row to the matrix.
+     *
+     * @return the index of the new row
+     */
+    public int addRow() {
+        if (this.rows >= this.stride)
+            this.realloc(this.stride * 2, this.colCap);
+        return this.rows++;
+    }
+
+    /**
+     * Add an empty column to the matrix.
+     *
+     * @return the index of the new column
+     */
+    public int addColumn() {
+        if (this.cols >= this.colCap)
+            this.realloc(this.stride, this.colCap * 2);
+        return this.cols++;
+    }
+
+    /**
+     * @return the position of a cell in the value array
+     *
+     * @param row	row index
+     * @param col	column index
+     */
+    private int pos(int row, int col) {
+        if (row < 0 || row >= this.rows || col < 0 || col >= this.cols)
+            throw new IndexOutOfBoundsException("Cell (" + row + ", " + col + ") is outside the "
+                    + this.rows + " x " + this.cols + " expression matrix.");
+        return col * this.stride + row;
+    }
+
+    /**
+     * Store a value in a cell.  Storing NaN clears the cell.
+     *
+     * @param row		row index
+     * @param col		column index
+     * @param exactHit	TRUE if the value is for an exact hit
+     * @param value		value to store
+     */
+    public void set(int row, int col, boolean exactHit, double value) {
+        final int p = this.pos(row, col);
+        this.values[p] = value;
+        if (exactHit && ! Double.isNaN(value))
+            this.exact[p >>> 6] |= 1L << p;
+        else
+            this.exact[p >>> 6] &= ~(1L << p);
+    }
+
+    /**
+     * @return the value in a cell, or NaN if the cell is empty
+     *
+     * @param row		row index
+     * @param col		column index
+     */
+    public double get(int row, int col) {
+        return this.values[this.pos(row, col)];
+    }
+
+    /**
+     * @return TRUE if the cell contains an exact hit
+     *
+     * @param row		row index
+     * @param col		column index
+     */
+    public boolean isExactHit(int row, int col) {
+        final int p = this.pos(row, col);
+        return (this.exact[p >>> 6] & (1L << p)) != 0;
+    }
+
+    /**
+     * @return TRUE if the cell contains a finite exact-hit value
+     *
+     * @param row		row index
+     * @param col		column index
+     */
+    public boolean isGood(int row, int col) {
+        final int p = this.pos(row, col);
+        return (this.exact[p >>> 6] & (1L << p)) != 0 && Double.isFinite(this.values[p]);
+    }
+
+    /**
+     * @return the number of rows in use
+     */
+    public int rows() {
+        return this.rows;
+    }
+
+    /**
+     * @return the number of columns in use
+     */
+    public int cols() {
+        return this.cols;
+    }
+
+    /**
+     * @return the sum of the non-missing values in a column
+     *
+     * @param col	column index
+     */
+    public double columnSum(int col) {
+        final int start = col * this.stride;
+        final int end = start + this.rows;
+        double retVal = 0.0;
+        for (int p = start; p < end; p++) {
+            final double v = this.values[p];
+            if (! Double.isNaN(v))
+                retVal += v;
+        }
+        return retVal;
+    }
+
+    /**
+     * Multiply all the non-missing values in a column by a scale factor.
+     *
+     * @param col		column index
+     * @param factor	scale factor
+     */
+    public void scaleColumn(int col, double factor) {
+        final int start = col * this.stride;
+        final int end = start + this.rows;
+        for (int p = start; p < end; p++)
+            this.values[p] *= factor;
+    }
+
+    /**
+     * @return the number of cells in a column that are exact hits with a finite positive value
+     *
+     * @param col	column index
+     */
+    public int countExpressed(int col) {
+        final int start = col * this.stride;
+        final int words = (this.rows + 63) >>> 6;
+        final int w0 = start >>> 6;
+        int retVal = 0;
+        for (int w = 0; w < words; w++) {
+            long bits = this.exact[w0 + w];
+            while (bits != 0) {
+                final double v = this.values[start + (w << 6) + Long.numberOfTrailingZeros(bits)];
+                if (v > 0.0 && v < Double.POSITIVE_INFINITY)
+                    retVal++;
+                bits &= bits - 1;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return a stream of the column indices, which is parallel if the matrix is large enough
+     */
+    private IntStream columnStream() {
+        IntStream retVal = IntStream.range(0, this.cols);
+        if ((long) this.rows * this.cols >= PARALLEL_CELLS)
+            retVal = retVal.parallel();
+        return retVal;
+    }
+
+    /**
+     * Normalize each column so that its non-missing values sum to a specified total.  A column whose
+     * scale factor is not positive is left unchanged.
+     *
+     * @param total		desired column total
+     *
+     * @return an array of the original column totals
+     */
+    public double[] normalizeColumns(double total) {
+        double[] retVal = new double[this.cols];
+        this.columnStream().forEach(c -> {
+            final double sum = this.columnSum(c);
+            retVal[c] = sum;
+            final double scale = total / sum;
+            if (scale > 0.0)
+                this.scaleColumn(c, scale);
+        });
+        return retVal;
+    }
+
+    /**
+     * @return an array containing, for each column, the number of cells that are exact hits with a finite
+     * 		   positive value
+     */
+    public int[] countExpressed() {
+        return this.columnStream().map(c -> this.countExpressed(c)).toArray();
+    }
+
+    /**
+     * Copy selected cells from a row of another matrix into a row of this one.
+     *
+     * @param row		index of the target row in this matrix
+     * @param source	source matrix
+     * @param srcRow	index of the source row
+     * @param colMap	array mapping each column of this matrix to a column of the source matrix
+     */
+    public void copyRow(int row, ExpressionMatrix source, int srcRow, int[] colMap) {
+        for (int c = 0; c < colMap.length; c++) {
+            final int p = source.pos(srcRow, colMap[c]);
+            this.set(row, c, (source.exact[p >>> 6] & (1L << p)) != 0, source.values[p]);
+        }
+    }
+
+    /**
+     * Compact the matrix so that it contains only the specified rows.
+     *
+     * @param keep	array of the indices of the rows to keep, in ascending order; the row at position
+     * 				N in this array becomes row N
+     */
+    public void compact(int[] keep) {
+        final int words = this.stride >>> 6;
+        for (int c = 0; c < this.cols; c++) {
+            final int base = c * this.stride;
+            for (int r = 0; r < keep.length; r++) {
+                final int from = base + keep[r];
+                final int to = base + r;
+                this.values[to] = this.values[from];
+                if ((this.exact[from >>> 6] & (1L << from)) != 0)
+                    this.exact[to >>> 6] |= 1L << to;
+                else
+                    this.exact[to >>> 6] &= ~(1L << to);
+            }
+            // Clear the rows no longer in use.
+            Arrays.fill(this.values, base + keep.length, base + this.rows, Double.NaN);
+            for (int p = base + keep.length; p < base + this.rows; p++)
+                this.exact[p >>> 6] &= ~(1L << p);
+        }
+        this.rows = keep.length;
+        // Shrink the matrix if it has become mostly empty.
+        if (words > 1 && roundStride(this.rows * 2) < this.stride)
+            this.realloc(roundStride(this.rows * 2), this.colCap);
+    }
+
+    /**
+     * @return the number of bytes needed to store a column block for this matrix (see "writeColumn")
+     */
+    public int columnBlockSize() {
+        return columnBlockSize(this.rows);
+    }
+
+    /**
+     * @return the number of bytes needed to store a column block for a matrix with the specified number of rows
+     *
+     * @param rows	number of rows in the matrix
+     */
+    public static int columnBlockSize(int rows) {
+        return (rows + ((rows + 63) >>> 6)) * Double.BYTES;
+    }
+
+    /**
+     * Write a column to a byte buffer as a column block.  The block consists of the values for each row,
+     * followed by the exact-hit flag words.  The buffer position is advanced past the block.
+     *
+     * @param col		index of the column to write
+     * @param buffer	target byte buffer
+     */
+    public void writeColumn(int col, ByteBuffer buffer) {
+        final int start = col * this.stride;
+        final int words = (this.rows + 63) >>> 6;
+        final int pos = buffer.position();
+        buffer.asDoubleBuffer().put(this.values, start, this.rows);
+        buffer.position(pos + this.rows * Double.BYTES);
+        buffer.asLongBuffer().put(this.exact, start >>> 6, words);
+        buffer.position(pos + this.columnBlockSize());
+    }
+
+    /**
+     * Write selected rows of a column to a byte buffer as a column block.  The block has the same layout as
+     * one written by a matrix containing only the selected rows, in the order specified.  The buffer position
+     * is advanced past the block.
+     *
+     * @param col		index of the column to write
+     * @param keep		indices of the rows to write, in output order
+     * @param buffer	target byte buffer
+     */
+    public void writeColumn(int col, int[] keep, ByteBuffer buffer) {
+        final int start = col * this.stride;
+        final int pos = buffer.position();
+        long[] flags = new long[(keep.length + 63) >>> 6];
+        for (int r = 0; r < keep.length; r++) {
+            final int from = start + keep[r];
+            buffer.putDouble(this.values[from]);
+            if ((this.exact[from >>> 6] & (1L << from)) != 0)
+                flags[r >>> 6] |= 1L << r;
+        }
+        buffer.asLongBuffer().put(flags);
+        buffer.position(pos + columnBlockSize(keep.length));
+    }
+
+    /**
+     * Read a column from a column block in a byte buffer.  The block must have been written by a
+     * matrix with the same number of rows as this one.  The buffer position is advanced past the block.
+     *
+     * @param col		index of the column to fill
+     * @param buffer	source byte buffer
+     */
+    public void readColumn(int col, ByteBuffer buffer) {
+        final int start = col * this.stride;
+        final int words = (this.rows + 63) >>> 6;
+        final int pos = buffer.position();
+        buffer.asDoubleBuffer().get(this.values, start, this.rows);
+        buffer.position(pos + this.rows * Double.BYTES);
+        buffer.asLongBuffer().get(this.exact, start >>> 6, words);
+        buffer.position(pos + this.columnBlockSize());
+    }
+
+    /**
+     * Serialize this matrix with its capacity trimmed to its contents.  The trimmed arrays are built as
+     * copies, so this matrix is not changed.  The stream format is the same as the default one.
+     *
+     * @param out	object output stream
+     *
+     * @throws IOException
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        final int newStride = roundStride(this.rows);
+        final int newColCap = Math.max(this.cols, 1);
+        double[] outValues = this.values;
+        long[] outExact = this.exact;
+        if (newStride != this.stride || newColCap != this.colCap) {
+            outValues = new double[cellCount(newStride, newColCap)];
+            outExact = new long[outValues.length >>> 6];
+            this.copyTo(outValues, outExact, newStride);
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("rows", this.rows);
+        fields.put("cols", this.cols);
+        fields.put("stride", newStride);
+        fields.put("colCap", newColCap);
+        fields.put("values", outValues);
+        fields.put("exact", outExact);
+        out.writeFields();
+    }
+
+}
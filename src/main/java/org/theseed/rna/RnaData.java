@@ -3,16 +3,17 @@
  */
 package org.theseed.rna;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -23,6 +24,8 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 
 import org.apache.commons.lang3.Strings;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
@@ -30,13 +33,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.theseed.genome.Feature;
 import org.theseed.io.TabbedLineReader;
+import org.theseed.reports.MeanComputer;
 import org.theseed.reports.NaturalSort;
+import org.theseed.reports.XMatrixReporter;
 ;
 
 /**
  * This object contains the data for all the samples processed during an TPM summary.  For each named job, it contains the
  * threonine production data.  For each feature, it contains all the weights.
  *
+ * The weights are stored in a dense expression matrix with one row per feature and one column per sample.  The
+ * row and weight objects are views of the matrix.
+ *
  * @author Bruce Parrello
  *
  */
@@ -53,6 +61,10 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
     private Map<String, Row> rowMap;
     /** map of job names to column indices */
     private Map<String, Integer> colMap;
+    /** expression matrix containing the weights */
+    private ExpressionMatrix matrix;
+    /** for a subset view, the matrix column for each sample (otherwise NULL) */
+    private int[] colIndex;
     /** scale value for normalizing weights */
     private static double SCALE_FACTOR = 1000000.0;
     /** feature ID sorter */
@@ -67,7 +79,7 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
 
         @Override
         public boolean accept(File dir, String name) {
-            return Strings.CS.endsWith(name, ".tpm.ser");
+            return Strings.CS.endsWith(name, ".tpm.ser") || Strings.CS.endsWith(name, ".tpm");
         }
 
     }
@@ -278,6 +290,53 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
             return ! this.isSuspicious() && this.getExpressedPercent() >= MIN_EXPRESSED;
         }
 
+        /**
+         * Write this sample descriptor to a binary output stream.
+         *
+         * @param out	binary output stream
+         *
+         * @throws IOException
+         */
+        protected void write(DataOutput out) throws IOException {
+            out.writeUTF(this.name);
+            out.writeDouble(this.production);
+            out.writeDouble(this.opticalDensity);
+            out.writeBoolean(this.oldName != null);
+            if (this.oldName != null)
+                out.writeUTF(this.oldName);
+            out.writeBoolean(this.suspicious);
+            out.writeDouble(this.quality);
+            out.writeInt(this.readCount);
+            out.writeLong(this.baseCount);
+            out.writeLong(this.creation == null ? Long.MIN_VALUE : this.creation.toEpochDay());
+            out.writeDouble(this.expressPercent);
+        }
+
+        /**
+         * Read a sample descriptor written by "write" from a binary input stream.
+         *
+         * @param in	binary input stream
+         *
+         * @return the sample descriptor read
+         *
+         * @throws IOException
+         */
+        protected static JobData read(DataInput in) throws IOException {
+            String name = in.readUTF();
+            double production = in.readDouble();
+            double opticalDensity = in.readDouble();
+            String oldName = (in.readBoolean() ? in.readUTF() : null);
+            boolean suspicious = in.readBoolean();
+            JobData retVal = new JobData(name, production, opticalDensity, oldName, suspicious);
+            retVal.quality = in.readDouble();
+            retVal.readCount = in.readInt();
+            retVal.baseCount = in.readLong();
+            long epochDay = in.readLong();
+            retVal.creation = (epochDay == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(epochDay));
+            retVal.expressPercent = in.readDouble();
+            return retVal;
+        }
+
         /**
          * Update additional quality metrics for this job.  Currently, this is
          * just the expressed percent.  This method is called before the database is stored.
@@ -286,17 +345,16 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
          */
         protected void updateQuality(RnaData data) {
             int colIdx = data.getColIdx(this.name);
-            int count = 0;
-            int total = 0;
-            for (RnaData.Row row : data) {
-                RnaData.Weight weight = row.getWeight(colIdx);
-                if (weight != null && weight.isExactHit()) {
-                    double wVal = weight.getWeight();
-                    if (Double.isFinite(wVal) && wVal > 0.0)
-                        count++;
-                }
-                total++;
-            }
+            this.setExpressed(data.matrix.countExpressed(colIdx), data.rows());
+        }
+
+        /**
+         * Compute the expressed percent for this job.
+         *
+         * @param count		number of features with expression values
+         * @param total		total number of features
+         */
+        private void setExpressed(int count, int total) {
             this.expressPercent = 0.0;
             if (total > 0)
                 this.expressPercent = (count * 100.0) / total;
@@ -305,7 +363,8 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
     }
 
     /**
-     * This nested class represents a weight report
+     * This nested class represents a weight report.  Weights are no longer stored in the database:  they are
+     * created on request as snapshots of a cell in the expression matrix.
      */
     public static class Weight implements Serializable {
         private static final long serialVersionUID = -3059148113478652509L;
@@ -375,8 +434,12 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
         private RnaFeatureData feat;
         /** neighbor feature (or NULL) */
         private RnaFeatureData neighbor;
-        /** hit list */
+        /** index of this row in the expression matrix */
+        private int idx;
+        /** weights read from an old-format database file, to be moved into the matrix (otherwise NULL) */
         private Weight[] weights;
+        /** cached order statistics for the good weights (NULL if not computed) */
+        private transient RowStatistics stats;
 
         /**
          * Create a row for a feature.
@@ -392,12 +455,48 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
             init();
         }
 
+        /**
+         * Create a row that uses an existing row of the expression matrix.  This is used for subset views,
+         * which share the matrix of the parent database.
+         *
+         * @param fData		target feature data
+         * @param neighbor	neighbor feature data (or NULL)
+         * @param idx		index of the row in the expression matrix
+         */
+        private Row(RnaFeatureData fData, RnaFeatureData neighbor, int idx) {
+            this.feat = fData;
+            this.neighbor = neighbor;
+            this.idx = idx;
+        }
+
         /**
          * Initialize the data structures of this object.
          */
         private void init() {
-            // Clear the weights.
-            this.weights = new Weight[RnaData.this.jobs.size()];
+            // Allocate an empty row in the matrix.
+            this.idx = RnaData.this.matrix.addRow();
+        }
+
+        /**
+         * @return the index of this row in the expression matrix
+         */
+        protected int getMatrixIndex() {
+            return this.idx;
+        }
+
+        /**
+         * Move the weights from an old-format row into the expression matrix.
+         */
+        private void migrate() {
+            this.idx = RnaData.this.matrix.addRow();
+            if (this.weights != null) {
+                for (int i = 0; i < this.weights.length; i++) {
+                    Weight w = this.weights[i];
+                    if (w != null)
+                        RnaData.this.matrix.set(this.idx, i, w.exactHit, w.weight);
+                }
+                this.weights = null;
+            }
         }
 
         /**
@@ -419,9 +518,21 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
          * @param wValue	value of the weight
          */
         public void store(String jobName, boolean exact, double wValue) {
-            Weight w = new Weight(exact, wValue);
-            int idx = RnaData.this.colMap.get(jobName);
-            this.weights[idx] = w;
+            int col = RnaData.this.colMap.get(jobName);
+            this.store(col, exact, wValue);
+        }
+
+        /**
+         * Store a weight in a column identified by index.
+         *
+         * @param col		index of the column
+         * @param exact		TRUE if the weight is for an exact hit
+         * @param wValue	value of the weight
+         */
+        protected void store(int col, boolean exact, double wValue) {
+            RnaData.this.checkModifiable();
+            RnaData.this.matrix.set(this.idx, col, exact, wValue);
+            this.stats = null;
         }
 
         /**
@@ -439,19 +550,33 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
         }
 
         /**
-         * @return the weight in the specified column
+         * @return the weight in the specified column, or NULL if there is none
          *
          * @param iCol	column of interest
          */
         public Weight getWeight(int iCol) {
-            return this.weights[iCol];
+            Weight retVal = null;
+            final int col = RnaData.this.matrixCol(iCol);
+            double wValue = RnaData.this.matrix.get(this.idx, col);
+            if (! Double.isNaN(wValue))
+                retVal = new Weight(RnaData.this.matrix.isExactHit(this.idx, col), wValue);
+            return retVal;
+        }
+
+        /**
+         * @return the weight value in the specified column, or NaN if there is none
+         *
+         * @param iCol	column of interest
+         */
+        public double getValue(int iCol) {
+            return RnaData.this.matrix.get(this.idx, RnaData.this.matrixCol(iCol));
         }
 
         /**
          * @return the number of values in the row
          */
         public int size() {
-            return this.weights.length;
+            return RnaData.this.jobs.size();
         }
 
         /**
@@ -460,8 +585,21 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
          * @param iCol	column of interest
          */
         public boolean isGood(int iCol) {
-            Weight w = this.getWeight(iCol);
-            return (w != null && w.exactHit && Double.isFinite(w.weight));
+            return RnaData.this.matrix.isGood(this.idx, RnaData.this.matrixCol(iCol));
+        }
+
+        /**
+         * @return the order statistics for the good weights in this row
+         *
+         * The statistics are computed on the first request and cached until the row is modified.
+         */
+        public RowStatistics getStatistics() {
+            RowStatistics retVal = this.stats;
+            if (retVal == null) {
+                retVal = new RowStatistics(this);
+                this.stats = retVal;
+            }
+            return retVal;
         }
 
         /**
@@ -517,11 +655,8 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
         private void setup(RnaData.Row row, boolean pure) {
             this.weights = new ArrayList<>(row.size());
             for (int i = 0; i < row.size(); i++) {
-                if (! pure || RnaData.this.getJob(i).isGood()) {
-                    Weight w = row.getWeight(i);
-                    if (w != null && w.exactHit && Double.isFinite(w.weight))
-                        this.weights.add(w);
-                }
+                if ((! pure || RnaData.this.getJob(i).isGood()) && row.isGood(i))
+                    this.weights.add(new Weight(true, row.getValue(i)));
             }
         }
 
@@ -540,10 +675,12 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
         this.jobs = new ArrayList<>();
         this.rowMap = new HashMap<>();
         this.colMap = new HashMap<>();
+        this.matrix = new ExpressionMatrix(0, 0);
     }
 
     /**
-     * Load an RNA data repository from a file.
+     * Load an RNA data repository from a file.  The file can be in the binary format (see RnaDataFile)
+     * or the old serialized-object format.
      *
      * @param file	file from which to load the repository
      *
@@ -551,6 +688,42 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
      * @throws ClassNotFoundException
      */
     public static RnaData load(File file) throws IOException, ClassNotFoundException {
+        RnaData retVal;
+        if (RnaDataFile.isBinary(file))
+            retVal = RnaDataFile.load(file);
+        else
+            retVal = loadLegacy(file);
+        return retVal;
+    }
+
+    /**
+     * Load a subset of the samples in an RNA data repository from a file.  If the file is in the binary
+     * format, only the expression data for the specified samples is read.
+     *
+     * @param file		file from which to load the repository
+     * @param samples	names of the samples to load, in the desired column order
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static RnaData loadSubset(File file, Collection<String> samples) throws IOException, ClassNotFoundException {
+        RnaData retVal;
+        if (RnaDataFile.isBinary(file))
+            retVal = RnaDataFile.load(file, samples);
+        else
+            retVal = loadLegacy(file).getSubset(samples);
+        return retVal;
+    }
+
+    /**
+     * Load an RNA data repository from a file in the old serialized-object format.
+     *
+     * @param file	file from which to load the repository
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static RnaData loadLegacy(File file) throws IOException, ClassNotFoundException {
         RnaData retVal;
         try (FileInputStream fStream = new FileInputStream(file)) {
             ObjectInputStream oStream = new ObjectInputStream(fStream);
@@ -559,10 +732,31 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
         return retVal;
     }
 
+    /**
+     * Read this object from an object stream.  If the database is in the old format, with weight objects stored
+     * in each row, the weights are moved into a new expression matrix.
+     *
+     * @param in	object input stream
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (this.matrix == null) {
+            this.matrix = new ExpressionMatrix(this.jobs.size(), this.rowMap.size());
+            for (Row row : this.rowMap.values())
+                row.migrate();
+            log.info("{} rows converted from old database format.", this.rowMap.size());
+        }
+    }
+
     /**
      * Create a new RNA data repository with the same features as this one but only a subset of
-     * the samples.  No cloning is done.  A modification to this database will have unpredictable
-     * effects on the new database.
+     * the samples.  The weights are copied, but the sample descriptors and feature data are shared.
+     * A modification to the shared objects will have unpredictable effects on the new database.
+     *
+     * If the new database will not be modified, a subset view (see #getSubsetView) is much faster.
      */
     public RnaData getSubset(Collection<String> samples) {
         RnaData retVal = new RnaData();
@@ -572,10 +766,11 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
         int pos = 0;
         for (String sample : samples) {
             int jobIdx = this.getColIdx(sample);
-            idxMap[pos] = jobIdx;
+            idxMap[pos] = this.matrixCol(jobIdx);
             JobData sampleJob = this.getJob(jobIdx);
             retVal.jobs.add(sampleJob);
             retVal.colMap.put(sample, pos);
+            retVal.matrix.addColumn();
             pos++;
         }
         // The job array is all filled in.  Now we can add the features.  We use the index map
@@ -583,13 +778,178 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
         for (Row row : this.getRows()) {
             Row newRow = retVal.new Row(row);
             String fid = row.getFeat().getId();
-            for (int i = 0; i < idxMap.length; i++)
-                newRow.weights[i] = row.getWeight(idxMap[i]);
+            retVal.matrix.copyRow(newRow.idx, this.matrix, row.idx, idxMap);
             retVal.rowMap.put(fid, newRow);
         }
         return retVal;
     }
 
+    /**
+     * Create a read-only view of this repository containing only a subset of the samples.  The view shares
+     * the expression matrix, sample descriptors, and feature data of this repository, so no expression
+     * values are copied.  All the read methods work on the view, but methods that add samples, add rows,
+     * or change values throw an exception.  The view should not be used after this repository is
+     * modified.
+     *
+     * @param samples	names of the samples to include, in the desired column order
+     *
+     * @return a subset view of this repository
+     */
+    public RnaData getSubsetView(Collection<String> samples) {
+        RnaData retVal = new RnaData();
+        retVal.matrix = this.matrix;
+        retVal.colIndex = new int[samples.size()];
+        int pos = 0;
+        for (String sample : samples) {
+            Integer jobIdx = this.colMap.get(sample);
+            if (jobIdx == null)
+                throw new IllegalArgumentException("Sample " + sample + " not found in RNA database.");
+            retVal.colIndex[pos] = this.matrixCol(jobIdx);
+            retVal.jobs.add(this.jobs.get(jobIdx));
+            retVal.colMap.put(sample, pos);
+            pos++;
+        }
+        retVal.rowMap = new HashMap<>(this.rowMap.size() * 4 / 3 + 1);
+        for (Row row : this.rowMap.values())
+            retVal.rowMap.put(row.feat.getId(), retVal.new Row(row.feat, row.neighbor, row.idx));
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if this repository is a subset view of another one
+     */
+    public boolean isView() {
+        return this.colIndex != null;
+    }
+
+    /**
+     * @return the expression matrix column for a sample column
+     *
+     * @param iCol	index of the sample column
+     */
+    private int matrixCol(int iCol) {
+        return (this.colIndex == null ? iCol : this.colIndex[iCol]);
+    }
+
+    /**
+     * Insure this repository can be modified.
+     *
+     * @throws UnsupportedOperationException if this repository is a subset view
+     */
+    private void checkModifiable() {
+        if (this.colIndex != null)
+            throw new UnsupportedOperationException("Cannot modify a subset view of an RNA database.");
+    }
+
+    /**
+     * Create a new RNA data repository containing the aggregated expression of each cluster of samples.  The
+     * new repository has the same features as this one, and one sample per cluster, named with the cluster ID
+     * and ordered by it.  For each feature, the value in a cluster is the mean of the good values for the
+     * cluster's samples, computed by the specified method; if there are no good values, the cell is empty.
+     * All the clusters are computed in a single pass over the rows.  Cluster members that are not samples
+     * in this repository are ignored.
+     *
+     * @param clusterMap	map of cluster IDs to sample names (see #readClusterMap)
+     * @param type			type of mean to compute
+     *
+     * @return a repository with the aggregated expression values for the clusters
+     */
+    public RnaData getClusterData(Map<String, ? extends Collection<String>> clusterMap, MeanComputer.Type type) {
+        RnaData retVal = new RnaData();
+        // Compute the sample columns for each cluster.
+        List<String> clusters = new ArrayList<>(clusterMap.keySet());
+        clusters.sort(SORTER);
+        int[][] clusterCols = new int[clusters.size()][];
+        int missing = 0;
+        for (int k = 0; k < clusterCols.length; k++) {
+            String cluster = clusters.get(k);
+            Collection<String> members = clusterMap.get(cluster);
+            int[] cols = new int[members.size()];
+            int n = 0;
+            for (String member : members) {
+                Integer col = this.colMap.get(member);
+                if (col == null)
+                    missing++;
+                else
+                    cols[n++] = col;
+            }
+            clusterCols[k] = Arrays.copyOf(cols, n);
+            retVal.addJob(cluster, Double.NaN, Double.NaN, cluster, false);
+        }
+        if (missing > 0)
+            log.warn("{} cluster members were not found in the RNA database.", missing);
+        // Compute the means for each row.  This is done in parallel, and the results are stored afterward,
+        // since the new matrix is not thread-safe.
+        List<Row> rows = new ArrayList<>(this.rowMap.values());
+        MeanComputer computer = type.create();
+        double[][] means = new double[rows.size()][];
+        IntStream.range(0, means.length).parallel().forEach(r -> {
+            Row row = rows.get(r);
+            double[] rowMeans = new double[clusterCols.length];
+            double[] values = new double[this.jobs.size()];
+            for (int k = 0; k < clusterCols.length; k++) {
+                int n = 0;
+                for (int col : clusterCols[k]) {
+                    if (row.isGood(col))
+                        values[n++] = row.getValue(col);
+                }
+                rowMeans[k] = (n == 0 ? Double.NaN : computer.goodMean(values, 0, n));
+            }
+            means[r] = rowMeans;
+        });
+        for (int r = 0; r < means.length; r++) {
+            Row row = rows.get(r);
+            Row newRow = retVal.addRow(row.feat, row.neighbor);
+            for (int k = 0; k < clusterCols.length; k++)
+                newRow.store(k, true, means[r][k]);
+        }
+        return retVal;
+    }
+
+    /**
+     * Write the samples in this database to an XMatrix report.  Each sample becomes a data row, with one
+     * feature column for each of the specified database rows.  The feature values for the samples are
+     * extracted in parallel.
+     *
+     * @param reporter		XMatrix reporter to receive the data (its headers are set by this method)
+     * @param rows			rows for the features to use as the feature columns, in order (these can come from
+     * 						this database or from one with the same features, such as its parent)
+     * @param idCol			name of the ID column
+     * @param outCol		name of the output column
+     * @param valueFunction	function that computes the output value for a sample
+     * @param missing		feature value to use for a cell without a good value
+     *
+     * @throws IOException
+     */
+    public void writeXMatrix(XMatrixReporter reporter, List<Row> rows, String idCol, String outCol,
+            Function<JobData, String> valueFunction, double missing) throws IOException {
+        final int width = rows.size();
+        List<String> featCols = new ArrayList<>(width);
+        Row[] myRows = new Row[width];
+        for (int r = 0; r < width; r++) {
+            String fid = rows.get(r).feat.getId();
+            myRows[r] = this.rowMap.get(fid);
+            if (myRows[r] == null)
+                throw new IllegalArgumentException("Feature " + fid + " not found in RNA database.");
+            featCols.add(fid);
+        }
+        reporter.setHeaders(idCol, featCols, outCol);
+        List<String> ids = new ArrayList<>(this.jobs.size());
+        List<String> values = new ArrayList<>(this.jobs.size());
+        for (JobData job : this.jobs) {
+            ids.add(job.getName());
+            values.add(valueFunction.apply(job));
+        }
+        reporter.processRows(ids, c -> {
+            double[] feats = new double[width];
+            for (int r = 0; r < width; r++) {
+                Row row = myRows[r];
+                feats[r] = (row.isGood(c) ? row.getValue(c) : missing);
+            }
+            return feats;
+        }, values);
+    }
+
     /**
      * Add a new sample.
      *
@@ -600,8 +960,9 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
      * @param suspicious		return TRUE if this sample is of suspicious quality
      */
     public JobData addJob(String jobName, double production, double opticalDensity, String oldName, boolean suspicious) {
+        this.checkModifiable();
         // Save the array index for this sample.
-        this.colMap.put(jobName, this.jobs.size());
+        this.colMap.put(jobName, this.matrix.addColumn());
         // Add the sample to the job list.
         JobData retVal = new JobData(jobName, production, opticalDensity, oldName, suspicious);
         this.jobs.add(retVal);
@@ -644,6 +1005,7 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
         final String fid = feat.getId();
         Row retVal = this.rowMap.get(fid);
         if (retVal == null) {
+            this.checkModifiable();
             RnaFeatureData fData = new RnaFeatureData(feat);
             retVal = new Row(fData, neighbor);
             this.rowMap.put(fid, retVal);
@@ -651,6 +1013,40 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
         return retVal;
     }
 
+    /**
+     * Add a new sample with a fully-specified descriptor.
+     *
+     * @param job		descriptor of the sample to add
+     */
+    protected void addJob(JobData job) {
+        this.checkModifiable();
+        this.colMap.put(job.getName(), this.matrix.addColumn());
+        this.jobs.add(job);
+    }
+
+    /**
+     * Add a new row with pre-built feature data.  No check is made for duplicates.
+     *
+     * @param fData		target feature data
+     * @param neighbor	neighbor feature data (or NULL)
+     *
+     * @return the new row
+     */
+    protected Row addRow(RnaFeatureData fData, RnaFeatureData neighbor) {
+        this.checkModifiable();
+        Row retVal = new Row(fData, null);
+        retVal.neighbor = neighbor;
+        this.rowMap.put(fData.getId(), retVal);
+        return retVal;
+    }
+
+    /**
+     * @return the expression matrix for this database
+     */
+    protected ExpressionMatrix getMatrix() {
+        return this.matrix;
+    }
+
     /**
      * @return the row object for the specified feature ID, or NULL if none exists
      *
@@ -689,17 +1085,22 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
     }
 
     /**
-     * Save this object to a file.
+     * Save this object to a file in the binary format (see RnaDataFile).  A subset view is saved as a
+     * standalone database.
      *
      * @param file	file into which this object will be stored
      *
      * @throws IOException
      */
     public void save(File file) throws IOException {
-        try (FileOutputStream fStream = new FileOutputStream(file)) {
-            ObjectOutputStream oStream = new ObjectOutputStream(fStream);
-            oStream.writeObject(this);
+        RnaData source = this;
+        if (this.colIndex != null) {
+            List<String> samples = new ArrayList<>(this.jobs.size());
+            for (JobData job : this.jobs)
+                samples.add(job.getName());
+            source = this.getSubset(samples);
         }
+        RnaDataFile.save(source, file);
     }
 
     /**
@@ -718,11 +1119,10 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
      * numbers to TPM values. (TPM = TPM * 10^6 / SUM(all TPMs for sample))
      */
     public void normalize() {
-        // Each row contains an array of weights.  This array keeps the totals.
-        double[] totalWeights = new double[this.size()];
+        this.checkModifiable();
         // Count the RNAs removed.
         int removed = 0;
-        // Loop through the rows.  We delete the RNA rows, and sum the rest.
+        // Loop through the rows.  We delete the RNA rows.
         Iterator<Row> rowIter = this.rowMap.values().iterator();
         while (rowIter.hasNext()) {
             Row row = rowIter.next();
@@ -730,31 +1130,34 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
                 // Here we have an RNA that sneaked through the sample filters.
                 rowIter.remove();
                 removed++;
-            } else {
-                // This row is being kept, so we accumulate its values.
-                for (int i = 0; i < totalWeights.length; i++) {
-                    Weight weight = row.getWeight(i);
-                    if (weight != null)
-                        totalWeights[i] += weight.weight;
-                }
-            }
-        }
-        // Now we scale each of the weights.
-        for (int i = 0; i < totalWeights.length; i++)
-            totalWeights[i] = SCALE_FACTOR / totalWeights[i];
-        // Finally, we scale each of the individual weights.
-        for (Row row : this) {
-            for (int i = 0; i < totalWeights.length; i++) {
-                if (totalWeights[i] > 0.0) {
-                    Weight weight = row.getWeight(i);
-                    if (weight != null)
-                        weight.weight *= totalWeights[i];
-                }
             }
         }
+        // Compact the matrix so it only contains the rows being kept.
+        if (removed > 0)
+            this.compact();
+        // Now we scale each column of weights.
+        this.matrix.normalizeColumns(SCALE_FACTOR);
+        this.clearStatistics();
         log.info("{} RNA features removed during normalization, {} features remaining.", removed, this.rows());
     }
 
+    /**
+     * Compact the expression matrix so that it contains only the rows in the row map.  The rows are
+     * renumbered in their current matrix order.
+     */
+    protected void compact() {
+        this.checkModifiable();
+        List<Row> rows = new ArrayList<>(this.rowMap.values());
+        rows.sort(Comparator.comparingInt(x -> x.idx));
+        int[] keep = new int[rows.size()];
+        for (int i = 0; i < keep.length; i++) {
+            Row row = rows.get(i);
+            keep[i] = row.idx;
+            row.idx = i;
+        }
+        this.matrix.compact(keep);
+    }
+
     /**
      * @return the column index of the sample, or NULL if it does not exist
      *
@@ -780,15 +1183,30 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
      * @param row	row for the feature whose baseline value is desired
      */
     public double getBaseline(Row row) {
-        DescriptiveStatistics stats = getStats(row);
-        double retVal = ((stats.getPercentile(25) + stats.getPercentile(75)) / 2.0 + stats.getPercentile(50)) / 2.0;
-        return retVal;
+        return row.getStatistics().getTrimean();
+    }
+
+    /**
+     * Compute the order statistics for all the rows in parallel.  Rows whose statistics are already cached
+     * are skipped.
+     */
+    public void computeStatistics() {
+        this.rowMap.values().parallelStream().forEach(x -> x.getStatistics());
+    }
+
+    /**
+     * Discard the cached order statistics for all the rows.
+     */
+    protected void clearStatistics() {
+        for (Row row : this.rowMap.values())
+            row.stats = null;
     }
 
     /**
      * @return a map of feature IDs to baseline values for this RNA expression database
      */
     public SortedMap<String, Double> getBaselines() {
+        this.computeStatistics();
         SortedMap<String, Double> retVal = new TreeMap<>(new NaturalSort());
         for (Map.Entry<String, Row> rowEntry : this.rowMap.entrySet()) {
             double baseLine = this.getBaseline(rowEntry.getValue());
@@ -800,14 +1218,16 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
     /**
      * @return a descriptive statistics object for the valid expression values in the specified row
      *
+     * For the common statistics, the row's cached statistics (see Row#getStatistics) are faster.
+     *
      * @param row	RNA database row for the feature of interest
      */
     public static DescriptiveStatistics getStats(RnaData.Row row) {
         DescriptiveStatistics stats = new DescriptiveStatistics();
-        for (int i = 0; i < row.size(); i++) {
-            Weight w = row.getWeight(i);
-            if (w != null && w.isExactHit() && Double.isFinite(w.getWeight()))
-                stats.addValue(w.getWeight());
+        final int n = row.size();
+        for (int i = 0; i < n; i++) {
+            if (row.isGood(i))
+                stats.addValue(row.getValue(i));
         }
         return stats;
     }
@@ -823,8 +1243,11 @@ public class RnaData implements Iterable<RnaData.Row>, Serializable {
      * Update the quality data for all the jobs.
      */
     public void updateQuality() {
-        for (JobData job : this.jobs)
-            job.updateQuality(this);
+        // All the columns are counted in a single pass over the matrix.
+        int[] counts = this.matrix.countExpressed();
+        final int total = this.rows();
+        for (int i = 0; i < this.jobs.size(); i++)
+            this.jobs.get(i).setExpressed(counts[this.matrixCol(i)], total);
     }
 
     /**
@@ -0,0 +1,288 @@
+/**
+ *
+ */
+package org.theseed.rna;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class reads and writes RNA databases in a compact, versioned binary format.  The sample and feature
+ * metadata are stored in a header, and the expression matrix follows as a sequence of fixed-size column blocks,
+ * one per sample.  Because the position of each block can be computed from the header, the column blocks are
+ * read through memory maps, and loading a subset of the samples only touches the blocks for those samples.
+ *
+ * The file layout is as follows.  All numbers are big-endian and all strings are modified UTF-8.
+ *
+ *  prefix				magic number (int), format version (int), sample count (int), row count (int),
+ *  					offset of the first column block (long)
+ *  sample table		for each sample, the sample descriptor (see RnaData.JobData#write)
+ *  feature table		for each row, the feature data (see RnaFeatureData#write), then a flag indicating
+ *  					whether there is a neighbor, then the neighbor feature data (if any)
+ *  padding				zero bytes to bring the column blocks to an 8-byte boundary
+ *  column blocks		for each sample, the weight for each row (NaN if missing), followed by the exact-hit
+ *  					flags for the rows, packed 64 to a long
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class RnaDataFile {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(RnaDataFile.class);
+    /** magic number identifying the file format ("RTPM") */
+    public static final int MAGIC = 0x5254504D;
+    /** current format version */
+    public static final int VERSION = 1;
+    /** length of the fixed prefix */
+    private static final int PREFIX_LEN = 24;
+    /** buffer size for stream I/O */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * This object contains the header information read from a file.
+     */
+    private static class Header {
+
+        /** sample descriptors, in column order */
+        private List<RnaData.JobData> jobs;
+        /** feature data for each row */
+        private RnaFeatureData[] feats;
+        /** neighbor feature data for each row (NULL if none) */
+        private RnaFeatureData[] neighbors;
+        /** offset of the first column block */
+        private long dataOffset;
+
+        /**
+         * Read the header of a binary RNA database file.
+         *
+         * @param inFile	file to read
+         *
+         * @throws IOException
+         */
+        protected Header(File inFile) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile),
+                    BUFFER_SIZE))) {
+                if (in.readInt() != MAGIC)
+                    throw new IOException(inFile + " is not a binary RNA database file.");
+                int version = in.readInt();
+                if (version < 1 || version > VERSION)
+                    throw new IOException("Unsupported RNA database file version " + version + " in " + inFile + ".");
+                final int nJobs = in.readInt();
+                final int nRows = in.readInt();
+                this.dataOffset = in.readLong();
+                this.jobs = new ArrayList<>(nJobs);
+                for (int i = 0; i < nJobs; i++)
+                    this.jobs.add(RnaData.JobData.read(in));
+                this.feats = new RnaFeatureData[nRows];
+                this.neighbors = new RnaFeatureData[nRows];
+                for (int r = 0; r < nRows; r++) {
+                    this.feats[r] = RnaFeatureData.read(in);
+                    if (in.readBoolean())
+                        this.neighbors[r] = RnaFeatureData.read(in);
+                }
+            }
+        }
+
+        /**
+         * Create an RNA database containing all the rows in this header and no samples.
+         */
+        protected RnaData createDatabase() {
+            RnaData retVal = new RnaData();
+            for (int r = 0; r < this.feats.length; r++)
+                retVal.addRow(this.feats[r], this.neighbors[r]);
+            return retVal;
+        }
+
+        /**
+         * @return the number of rows
+         */
+        protected int rows() {
+            return this.feats.length;
+        }
+
+    }
+
+    /**
+     * Save an RNA database to a binary file.  If the database's matrix has unused rows, only the rows in use
+     * are written; the database itself is not modified.
+     *
+     * @param data		RNA database to save
+     * @param outFile	output file
+     *
+     * @throws IOException
+     */
+    public static void save(RnaData data, File outFile) throws IOException {
+        // Get the rows in matrix order.  If the matrix has unused rows, we will only write the rows in use.
+        List<RnaData.Row> rows = new ArrayList<>(data.getRows());
+        rows.sort(Comparator.comparingInt(x -> x.getMatrixIndex()));
+        ExpressionMatrix matrix = data.getMatrix();
+        int[] keep = null;
+        if (matrix.rows() != rows.size())
+            keep = rows.stream().mapToInt(x -> x.getMatrixIndex()).toArray();
+        final int nJobs = data.size();
+        // Build the sample and feature tables.
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream(BUFFER_SIZE);
+        try (DataOutputStream header = new DataOutputStream(headerBytes)) {
+            for (RnaData.JobData job : data.getSamples())
+                job.write(header);
+            for (RnaData.Row row : rows) {
+                row.getFeat().write(header);
+                RnaFeatureData neighbor = row.getNeighbor();
+                header.writeBoolean(neighbor != null);
+                if (neighbor != null)
+                    neighbor.write(header);
+            }
+        }
+        final long dataOffset = (PREFIX_LEN + headerBytes.size() + 7) & ~7L;
+        // Write the file.
+        try (FileChannel channel = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer prefix = ByteBuffer.allocate(PREFIX_LEN);
+            prefix.putInt(MAGIC).putInt(VERSION).putInt(nJobs).putInt(rows.size()).putLong(dataOffset);
+            prefix.flip();
+            writeFully(channel, prefix);
+            writeFully(channel, ByteBuffer.wrap(headerBytes.toByteArray()));
+            // The padding comes after the header, so we write it separately.
+            writeFully(channel, ByteBuffer.allocate((int) (dataOffset - PREFIX_LEN - headerBytes.size())));
+            // Now write the column blocks.
+            ByteBuffer block = ByteBuffer.allocate(ExpressionMatrix.columnBlockSize(rows.size()));
+            for (int c = 0; c < nJobs; c++) {
+                block.clear();
+                if (keep == null)
+                    matrix.writeColumn(c, block);
+                else
+                    matrix.writeColumn(c, keep, block);
+                block.flip();
+                writeFully(channel, block);
+            }
+        }
+        log.info("{} samples and {} features saved to {}.", nJobs, rows.size(), outFile);
+    }
+
+    /**
+     * Write the entire contents of a buffer to a file channel.
+     *
+     * @param channel	output file channel
+     * @param buffer	buffer to write
+     *
+     * @throws IOException
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * @return TRUE if the specified file is in this binary format, else FALSE
+     *
+     * @param inFile	file to check
+     *
+     * @throws IOException
+     */
+    public static boolean isBinary(File inFile) throws IOException {
+        boolean retVal = false;
+        if (inFile.length() >= PREFIX_LEN) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(inFile))) {
+                retVal = (in.readInt() == MAGIC);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Load an RNA database from a binary file.
+     *
+     * @param inFile	input file
+     *
+     * @return the RNA database loaded
+     *
+     * @throws IOException
+     */
+    public static RnaData load(File inFile) throws IOException {
+        Header header = new Header(inFile);
+        int[] cols = new int[header.jobs.size()];
+        for (int c = 0; c < cols.length; c++)
+            cols[c] = c;
+        return load(inFile, header, cols);
+    }
+
+    /**
+     * Load a subset of the samples in an RNA database from a binary file.  Only the column blocks for the
+     * specified samples are read.
+     *
+     * @param inFile	input file
+     * @param samples	names of the samples to load, in the desired column order
+     *
+     * @return an RNA database containing all the features and only the specified samples
+     *
+     * @throws IOException
+     */
+    public static RnaData load(File inFile, Collection<String> samples) throws IOException {
+        Header header = new Header(inFile);
+        Map<String, Integer> colMap = new HashMap<>(header.jobs.size() * 4 / 3 + 1);
+        for (int c = 0; c < header.jobs.size(); c++)
+            colMap.put(header.jobs.get(c).getName(), c);
+        int[] cols = new int[samples.size()];
+        int i = 0;
+        for (String sample : samples) {
+            Integer col = colMap.get(sample);
+            if (col == null)
+                throw new IllegalArgumentException("Sample " + sample + " not found in " + inFile + ".");
+            cols[i++] = col;
+        }
+        return load(inFile, header, cols);
+    }
+
+    /**
+     * Load selected columns of an RNA database from a binary file.
+     *
+     * @param inFile	input file
+     * @param header	header read from the file
+     * @param cols		array of the file columns to load, in order
+     *
+     * @return the RNA database loaded
+     *
+     * @throws IOException
+     */
+    private static RnaData load(File inFile, Header header, int[] cols) throws IOException {
+        RnaData retVal = header.createDatabase();
+        ExpressionMatrix matrix = retVal.getMatrix();
+        final int blockSize = ExpressionMatrix.columnBlockSize(header.rows());
+        try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+            final long expected = header.dataOffset + (long) blockSize * header.jobs.size();
+            if (channel.size() < expected)
+                throw new IOException(inFile + " is truncated:  expected " + expected + " bytes but found "
+                        + channel.size() + ".");
+            for (int c = 0; c < cols.length; c++) {
+                retVal.addJob(header.jobs.get(cols[c]));
+                MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY,
+                        header.dataOffset + (long) cols[c] * blockSize, blockSize);
+                matrix.readColumn(c, block);
+            }
+        }
+        log.info("{} of {} samples and {} features loaded from {}.", cols.length, header.jobs.size(),
+                header.rows(), inFile);
+        return retVal;
+    }
+
+}
@@ -0,0 +1,385 @@
+/**
+ *
+ */
+package org.theseed.rna;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.genome.Feature;
+
+/**
+ * This object appends new samples to an RNA database.  Each new sample is accumulated in a sample buffer,
+ * which is owned by a single client thread, so independent samples (for example, from separate TPM files)
+ * can be parsed and buffered concurrently.  When a sample is complete, it is committed, which adds it to the
+ * database as a new column, creating rows for any new features.  Commits are serialized, but they only copy
+ * the buffered values into the expression matrix, so they are fast.
+ *
+ * If a checkpoint file is specified, the database is saved to it in the binary format after every N commits,
+ * and again when the ingester is closed.  The checkpoint is written to a temporary file and then renamed, so
+ * the checkpoint file always contains a complete database.
+ *
+ * Quality metrics and normalization are not updated during ingestion.  The client should call "updateQuality"
+ * and "normalize" on the database, as appropriate, when ingestion is done.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class RnaDataIngester implements AutoCloseable {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(RnaDataIngester.class);
+    /** target RNA database */
+    private final RnaData data;
+    /** checkpoint file (or NULL if none) */
+    private final File checkpointFile;
+    /** number of commits between checkpoints */
+    private final int interval;
+    /** number of commits since the last checkpoint */
+    private int pending;
+    /** number of samples committed */
+    private int sampleCount;
+    /** number of rows created */
+    private int newRowCount;
+    /** number of values rejected because the feature was not found */
+    private int badFeatureCount;
+    /** number of checkpoints written */
+    private int checkpointCount;
+
+    /**
+     * This object buffers the data for a single new sample.  It is not thread-safe, but each buffer is
+     * independent of the others.
+     */
+    public static class Sample {
+
+        /** name of the sample */
+        private final String name;
+        /** threonine production level */
+        private final double production;
+        /** optical density */
+        private final double opticalDensity;
+        /** original name of sample */
+        private final String oldName;
+        /** TRUE if the sample is of suspicious quality */
+        private final boolean suspicious;
+        /** IDs of the features with values */
+        private final List<String> fids;
+        /** features with values (NULL if the feature must already be in the database) */
+        private final List<Feature> feats;
+        /** neighbors of the features with values */
+        private final List<Feature> neighbors;
+        /** exact-hit flags */
+        private boolean[] exact;
+        /** weight values */
+        private double[] weights;
+        /** number of values buffered */
+        private int size;
+        /** number of reads */
+        private int readCount;
+        /** number of base pairs */
+        private long baseCount;
+        /** percent of reads with a map quality >= 30% */
+        private double quality;
+
+        /**
+         * Create a new sample buffer.
+         *
+         * @param name				sample name
+         * @param production		threonine production level
+         * @param opticalDensity	optical density
+         * @param oldName 			original name of sample
+         * @param suspicious		TRUE if this sample is of suspicious quality
+         */
+        protected Sample(String name, double production, double opticalDensity, String oldName, boolean suspicious) {
+            this.name = name;
+            this.production = production;
+            this.opticalDensity = opticalDensity;
+            this.oldName = oldName;
+            this.suspicious = suspicious;
+            this.fids = new ArrayList<>();
+            this.feats = new ArrayList<>();
+            this.neighbors = new ArrayList<>();
+            this.exact = new boolean[256];
+            this.weights = new double[256];
+            this.size = 0;
+            this.quality = 0.0;
+            this.readCount = 0;
+            this.baseCount = 0;
+        }
+
+        /**
+         * Buffer a value.
+         *
+         * @param fid		ID of the target feature
+         * @param feat		target feature, or NULL if it must already be in the database
+         * @param neighbor	useful neighbor of the target feature (or NULL)
+         * @param exactHit	TRUE if the value is for an exact hit
+         * @param value		weight value
+         */
+        private void add(String fid, Feature feat, Feature neighbor, boolean exactHit, double value) {
+            if (this.size >= this.weights.length) {
+                final int newLen = this.weights.length * 2;
+                this.exact = Arrays.copyOf(this.exact, newLen);
+                this.weights = Arrays.copyOf(this.weights, newLen);
+            }
+            this.fids.add(fid);
+            this.feats.add(feat);
+            this.neighbors.add(neighbor);
+            this.exact[this.size] = exactHit;
+            this.weights[this.size] = value;
+            this.size++;
+        }
+
+        /**
+         * Store a value for a feature, creating a database row for it if necessary.
+         *
+         * @param feat		target feature
+         * @param neighbor	useful neighbor (or NULL)
+         * @param exactHit	TRUE if the value is for an exact hit
+         * @param value		weight value
+         */
+        public void store(Feature feat, Feature neighbor, boolean exactHit, double value) {
+            this.add(feat.getId(), feat, neighbor, exactHit, value);
+        }
+
+        /**
+         * Store a value for a feature that is already in the database.  If the feature is not in the database
+         * when the sample is committed, the value is discarded.
+         *
+         * @param fid		ID of the target feature
+         * @param exactHit	TRUE if the value is for an exact hit
+         * @param value		weight value
+         */
+        public void store(String fid, boolean exactHit, double value) {
+            this.add(fid, null, null, exactHit, value);
+        }
+
+        /**
+         * Specify the read statistics for this sample.
+         *
+         * @param readCount		number of reads
+         * @param baseCount		number of base pairs
+         * @param quality		percent of reads with a map quality >= 30%
+         */
+        public void setReadStats(int readCount, long baseCount, double quality) {
+            this.readCount = readCount;
+            this.baseCount = baseCount;
+            this.quality = quality;
+        }
+
+        /**
+         * @return the sample name
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return the number of values buffered
+         */
+        public int size() {
+            return this.size;
+        }
+
+    }
+
+    /**
+     * Create an ingester for an RNA database.
+     *
+     * @param data				target RNA database
+     * @param checkpointFile	file for saving checkpoints, or NULL to skip checkpointing
+     * @param interval			number of commits between checkpoints
+     */
+    public RnaDataIngester(RnaData data, File checkpointFile, int interval) {
+        if (interval < 1)
+            throw new IllegalArgumentException("Checkpoint interval must be at least 1.");
+        this.data = data;
+        this.checkpointFile = checkpointFile;
+        this.interval = interval;
+        this.pending = 0;
+        this.sampleCount = 0;
+        this.newRowCount = 0;
+        this.badFeatureCount = 0;
+        this.checkpointCount = 0;
+    }
+
+    /**
+     * Create a buffer for a new sample.  The sample is not added to the database until it is committed.
+     *
+     * @param name				sample name
+     * @param production		threonine production level
+     * @param opticalDensity	optical density
+     * @param oldName 			original name of sample
+     * @param suspicious		TRUE if this sample is of suspicious quality
+     *
+     * @return a buffer for the sample's values
+     */
+    public Sample newSample(String name, double production, double opticalDensity, String oldName,
+            boolean suspicious) {
+        return new Sample(name, production, opticalDensity, oldName, suspicious);
+    }
+
+    /**
+     * Add a buffered sample to the database as a new column.  This method may be called from multiple threads.
+     *
+     * @param sample	buffered sample to add
+     *
+     * @throws IOException
+     */
+    public synchronized void commit(Sample sample) throws IOException {
+        if (this.data.findColIdx(sample.name) != null)
+            throw new IllegalArgumentException("Sample " + sample.name + " is already in the database.");
+        RnaData.JobData job = this.data.addJob(sample.name, sample.production, sample.opticalDensity,
+                sample.oldName, sample.suspicious);
+        job.setReadCount(sample.readCount);
+        job.setBaseCount(sample.baseCount);
+        job.setQuality(sample.quality);
+        final int col = this.data.getColIdx(sample.name);
+        final int oldRows = this.data.rows();
+        for (int i = 0; i < sample.size; i++) {
+            Feature feat = sample.feats.get(i);
+            RnaData.Row row;
+            if (feat != null)
+                row = this.data.getRow(feat, sample.neighbors.get(i));
+            else
+                row = this.data.getRow(sample.fids.get(i));
+            if (row == null)
+                this.badFeatureCount++;
+            else
+                row.store(col, sample.exact[i], sample.weights[i]);
+        }
+        this.newRowCount += this.data.rows() - oldRows;
+        this.sampleCount++;
+        this.pending++;
+        log.debug("Sample {} added with {} values.", sample.name, sample.size);
+        if (this.checkpointFile != null && this.pending >= this.interval)
+            this.checkpoint();
+    }
+
+    /**
+     * Add a batch of buffered samples to the database.  The buffers are built in parallel, and then
+     * committed one at a time in list order, so the column order of the database does not depend on
+     * thread timing.  If any buffer fails to build, or any sample is already in the database, nothing
+     * is committed.
+     *
+     * @param sources	list of objects from which to build the sample buffers
+     * @param builder	function that builds a sample buffer from a source object
+     *
+     * @throws IOException
+     */
+    public <T> void ingest(List<T> sources, SampleBuilder<T> builder) throws IOException {
+        List<Sample> samples;
+        try {
+            samples = sources.parallelStream().map(x -> {
+                try {
+                    return builder.build(this, x);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        // Verify the sample names before we change anything.
+        Set<String> names = new HashSet<>(samples.size() * 4 / 3 + 1);
+        for (Sample sample : samples) {
+            if (! names.add(sample.name) || this.data.findColIdx(sample.name) != null)
+                throw new IllegalArgumentException("Sample " + sample.name + " is already in the database.");
+        }
+        for (Sample sample : samples)
+            this.commit(sample);
+    }
+
+    /**
+     * This interface describes a function that builds a sample buffer from a source object, such as a TPM file.
+     */
+    @FunctionalInterface
+    public interface SampleBuilder<T> {
+
+        /**
+         * @return a filled sample buffer built from the source object
+         *
+         * @param ingester	ingester that will receive the sample (used to create the buffer)
+         * @param source	source object for the sample
+         *
+         * @throws IOException
+         */
+        public Sample build(RnaDataIngester ingester, T source) throws IOException;
+
+    }
+
+    /**
+     * Save the database to the checkpoint file.
+     *
+     * @throws IOException
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (this.checkpointFile == null)
+            throw new IllegalStateException("No checkpoint file was specified for this ingester.");
+        File absFile = this.checkpointFile.getAbsoluteFile();
+        File tempFile = new File(absFile.getParentFile(), absFile.getName() + ".tmp");
+        this.data.save(tempFile);
+        try {
+            Files.move(tempFile.toPath(), absFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), absFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        this.pending = 0;
+        this.checkpointCount++;
+        log.info("Checkpoint {} written to {} with {} samples and {} features.", this.checkpointCount,
+                absFile, this.data.size(), this.data.rows());
+    }
+
+    /**
+     * Write a final checkpoint if any samples have been committed since the last one.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.checkpointFile != null && this.pending > 0)
+            this.checkpoint();
+        log.info("{} samples ingested, {} features added, {} values for unknown features discarded.",
+                this.sampleCount, this.newRowCount, this.badFeatureCount);
+    }
+
+    /**
+     * @return the number of samples committed
+     */
+    public synchronized int getSampleCount() {
+        return this.sampleCount;
+    }
+
+    /**
+     * @return the number of database rows created
+     */
+    public synchronized int getNewRowCount() {
+        return this.newRowCount;
+    }
+
+    /**
+     * @return the number of values discarded because the feature was not in the database
+     */
+    public synchronized int getBadFeatureCount() {
+        return this.badFeatureCount;
+    }
+
+    /**
+     * @return the number of checkpoints written
+     */
+    public synchronized int getCheckpointCount() {
+        return this.checkpointCount;
+    }
+
+}
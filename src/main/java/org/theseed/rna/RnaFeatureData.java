@@ -3,6 +3,8 @@
  */
 package org.theseed.rna;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -76,6 +78,11 @@ public class RnaFeatureData implements Comparable<RnaFeatureData>, Serializable
 
     }
 
+    /**
+     * Construct an empty feature object for deserialization.
+     */
+    private RnaFeatureData() { }
+
     /**
      * Construct a feature object from basic feature information.
      *
@@ -183,6 +190,22 @@ public class RnaFeatureData implements Comparable<RnaFeatureData>, Serializable
 
     /** serialization method for FeatureData */
     private void writeObject(ObjectOutputStream os) throws IOException {
+        this.write(os);
+    }
+
+    /** deserialization method for FeatureData */
+    private void readObject(ObjectInputStream is) throws IOException {
+        this.readFields(is);
+    }
+
+    /**
+     * Write this feature's data to a binary output stream.
+     *
+     * @param os	binary output stream
+     *
+     * @throws IOException
+     */
+    protected void write(DataOutput os) throws IOException {
         os.writeUTF(this.id);
         os.writeUTF(this.function);
         os.writeUTF(this.location.toString());
@@ -194,8 +217,29 @@ public class RnaFeatureData implements Comparable<RnaFeatureData>, Serializable
         os.writeDouble(this.baseLine);
     }
 
-    /** deserialization method for FeatureData */
-    private void readObject(ObjectInputStream is) throws IOException {
+    /**
+     * Read feature data written by "write" from a binary input stream.
+     *
+     * @param is	binary input stream
+     *
+     * @return the feature data read
+     *
+     * @throws IOException
+     */
+    protected static RnaFeatureData read(DataInput is) throws IOException {
+        RnaFeatureData retVal = new RnaFeatureData();
+        retVal.readFields(is);
+        return retVal;
+    }
+
+    /**
+     * Fill in this feature's data from a binary input stream.
+     *
+     * @param is	binary input stream
+     *
+     * @throws IOException
+     */
+    private void readFields(DataInput is) throws IOException {
         this.id = is.readUTF();
         this.function = is.readUTF();
         String locString = is.readUTF();
@@ -0,0 +1,185 @@
+/**
+ *
+ */
+package org.theseed.rna;
+
+import java.util.Arrays;
+
+/**
+ * This object contains the order statistics for the good expression values in an RNA database row.  A value is
+ * good if it is a finite exact hit.  The values are sorted once when the object is built, so that the quartiles
+ * and other percentiles can be computed without sorting again.
+ *
+ * The computations reproduce the commons-math DescriptiveStatistics results for the same values (legacy percentile
+ * estimation, corrected two-pass mean, and bias-corrected standard deviation), so switching from one to the other
+ * does not change any output.
+ *
+ * Row statistics are immutable.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class RowStatistics {
+
+    // FIELDS
+    /** sorted good values */
+    private final double[] sorted;
+    /** mean of the good values */
+    private final double mean;
+    /** sample standard deviation of the good values */
+    private final double sdev;
+
+    /**
+     * Compute the statistics for a row.
+     *
+     * @param row	RNA database row of interest
+     */
+    public RowStatistics(RnaData.Row row) {
+        final int n = row.size();
+        double[] values = new double[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (row.isGood(i))
+                values[count++] = row.getValue(i);
+        }
+        values = Arrays.copyOf(values, count);
+        // The mean and deviation are computed in row order, as DescriptiveStatistics would.
+        this.mean = mean(values, count);
+        if (count == 0)
+            this.sdev = Double.NaN;
+        else if (count == 1)
+            this.sdev = 0.0;
+        else {
+            double accum = 0.0;
+            double accum2 = 0.0;
+            for (double v : values) {
+                final double dev = v - this.mean;
+                accum += dev * dev;
+                accum2 += dev;
+            }
+            this.sdev = Math.sqrt((accum - (accum2 * accum2 / count)) / (count - 1.0));
+        }
+        Arrays.sort(values);
+        this.sorted = values;
+    }
+
+    /**
+     * @return the mean of the first N values in an array, or NaN if N is 0
+     *
+     * This uses the same corrected two-pass algorithm as DescriptiveStatistics.
+     *
+     * @param values	array of values
+     * @param n			number of values to use
+     */
+    public static double mean(double[] values, int n) {
+        double retVal = Double.NaN;
+        if (n > 0) {
+            double sum = 0.0;
+            for (int i = 0; i < n; i++)
+                sum += values[i];
+            final double xbar = sum / n;
+            double correction = 0.0;
+            for (int i = 0; i < n; i++)
+                correction += values[i] - xbar;
+            retVal = xbar + correction / n;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the estimated percentile of the good values, or NaN if there are none
+     *
+     * @param pct	percentile desired (0 to 100)
+     */
+    public double getPercentile(double pct) {
+        return percentile(this.sorted, this.sorted.length, pct);
+    }
+
+    /**
+     * @return the estimated percentile of the first N values in a sorted array, or NaN if N is 0
+     *
+     * This uses the same legacy estimation method as DescriptiveStatistics.
+     *
+     * @param sorted	array of values, sorted in ascending order
+     * @param n			number of values to use
+     * @param pct		percentile desired (0 to 100)
+     */
+    public static double percentile(double[] sorted, int n, double pct) {
+        double retVal;
+        if (n == 0)
+            retVal = Double.NaN;
+        else {
+            final double p = pct / 100.0;
+            final double pos = (p == 0.0 ? 0.0 : (p == 1.0 ? n : p * (n + 1)));
+            if (pos < 1)
+                retVal = sorted[0];
+            else if (pos >= n)
+                retVal = sorted[n - 1];
+            else {
+                final double fpos = Math.floor(pos);
+                final int intPos = (int) fpos;
+                final double lower = sorted[intPos - 1];
+                final double upper = sorted[intPos];
+                retVal = lower + (pos - fpos) * (upper - lower);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the trimean of the good values, or NaN if there are none
+     */
+    public double getTrimean() {
+        return ((this.getPercentile(25) + this.getPercentile(75)) / 2.0 + this.getPercentile(50)) / 2.0;
+    }
+
+    /**
+     * @return the interquartile range of the good values, or NaN if there are none
+     */
+    public double getIQR() {
+        return this.getPercentile(75) - this.getPercentile(25);
+    }
+
+    /**
+     * @return the mean of the good values, or NaN if there are none
+     */
+    public double getMean() {
+        return this.mean;
+    }
+
+    /**
+     * @return the sample standard deviation of the good values (0 for a single value, NaN if there are none)
+     */
+    public double getStandardDeviation() {
+        return this.sdev;
+    }
+
+    /**
+     * @return the number of good values
+     */
+    public int getN() {
+        return this.sorted.length;
+    }
+
+    /**
+     * @return the minimum good value, or NaN if there are none
+     */
+    public double getMin() {
+        return (this.sorted.length == 0 ? Double.NaN : this.sorted[0]);
+    }
+
+    /**
+     * @return the maximum good value, or NaN if there are none
+     */
+    public double getMax() {
+        return (this.sorted.length == 0 ? Double.NaN : this.sorted[this.sorted.length - 1]);
+    }
+
+    /**
+     * @return a copy of the sorted good values
+     */
+    public double[] getSortedValues() {
+        return Arrays.copyOf(this.sorted, this.sorted.length);
+    }
+
+}
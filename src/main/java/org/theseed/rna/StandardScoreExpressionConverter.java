@@ -3,8 +3,6 @@
  */
 package org.theseed.rna;
 
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
-
 /**
  * This converter reduces the expression value to a standard score, that is x -> (x - mean) / sdev.
  *
@@ -21,7 +19,7 @@ public class StandardScoreExpressionConverter extends ExpressionConverter {
 
     @Override
     protected void processRow() {
-        DescriptiveStatistics stats = RnaData.getStats(this.getRow());
+        RowStatistics stats = this.getRow().getStatistics();
         this.mean = stats.getMean();
         this.sdev = stats.getStandardDeviation();
     }
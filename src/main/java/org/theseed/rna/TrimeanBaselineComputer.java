@@ -3,7 +3,6 @@
  */
 package org.theseed.rna;
 
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.theseed.rna.RnaData.Row;
 
 /**
@@ -17,9 +16,7 @@ public class TrimeanBaselineComputer extends BaselineComputer {
 
     @Override
     public double getBaseline(Row row) {
-        DescriptiveStatistics stats = RnaData.getStats(row);
-        double retVal = ((stats.getPercentile(25) + stats.getPercentile(75)) / 2.0 + stats.getPercentile(50)) / 2.0;
-        return retVal;
+        return row.getStatistics().getTrimean();
     }
 
 }
@@ -9,12 +9,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -29,6 +29,11 @@ import org.apache.commons.lang3.Strings;
  * This class represents a sample ID.  A sample ID consists of 10 to 11 identification fields separated by underscores.
  * they are sorted field by field, with one of the fields being interpreted numerically.
  *
+ * The sorted insertion and deletion sets are cached when they are first needed for a comparison, so that sorting
+ * and hashing sample IDs does not re-parse them every time.  For programs that handle the same sample IDs over and
+ * over, the static "intern" method returns a shared, pre-parsed copy of each sample ID.  The shared copies cannot be
+ * modified.
+ *
  * @author Bruce Parrello
  *
  */
@@ -39,6 +44,18 @@ public class SampleId implements Comparable<SampleId> {
     private String[] fragments;
     /** time point */
     private double timePoint;
+    /** sorted insertion set, or NULL if it has not been computed yet */
+    private String[] insertKey;
+    /** sorted deletion set, or NULL if it has not been computed yet */
+    private String[] deleteKey;
+    /** TRUE if this sample ID is shared through the intern cache and cannot be modified */
+    private boolean shared;
+    /** cache of shared sample IDs, keyed by ID string */
+    private static final Map<String, SampleId> INTERN_CACHE = new ConcurrentHashMap<>();
+    /** pool of fragment strings used by the shared sample IDs */
+    private static final Map<String, String> FRAGMENT_POOL = new ConcurrentHashMap<>();
+    /** empty protein list */
+    private static final String[] NO_PROTEINS = new String[0];
     /** index of the strain column */
     public static final int STRAIN_COL = 0;
     /** index of the operon column */
@@ -149,11 +166,73 @@ public class SampleId implements Comparable<SampleId> {
         parseTimeString();
     }
 
+    /**
+     * Get a shared sample ID for an ID string.  Each distinct ID string is only parsed once, and its sorted insertion
+     * and deletion sets are computed up front.  The fragments are pooled, so that identical fragments in different
+     * shared sample IDs are the same string object and compare without examining the characters.
+     *
+     * The returned object is shared by all callers, so the methods that modify a sample ID in place will throw
+     * an UnsupportedOperationException.  Use the copy constructor to get a modifiable sample ID.
+     *
+     * @param sampleData	ID string
+     *
+     * @return the shared sample ID for the string
+     */
+    public static SampleId intern(String sampleData) {
+        SampleId retVal = INTERN_CACHE.get(sampleData);
+        if (retVal == null) {
+            SampleId newId = new SampleId(sampleData);
+            for (int i = 0; i < newId.fragments.length; i++)
+                newId.fragments[i] = FRAGMENT_POOL.computeIfAbsent(newId.fragments[i], x -> x);
+            newId.getInsertKey();
+            newId.getDeleteKey();
+            newId.shared = true;
+            // If another thread got here first, we use its copy.
+            retVal = INTERN_CACHE.putIfAbsent(sampleData, newId);
+            if (retVal == null)
+                retVal = newId;
+        }
+        return retVal;
+    }
+
+    /**
+     * Empty the shared sample ID cache.  Sample IDs already returned by "intern" remain valid.
+     */
+    public static void clearInternCache() {
+        INTERN_CACHE.clear();
+        FRAGMENT_POOL.clear();
+    }
+
+    /**
+     * @return the number of sample IDs in the shared sample ID cache
+     */
+    public static int internCacheSize() {
+        return INTERN_CACHE.size();
+    }
+
+    /**
+     * @return TRUE if this sample ID is shared through the intern cache (and therefore cannot be modified)
+     */
+    public boolean isShared() {
+        return this.shared;
+    }
+
+    /**
+     * Insure this sample ID can be modified.
+     *
+     * @throws UnsupportedOperationException if this sample ID is shared
+     */
+    private void checkModifiable() {
+        if (this.shared)
+            throw new UnsupportedOperationException("Cannot modify shared sample ID " + this + ".");
+    }
+
     /**
      * Sort the inserts and deletes to normalize the sample ID.  To facilitate
      * use in streams and construction, this operation returns the object itself.
      */
     public SampleId normalizeSets() {
+        this.checkModifiable();
         Set<String> deletes = this.getDeletes();
         if (deletes.size() > 1)
             this.fragments[DELETE_COL] =
@@ -192,6 +271,8 @@ public class SampleId implements Comparable<SampleId> {
     public SampleId(SampleId oldId) {
         this.fragments = oldId.fragments.clone();
         this.timePoint = oldId.timePoint;
+        this.insertKey = oldId.insertKey;
+        this.deleteKey = oldId.deleteKey;
     }
 
     /**
@@ -507,6 +588,7 @@ public class SampleId implements Comparable<SampleId> {
      * Increment this sample ID.  This involves increasing the replicate number.
      */
     public void increment() {
+        this.checkModifiable();
         if (this.fragments.length == NORMAL_SIZE) {
             String[] newFragments = new String[NORMAL_SIZE + 1];
             System.arraycopy(this.fragments, 0, newFragments, 0, NORMAL_SIZE);
@@ -652,9 +734,9 @@ public class SampleId implements Comparable<SampleId> {
         for (int i = 0; retVal == 0 && i < NORMAL_SIZE; i++) {
             retVal = switch (i) {
                 case TIME_COL -> Double.compare(this.timePoint, o.timePoint);
-                case DELETE_COL -> SampleId.setCompare(this.getDeletes(), o.getDeletes());
-                case INSERT_COL -> SampleId.setCompare(this.getInserts(), o.getInserts());
-                default -> this.fragments[i].compareTo(o.fragments[i]);
+                case DELETE_COL -> SampleId.keyCompare(this.getDeleteKey(), o.getDeleteKey());
+                case INSERT_COL -> SampleId.keyCompare(this.getInsertKey(), o.getInsertKey());
+                default -> (this.fragments[i] == o.fragments[i] ? 0 : this.fragments[i].compareTo(o.fragments[i]));
             };
         }
         // Handle the optional 11th slot.
@@ -687,6 +769,58 @@ public class SampleId implements Comparable<SampleId> {
         return retVal;
     }
 
+    /**
+     * Compare two sorted protein lists.  This produces the same ordering as "setCompare" on the corresponding sets.
+     *
+     * @param key1		first sorted list to compare
+     * @param key2		second sorted list to compare
+     *
+     * @return a negative value if the first list is less, positive if it is more, 0 if they
+     * 		   are the same
+     */
+    private static int keyCompare(String[] key1, String[] key2) {
+        int retVal = key1.length - key2.length;
+        for (int i = 0; retVal == 0 && i < key1.length; i++)
+            retVal = key1[i].compareTo(key2[i]);
+        return retVal;
+    }
+
+    /**
+     * @return the hash code of a sorted protein list (the same as the hash code of the corresponding set)
+     *
+     * @param key	sorted list to hash
+     */
+    private static int keyHash(String[] key) {
+        int retVal = 0;
+        for (String prot : key)
+            retVal += prot.hashCode();
+        return retVal;
+    }
+
+    /**
+     * @return the sorted list of inserted proteins, computing it if necessary
+     */
+    private String[] getInsertKey() {
+        String[] retVal = this.insertKey;
+        if (retVal == null) {
+            retVal = this.getInserts().toArray(NO_PROTEINS);
+            this.insertKey = retVal;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the sorted list of deleted proteins, computing it if necessary
+     */
+    private String[] getDeleteKey() {
+        String[] retVal = this.deleteKey;
+        if (retVal == null) {
+            retVal = this.getDeletes().toArray(NO_PROTEINS);
+            this.deleteKey = retVal;
+        }
+        return retVal;
+    }
+
     /**
      * @return a sorted list based on the input set
      *
@@ -767,6 +901,7 @@ public class SampleId implements Comparable<SampleId> {
         Set<String> inserts = retVal.getInserts();
         inserts.add(newProtein);
         retVal.fragments[INSERT_COL] = StringUtils.join(inserts, '-');
+        retVal.insertKey = null;
         return retVal;
     }
 
@@ -780,6 +915,7 @@ public class SampleId implements Comparable<SampleId> {
         Set<String> deletes = retVal.getDeletes();
         deletes.add(newProtein);
         retVal.fragments[DELETE_COL] = "D" + StringUtils.join(deletes, 'D');
+        retVal.deleteKey = null;
         return retVal;
     }
     /**
@@ -912,8 +1048,8 @@ public class SampleId implements Comparable<SampleId> {
         int result = 0;
         for (int i = 0; i < this.fragments.length; i++) {
             result = switch (i) {
-                case INSERT_COL -> 31 * result + this.getInserts().hashCode();
-                case DELETE_COL -> 31 * result + this.getDeletes().hashCode();
+                case INSERT_COL -> 31 * result + keyHash(this.getInsertKey());
+                case DELETE_COL -> 31 * result + keyHash(this.getDeleteKey());
                 default -> 31 * result + this.getFragment(i).hashCode();
             };
         }
@@ -932,18 +1068,10 @@ public class SampleId implements Comparable<SampleId> {
         boolean retVal = true;
         for (int i = 0; i < this.fragments.length && retVal; i++) {
             switch (i) {
-            case DELETE_COL -> {
-                // For deletes, the deletion order does not matter, so we have a special compare.
-                Set<String> thisDels = this.getDeletes();
-                Set<String> otherDels = other.getDeletes();
-                retVal = (thisDels.size() == otherDels.size() && thisDels.containsAll(otherDels));
-                }
-            case INSERT_COL -> {
-                // Inserts work like deletes.
-                Set<String> thisInserts = this.getInserts();
-                Set<String> otherInserts = other.getInserts();
-                retVal = (thisInserts.size() == otherInserts.size() && thisInserts.containsAll(otherInserts));
-                }
+            // For deletes, the deletion order does not matter, so we compare the sorted lists.
+            case DELETE_COL -> retVal = Arrays.equals(this.getDeleteKey(), other.getDeleteKey());
+            // Inserts work like deletes.
+            case INSERT_COL -> retVal = Arrays.equals(this.getInsertKey(), other.getInsertKey());
             default -> // For normal fragments it's just a string compare.
                 retVal = this.fragments[i].contentEquals(other.fragments[i]);
             }
@@ -965,18 +1093,10 @@ public class SampleId implements Comparable<SampleId> {
                     ! this.fragments[i].contentEquals(inSample.fragments[i])) {
                 // Here we have two constants that don't match.  If we are an insert or delete, we do a set-based check.
                 switch (i) {
-                case DELETE_COL -> {
-                    // For deletes, the deletion order does not matter, so we have a special compare.
-                    Set<String> thisDels = this.getDeletes();
-                    Set<String> otherDels = inSample.getDeletes();
-                    retVal = (thisDels.size() == otherDels.size() && thisDels.containsAll(otherDels));
-                    }
-                case INSERT_COL -> {
-                    // Inserts work like deletes.
-                    Set<String> thisInserts = this.getInserts();
-                    Set<String> otherInserts = inSample.getInserts();
-                    retVal = (thisInserts.size() == otherInserts.size() && thisInserts.containsAll(otherInserts));
-                    }
+                // For deletes, the deletion order does not matter, so we compare the sorted lists.
+                case DELETE_COL -> retVal = Arrays.equals(this.getDeleteKey(), inSample.getDeleteKey());
+                // Inserts work like deletes.
+                case INSERT_COL -> retVal = Arrays.equals(this.getInsertKey(), inSample.getInsertKey());
                 default -> retVal = false;
                 }
             }
@@ -988,6 +1108,7 @@ public class SampleId implements Comparable<SampleId> {
      * Convert this sample ID to a strain ID and return it.
      */
     public SampleId asStrain() {
+        this.checkModifiable();
         for (int i = STRAIN_SIZE; i < this.fragments.length; i++) {
             this.fragments[i] = "0";
         }
@@ -1054,19 +1175,7 @@ public class SampleId implements Comparable<SampleId> {
                 retVal = this.fragments[ASD_COL].compareTo(other.fragments[ASD_COL]);
                 if (retVal == 0) {
                     // Now we must compare the delete sets.
-                    var thisDels = this.getDeletes();
-                    var otherDels = other.getDeletes();
-                    retVal = thisDels.size() - otherDels.size();
-                    if (retVal == 0) {
-                        // Here we know both sets are the same size.  Find the first differing element.
-                        Iterator<String> thisIter = thisDels.iterator();
-                        Iterator<String> otherIter = otherDels.iterator();
-                        while (retVal == 0 && thisIter.hasNext()) {
-                            String thisProt = thisIter.next();
-                            String otherProt = otherIter.next();
-                            retVal = thisProt.compareTo(otherProt);
-                        }
-                    }
+                    retVal = keyCompare(this.getDeleteKey(), other.getDeleteKey());
                 }
             }
         }
@@ -1123,6 +1232,7 @@ public class SampleId implements Comparable<SampleId> {
      * Force IPTG on in this sample.
      */
     public void setIptg() {
+        this.checkModifiable();
         this.fragments[INDUCE_COL] = "I";
     }
 
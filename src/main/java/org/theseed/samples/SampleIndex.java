@@ -0,0 +1,306 @@
+/**
+ *
+ */
+package org.theseed.samples;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * This object indexes a collection of sample IDs by their metadata fields.  For each field, the index maps each
+ * value to the set of samples having it, so a query such as "all samples of strain X at time T with IPTG" is
+ * answered by intersecting a few bit sets rather than by scanning the samples.
+ *
+ * The samples are stored in sorted order, and query results are returned in that order.  The position of a sample
+ * in the index can be used as a sort key, so that sorting samples from the index only requires integer comparisons.
+ *
+ * Insertion and deletion fields are indexed by their normalized form, so the order in which the proteins are listed
+ * does not matter, either in the sample IDs or in the query values.  Only the first NORMAL_SIZE fields are indexed;
+ * the replicate number is not.
+ *
+ * The index cannot be modified once it is built.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SampleIndex {
+
+    // FIELDS
+    /** samples in sorted order */
+    private final SampleId[] samples;
+    /** map of samples to positions */
+    private final Map<SampleId, Integer> positionMap;
+    /** for each indexed field, a map of field values to sample positions */
+    private final List<Map<String, BitSet>> fieldMaps;
+    /** map of time points to sample positions */
+    private final Map<Double, BitSet> timeMap;
+    /** map of normalized strain IDs to sample positions */
+    private final Map<String, BitSet> strainMap;
+
+    /**
+     * This object represents a query against the index.  Each criterion restricts the set of samples selected,
+     * so the criteria can be chained.
+     */
+    public class Query {
+
+        /** positions of the samples still selected */
+        private final BitSet selected;
+
+        /**
+         * Create a query that selects all the samples in the index.
+         */
+        private Query() {
+            this.selected = new BitSet(SampleIndex.this.samples.length);
+            this.selected.set(0, SampleIndex.this.samples.length);
+        }
+
+        /**
+         * Restrict the query to samples with a specific value in a field.
+         *
+         * @param col		index of the field (must be less than NORMAL_SIZE)
+         * @param value		required field value
+         *
+         * @return this object, for chaining
+         */
+        public Query with(int col, String value) {
+            if (col < 0 || col >= SampleId.NORMAL_SIZE)
+                throw new IllegalArgumentException("Invalid sample field index " + col + ".");
+            return this.restrict(SampleIndex.this.fieldMaps.get(col).get(normalize(col, value)));
+        }
+
+        /**
+         * Restrict the query to samples of a specific strain.
+         *
+         * @param strain	required strain ID (the first STRAIN_SIZE fields of a sample ID)
+         *
+         * @return this object, for chaining
+         */
+        public Query strain(String strain) {
+            String[] pieces = StringUtils.split(strain, '_');
+            BitSet found = null;
+            if (pieces.length == SampleId.STRAIN_SIZE)
+                found = SampleIndex.this.strainMap.get(strainKey(pieces));
+            return this.restrict(found);
+        }
+
+        /**
+         * Restrict the query to samples at a specific time point.
+         *
+         * @param time		required time point
+         *
+         * @return this object, for chaining
+         */
+        public Query time(double time) {
+            return this.restrict(SampleIndex.this.timeMap.get(time));
+        }
+
+        /**
+         * Restrict the query to induced or uninduced samples.
+         *
+         * @param iptg		TRUE to select samples with IPTG, FALSE to select samples without
+         *
+         * @return this object, for chaining
+         */
+        public Query iptg(boolean iptg) {
+            return this.with(SampleId.INDUCE_COL, (iptg ? "I" : "0"));
+        }
+
+        /**
+         * Restrict the query to samples grown in a specific medium.
+         *
+         * @param medium	required medium ID
+         *
+         * @return this object, for chaining
+         */
+        public Query medium(String medium) {
+            return this.with(SampleId.MEDIA_COL, medium);
+        }
+
+        /**
+         * Remove the samples not in a bit set from the selection.
+         *
+         * @param found		positions of the samples to keep, or NULL if there are none
+         *
+         * @return this object, for chaining
+         */
+        private Query restrict(BitSet found) {
+            if (found == null)
+                this.selected.clear();
+            else
+                this.selected.and(found);
+            return this;
+        }
+
+        /**
+         * @return the number of samples selected
+         */
+        public int count() {
+            return this.selected.cardinality();
+        }
+
+        /**
+         * @return a sorted list of the samples selected
+         */
+        public List<SampleId> list() {
+            List<SampleId> retVal = new ArrayList<>(this.selected.cardinality());
+            for (int i = this.selected.nextSetBit(0); i >= 0; i = this.selected.nextSetBit(i + 1))
+                retVal.add(SampleIndex.this.samples[i]);
+            return retVal;
+        }
+
+    }
+
+    /**
+     * Build an index for a collection of sample IDs.  Duplicate samples are only indexed once.
+     *
+     * @param sampleIds		sample IDs to index
+     */
+    public SampleIndex(Collection<SampleId> sampleIds) {
+        this.samples = sampleIds.stream().distinct().sorted().toArray(SampleId[]::new);
+        final int n = this.samples.length;
+        this.positionMap = new HashMap<>(n * 4 / 3 + 1);
+        this.fieldMaps = new ArrayList<>(SampleId.NORMAL_SIZE);
+        for (int col = 0; col < SampleId.NORMAL_SIZE; col++)
+            this.fieldMaps.add(new HashMap<>());
+        this.timeMap = new HashMap<>();
+        this.strainMap = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            SampleId sample = this.samples[i];
+            this.positionMap.put(sample, i);
+            for (int col = 0; col < SampleId.NORMAL_SIZE; col++)
+                addPosition(this.fieldMaps.get(col), normalize(col, sample.getFragment(col)), i);
+            addPosition(this.timeMap, sample.getTimePoint(), i);
+            addPosition(this.strainMap, strainKey(sample.getStrainFragments()), i);
+        }
+    }
+
+    /**
+     * Build an index for a collection of sample ID strings.  The sample IDs are obtained from the shared sample ID
+     * cache, so they cannot be modified.
+     *
+     * @param sampleNames	sample ID strings to index
+     *
+     * @return the index for the samples
+     */
+    public static SampleIndex fromNames(Collection<String> sampleNames) {
+        List<SampleId> sampleIds = new ArrayList<>(sampleNames.size());
+        for (String sampleName : sampleNames)
+            sampleIds.add(SampleId.intern(sampleName));
+        return new SampleIndex(sampleIds);
+    }
+
+    /**
+     * Record a sample position in a value map.
+     *
+     * @param <K>		type of value
+     * @param map		map of values to sample positions
+     * @param key		value for the sample
+     * @param pos		position of the sample
+     */
+    private static <K> void addPosition(Map<K, BitSet> map, K key, int pos) {
+        map.computeIfAbsent(key, x -> new BitSet()).set(pos);
+    }
+
+    /**
+     * @return the normalized form of a field value
+     *
+     * @param col		index of the field
+     * @param value		value to normalize
+     */
+    private static String normalize(int col, String value) {
+        String retVal = value;
+        switch (col) {
+        case SampleId.INSERT_COL -> {
+            Set<String> inserts = SampleId.parseInserts(value);
+            if (! inserts.isEmpty())
+                retVal = StringUtils.join(inserts, '-');
+            }
+        case SampleId.DELETE_COL -> {
+            Set<String> deletes = SampleId.parseDeletes(value);
+            if (! deletes.isEmpty())
+                retVal = "D" + StringUtils.join(deletes, 'D');
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the normalized strain ID for an array of strain fragments
+     *
+     * @param pieces	strain fragments to convert
+     */
+    private static String strainKey(String[] pieces) {
+        StringBuilder retVal = new StringBuilder(40);
+        for (int col = 0; col < SampleId.STRAIN_SIZE; col++) {
+            if (col > 0)
+                retVal.append('_');
+            retVal.append(normalize(col, pieces[col]));
+        }
+        return retVal.toString();
+    }
+
+    /**
+     * @return a new query that initially selects all the samples in the index
+     */
+    public Query query() {
+        return new Query();
+    }
+
+    /**
+     * @return the number of samples in the index
+     */
+    public int size() {
+        return this.samples.length;
+    }
+
+    /**
+     * @return the sample at the specified position in the sort order
+     *
+     * @param pos	position of the desired sample
+     */
+    public SampleId getSample(int pos) {
+        return this.samples[pos];
+    }
+
+    /**
+     * @return a sorted list of all the samples in the index
+     */
+    public List<SampleId> getSamples() {
+        return List.of(this.samples);
+    }
+
+    /**
+     * @return the position of a sample in the sort order, or -1 if the sample is not in the index
+     *
+     * @param sample	sample of interest
+     */
+    public int getPosition(SampleId sample) {
+        Integer retVal = this.positionMap.get(sample);
+        return (retVal == null ? -1 : retVal);
+    }
+
+    /**
+     * @return the sorted set of the values found in a field
+     *
+     * @param col		index of the field (must be less than NORMAL_SIZE)
+     */
+    public Set<String> getValues(int col) {
+        return new TreeSet<>(this.fieldMaps.get(col).keySet());
+    }
+
+    /**
+     * @return the sorted set of the time points found in the samples
+     */
+    public Set<Double> getTimePoints() {
+        return new TreeSet<>(this.timeMap.keySet());
+    }
+
+}
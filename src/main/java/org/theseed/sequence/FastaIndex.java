@@ -0,0 +1,434 @@
+/**
+ *
+ */
+package org.theseed.sequence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.io.TabbedLineReader;
+
+/**
+ * This object represents an index of a FASTA file, compatible with the "faidx" format used by
+ * samtools.  For each record we store the label, the sequence length, the byte offset of the first
+ * sequence character, the number of sequence characters per line, and the number of bytes per line
+ * (including the line-end).  This allows any position in a sequence to be located in the file
+ * by arithmetic.
+ *
+ * The lines of each record must be the same length, except for the last line, and as in samtools, a sequence
+ * line cannot contain whitespace other than the line-end.  FASTA files produced by FastaOutputStream always
+ * satisfy these requirements.  Labels are decoded as UTF-8.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class FastaIndex {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(FastaIndex.class);
+    /** map of labels to index entries, in file order */
+    private final Map<String, Entry> entries;
+
+    /** suffix for FASTA index files */
+    public static final String INDEX_SUFFIX = ".fai";
+    /** size of the buffer used for scanning */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * This class describes the location of a single record in the FASTA file.
+     */
+    public static class Entry {
+
+        /** label of the sequence */
+        private final String label;
+        /** number of characters in the sequence */
+        private final long length;
+        /** byte offset of the first sequence character */
+        private final long offset;
+        /** number of sequence characters per line */
+        private final int lineBases;
+        /** number of bytes per line */
+        private final int lineWidth;
+
+        /**
+         * Create a new index entry.
+         *
+         * @param label			label of the sequence
+         * @param length		number of characters in the sequence
+         * @param offset		byte offset of the first sequence character
+         * @param lineBases		number of sequence characters per line
+         * @param lineWidth		number of bytes per line
+         */
+        public Entry(String label, long length, long offset, int lineBases, int lineWidth) {
+            this.label = label;
+            this.length = length;
+            this.offset = offset;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+        }
+
+        /**
+         * @return the file offset of a sequence position
+         *
+         * @param pos	0-based position in the sequence
+         */
+        public long offsetOf(long pos) {
+            long retVal = this.offset;
+            if (this.lineBases > 0)
+                retVal += (pos / this.lineBases) * this.lineWidth + pos % this.lineBases;
+            return retVal;
+        }
+
+        /**
+         * @return the label of the sequence
+         */
+        public String getLabel() {
+            return this.label;
+        }
+
+        /**
+         * @return the number of characters in the sequence
+         */
+        public long getLength() {
+            return this.length;
+        }
+
+        /**
+         * @return the byte offset of the first sequence character
+         */
+        public long getOffset() {
+            return this.offset;
+        }
+
+        /**
+         * @return the number of sequence characters per line
+         */
+        public int getLineBases() {
+            return this.lineBases;
+        }
+
+        /**
+         * @return the number of bytes per line
+         */
+        public int getLineWidth() {
+            return this.lineWidth;
+        }
+
+    }
+
+    /**
+     * Create an empty FASTA index.
+     */
+    protected FastaIndex() {
+        this.entries = new LinkedHashMap<>();
+    }
+
+    /**
+     * Build an index by scanning a FASTA file.
+     *
+     * @param fastaFile		FASTA file to index (must not be compressed)
+     *
+     * @return the index for the file
+     *
+     * @throws IOException
+     */
+    public static FastaIndex build(File fastaFile) throws IOException {
+        FastaIndex retVal = new FastaIndex();
+        try (InputStream inStream = new FileInputStream(fastaFile)) {
+            Builder builder = retVal.new Builder(fastaFile);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n = inStream.read(buffer);
+            while (n >= 0) {
+                for (int i = 0; i < n; i++)
+                    builder.process(buffer[i]);
+                n = inStream.read(buffer);
+            }
+            builder.finish();
+        }
+        return retVal;
+    }
+
+    /**
+     * This class tracks the state of the index build as we scan the file byte by byte.
+     */
+    private class Builder {
+
+        /** name of the file being scanned, for error messages */
+        private final File fastaFile;
+        /** current position in the file */
+        private long filePos;
+        /** TRUE if we are at the start of a line */
+        private boolean lineStart;
+        /** TRUE if we are in a header line */
+        private boolean inHeader;
+        /** TRUE if we are in the label portion of a header line */
+        private boolean inLabel;
+        /** buffer for the bytes of the current label, or NULL if we have not found a record */
+        private ByteArrayOutputStream label;
+        /** offset of the current record's first sequence character */
+        private long offset;
+        /** number of sequence characters in the current record */
+        private long length;
+        /** line sizes of the current record, or 0 if no full line has been found */
+        private int lineBases;
+        private int lineWidth;
+        /** characters and bytes in the current line */
+        private int currBases;
+        private int currBytes;
+        /** TRUE if the current record has had a short line */
+        private boolean shortLine;
+        /** TRUE if the previous byte was a carriage return in sequence data */
+        private boolean pendingCr;
+
+        /**
+         * Initialize the build state.
+         *
+         * @param fastaFile		file being scanned
+         */
+        protected Builder(File fastaFile) {
+            this.fastaFile = fastaFile;
+            this.filePos = 0;
+            this.lineStart = true;
+            this.inHeader = false;
+            this.label = null;
+        }
+
+        /**
+         * Process the next byte of the file.
+         *
+         * @param b		byte to process
+         *
+         * @throws IOException
+         */
+        protected void process(byte b) throws IOException {
+            if (this.inHeader) {
+                if (b == '\n') {
+                    this.inHeader = false;
+                    this.offset = this.filePos + 1;
+                    this.length = 0;
+                    this.lineBases = 0;
+                    this.lineWidth = 0;
+                    this.currBases = 0;
+                    this.currBytes = 0;
+                    this.shortLine = false;
+                    this.pendingCr = false;
+                } else if (b == ' ' || b == '\r') {
+                    if (this.label.size() > 0)
+                        this.inLabel = false;
+                } else if (this.inLabel)
+                    this.label.write(b);
+            } else if (this.lineStart && b == '>') {
+                this.finish();
+                this.inHeader = true;
+                this.inLabel = true;
+                this.label = new ByteArrayOutputStream(40);
+            } else if (this.label != null) {
+                // Here we are in sequence data.  The only whitespace allowed is the line-end.
+                this.currBytes++;
+                if (b == '\n') {
+                    this.pendingCr = false;
+                    this.endLine();
+                } else if (this.pendingCr || b == ' ' || b == '\t' || b == 0x0B || b == '\f')
+                    throw new IOException("Whitespace inside a sequence line in record " + this.labelString()
+                            + " of " + this.fastaFile + ".");
+                else if (b == '\r')
+                    this.pendingCr = true;
+                else
+                    this.currBases++;
+            }
+            this.lineStart = (b == '\n');
+            this.filePos++;
+        }
+
+        /**
+         * @return the current label, decoded as UTF-8
+         */
+        private String labelString() {
+            return this.label.toString(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Process the end of a sequence line.
+         *
+         * @throws IOException
+         */
+        private void endLine() throws IOException {
+            if (this.currBases > 0) {
+                if (this.shortLine)
+                    throw new IOException("Uneven line lengths in record " + this.labelString() + " of " + this.fastaFile + ".");
+                if (this.lineBases == 0) {
+                    this.lineBases = this.currBases;
+                    this.lineWidth = this.currBytes;
+                } else if (this.currBases > this.lineBases || this.currBytes != this.lineWidth
+                        && this.currBases == this.lineBases)
+                    throw new IOException("Uneven line lengths in record " + this.labelString() + " of " + this.fastaFile + ".");
+                if (this.currBases < this.lineBases)
+                    this.shortLine = true;
+                this.length += this.currBases;
+            } else if (this.length > 0)
+                this.shortLine = true;
+            else {
+                // Here we have a blank line before the sequence starts, so the sequence moves down.
+                this.offset += this.currBytes;
+            }
+            this.currBases = 0;
+            this.currBytes = 0;
+        }
+
+        /**
+         * Finish the current record (if any) and store it in the index.
+         *
+         * @throws IOException
+         */
+        protected void finish() throws IOException {
+            if (this.label != null) {
+                if (this.inHeader) {
+                    // Here the file ended in the middle of the header.
+                    this.offset = this.filePos;
+                    this.length = 0;
+                    this.lineBases = 0;
+                    this.inHeader = false;
+                } else if (this.currBytes > 0)
+                    this.endLine();
+                if (this.lineBases == 0) {
+                    // Here the sequence is empty.
+                    this.lineWidth = 0;
+                }
+                String labelString = this.labelString();
+                if (entries.containsKey(labelString))
+                    throw new IOException("Duplicate label " + labelString + " in " + this.fastaFile + ".");
+                entries.put(labelString, new Entry(labelString, this.length, this.offset, this.lineBases, this.lineWidth));
+                this.label = null;
+            }
+        }
+
+    }
+
+    /**
+     * Load an index from a file.
+     *
+     * @param indexFile		index file to load
+     *
+     * @return the index loaded
+     *
+     * @throws IOException
+     */
+    public static FastaIndex load(File indexFile) throws IOException {
+        FastaIndex retVal = new FastaIndex();
+        try (TabbedLineReader inStream = new TabbedLineReader(indexFile, 5)) {
+            for (TabbedLineReader.Line line : inStream) {
+                String label = line.get(0);
+                Entry entry = new Entry(label, Long.parseLong(line.get(1)), Long.parseLong(line.get(2)),
+                        line.getInt(3), line.getInt(4));
+                retVal.entries.put(label, entry);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Save this index to a file.
+     *
+     * @param indexFile		index file to write
+     *
+     * @throws IOException
+     */
+    public void save(File indexFile) throws IOException {
+        try (PrintWriter writer = new PrintWriter(indexFile, StandardCharsets.UTF_8)) {
+            for (Entry entry : this.entries.values())
+                writer.println(entry.label + "\t" + entry.length + "\t" + entry.offset + "\t"
+                        + entry.lineBases + "\t" + entry.lineWidth);
+            if (writer.checkError())
+                throw new IOException("Error writing FASTA index " + indexFile + ".");
+        }
+    }
+
+    /**
+     * @return the default index file name for a FASTA file
+     *
+     * @param fastaFile		FASTA file of interest
+     */
+    public static File indexFileFor(File fastaFile) {
+        return new File(fastaFile.getPath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Get the index for a FASTA file.  If an up-to-date index file exists, it will be loaded;
+     * otherwise, the index will be built and an attempt will be made to save it.
+     *
+     * @param fastaFile		FASTA file of interest
+     *
+     * @return the index for the file
+     *
+     * @throws IOException
+     */
+    public static FastaIndex getIndex(File fastaFile) throws IOException {
+        return getIndex(fastaFile, true);
+    }
+
+    /**
+     * Get the index for a FASTA file.  If an up-to-date index file exists, it will be loaded;
+     * otherwise, the index will be built.  A built index is only saved if requested, and a failure
+     * to save it (for example, because the FASTA file is in a read-only directory) is not an error:
+     * the in-memory index is returned anyway.
+     *
+     * @param fastaFile		FASTA file of interest
+     * @param save			TRUE to save a newly-built index to the default index file
+     *
+     * @return the index for the file
+     *
+     * @throws IOException
+     */
+    public static FastaIndex getIndex(File fastaFile, boolean save) throws IOException {
+        File indexFile = indexFileFor(fastaFile);
+        FastaIndex retVal;
+        if (indexFile.canRead() && indexFile.lastModified() >= fastaFile.lastModified())
+            retVal = load(indexFile);
+        else {
+            retVal = build(fastaFile);
+            if (save) {
+                try {
+                    retVal.save(indexFile);
+                } catch (IOException e) {
+                    log.warn("Could not save FASTA index {}: {}", indexFile, e.toString());
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the index entry for a label, or NULL if the label is not in the file
+     *
+     * @param label		label of the desired sequence
+     */
+    public Entry get(String label) {
+        return this.entries.get(label);
+    }
+
+    /**
+     * @return the index entries, in file order
+     */
+    public Collection<Entry> getEntries() {
+        return this.entries.values();
+    }
+
+    /**
+     * @return the number of sequences in the index
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+}
@@ -8,28 +8,56 @@ import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
+import org.theseed.io.CompressionUtils;
 
 /**
- * This is an input stream for FASTA files.  It uses an underlying scanner to
- * read the file.
+ * This is an input stream for FASTA files.  It scans the raw bytes of the input directly for
+ * record and line boundaries, accumulating each record in reusable buffers.  Trailing white
+ * space (including the carriage return of a CRLF line end) is removed from every line, and the
+ * sequence letters are returned in their original case.
+ *
+ * The stream can be used as an iterator of Sequence objects, or the client can pass a visitor
+ * to "visitAll", in which case the sequence of each record is presented as a character sequence
+ * that is only valid during the visit.  The visitor mode only allocates the label and comment
+ * strings for each record.
+ *
+ * The header line is split into a label and a comment at the first run of spaces.
  */
 public class FastaInputStream implements Iterable<Sequence>, AutoCloseable,
         Iterator<Sequence> {
 
-    private static final Pattern DELIMITER = Pattern.compile("\\r?\\n>");
-    private static final Pattern END_LINE = Pattern.compile("\\s*\\r?\\n");
-
     // FIELDS
-    /** underlying scanner for reading input */
-    Scanner inputSource = null;
+    /** underlying input stream, or NULL if the stream is closed */
+    private InputStream inputSource;
+    /** input byte buffer */
+    private byte[] buffer;
+    /** position of the next unread byte in the input buffer */
+    private int pos;
+    /** number of valid bytes in the input buffer */
+    private int limit;
+    /** TRUE if we are positioned after the ">" of a record header */
+    private boolean pendingHeader;
+    /** buffer for the current header line */
+    private final TextBuffer headerBuffer;
+    /** label of the current record */
+    private String label;
+    /** comment of the current record */
+    private String comment;
+    /** buffer for the current sequence */
+    private final TextBuffer sequenceBuffer;
+
+    /** size of the input byte buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
 
     /**
      * This is a general file filter that only accepts FASTA files.
@@ -49,35 +77,276 @@ public class FastaInputStream implements Iterable<Sequence>, AutoCloseable,
 
     }
 
+    /**
+     * This interface is used to process FASTA records without creating Sequence objects.  The
+     * sequence text passed in is reused for the next record, so the visitor must copy it if it
+     * wants to keep it.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+
+        /**
+         * Process a single FASTA record.
+         *
+         * @param label		label of the record
+         * @param comment	comment of the record (empty if none)
+         * @param sequence	sequence text of the record
+         */
+        public void visit(CharSequence label, CharSequence comment, CharSequence sequence);
+
+    }
+
+    /**
+     * This is a growable byte buffer of UTF-8 text that can be viewed as a character sequence.
+     * While the buffer is pure ASCII, which is the normal case for sequence data, each byte is
+     * a single character and the view works directly on the bytes.  Otherwise, the view works on
+     * the decoded string, which is computed once when it is first needed.
+     */
+    protected static class TextBuffer implements CharSequence {
+
+        /** bytes in the buffer */
+        private byte[] data;
+        /** number of bytes in use */
+        private int len;
+        /** TRUE if every byte in the buffer is ASCII */
+        private boolean ascii;
+        /** decoded buffer contents, or NULL if they have not been computed */
+        private String text;
+
+        /**
+         * Create a new, empty text buffer.
+         *
+         * @param capacity	initial capacity
+         */
+        protected TextBuffer(int capacity) {
+            this.data = new byte[capacity];
+            this.clear();
+        }
+
+        /**
+         * Erase the buffer contents.
+         */
+        protected void clear() {
+            this.len = 0;
+            this.ascii = true;
+            this.text = null;
+        }
+
+        /**
+         * Append bytes to this buffer.
+         *
+         * @param source	source array
+         * @param off		offset of the first byte to append
+         * @param n			number of bytes to append
+         */
+        protected void append(byte[] source, int off, int n) {
+            if (this.len + n > this.data.length)
+                this.data = Arrays.copyOf(this.data, Math.max(this.len + n, this.data.length * 2));
+            System.arraycopy(source, off, this.data, this.len, n);
+            this.len += n;
+            if (this.ascii) {
+                int bits = 0;
+                for (int i = off + n - 1; i >= off; i--)
+                    bits |= source[i];
+                this.ascii = (bits >= 0);
+            }
+            this.text = null;
+        }
+
+        /**
+         * Remove trailing white space from the buffer, stopping at a specified position.
+         *
+         * @param start		position before which nothing will be removed
+         */
+        protected void trimEnd(int start) {
+            while (this.len > start && isSpace(this.data[this.len - 1]))
+                this.len--;
+            this.text = null;
+        }
+
+        @Override
+        public int length() {
+            return (this.ascii ? this.len : this.toString().length());
+        }
+
+        @Override
+        public char charAt(int index) {
+            char retVal;
+            if (! this.ascii)
+                retVal = this.toString().charAt(index);
+            else if (index < 0 || index >= this.len)
+                throw new IndexOutOfBoundsException(index);
+            else
+                retVal = (char) this.data[index];
+            return retVal;
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return this.toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            if (this.text == null)
+                this.text = new String(this.data, 0, this.len,
+                        (this.ascii ? StandardCharsets.US_ASCII : StandardCharsets.UTF_8));
+            return this.text;
+        }
+
+    }
+
     /**
      * Prepare to read FASTA from an input stream.
      */
     public FastaInputStream(InputStream inStream) {
-        this.inputSource = new Scanner(inStream);
+        this.inputSource = inStream;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.headerBuffer = new TextBuffer(200);
+        this.sequenceBuffer = new TextBuffer(BUFFER_SIZE);
         setup();
     }
 
     /**
-     * Setup the scanner to start reading.
+     * Position the stream at the first record.  Any text before the first header line is
+     * skipped.
      */
     private void setup() {
-        this.inputSource.useDelimiter(DELIMITER);
-        // Because the delimiter includes the ">" symbol, when we read in the middle of the
-        // file, we will be positioned past the symbol at the start of each record. We have
-        // to skip the initial symbol as a result.  We only do this if the file is nonempty
-        // to start.
-        if (this.inputSource.hasNext())
-            this.inputSource.skip(">");
+        this.pos = 0;
+        this.limit = 0;
+        this.pendingHeader = false;
+        try {
+            boolean lineStart = true;
+            while (! this.pendingHeader && this.pos < this.fill()) {
+                byte b = this.buffer[this.pos];
+                this.pos++;
+                if (lineStart && b == '>')
+                    this.pendingHeader = true;
+                lineStart = (b == '\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
-     * Prepare to read FASTA from a file.
+     * Prepare to read FASTA from a file.  A compressed file is decompressed automatically.
      *
      * @throws FileNotFoundException
      */
     public FastaInputStream(File inFile) throws FileNotFoundException {
-        this.inputSource = new Scanner(inFile);
-        setup();
+        this(openFile(inFile));
+    }
+
+    /**
+     * @return an input stream for the specified file
+     *
+     * @param inFile	FASTA file to open
+     *
+     * @throws FileNotFoundException
+     */
+    private static InputStream openFile(File inFile) throws FileNotFoundException {
+        try {
+            return CompressionUtils.openInput(inFile);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Insure there is data in the input buffer.
+     *
+     * @return the number of valid bytes in the buffer, which will be equal to the current position
+     * 		   only at end-of-file
+     *
+     * @throws IOException
+     */
+    private int fill() throws IOException {
+        if (this.pos >= this.limit && this.inputSource != null) {
+            int n = this.inputSource.read(this.buffer, 0, this.buffer.length);
+            this.pos = 0;
+            this.limit = (n < 0 ? 0 : n);
+        }
+        return this.limit;
+    }
+
+    /**
+     * Read the rest of the current line into a text buffer.  The line-end is consumed but not
+     * stored, and trailing white space is removed.
+     *
+     * @param target	buffer to receive the line
+     *
+     * @throws IOException
+     */
+    private void readLine(TextBuffer target) throws IOException {
+        final int start = target.length();
+        boolean done = false;
+        while (! done && this.pos < this.fill()) {
+            int end = this.pos;
+            while (end < this.limit && this.buffer[end] != '\n')
+                end++;
+            target.append(this.buffer, this.pos, end - this.pos);
+            if (end < this.limit) {
+                // Here we found the line-end.  Skip over it.
+                end++;
+                done = true;
+            }
+            this.pos = end;
+        }
+        target.trimEnd(start);
+    }
+
+    /**
+     * Read the next record into the label, comment, and sequence buffers.  The stream must be
+     * positioned after the header's ">".
+     *
+     * @throws IOException
+     */
+    private void readRecord() throws IOException {
+        // Parse the header line.
+        this.headerBuffer.clear();
+        this.readLine(this.headerBuffer);
+        this.parseHeader();
+        // Accumulate the sequence lines.
+        this.sequenceBuffer.clear();
+        this.pendingHeader = false;
+        while (! this.pendingHeader && this.pos < this.fill()) {
+            if (this.buffer[this.pos] == '>') {
+                this.pos++;
+                this.pendingHeader = true;
+            } else
+                this.readLine(this.sequenceBuffer);
+        }
+    }
+
+    /**
+     * Split the header line into label and comment, decoding each one to a string.  Spaces before
+     * the label are skipped, and the comment starts after the first run of spaces following the label.
+     */
+    private void parseHeader() {
+        byte[] header = this.headerBuffer.data;
+        final int n = this.headerBuffer.len;
+        int i = 0;
+        while (i < n && header[i] == ' ')
+            i++;
+        int labelStart = i;
+        while (i < n && header[i] != ' ')
+            i++;
+        this.label = new String(header, labelStart, i - labelStart, StandardCharsets.UTF_8);
+        while (i < n && header[i] == ' ')
+            i++;
+        this.comment = new String(header, i, n - i, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return TRUE if the specified byte is white space
+     *
+     * @param b		byte to check
+     */
+    private static boolean isSpace(byte b) {
+        return (b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '\f' || b == 0x0B);
     }
 
     @Override
@@ -88,8 +357,13 @@ public class FastaInputStream implements Iterable<Sequence>, AutoCloseable,
     @Override
     public void close() {
         if (this.inputSource != null) {
-            this.inputSource.close();
+            try {
+                this.inputSource.close();
+            } catch (IOException e) {
+                // Errors on close are not interesting.
+            }
             this.inputSource = null;
+            this.pendingHeader = false;
         }
 
     }
@@ -99,32 +373,45 @@ public class FastaInputStream implements Iterable<Sequence>, AutoCloseable,
      */
     @Override
     public boolean hasNext() {
-        return (this.inputSource == null ? false : this.inputSource.hasNext());
+        return this.pendingHeader;
     }
 
     /**
-     * @return the next sequence in this stream.
+     * @return the next sequence in this stream, or NULL if the stream is closed
      */
     @Override
     public Sequence next() {
         Sequence retVal = null;
+        if (this.inputSource != null) {
+            if (! this.pendingHeader)
+                throw new NoSuchElementException("No more sequences in FASTA stream.");
+            try {
+                this.readRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            retVal = new Sequence(this.label, this.comment, this.sequenceBuffer.toString());
+        }
+        return retVal;
+    }
+
+    /**
+     * Pass all the remaining records in this stream to a visitor.
+     *
+     * @param visitor	visitor to process each record
+     *
+     * @return the number of records processed
+     */
+    public int visitAll(Visitor visitor) {
+        int retVal = 0;
         try {
-            // Get the FASTA record.
-            String sequenceData = this.inputSource.next();
-            // Split it into lines.
-            String[] lines = END_LINE.split(sequenceData);
-            // Parse the header to get the label and comment.
-            String[] header = StringUtils.split(lines[0], " ", 2);
-            String label = header[0];
-            String comment = (header.length < 2 ? "" : header[1]);
-            // Estimate the size of the sequence.
-            int sizeEstimate = (lines.length == 2 ? lines[1].length() : lines.length * 64);
-            StringBuilder sequence = new StringBuilder(sizeEstimate);
-            for (int i = 1; i < lines.length; i++) sequence.append(lines[i]);
-            // Build the sequence object.
-            retVal = new Sequence(label, comment, sequence.toString());
-        } catch (NullPointerException e) {
-            // The file is already closed.  We will return NULL.
+            while (this.pendingHeader) {
+                this.readRecord();
+                visitor.visit(this.label, this.comment, this.sequenceBuffer);
+                retVal++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
         return retVal;
     }
@@ -6,36 +6,233 @@ package org.theseed.sequence;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import java.io.File;
 import java.io.FileNotFoundException;
 
+import org.theseed.io.CompressionUtils;
+
 /**
- * This class writes a set of sequences to a FASTA file.  It uses an underlying PrintWriter
- * to do the output.
+ * This class writes a set of sequences to a FASTA file.  The records are formatted directly
+ * into a large byte buffer, which is written to the underlying stream when it fills.  The
+ * sequence lines are wrapped at a configurable width (60 by default).  All text is written in
+ * UTF-8.
+ *
+ * For large collections, "writeParallel" formats batches of records on the common fork-join
+ * pool and writes the batches in their original order.
  *
  * @author Bruce Parrello
  */
 public class FastaOutputStream implements AutoCloseable, Flushable {
 
     // FIELDS
-    PrintWriter writer = null;
+    /** underlying output stream, or NULL if the stream is closed */
+    private OutputStream stream;
+    /** record formatter for the output buffer */
+    private Formatter buffer;
+    /** number of sequence characters per line (0 for no wrapping) */
+    private int lineWidth;
+
+    /** default number of sequence characters per line */
+    public static final int DEFAULT_LINE_WIDTH = 60;
+    /** size of the output buffer */
+    private static final int BUFFER_SIZE = 1 << 20;
+    /** number of records per batch in parallel mode */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * This class formats FASTA records into a byte buffer.  If it has an output stream, the
+     * buffer is written out whenever it fills; otherwise, it grows as needed.
+     */
+    private static class Formatter {
+
+        /** output byte buffer */
+        private byte[] data;
+        /** number of bytes in use */
+        private int len;
+        /** target output stream, or NULL to accumulate in memory */
+        private final OutputStream out;
+
+        /**
+         * Create a new record formatter.
+         *
+         * @param capacity	initial buffer capacity
+         * @param out		target output stream, or NULL to accumulate in memory
+         */
+        protected Formatter(int capacity, OutputStream out) {
+            this.data = new byte[capacity];
+            this.len = 0;
+            this.out = out;
+        }
+
+        /**
+         * Insure there is room in the buffer.
+         *
+         * @param n		number of bytes required
+         *
+         * @throws IOException
+         */
+        private void ensure(int n) throws IOException {
+            if (this.len + n > this.data.length) {
+                if (this.out != null)
+                    this.drain();
+                if (this.len + n > this.data.length) {
+                    byte[] newData = new byte[Math.max(this.len + n, this.data.length * 2)];
+                    System.arraycopy(this.data, 0, newData, 0, this.len);
+                    this.data = newData;
+                }
+            }
+        }
+
+        /**
+         * Write the buffer contents to the output stream.
+         *
+         * @throws IOException
+         */
+        protected void drain() throws IOException {
+            if (this.len > 0) {
+                this.out.write(this.data, 0, this.len);
+                this.len = 0;
+            }
+        }
+
+        /**
+         * Store a text string in the buffer.  ASCII is copied directly; anything else is encoded
+         * in UTF-8.
+         *
+         * @param text	string to store
+         *
+         * @throws IOException
+         */
+        private void putText(String text) throws IOException {
+            final int n = text.length();
+            this.ensure(n);
+            final int start = this.len;
+            boolean ascii = true;
+            for (int i = 0; ascii && i < n; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80)
+                    this.data[this.len++] = (byte) c;
+                else
+                    ascii = false;
+            }
+            if (! ascii) {
+                this.len = start;
+                byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+                this.ensure(encoded.length);
+                System.arraycopy(encoded, 0, this.data, this.len, encoded.length);
+                this.len += encoded.length;
+            }
+        }
+
+        /**
+         * Store a single byte in the buffer.
+         *
+         * @param b		byte to store
+         *
+         * @throws IOException
+         */
+        private void put(char b) throws IOException {
+            this.ensure(1);
+            this.data[this.len++] = (byte) b;
+        }
+
+        /**
+         * Format a FASTA record into the buffer.
+         *
+         * @param seq		sequence to format
+         * @param width		number of sequence characters per line, or 0 for no wrapping
+         *
+         * @throws IOException
+         */
+        protected void format(Sequence seq, int width) throws IOException {
+            // Write the label and comment.
+            this.put('>');
+            this.putText(seq.getLabel());
+            String comment = seq.getComment();
+            if (comment != null && ! comment.isEmpty()) {
+                this.put(' ');
+                this.putText(comment);
+            }
+            this.put('\n');
+            // Write the sequence in chunks.  Sequence letters are normally ASCII, so each one is
+            // stored as a single byte; a chunk containing anything else is encoded in UTF-8.
+            String sequence = seq.getSequence();
+            final int n = sequence.length();
+            final int chunk = (width <= 0 ? Math.max(n, 1) : width);
+            for (int begin = 0; begin < n; begin += chunk) {
+                int end = Math.min(n, begin + chunk);
+                this.ensure(end - begin + 1);
+                final int start = this.len;
+                boolean ascii = true;
+                for (int i = begin; ascii && i < end; i++) {
+                    char c = sequence.charAt(i);
+                    if (c < 0x80)
+                        this.data[this.len++] = (byte) c;
+                    else
+                        ascii = false;
+                }
+                if (! ascii) {
+                    this.len = start;
+                    this.putText(sequence.substring(begin, end));
+                }
+                this.put('\n');
+            }
+        }
+
+        /**
+         * @return a copy of the buffer contents
+         */
+        protected byte[] toByteArray() {
+            byte[] retVal = new byte[this.len];
+            System.arraycopy(this.data, 0, retVal, 0, this.len);
+            return retVal;
+        }
+
+    }
 
     /**
      * Open an output stream for FASTA output.
      */
     public FastaOutputStream(OutputStream outStream) {
-        writer = new PrintWriter(outStream);
+        this.stream = outStream;
+        this.buffer = new Formatter(BUFFER_SIZE, outStream);
+        this.lineWidth = DEFAULT_LINE_WIDTH;
     }
 
     /**
-     * Open a file for FASTA output.
+     * Open a file for FASTA output.  If the file name ends in ".gz", the output will be compressed.
      *
      * @throws FileNotFoundException
      */
     public FastaOutputStream(File outFile) throws FileNotFoundException {
-        writer = new PrintWriter(outFile);
+        this(CompressionUtils.openOutput(outFile));
+    }
+
+    /**
+     * Specify the number of sequence characters per line.
+     *
+     * @param width		new line width, or 0 to put each sequence on a single line
+     */
+    public void setLineWidth(int width) {
+        this.lineWidth = width;
+    }
+
+    /**
+     * @return the number of sequence characters per line (0 for no wrapping)
+     */
+    public int getLineWidth() {
+        return this.lineWidth;
     }
 
     /**
@@ -44,26 +241,7 @@ public class FastaOutputStream implements AutoCloseable, Flushable {
      * @throws IOException
      */
     public void write(Sequence seq) throws IOException {
-        // Write the label and comment.
-        String comment = seq.getComment();
-        String header;
-        if (comment != null && ! comment.isEmpty()) {
-            header = String.format(">%s %s", seq.getLabel(), comment);
-        } else {
-            header = String.format(">%s", seq.getLabel());
-        }
-        writer.println(header);
-        // Write the sequence in chunks.
-        String sequence = seq.getSequence();
-        if (! sequence.isEmpty()) {
-            int begin = 0, end = 60;
-            while (end < sequence.length()) {
-                writer.println(sequence.substring(begin, end));
-                begin = end;
-                end += 60;
-            }
-            writer.println(sequence.substring(begin));
-        }
+        this.buffer.format(seq, this.lineWidth);
     }
 
     /**
@@ -79,18 +257,105 @@ public class FastaOutputStream implements AutoCloseable, Flushable {
         }
     }
 
+    /**
+     * Write a collection of sequences to the output stream, formatting them in parallel.
+     *
+     * @param sequences	collection of sequences to write
+     *
+     * @throws IOException
+     */
+    public void writeParallel(Collection<? extends Sequence> sequences) throws IOException {
+        this.writeParallel(new ArrayList<Sequence>(sequences), Function.identity());
+    }
+
+    /**
+     * Write a list of objects to the output stream as sequences.  The conversion of the objects
+     * to sequences and the formatting of the sequences are both done in parallel, so an expensive
+     * conversion (such as DNA extraction) gets the benefit of multiple threads.  The records are
+     * written in list order.
+     *
+     * @param items		list of objects to write
+     * @param converter	function for converting an object to a sequence
+     *
+     * @throws IOException
+     */
+    public <T> void writeParallel(List<T> items, Function<? super T, ? extends Sequence> converter)
+            throws IOException {
+        // Start with the records already buffered.
+        this.buffer.drain();
+        final int maxPending = ForkJoinPool.getCommonPoolParallelism() * 2;
+        final int width = this.lineWidth;
+        final int n = items.size();
+        Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        for (int start = 0; start < n; start += BATCH_SIZE) {
+            final List<T> batch = items.subList(start, Math.min(n, start + BATCH_SIZE));
+            pending.addLast(CompletableFuture.supplyAsync(() -> formatBatch(batch, converter, width),
+                    ForkJoinPool.commonPool()));
+            while (pending.size() > maxPending)
+                this.writeBatch(pending.removeFirst());
+        }
+        while (! pending.isEmpty())
+            this.writeBatch(pending.removeFirst());
+    }
+
+    /**
+     * @return a byte array containing the FASTA records for a batch of objects
+     *
+     * @param batch			list of objects to format
+     * @param converter		function for converting an object to a sequence
+     * @param width			number of sequence characters per line
+     */
+    private static <T> byte[] formatBatch(List<T> batch, Function<? super T, ? extends Sequence> converter, int width) {
+        Formatter formatter = new Formatter(BUFFER_SIZE / 8, null);
+        try {
+            for (T item : batch)
+                formatter.format(converter.apply(item), width);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return formatter.toByteArray();
+    }
+
+    /**
+     * Write a formatted batch to the output stream.
+     *
+     * @param batch		future result of the batch formatting
+     *
+     * @throws IOException
+     */
+    private void writeBatch(CompletableFuture<byte[]> batch) throws IOException {
+        try {
+            this.stream.write(batch.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while formatting FASTA output.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException("Error formatting FASTA output.", cause);
+        }
+    }
+
     @Override
     public void close() {
-        if (writer != null) {
-            writer.close();
+        if (this.stream != null) {
+            try {
+                this.buffer.drain();
+                this.stream.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.stream = null;
         }
 
     }
 
     @Override
     public void flush() throws IOException {
-        if (writer != null) {
-            writer.flush();
+        if (this.stream != null) {
+            this.buffer.drain();
+            this.stream.flush();
         }
 
     }
@@ -0,0 +1,236 @@
+/**
+ *
+ */
+package org.theseed.sequence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import org.theseed.genome.Contig;
+import org.theseed.locations.Location;
+import org.theseed.locations.Region;
+
+/**
+ * This class provides random access to the sequences in a FASTA file.  The file is memory-mapped,
+ * and a FastaIndex is used to compute the position of any sequence character, so a sequence or
+ * region can be extracted without reading any of the rest of the file.  The mapping is read-only,
+ * and multiple threads can extract sequences at the same time.
+ *
+ * Files larger than the maximum buffer size are mapped in multiple segments.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class IndexedFastaReader implements AutoCloseable {
+
+    // FIELDS
+    /** index of the FASTA file */
+    private final FastaIndex index;
+    /** channel for the FASTA file */
+    private final FileChannel channel;
+    /** memory-mapped segments of the file */
+    private final MappedByteBuffer[] segments;
+    /** length of the file */
+    private final long fileSize;
+
+    /** number of bits in a segment offset */
+    private static final int SEGMENT_SHIFT = 30;
+    /** size of a segment */
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    /** mask for computing a segment offset */
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /**
+     * Open a FASTA file for random access.  The index will be loaded if it exists and is current,
+     * and built otherwise.
+     *
+     * @param fastaFile		FASTA file to open (must not be compressed)
+     *
+     * @throws IOException
+     */
+    public IndexedFastaReader(File fastaFile) throws IOException {
+        this(fastaFile, FastaIndex.getIndex(fastaFile));
+    }
+
+    /**
+     * Open a FASTA file for random access using a pre-computed index.
+     *
+     * @param fastaFile		FASTA file to open (must not be compressed)
+     * @param index			index for the FASTA file
+     *
+     * @throws IOException
+     */
+    public IndexedFastaReader(File fastaFile, FastaIndex index) throws IOException {
+        this.index = index;
+        this.channel = FileChannel.open(fastaFile.toPath(), StandardOpenOption.READ);
+        this.fileSize = this.channel.size();
+        int nSegments = (int) ((this.fileSize + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+        this.segments = new MappedByteBuffer[nSegments];
+        for (int i = 0; i < nSegments; i++) {
+            long start = ((long) i) << SEGMENT_SHIFT;
+            long len = Math.min(SEGMENT_SIZE, this.fileSize - start);
+            this.segments[i] = this.channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+        }
+    }
+
+    /**
+     * @return the index for this file
+     */
+    public FastaIndex getIndex() {
+        return this.index;
+    }
+
+    /**
+     * @return TRUE if the specified label is in this file
+     *
+     * @param label		label of interest
+     */
+    public boolean contains(String label) {
+        return (this.index.get(label) != null);
+    }
+
+    /**
+     * @return the sequence with the specified label, or NULL if the label is not in the file
+     *
+     * @param label		label of the desired sequence
+     */
+    public Sequence getSequence(String label) {
+        Sequence retVal = null;
+        FastaIndex.Entry entry = this.index.get(label);
+        if (entry != null) {
+            String seq = this.extract(entry, 0, entry.getLength());
+            retVal = new Sequence(label, this.getComment(entry), seq);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the sequence text in a region of a sequence, or NULL if the label is not in the file
+     *
+     * As with substring extraction in Sequence, the region is truncated to the bounds of the sequence.
+     *
+     * @param label		label of the desired sequence
+     * @param left		1-based position of the first character
+     * @param right		1-based position of the last character
+     */
+    public String getRegion(String label, int left, int right) {
+        String retVal = null;
+        FastaIndex.Entry entry = this.index.get(label);
+        if (entry != null) {
+            long start = Math.max(0, left - 1);
+            long end = Math.min(entry.getLength(), right);
+            retVal = (end <= start ? "" : this.extract(entry, start, end));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the DNA at a given location, or NULL if the location's contig is not in the file
+     *
+     * As in Sequence, the DNA is returned in lower case and reverse-complemented for the minus strand.
+     *
+     * @param loc	location whose DNA is desired
+     */
+    public String getDna(Location loc) {
+        String retVal = null;
+        String label = loc.getContigId();
+        if (this.contains(label)) {
+            StringBuilder buffer = new StringBuilder(loc.getRegionLength());
+            for (Region region : loc.getRegions())
+                buffer.append(this.getRegion(label, region.getLeft(), region.getRight()));
+            retVal = buffer.toString().toLowerCase();
+            if (loc.getDir() == '-')
+                retVal = Contig.reverse(retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the characters in the specified portion of a sequence
+     *
+     * @param entry		index entry for the sequence
+     * @param start		0-based position of the first character
+     * @param end		0-based position past the last character
+     */
+    private String extract(FastaIndex.Entry entry, long start, long end) {
+        byte[] retVal = new byte[(int) (end - start)];
+        final int lineBases = entry.getLineBases();
+        int outPos = 0;
+        long pos = start;
+        while (pos < end) {
+            int n = (int) Math.min(end - pos, lineBases - pos % lineBases);
+            this.copy(entry.offsetOf(pos), retVal, outPos, n);
+            outPos += n;
+            pos += n;
+        }
+        return new String(retVal, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Copy bytes from the file to an array.
+     *
+     * @param offset	file offset of the first byte
+     * @param target	target array
+     * @param off		position in the target array for the first byte
+     * @param len		number of bytes to copy
+     */
+    private void copy(long offset, byte[] target, int off, int len) {
+        while (len > 0) {
+            MappedByteBuffer segment = this.segments[(int) (offset >>> SEGMENT_SHIFT)];
+            int segPos = (int) (offset & SEGMENT_MASK);
+            int n = Math.min(len, segment.limit() - segPos);
+            segment.get(segPos, target, off, n);
+            offset += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * @return the byte at the specified file offset
+     *
+     * @param offset	file offset of interest
+     */
+    private byte byteAt(long offset) {
+        return this.segments[(int) (offset >>> SEGMENT_SHIFT)].get((int) (offset & SEGMENT_MASK));
+    }
+
+    /**
+     * @return the comment for a sequence
+     *
+     * The comment is taken from the header line, which is found by backing up from the start of
+     * the sequence data.
+     *
+     * @param entry		index entry for the sequence
+     */
+    private String getComment(FastaIndex.Entry entry) {
+        // Skip back over the line-end and any blank lines.
+        long end = entry.getOffset();
+        while (end > 0 && Character.isWhitespace(this.byteAt(end - 1)))
+            end--;
+        long start = end;
+        while (start > 0 && this.byteAt(start - 1) != '\n')
+            start--;
+        // Skip the ">", the label, and the spaces after the label.
+        long pos = start + 1;
+        while (pos < end && this.byteAt(pos) == ' ')
+            pos++;
+        while (pos < end && this.byteAt(pos) != ' ')
+            pos++;
+        while (pos < end && this.byteAt(pos) == ' ')
+            pos++;
+        byte[] retVal = new byte[(int) (end - pos)];
+        this.copy(pos, retVal, 0, retVal.length);
+        return new String(retVal, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+}
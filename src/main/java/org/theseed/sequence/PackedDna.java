@@ -0,0 +1,425 @@
+/**
+ *
+ */
+package org.theseed.sequence;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class stores a lower-case DNA sequence in packed form, using two bits per base.  Characters
+ * other than "a", "c", "g", and "t" (such as "n" and the ambiguity codes) are stored in a sparse
+ * exception list sorted by position.  The packed words can be kept on the heap or in a direct
+ * (off-heap) buffer.
+ *
+ * Substrings, reverse complements of substrings, and kmers on either strand are all computed from
+ * the packed form, so the full sequence (or its reverse complement) never has to be materialized.
+ * The reverse complement follows the same rules as Contig.reverse:  "u" becomes "a", and any other
+ * exception character becomes "n".
+ *
+ * The kmer cursor can also traverse an unpacked DNA string, so callers holding a string do not need to
+ * pack it first.
+ *
+ * This object is immutable, so it can be shared among threads.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class PackedDna {
+
+    // FIELDS
+    /** packed base codes, 32 per word */
+    private final LongBuffer words;
+    /** length of the sequence */
+    private final int length;
+    /** positions of the exception characters, in ascending order */
+    private final int[] exceptionPositions;
+    /** exception characters, parallel to the positions */
+    private final byte[] exceptionChars;
+
+    /** base characters, indexed by code */
+    private static final byte[] BASES = new byte[] { 'a', 'c', 'g', 't' };
+    /** base codes, indexed by character (-1 for exceptions) */
+    private static final byte[] CODES = new byte[128];
+
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        for (int i = 0; i < BASES.length; i++)
+            CODES[BASES[i]] = (byte) i;
+    }
+
+    /**
+     * Pack a DNA sequence on the heap.
+     *
+     * @param dna		lower-case DNA sequence to pack
+     */
+    public PackedDna(String dna) {
+        this(dna, false);
+    }
+
+    /**
+     * Pack a DNA sequence.
+     *
+     * @param dna		lower-case DNA sequence to pack
+     * @param offHeap	TRUE to store the packed words in a direct buffer outside the heap
+     */
+    public PackedDna(String dna, boolean offHeap) {
+        final int n = dna.length();
+        this.length = n;
+        int nWords = (n + 31) >>> 5;
+        if (offHeap)
+            this.words = ByteBuffer.allocateDirect(nWords * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        else
+            this.words = LongBuffer.wrap(new long[nWords]);
+        // Count the exceptions so we can size the arrays.
+        int nExceptions = 0;
+        for (int i = 0; i < n; i++) {
+            if (code(dna.charAt(i)) < 0)
+                nExceptions++;
+        }
+        this.exceptionPositions = new int[nExceptions];
+        this.exceptionChars = new byte[nExceptions];
+        // Now pack the bases.
+        int e = 0;
+        for (int w = 0; w < nWords; w++) {
+            long word = 0;
+            int start = w << 5;
+            int end = Math.min(n, start + 32);
+            for (int i = start; i < end; i++) {
+                char c = dna.charAt(i);
+                int code = code(c);
+                if (code < 0) {
+                    this.exceptionPositions[e] = i;
+                    this.exceptionChars[e] = (byte) c;
+                    e++;
+                    code = 0;
+                }
+                word |= ((long) code) << ((i - start) << 1);
+            }
+            this.words.put(w, word);
+        }
+    }
+
+    /**
+     * @return the 2-bit code for a DNA character, or -1 if it is an exception
+     *
+     * @param c		character to encode
+     */
+    private static int code(char c) {
+        return (c < 128 ? CODES[c] : -1);
+    }
+
+    /**
+     * @return the 2-bit code stored at a position (exceptions will return 0)
+     *
+     * @param pos	0-based position of interest
+     */
+    private int codeAt(int pos) {
+        return (int) (this.words.get(pos >>> 5) >>> ((pos & 31) << 1)) & 3;
+    }
+
+    /**
+     * @return the index in the exception list of the first exception at or after a position
+     *
+     * @param pos	0-based position of interest
+     */
+    private int exceptionIndex(int pos) {
+        int retVal = Arrays.binarySearch(this.exceptionPositions, pos);
+        if (retVal < 0)
+            retVal = -retVal - 1;
+        return retVal;
+    }
+
+    /**
+     * @return the length of the sequence
+     */
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * @return the number of exception characters in the sequence
+     */
+    public int exceptionCount() {
+        return this.exceptionPositions.length;
+    }
+
+    /**
+     * @return the character at a position
+     *
+     * @param pos	0-based position of interest
+     */
+    public char charAt(int pos) {
+        if (pos < 0 || pos >= this.length)
+            throw new IndexOutOfBoundsException(pos);
+        char retVal;
+        int e = Arrays.binarySearch(this.exceptionPositions, pos);
+        if (e >= 0)
+            retVal = (char) this.exceptionChars[e];
+        else
+            retVal = (char) BASES[this.codeAt(pos)];
+        return retVal;
+    }
+
+    /**
+     * @return the DNA in a portion of the sequence
+     *
+     * @param start		0-based position of the first character
+     * @param end		0-based position past the last character
+     */
+    public String substring(int start, int end) {
+        checkRange(start, end);
+        byte[] retVal = new byte[end - start];
+        for (int i = start; i < end; i++)
+            retVal[i - start] = BASES[this.codeAt(i)];
+        for (int e = this.exceptionIndex(start); e < this.exceptionPositions.length && this.exceptionPositions[e] < end; e++)
+            retVal[this.exceptionPositions[e] - start] = this.exceptionChars[e];
+        return new String(retVal, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return the reverse complement of a portion of the sequence
+     *
+     * @param start		0-based position of the first character
+     * @param end		0-based position past the last character
+     */
+    public String reverseComplement(int start, int end) {
+        checkRange(start, end);
+        byte[] retVal = new byte[end - start];
+        for (int i = start; i < end; i++)
+            retVal[end - 1 - i] = BASES[3 - this.codeAt(i)];
+        for (int e = this.exceptionIndex(start); e < this.exceptionPositions.length && this.exceptionPositions[e] < end; e++)
+            retVal[end - 1 - this.exceptionPositions[e]] = complementException(this.exceptionChars[e]);
+        return new String(retVal, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return the reverse complement of an exception character
+     *
+     * @param c		exception character to complement
+     */
+    private static byte complementException(byte c) {
+        return (byte) (c == 'u' ? 'a' : 'n');
+    }
+
+    /**
+     * Verify that a substring range is valid.
+     *
+     * @param start		0-based position of the first character
+     * @param end		0-based position past the last character
+     */
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > this.length || start > end)
+            throw new IndexOutOfBoundsException("Invalid range " + start + " to " + end + " in sequence of length "
+                    + this.length + ".");
+    }
+
+    /**
+     * @return the full sequence
+     */
+    @Override
+    public String toString() {
+        return this.substring(0, this.length);
+    }
+
+    /**
+     * @return a cursor for traversing the kmers of this sequence
+     *
+     * @param k			kmer size (1 to 32)
+     * @param reverse	TRUE to traverse the reverse complement strand, else FALSE
+     */
+    public Cursor cursor(int k, boolean reverse) {
+        return new PackedCursor(k, reverse);
+    }
+
+    /**
+     * @return a cursor for traversing the kmers of an unpacked DNA string
+     *
+     * The string is read directly, so it does not have to be packed first.  Characters are handled
+     * the same way as in a packed sequence.
+     *
+     * @param dna		lower-case DNA sequence to traverse
+     * @param k			kmer size (1 to 32)
+     * @param reverse	TRUE to traverse the reverse complement strand, else FALSE
+     */
+    public static Cursor cursor(String dna, int k, boolean reverse) {
+        return new StringCursor(dna, k, reverse);
+    }
+
+    /**
+     * @return the DNA string for an encoded kmer
+     *
+     * @param kmer	kmer code, with the first base in the high-order position
+     * @param k		kmer size
+     */
+    public static String decode(long kmer, int k) {
+        byte[] retVal = new byte[k];
+        for (int i = k - 1; i >= 0; i--) {
+            retVal[i] = BASES[(int) kmer & 3];
+            kmer >>>= 2;
+        }
+        return new String(retVal, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * This class traverses the kmers of a DNA sequence on one strand.  Each kmer is presented
+     * as a long integer with two bits per base and the first base in the high-order position.
+     * Kmers containing exception characters are skipped.  The subclass provides the base codes.
+     */
+    public abstract static class Cursor {
+
+        /** kmer size */
+        private final int k;
+        /** TRUE for the reverse complement strand */
+        protected final boolean reverse;
+        /** length of the sequence */
+        protected final int length;
+        /** mask for the bits of a kmer */
+        private final long mask;
+        /** number of bases on the strand processed so far */
+        private int processed;
+        /** number of valid bases at the end of the current window */
+        private int valid;
+        /** current kmer code */
+        private long kmer;
+
+        /**
+         * Create a kmer cursor.
+         *
+         * @param k			kmer size (1 to 32)
+         * @param reverse	TRUE to traverse the reverse complement strand, else FALSE
+         * @param length	length of the sequence
+         */
+        protected Cursor(int k, boolean reverse, int length) {
+            if (k < 1 || k > 32)
+                throw new IllegalArgumentException("Kmer size must be from 1 to 32.");
+            this.k = k;
+            this.reverse = reverse;
+            this.length = length;
+            this.mask = (k == 32 ? -1L : (1L << (2 * k)) - 1);
+            this.processed = 0;
+            this.valid = 0;
+            this.kmer = 0;
+        }
+
+        /**
+         * Advance to the next kmer.
+         *
+         * @return TRUE if a kmer was found, FALSE if we have reached the end of the sequence
+         */
+        public boolean next() {
+            boolean retVal = false;
+            while (! retVal && this.processed < this.length) {
+                int pos = (this.reverse ? this.length - 1 - this.processed : this.processed);
+                int code = this.baseCode(pos);
+                if (code < 0)
+                    this.valid = 0;
+                else {
+                    if (this.reverse)
+                        code = 3 - code;
+                    this.kmer = ((this.kmer << 2) | code) & this.mask;
+                    this.valid++;
+                    retVal = (this.valid >= this.k);
+                }
+                this.processed++;
+            }
+            return retVal;
+        }
+
+        /**
+         * @return the forward-strand 2-bit code at a position, or -1 if it holds an exception character
+         *
+         * @param pos	position to check (positions are always checked in strand order)
+         */
+        protected abstract int baseCode(int pos);
+
+        /**
+         * @return the code for the current kmer
+         */
+        public long getKmer() {
+            return this.kmer;
+        }
+
+        /**
+         * @return the DNA string for the current kmer
+         */
+        public String getKmerString() {
+            return decode(this.kmer, this.k);
+        }
+
+        /**
+         * @return the 0-based position of the current kmer on the strand being traversed
+         */
+        public int getPosition() {
+            return this.processed - this.k;
+        }
+
+    }
+
+    /**
+     * This cursor traverses the packed words.  The exception list is walked in step with the cursor.
+     */
+    private class PackedCursor extends Cursor {
+
+        /** index of the next exception to check */
+        private int exception;
+
+        /**
+         * Create a kmer cursor for this packed sequence.
+         *
+         * @param k			kmer size (1 to 32)
+         * @param reverse	TRUE to traverse the reverse complement strand, else FALSE
+         */
+        protected PackedCursor(int k, boolean reverse) {
+            super(k, reverse, PackedDna.this.length);
+            this.exception = (reverse ? exceptionPositions.length - 1 : 0);
+        }
+
+        @Override
+        protected int baseCode(int pos) {
+            boolean found = false;
+            if (this.reverse) {
+                if (this.exception >= 0 && exceptionPositions[this.exception] == pos) {
+                    found = true;
+                    this.exception--;
+                }
+            } else if (this.exception < exceptionPositions.length && exceptionPositions[this.exception] == pos) {
+                found = true;
+                this.exception++;
+            }
+            return (found ? -1 : codeAt(pos));
+        }
+
+    }
+
+    /**
+     * This cursor traverses an unpacked DNA string.
+     */
+    private static class StringCursor extends Cursor {
+
+        /** DNA sequence being traversed */
+        private final String dna;
+
+        /**
+         * Create a kmer cursor for a DNA string.
+         *
+         * @param dna		lower-case DNA sequence to traverse
+         * @param k			kmer size (1 to 32)
+         * @param reverse	TRUE to traverse the reverse complement strand, else FALSE
+         */
+        protected StringCursor(String dna, int k, boolean reverse) {
+            super(k, reverse, dna.length());
+            this.dna = dna;
+        }
+
+        @Override
+        protected int baseCode(int pos) {
+            return code(this.dna.charAt(pos));
+        }
+
+    }
+
+}
@@ -9,11 +9,14 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.theseed.genome.Feature;
 import org.theseed.genome.Genome;
@@ -27,11 +30,187 @@ import org.theseed.magic.MagicMap;
  * A utility method is provided to parse functions into useful roles, as well as methods to save
  * and load the role map.
  *
+ * Across a genome collection, the number of distinct functional assignments is small compared to the
+ * number of features, so the parsed roles for each function are kept in a bounded concurrent cache.
+ * When the cache is full, the least recently used functions are dropped.  If roles or aliases are added
+ * to the map, or roles are removed, the cache is cleared automatically.
+ *
+ * A map that is shared by compiled structures (such as a subsystem projector) can be locked with
+ * "setReadOnly", after which any attempt to change the role definitions throws an exception.
+ *
  * @author Bruce Parrello
  *
  */
 public class StrictRoleMap extends MagicMap<StrictRole> {
 
+    // FIELDS
+    /** cache of parsed functions, or NULL if it has not been created */
+    private transient volatile FunctionCache cache;
+    /** modification counter, incremented (under the object lock) each time the role definitions change */
+    private transient volatile int modCount;
+    /** TRUE if the role definitions can no longer be changed */
+    private transient volatile boolean readOnly;
+
+    /** default maximum number of functions to cache */
+    public static final int DEFAULT_CACHE_SIZE = 200000;
+    /** maximum number of cache segments */
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * This class is a bounded concurrent cache mapping function strings to their useful roles.  The cache is
+     * split into segments by hash code, and each segment is a least-recently-used map with its own lock, so
+     * threads working on different functions rarely wait for each other.  When a segment fills, its least
+     * recently used function is dropped.  The cache remembers the modification count and size of the role map
+     * when it was created so that we can tell if the role definitions have changed.
+     *
+     * The cached values are the shared role lists rather than role ordinals, because the role map has no
+     * ordinal numbering of its own (ordinals are assigned per projector by RoleOrdinalMap), and the clients
+     * need the role objects.
+     */
+    public static class FunctionCache {
+
+        /** segments mapping function strings to role lists */
+        private final Map<String, List<StrictRole>>[] segments;
+        /** maximum number of functions to cache */
+        private final int maxSize;
+        /** modification count of the role map when the cache was created */
+        private final int mapVersion;
+        /** number of roles in the role map when the cache was created */
+        private final int mapSize;
+        /** number of cache hits */
+        private final LongAdder hits;
+        /** number of cache misses */
+        private final LongAdder misses;
+        /** number of functions dropped because the cache was full */
+        private final LongAdder evictions;
+
+        /**
+         * Create a new, empty function cache.
+         *
+         * @param maxSize		maximum number of functions to cache
+         * @param mapVersion	modification count of the role map
+         * @param mapSize		number of roles in the role map
+         */
+        @SuppressWarnings("unchecked")
+        protected FunctionCache(int maxSize, int mapVersion, int mapSize) {
+            this.maxSize = maxSize;
+            this.mapVersion = mapVersion;
+            this.mapSize = mapSize;
+            this.hits = new LongAdder();
+            this.misses = new LongAdder();
+            this.evictions = new LongAdder();
+            // Each segment gets an equal share of the capacity, so the total never exceeds the maximum.
+            final int nSegments = Math.max(1, Math.min(MAX_SEGMENTS, maxSize));
+            final int segmentSize = Math.max(1, maxSize / nSegments);
+            this.segments = new Map[nSegments];
+            for (int i = 0; i < nSegments; i++) {
+                this.segments[i] = new LinkedHashMap<>(Math.min(segmentSize, 1000), 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, List<StrictRole>> eldest) {
+                        boolean retVal = (this.size() > segmentSize);
+                        if (retVal)
+                            FunctionCache.this.evictions.increment();
+                        return retVal;
+                    }
+
+                };
+            }
+        }
+
+        /**
+         * @return the segment for a function string
+         *
+         * @param function	function string of interest
+         */
+        private Map<String, List<StrictRole>> getSegment(String function) {
+            final int h = function.hashCode();
+            return this.segments[Math.floorMod(h ^ (h >>> 16), this.segments.length)];
+        }
+
+        /**
+         * @return the cached role list for a function, or NULL if the function is not cached
+         *
+         * @param function	function string of interest
+         */
+        protected List<StrictRole> get(String function) {
+            Map<String, List<StrictRole>> segment = this.getSegment(function);
+            List<StrictRole> retVal;
+            synchronized (segment) {
+                retVal = segment.get(function);
+            }
+            if (retVal != null)
+                this.hits.increment();
+            else
+                this.misses.increment();
+            return retVal;
+        }
+
+        /**
+         * Store the role list for a function.
+         *
+         * @param function	function string of interest
+         * @param roles		role list to cache
+         */
+        protected void put(String function, List<StrictRole> roles) {
+            Map<String, List<StrictRole>> segment = this.getSegment(function);
+            synchronized (segment) {
+                segment.put(function, roles);
+            }
+        }
+
+        /**
+         * @return the number of cache hits
+         */
+        public long getHits() {
+            return this.hits.sum();
+        }
+
+        /**
+         * @return the number of cache misses
+         */
+        public long getMisses() {
+            return this.misses.sum();
+        }
+
+        /**
+         * @return the fraction of lookups satisfied from the cache
+         */
+        public double getHitRate() {
+            long hitCount = this.hits.sum();
+            long total = hitCount + this.misses.sum();
+            return (total == 0 ? 0.0 : hitCount / (double) total);
+        }
+
+        /**
+         * @return the number of functions dropped because the cache was full
+         */
+        public long getEvictions() {
+            return this.evictions.sum();
+        }
+
+        /**
+         * @return the number of functions currently cached
+         */
+        public int size() {
+            int retVal = 0;
+            for (Map<String, List<StrictRole>> segment : this.segments) {
+                synchronized (segment) {
+                    retVal += segment.size();
+                }
+            }
+            return retVal;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d functions cached, %d hits, %d misses (%4.2f%% hit rate), %d evictions.",
+                    this.size(), this.getHits(), this.getMisses(), this.getHitRate() * 100.0, this.getEvictions());
+        }
+
+    }
+
     /**
      * Construct a blank, empty subsystem role map.
      *
@@ -121,6 +300,38 @@ public class StrictRoleMap extends MagicMap<StrictRole> {
      * @param function	array of role descriptions to scan
      */
     public List<StrictRole> usefulRoles(String function) {
+        return new ArrayList<>(this.cachedRoles(function));
+    }
+
+    /**
+     * This is a faster version of "usefulRoles" that returns a shared, unmodifiable list from the function
+     * cache.  It is safe to call from multiple threads.
+     *
+     * @return an unmodifiable list of the mapped roles in a functional assignment
+     *
+     * @param function	array of role descriptions to scan
+     */
+    public List<StrictRole> cachedRoles(String function) {
+        List<StrictRole> retVal;
+        if (function == null)
+            retVal = Collections.emptyList();
+        else {
+            FunctionCache functionCache = this.getCache();
+            retVal = functionCache.get(function);
+            if (retVal == null) {
+                retVal = this.parseRoles(function);
+                functionCache.put(function, retVal);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return an unmodifiable list of the mapped roles in a functional assignment, computed without the cache
+     *
+     * @param function	array of role descriptions to scan
+     */
+    private List<StrictRole> parseRoles(String function) {
         String[] roleNames = Feature.rolesOfFunction(function);
         List<StrictRole> retVal = new ArrayList<>(roleNames.length);
         for (String roleName : roleNames) {
@@ -129,9 +340,107 @@ public class StrictRoleMap extends MagicMap<StrictRole> {
                 retVal.add(role);
             }
         }
+        return (retVal.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(retVal));
+    }
+
+    /**
+     * @return the current function cache, creating a new one if none exists or the role definitions have changed
+     */
+    private FunctionCache getCache() {
+        FunctionCache retVal = this.cache;
+        final int mapVersion = this.modCount;
+        final int mapSize = this.size();
+        if (retVal == null || retVal.mapVersion != mapVersion || retVal.mapSize != mapSize) {
+            synchronized (this) {
+                retVal = this.cache;
+                if (retVal == null || retVal.mapVersion != mapVersion || retVal.mapSize != mapSize) {
+                    int maxSize = (retVal == null ? DEFAULT_CACHE_SIZE : retVal.maxSize);
+                    retVal = new FunctionCache(maxSize, mapVersion, mapSize);
+                    this.cache = retVal;
+                }
+            }
+        }
         return retVal;
     }
 
+    /**
+     * Specify the maximum number of functions to cache.  This clears the cache.
+     *
+     * @param maxSize	maximum number of functions to keep in the function cache
+     */
+    public synchronized void setCacheSize(int maxSize) {
+        this.cache = new FunctionCache(maxSize, this.modCount, this.size());
+    }
+
+    /**
+     * Lock the role definitions.  After this method is called, any attempt to add, alias, or remove a role
+     * will fail.  There is no way to unlock the map.
+     */
+    public void setReadOnly() {
+        this.readOnly = true;
+    }
+
+    /**
+     * @return TRUE if the role definitions are locked
+     */
+    public boolean isReadOnly() {
+        return this.readOnly;
+    }
+
+    /**
+     * Insure the role definitions can be changed.
+     *
+     * @throws UnsupportedOperationException if the map is read-only
+     */
+    private void checkModifiable() {
+        if (this.readOnly)
+            throw new UnsupportedOperationException("Attempt to modify a read-only role map.");
+    }
+
+    /**
+     * Record a change to the role definitions, so that the function cache is rebuilt.  The increment
+     * is done under the same lock used to replace the cache, so no change can be lost.
+     */
+    private synchronized void roleDefinitionsChanged() {
+        this.modCount++;
+    }
+
+    @Override
+    public void put(StrictRole role) {
+        this.checkModifiable();
+        super.put(role);
+        this.roleDefinitionsChanged();
+    }
+
+    @Override
+    public void addAlias(String id, String name) {
+        this.checkModifiable();
+        super.addAlias(id, name);
+        this.roleDefinitionsChanged();
+    }
+
+    @Override
+    public String remove(Object key) {
+        this.checkModifiable();
+        String retVal = super.remove(key);
+        this.roleDefinitionsChanged();
+        return retVal;
+    }
+
+    @Override
+    public void clear() {
+        this.checkModifiable();
+        super.clear();
+        this.roleDefinitionsChanged();
+    }
+
+    /**
+     * @return the function cache, for examining its statistics
+     */
+    public FunctionCache getCacheStats() {
+        return this.getCache();
+    }
+
     /**
      * Find or insert a new role into the map.
      *
@@ -164,7 +473,7 @@ public class StrictRoleMap extends MagicMap<StrictRole> {
         for (Feature feat : genome.getFeatures()) {
             String function = feat.getFunction();
             // Get all the roles in the function found in our role map.
-            var roles = this.usefulRoles(function);
+            var roles = this.cachedRoles(function);
             for (StrictRole role : roles) {
                 // Extract the role ID and get its entry in the output map.
                 String roleId = role.getId();
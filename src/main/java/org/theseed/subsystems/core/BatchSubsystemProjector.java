@@ -0,0 +1,253 @@
+/**
+ *
+ */
+package org.theseed.subsystems.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.genome.Feature;
+import org.theseed.genome.Genome;
+import org.theseed.genome.GenomeDirectory;
+import org.theseed.subsystems.StrictRole;
+import org.theseed.subsystems.StrictRoleMap;
+import org.theseed.subsystems.VariantId;
+
+/**
+ * This object projects subsystems onto large numbers of genomes.  It uses the compiled rules and role index
+ * of a subsystem rule projector.  Functional assignments are parsed through the bounded function cache of the
+ * projector's role map, so that a function string common to many genomes is usually only parsed once.
+ *
+ * The genomes are processed in parallel on the common fork-join pool.  The variant code of every subsystem
+ * found is stored in a compact variant table.  Optionally, the subsystems can also be written back into
+ * the genomes themselves, replacing any existing subsystems.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class BatchSubsystemProjector {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(BatchSubsystemProjector.class);
+    /** role definition map */
+    private final StrictRoleMap roleMap;
+    /** compiled rules and role index */
+    private final RoleSubsystemIndex index;
+    /** TRUE if only active variants should be projected */
+    private final boolean activeFlag;
+    /** number of genomes processed */
+    private final LongAdder genomeCount;
+    /** number of subsystem projections found */
+    private final LongAdder projectionCount;
+
+    /** empty ordinal list */
+    private static final int[] NO_ROLES = new int[0];
+
+    /**
+     * This class contains the role presence information for a genome.
+     */
+    public static class RolePresence {
+
+        /** map of role IDs to the IDs of the features containing them */
+        private final Map<String, Set<String>> roleFeatures;
+        /** role bit set */
+        private final long[] roleBits;
+
+        /**
+         * Create a role presence object.
+         *
+         * @param roleFeatures	map of role IDs to the IDs of the features containing them
+         * @param roleBits		role bit set
+         */
+        protected RolePresence(Map<String, Set<String>> roleFeatures, long[] roleBits) {
+            this.roleFeatures = roleFeatures;
+            this.roleBits = roleBits;
+        }
+
+        /**
+         * @return the map of role IDs to the IDs of the features containing them
+         */
+        public Map<String, Set<String>> getRoleFeatures() {
+            return this.roleFeatures;
+        }
+
+        /**
+         * @return the role bit set
+         */
+        public long[] getRoleBits() {
+            return this.roleBits;
+        }
+
+    }
+
+    /**
+     * Create a batch projector.
+     *
+     * @param projector		subsystem rule projector containing the subsystem definitions
+     * @param activeFlag	TRUE to project only active variants, else FALSE
+     */
+    public BatchSubsystemProjector(SubsystemRuleProjector projector, boolean activeFlag) {
+        this.roleMap = projector.usefulRoles();
+        this.index = projector.getIndex();
+        this.activeFlag = activeFlag;
+        this.genomeCount = new LongAdder();
+        this.projectionCount = new LongAdder();
+    }
+
+    /**
+     * @return the role ordinals for a functional assignment
+     *
+     * @param function	functional assignment to parse
+     */
+    public int[] getRoleOrdinals(String function) {
+        List<StrictRole> roles = this.roleMap.cachedRoles(function);
+        int[] retVal;
+        if (roles.isEmpty())
+            retVal = NO_ROLES;
+        else {
+            RoleOrdinalMap ordinals = this.index.getOrdinals();
+            retVal = roles.stream().mapToInt(x -> ordinals.getOrdinal(x.getId())).filter(x -> x >= 0)
+                    .distinct().toArray();
+        }
+        return retVal;
+    }
+
+    /**
+     * Compute the role presence information for a genome.
+     *
+     * @param genome	genome of interest
+     *
+     * @return the role presence information
+     */
+    public RolePresence computePresence(Genome genome) {
+        RoleOrdinalMap ordinals = this.index.getOrdinals();
+        long[] roleBits = new long[ordinals.wordCount()];
+        Map<String, Set<String>> roleFeatures = new HashMap<>();
+        for (Feature feat : genome.getFeatures()) {
+            for (int ordinal : this.getRoleOrdinals(feat.getFunction())) {
+                roleBits[ordinal >>> 6] |= 1L << ordinal;
+                roleFeatures.computeIfAbsent(ordinals.getRoleId(ordinal), x -> new TreeSet<>()).add(feat.getId());
+            }
+        }
+        return new RolePresence(roleFeatures, roleBits);
+    }
+
+    /**
+     * Project subsystems onto a single genome.
+     *
+     * @param genome		genome of interest
+     * @param writeBack		TRUE to replace the subsystems in the genome with the projected ones
+     *
+     * @return a map of subsystem names to variant codes for the subsystems found
+     */
+    public Map<String, String> project(Genome genome, boolean writeBack) {
+        RolePresence presence = this.computePresence(genome);
+        long[] roleBits = presence.getRoleBits();
+        Map<String, String> retVal = new HashMap<>();
+        if (writeBack)
+            genome.clearSubsystems();
+        // Only the subsystems sharing roles with the genome need to be checked.  We are already running in
+        // parallel across genomes, so the subsystems are checked sequentially.
+        for (SubsystemDescriptor desc : this.index.getCandidates(roleBits)) {
+            String vCode;
+            if (writeBack)
+                vCode = desc.project(genome, presence.getRoleFeatures(), roleBits, this.roleMap, this.activeFlag);
+            else {
+                vCode = desc.findVariant(roleBits);
+                if (vCode != null && this.activeFlag && ! VariantId.isActive(vCode))
+                    vCode = null;
+            }
+            if (vCode != null)
+                retVal.put(desc.getName(), vCode);
+        }
+        this.genomeCount.increment();
+        this.projectionCount.add(retVal.size());
+        return retVal;
+    }
+
+    /**
+     * Project subsystems onto a stream of genomes.  The stream is processed in parallel.
+     *
+     * @param genomes	stream of genomes to process
+     * @param writer	if not NULL, the projected subsystems are stored in each genome, and the genome is passed
+     * 					to this consumer (e.g. to save it); if NULL, the genomes are not modified
+     *
+     * @return a table of the variant codes found in each genome
+     */
+    public SubsystemVariantTable projectAll(Stream<Genome> genomes, Consumer<Genome> writer) {
+        SubsystemVariantTable retVal = new SubsystemVariantTable();
+        final boolean writeBack = (writer != null);
+        genomes.parallel().forEach(x -> {
+            Map<String, String> variants = this.project(x, writeBack);
+            retVal.put(x.getId(), variants);
+            if (writeBack)
+                writer.accept(x);
+        });
+        log.info("{} genomes processed, {} subsystems projected.  Function cache: {}",
+                this.genomeCount.sum(), this.projectionCount.sum(), this.roleMap.getCacheStats());
+        return retVal;
+    }
+
+    /**
+     * Project subsystems onto all the genomes in a genome directory.  The genomes are read in parallel.
+     *
+     * @param genomes	genome directory to process
+     * @param save		TRUE to store the projected subsystems in the GTO files, FALSE to leave them unchanged
+     *
+     * @return a table of the variant codes found in each genome
+     */
+    public SubsystemVariantTable projectAll(GenomeDirectory genomes, boolean save) {
+        Consumer<Genome> writer = null;
+        if (save) {
+            writer = x -> {
+                try {
+                    x.save(genomes.getGenomeFile(x.getId()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+        }
+        // The directory's genome accessor is not thread-safe, so we read the genome files directly.
+        Stream<Genome> genomeStream = genomes.getGenomeIDs().stream().map(x -> {
+            try {
+                return new Genome(genomes.getGenomeFile(x));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return this.projectAll(genomeStream, writer);
+    }
+
+    /**
+     * @return the number of genomes processed
+     */
+    public long getGenomeCount() {
+        return this.genomeCount.sum();
+    }
+
+    /**
+     * @return the number of subsystem projections found
+     */
+    public long getProjectionCount() {
+        return this.projectionCount.sum();
+    }
+
+    /**
+     * @return the number of functions currently in the role map's function cache
+     */
+    public int getFunctionCount() {
+        return this.roleMap.getCacheStats().size();
+    }
+
+}
@@ -0,0 +1,361 @@
+/**
+ *
+ */
+package org.theseed.subsystems.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This object is a subsystem rule compiled into a flat postfix program over role ordinals.  The
+ * program is evaluated against a role bit set (see RoleOrdinalMap) using a small integer stack, so
+ * there is no recursion, no string hashing, and very little branching.
+ *
+ * The program is a sequence of integer instructions.
+ *
+ *  FALSE, TRUE			push a constant result
+ *  ROLE ord			push 1 if the role with the specified ordinal is present, else 0
+ *  NOT					invert the top result
+ *  COUNT n k			pop k results and push 1 if at least n of them are 1
+ *  MASK n m p			push 1 if at least n roles in a set of masks are present; the set consists of
+ *  					m (word index, mask) pairs in the mask pool starting at position p
+ *
+ * A list rule whose members are all distinct primitive roles compiles to a single MASK instruction,
+ * which is evaluated using word-level popcounts.  All other rules are compiled recursively.
+ *
+ * Compiled rules are immutable and can be evaluated by multiple threads at once.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class CompiledRule {
+
+    // FIELDS
+    /** program instructions */
+    private final int[] code;
+    /** mask pool, consisting of alternating word indices and masks */
+    private final long[] masks;
+    /** maximum stack depth */
+    private final int depth;
+    /** number of words a role bit set must have for the program to index it safely */
+    private final int words;
+
+    /** instruction codes */
+    protected static final int FALSE = 0;
+    protected static final int TRUE = 1;
+    protected static final int ROLE = 2;
+    protected static final int NOT = 3;
+    protected static final int COUNT = 4;
+    protected static final int MASK = 5;
+
+    /**
+     * This class is used to build a compiled rule.  Each subsystem rule adds its instructions in
+     * postfix order.
+     */
+    public static class Builder {
+
+        /** role ordinal map for resolving role IDs */
+        private final RoleOrdinalMap ordinals;
+        /** instructions compiled so far */
+        private int[] code;
+        /** number of instructions compiled */
+        private int len;
+        /** mask pool built so far */
+        private long[] masks;
+        /** number of mask pool entries used */
+        private int maskLen;
+        /** current stack depth */
+        private int depth;
+        /** maximum stack depth */
+        private int maxDepth;
+        /** maximum word index referenced */
+        private int maxWord;
+
+        /**
+         * Create a builder for a new compiled rule.
+         *
+         * @param ordinals	role ordinal map for resolving role IDs
+         */
+        protected Builder(RoleOrdinalMap ordinals) {
+            this.ordinals = ordinals;
+            this.code = new int[16];
+            this.len = 0;
+            this.masks = new long[8];
+            this.maskLen = 0;
+            this.depth = 0;
+            this.maxDepth = 0;
+            this.maxWord = -1;
+        }
+
+        /**
+         * Add instruction words to the program.
+         *
+         * @param ops	instruction words to add
+         */
+        private void emit(int... ops) {
+            if (this.len + ops.length > this.code.length)
+                this.code = Arrays.copyOf(this.code, Math.max(this.code.length * 2, this.len + ops.length));
+            System.arraycopy(ops, 0, this.code, this.len, ops.length);
+            this.len += ops.length;
+        }
+
+        /**
+         * Record the stack effect of an instruction.
+         *
+         * @param popped	number of results popped
+         */
+        private void push(int popped) {
+            this.depth = this.depth - popped + 1;
+            if (this.depth > this.maxDepth)
+                this.maxDepth = this.depth;
+        }
+
+        /**
+         * Compile a constant result.
+         *
+         * @param value		value to push
+         */
+        public void constant(boolean value) {
+            this.emit(value ? TRUE : FALSE);
+            this.push(0);
+        }
+
+        /**
+         * Compile a role presence test.  A role not in the ordinal map can never be present.
+         *
+         * @param roleId	ID of the role to test
+         */
+        public void role(String roleId) {
+            int ordinal = this.ordinals.getOrdinal(roleId);
+            if (ordinal < 0)
+                this.constant(false);
+            else {
+                this.emit(ROLE, ordinal);
+                this.push(0);
+                this.maxWord = Math.max(this.maxWord, ordinal >>> 6);
+            }
+        }
+
+        /**
+         * Compile an inversion of the previous result.
+         */
+        public void not() {
+            this.emit(NOT);
+            this.push(1);
+        }
+
+        /**
+         * Compile a threshold test on the previous results.
+         *
+         * @param n		number of results that must be satisfied
+         * @param k		number of results to examine
+         */
+        public void count(int n, int k) {
+            this.emit(COUNT, n, k);
+            this.push(k);
+        }
+
+        /**
+         * Compile a threshold test on a set of roles.  The role IDs must be distinct.
+         *
+         * @param n			number of roles that must be present
+         * @param roleIds	IDs of the roles to test
+         */
+        public void roleCount(int n, String[] roleIds) {
+            // Compute the ordinals.  Roles not in the map can never be present, so they are skipped.
+            int[] found = Arrays.stream(roleIds).mapToInt(x -> this.ordinals.getOrdinal(x)).filter(x -> x >= 0)
+                    .sorted().toArray();
+            // Build the masks, one per word touched.
+            final int start = this.maskLen;
+            int m = 0;
+            int i = 0;
+            while (i < found.length) {
+                final int w = found[i] >>> 6;
+                long mask = 0;
+                for (; i < found.length && (found[i] >>> 6) == w; i++)
+                    mask |= 1L << found[i];
+                if (this.maskLen + 2 > this.masks.length)
+                    this.masks = Arrays.copyOf(this.masks, this.masks.length * 2);
+                this.masks[this.maskLen++] = w;
+                this.masks[this.maskLen++] = mask;
+                this.maxWord = Math.max(this.maxWord, w);
+                m++;
+            }
+            this.emit(MASK, n, m, start);
+            this.push(0);
+        }
+
+        /**
+         * @return the ordinal map used by this builder
+         */
+        public RoleOrdinalMap getOrdinals() {
+            return this.ordinals;
+        }
+
+        /**
+         * @return the finished compiled rule
+         */
+        protected CompiledRule build() {
+            if (this.depth != 1)
+                throw new IllegalStateException("Compiled rule program is unbalanced.");
+            return new CompiledRule(Arrays.copyOf(this.code, this.len), Arrays.copyOf(this.masks, this.maskLen),
+                    this.maxDepth, this.maxWord + 1);
+        }
+
+    }
+
+    /**
+     * Construct a compiled rule from its components.
+     *
+     * @param code		program instructions
+     * @param masks		mask pool
+     * @param depth		maximum stack depth
+     * @param words		number of words a role bit set must have
+     */
+    protected CompiledRule(int[] code, long[] masks, int depth, int words) {
+        this.code = code;
+        this.masks = masks;
+        this.depth = depth;
+        this.words = words;
+    }
+
+    /**
+     * Compile a subsystem rule.
+     *
+     * @param rule		rule to compile
+     * @param ordinals	role ordinal map for resolving role IDs
+     *
+     * @return the compiled version of the rule
+     */
+    public static CompiledRule compile(SubsystemRule rule, RoleOrdinalMap ordinals) {
+        Builder builder = new Builder(ordinals);
+        rule.compile(builder);
+        return builder.build();
+    }
+
+    /**
+     * Determine whether this rule is satisfied by a role bit set.
+     *
+     * @param bits	role bit set built by the same ordinal map used to compile the rule
+     *
+     * @return TRUE if the rule is satisfied, else FALSE
+     */
+    public boolean check(long[] bits) {
+        if (bits.length < this.words)
+            bits = Arrays.copyOf(bits, this.words);
+        final int[] code = this.code;
+        final int[] stack = new int[this.depth];
+        int top = -1;
+        int pc = 0;
+        while (pc < code.length) {
+            switch (code[pc]) {
+            case FALSE -> {
+                stack[++top] = 0;
+                pc++;
+            }
+            case TRUE -> {
+                stack[++top] = 1;
+                pc++;
+            }
+            case ROLE -> {
+                final int ordinal = code[pc + 1];
+                stack[++top] = (int) (bits[ordinal >>> 6] >>> ordinal) & 1;
+                pc += 2;
+            }
+            case NOT -> {
+                stack[top] ^= 1;
+                pc++;
+            }
+            case COUNT -> {
+                final int k = code[pc + 2];
+                int found = 0;
+                for (int i = top - k + 1; i <= top; i++)
+                    found += stack[i];
+                top -= k;
+                stack[++top] = (found >= code[pc + 1] ? 1 : 0);
+                pc += 3;
+            }
+            case MASK -> {
+                final int end = code[pc + 3] + 2 * code[pc + 2];
+                int found = 0;
+                for (int i = code[pc + 3]; i < end; i += 2)
+                    found += Long.bitCount(bits[(int) this.masks[i]] & this.masks[i + 1]);
+                stack[++top] = (found >= code[pc + 1] ? 1 : 0);
+                pc += 4;
+            }
+            default -> throw new IllegalStateException("Invalid instruction " + code[pc] + " in compiled rule.");
+            }
+        }
+        return (stack[0] != 0);
+    }
+
+    /**
+     * Write this compiled rule to a binary output stream.
+     *
+     * @param out	binary output stream
+     *
+     * @throws IOException
+     */
+    protected void write(DataOutput out) throws IOException {
+        out.writeInt(this.depth);
+        out.writeInt(this.words);
+        out.writeInt(this.code.length);
+        for (int op : this.code)
+            out.writeInt(op);
+        out.writeInt(this.masks.length);
+        for (long mask : this.masks)
+            out.writeLong(mask);
+    }
+
+    /**
+     * Read a compiled rule written by "write" from a binary input stream.
+     *
+     * @param in	binary input stream
+     *
+     * @return the compiled rule read
+     *
+     * @throws IOException
+     */
+    protected static CompiledRule read(DataInput in) throws IOException {
+        int depth = in.readInt();
+        int words = in.readInt();
+        int[] code = new int[in.readInt()];
+        for (int i = 0; i < code.length; i++)
+            code[i] = in.readInt();
+        long[] masks = new long[in.readInt()];
+        for (int i = 0; i < masks.length; i++)
+            masks[i] = in.readLong();
+        return new CompiledRule(code, masks, depth, words);
+    }
+
+    /**
+     * @return the program instructions
+     */
+    protected int[] getCode() {
+        return this.code;
+    }
+
+    /**
+     * @return the mask pool
+     */
+    protected long[] getMasks() {
+        return this.masks;
+    }
+
+    /**
+     * @return the maximum stack depth
+     */
+    protected int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * @return the number of words a role bit set must have for the program
+     */
+    protected int getWords() {
+        return this.words;
+    }
+
+}
@@ -84,10 +84,8 @@ public class CoreSubsystem {
     private final Set<String> badIds;
     /** number of invalid roles */
     private int badRoles;
-    /** roles not found during current rule */
-    private final Set<String> notFound;
-    /** roles found during current rule */
-    private final Set<String> found;
+    /** tracking results from the most recent rule analysis */
+    private volatile RuleTracker lastAnalysis;
     /** description note */
     private String description;
     /** set of pubmed IDs from the notes */
@@ -250,9 +248,8 @@ public class CoreSubsystem {
         this.ruleMap = new LinkedHashMap<>();
         this.roles = new ArrayList<>();
         this.roleAbbrs = new ArrayList<>();
-        // Initialize the tracking sets.
-        this.found = new TreeSet<>();
-        this.notFound = new TreeSet<>();
+        // Initialize the tracking results.
+        this.lastAnalysis = new RuleTracker();
         // Read in the subsystem spreadsheet.  This will initialize the name space, collect the
         // rule list and auxiliary rules, and store the rows.
         this.spreadsheet = new HashMap<>();
@@ -278,8 +275,7 @@ public class CoreSubsystem {
         this.auxMap = new BitSet();
         this.badIds = Collections.emptySet();
         this.classes = Arrays.asList("", "", "");
-        this.found = Collections.emptySet();
-        this.notFound = Collections.emptySet();
+        this.lastAnalysis = new RuleTracker();
         this.roleMap = new StrictRoleMap();
         this.roles = Collections.emptyList();
         this.roleAbbrs = Collections.emptyList();
@@ -331,7 +327,7 @@ public class CoreSubsystem {
                 var roleRule = new SubsystemPrimitiveRule(role.getId());
                 // Connect it to the abbreviation.
                 this.ruleMap.put(line[0], roleRule);
-                roleRule.setTracking(this, line[0]);
+                roleRule.setTracking(line[0]);
                 // Establish the role in the current column position.
                 this.ruleMap.put(Integer.toString(ruleIdx), roleRule);
                 this.roles.add(role);
@@ -764,7 +760,9 @@ public class CoreSubsystem {
     }
 
     /**
-     * Compute the variant code for a specified role set in this subsystem.
+     * Compute the variant code for a specified role set in this subsystem.  No tracking is done, and
+     * this method can be called from multiple threads at once.  The results of any earlier "analyzeRule"
+     * are discarded.
      *
      * @param roleSet	set of roles in the genome
      *
@@ -775,6 +773,9 @@ public class CoreSubsystem {
         // them in order.
         Iterator<Map.Entry<String, SubsystemRule>> iter = this.variantRules.entrySet().iterator();
         String retVal = null;
+        // Clear the tracking results.  These are only available after an analyzeRule.
+        if (! this.lastAnalysis.isEmpty())
+            this.lastAnalysis = new RuleTracker();
         // Loop and stop on the first matching rule.
         while (iter.hasNext() && retVal == null) {
             var ruleEntry = iter.next();
@@ -782,9 +783,6 @@ public class CoreSubsystem {
             if (rule.check(roleSet))
                 retVal = ruleEntry.getKey();
         }
-        // Clear the tracking sets.  These are only available after an analyzeRule.
-        this.found.clear();
-        this.notFound.clear();
         // Return the results.
         return retVal;
     }
@@ -807,7 +805,7 @@ public class CoreSubsystem {
     public static Set<String> getRoleSet(Genome genome, StrictRoleMap roleMap2) {
         Set<String> retVal = new HashSet<>(genome.getFeatureCount());
         for (Feature feat : genome.getFeatures())
-            roleMap2.usefulRoles(feat.getFunction()).stream().forEach(x -> retVal.add(x.getId()));
+            roleMap2.cachedRoles(feat.getFunction()).stream().forEach(x -> retVal.add(x.getId()));
         return retVal;
     }
 
@@ -878,20 +876,40 @@ public class CoreSubsystem {
     }
 
     /**
-     * Record the results of a primitive-rule match.
+     * Record the results of a primitive-rule match in the tracking results for "getFound" and "getNotFound".
      *
      * @param abbr		role abbreviation
      * @param retVal	TRUE if the role was found, else FALSE
+     *
+     * @deprecated	pass a RuleTracker to the rule check, or use "analyze"
      */
+    @Deprecated
     public void record(String abbr, boolean retVal) {
-        if (retVal)
-            this.found.add(abbr);
-        else
-            this.notFound.add(abbr);
+        this.lastAnalysis.record(abbr, retVal);
+    }
+
+    /**
+     * Analyze the specified rule to determine what was found and not found.  Each call gets its own
+     * tracker, so this method can be called from multiple threads at once.
+     *
+     * @param ruleName		name of the rule to analyze
+     * @param roleSet		set of roles to use
+     *
+     * @return a tracker containing the abbreviations of the found and missing roles, or NULL if there is no such rule
+     */
+    public RuleTracker analyze(String ruleName, Set<String> roleSet) {
+        RuleTracker retVal = null;
+        SubsystemRule rule = this.variantRules.get(ruleName);
+        if (rule != null) {
+            retVal = new RuleTracker();
+            rule.check(roleSet, retVal);
+        }
+        return retVal;
     }
 
     /**
-     * Analyze the specified rule to determine what was found and not found.
+     * Analyze the specified rule to determine what was found and not found.  The tracking results are
+     * also saved for "getFound" and "getNotFound".
      *
      * @param ruleName		name of the rule to analyze
      * @param roleSet		set of roles to use
@@ -902,17 +920,14 @@ public class CoreSubsystem {
      */
     public String analyzeRule(String ruleName, Set<String> roleSet) throws ParseFailureException {
         String retVal;
-        // Insure the tracking sets are empty.
-        this.notFound.clear();
-        this.found.clear();
         // Test the rule.
-        SubsystemRule rule = this.variantRules.get(ruleName);
-        if (rule == null)
+        RuleTracker tracker = this.analyze(ruleName, roleSet);
+        if (tracker == null) {
             retVal = "<no match>";
-        else {
-            rule.check(roleSet);
-            retVal = StringUtils.join(this.found, ",") + "/" + StringUtils.join(this.notFound, ",");
-        }
+            tracker = new RuleTracker();
+        } else
+            retVal = tracker.toString();
+        this.lastAnalysis = tracker;
         return retVal;
     }
 
@@ -929,21 +944,23 @@ public class CoreSubsystem {
     }
 
     /**
-     * This can be used immediately after an "analyzeRule" to get the roles not found.
+     * This can be used immediately after an "analyzeRule" to get the roles not found.  If rules are
+     * being analyzed on multiple threads, use the tracker returned by "analyze" instead.
      *
      * @return the roles not-found
      */
     public Set<String> getNotFound() {
-        return this.notFound;
+        return this.lastAnalysis.getNotFound();
     }
 
     /**
-     * This can be used immediately after an "analyzeRule" to get the roles found.
+     * This can be used immediately after an "analyzeRule" to get the roles found.  If rules are
+     * being analyzed on multiple threads, use the tracker returned by "analyze" instead.
      *
      * @return the roles found
      */
     public Set<String> getFound() {
-        return this.found;
+        return this.lastAnalysis.getFound();
     }
 
     /**
@@ -3,6 +3,9 @@
  */
 package org.theseed.subsystems.core;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Set;
 
 import org.theseed.basic.ParseFailureException;
@@ -24,10 +27,25 @@ public class FailRule extends SubsystemRule {
     }
 
     @Override
-    public boolean check(Set<String> roleSet) {
+    public boolean check(Set<String> roleSet, RuleTracker tracker) {
         return false;
     }
 
+    @Override
+    protected void compile(CompiledRule.Builder program) {
+        program.constant(false);
+    }
+
+    @Override
+    protected Set<String> requiredRoles() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    protected void write(DataOutput out) throws IOException {
+        out.writeByte(TAG_FAIL);
+    }
+
     @Override
     public int hashCode() {
         return 101;
@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package org.theseed.subsystems.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.theseed.subsystems.StrictRole;
+import org.theseed.subsystems.StrictRoleMap;
+
+/**
+ * This object assigns a dense integer ordinal to each role ID in a strict role map.  A genome's role
+ * set can then be converted once into a bit set (stored as an array of long words) that compiled
+ * subsystem rules can test without any string hashing.
+ *
+ * Once built, the map is read-only, so it can be shared among threads.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class RoleOrdinalMap {
+
+    // FIELDS
+    /** map of role IDs to ordinals */
+    private final Map<String, Integer> ordinals;
+    /** list of role IDs, indexed by ordinal */
+    private final List<String> roleIds;
+
+    /**
+     * Create an ordinal map for the roles in a strict role map.
+     *
+     * @param roleMap	role definition map
+     */
+    public RoleOrdinalMap(StrictRoleMap roleMap) {
+        final int n = roleMap.size();
+        this.ordinals = new HashMap<>(n * 4 / 3 + 1);
+        this.roleIds = new ArrayList<>(n);
+        // Several role names can have the same ID, so we only assign an ordinal the first time we see an ID.
+        for (StrictRole role : roleMap) {
+            String roleId = role.getId();
+            if (! this.ordinals.containsKey(roleId)) {
+                this.ordinals.put(roleId, this.roleIds.size());
+                this.roleIds.add(roleId);
+            }
+        }
+    }
+
+    /**
+     * Create an ordinal map from a list of role IDs in ordinal order.
+     *
+     * @param roleIds	list of role IDs, indexed by ordinal
+     */
+    protected RoleOrdinalMap(List<String> roleIds) {
+        final int n = roleIds.size();
+        this.ordinals = new HashMap<>(n * 4 / 3 + 1);
+        this.roleIds = new ArrayList<>(roleIds);
+        for (int i = 0; i < n; i++)
+            this.ordinals.put(roleIds.get(i), i);
+    }
+
+    /**
+     * @return the ordinal for a role ID, or -1 if the role is not in the map
+     *
+     * @param roleId	ID of the role of interest
+     */
+    public int getOrdinal(String roleId) {
+        Integer retVal = this.ordinals.get(roleId);
+        return (retVal == null ? -1 : retVal);
+    }
+
+    /**
+     * @return the role ID for an ordinal
+     *
+     * @param ordinal	ordinal of the role of interest
+     */
+    public String getRoleId(int ordinal) {
+        return this.roleIds.get(ordinal);
+    }
+
+    /**
+     * @return the number of roles in the map
+     */
+    public int size() {
+        return this.roleIds.size();
+    }
+
+    /**
+     * @return the number of long words in a role bit set for this map
+     */
+    public int wordCount() {
+        return (this.roleIds.size() + 63) >>> 6;
+    }
+
+    /**
+     * Convert a set of role IDs into a role bit set.  Roles not in this map are ignored.
+     *
+     * @param roleIds	collection of role IDs to convert
+     *
+     * @return an array of long words with the bit for each role's ordinal set
+     */
+    public long[] toBits(Collection<String> roleIds) {
+        long[] retVal = new long[this.wordCount()];
+        for (String roleId : roleIds) {
+            Integer ordinal = this.ordinals.get(roleId);
+            if (ordinal != null)
+                retVal[ordinal >>> 6] |= 1L << ordinal;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the role with the specified ordinal is present in a role bit set
+     *
+     * @param bits		role bit set to check
+     * @param ordinal	ordinal of the role of interest
+     */
+    public static boolean isSet(long[] bits, int ordinal) {
+        final int w = ordinal >>> 6;
+        return (ordinal >= 0 && w < bits.length && (bits[w] & (1L << ordinal)) != 0);
+    }
+
+}
@@ -0,0 +1,179 @@
+/**
+ *
+ */
+package org.theseed.subsystems.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.subsystems.StrictRoleMap;
+
+/**
+ * This object contains the compiled form of a set of subsystem descriptors.  It holds the role ordinal map
+ * used by the compiled rules and an inverted index from each role to the subsystems that require it.
+ * A subsystem can only be projected onto a genome containing at least one of its required roles, so
+ * given a genome's role bit set, we can quickly find the small number of candidate subsystems worth
+ * evaluating.  Subsystems whose rules can be satisfied without any particular role (e.g. rules with
+ * a "not" operator) are always candidates.
+ *
+ * Building the index compiles the variant rules into copies of the descriptors owned by the index, so the
+ * caller's descriptors are never modified.  Once built, the index is read-only, so it can be shared among
+ * threads.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class RoleSubsystemIndex {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(RoleSubsystemIndex.class);
+    /** role ordinal map for the compiled rules */
+    private final RoleOrdinalMap ordinals;
+    /** array of indexed subsystem descriptors */
+    private final SubsystemDescriptor[] subsystems;
+    /** array of subsystem positions for each role, indexed by role ordinal */
+    private final int[][] roleIndex;
+    /** positions of the subsystems that must always be checked */
+    private final BitSet alwaysCheck;
+
+    /** empty position list */
+    private static final int[] NO_SUBSYSTEMS = new int[0];
+
+    /**
+     * Compile and index a collection of subsystem descriptors.  The descriptors themselves are not
+     * modified:  the index compiles and keeps its own copies.
+     *
+     * @param roleMap		role definition map
+     * @param descriptors	subsystem descriptors to index
+     */
+    public RoleSubsystemIndex(StrictRoleMap roleMap, Collection<SubsystemDescriptor> descriptors) {
+        this.ordinals = new RoleOrdinalMap(roleMap);
+        this.subsystems = new SubsystemDescriptor[descriptors.size()];
+        int[][] required = new int[this.subsystems.length][];
+        int i = 0;
+        for (SubsystemDescriptor desc : descriptors) {
+            this.subsystems[i] = desc.compiledCopy(this.ordinals);
+            required[i] = requiredOrdinals(desc, this.ordinals);
+            i++;
+        }
+        this.alwaysCheck = new BitSet(this.subsystems.length);
+        this.roleIndex = this.buildIndex(required);
+        log.info("{} subsystems compiled and indexed; {} must always be checked.", this.subsystems.length,
+                this.alwaysCheck.cardinality());
+    }
+
+    /**
+     * Index a set of subsystem descriptors whose rules have already been compiled.  The index takes
+     * ownership of the descriptor array and the descriptors in it.
+     *
+     * @param ordinals		role ordinal map used to compile the rules
+     * @param descriptors	array of compiled subsystem descriptors
+     * @param required		array of required role ordinals for each descriptor (NULL if it must always be checked)
+     */
+    protected RoleSubsystemIndex(RoleOrdinalMap ordinals, SubsystemDescriptor[] descriptors, int[][] required) {
+        this.ordinals = ordinals;
+        this.subsystems = descriptors;
+        this.alwaysCheck = new BitSet(this.subsystems.length);
+        this.roleIndex = this.buildIndex(required);
+    }
+
+    /**
+     * @return the required role ordinals for a subsystem, or NULL if the subsystem must always be checked
+     *
+     * Roles not in the ordinal map can never be present, so they are left out.
+     *
+     * @param desc		descriptor of the subsystem of interest
+     * @param ordinals	role ordinal map
+     */
+    protected static int[] requiredOrdinals(SubsystemDescriptor desc, RoleOrdinalMap ordinals) {
+        int[] retVal = null;
+        Set<String> required = desc.getRequiredRoles();
+        if (required != null)
+            retVal = required.stream().mapToInt(x -> ordinals.getOrdinal(x)).filter(x -> x >= 0).sorted().toArray();
+        return retVal;
+    }
+
+    /**
+     * Build the inverted index from roles to subsystems.  This also fills in the always-check set.
+     *
+     * @param required		array of required role ordinals for each subsystem (NULL if it must always be checked)
+     *
+     * @return an array of subsystem positions for each role, indexed by role ordinal
+     */
+    private int[][] buildIndex(int[][] required) {
+        // We build the index as lists and then convert them to arrays.
+        final int nRoles = this.ordinals.size();
+        List<List<Integer>> roleLists = new ArrayList<>(nRoles);
+        for (int i = 0; i < nRoles; i++)
+            roleLists.add(new ArrayList<>(2));
+        for (int i = 0; i < required.length; i++) {
+            if (required[i] == null)
+                this.alwaysCheck.set(i);
+            else {
+                for (int ordinal : required[i])
+                    roleLists.get(ordinal).add(i);
+            }
+        }
+        int[][] retVal = new int[nRoles][];
+        for (int i = 0; i < nRoles; i++) {
+            List<Integer> roleList = roleLists.get(i);
+            retVal[i] = (roleList.isEmpty() ? NO_SUBSYSTEMS : roleList.stream().mapToInt(x -> x).toArray());
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the role ordinal map for the compiled rules
+     */
+    public RoleOrdinalMap getOrdinals() {
+        return this.ordinals;
+    }
+
+    /**
+     * @return the number of indexed subsystems
+     */
+    public int size() {
+        return this.subsystems.length;
+    }
+
+    /**
+     * @return the subsystem descriptors that could be projected onto a genome with the specified roles
+     *
+     * @param roleBits	role bit set for the genome
+     */
+    public List<SubsystemDescriptor> getCandidates(long[] roleBits) {
+        BitSet found = (BitSet) this.alwaysCheck.clone();
+        // Loop through the roles present, collecting subsystem positions.
+        final int n = Math.min(roleBits.length, this.ordinals.wordCount());
+        for (int w = 0; w < n; w++) {
+            long word = roleBits[w];
+            while (word != 0) {
+                int ordinal = (w << 6) + Long.numberOfTrailingZeros(word);
+                if (ordinal < this.roleIndex.length) {
+                    for (int pos : this.roleIndex[ordinal])
+                        found.set(pos);
+                }
+                word &= word - 1;
+            }
+        }
+        List<SubsystemDescriptor> retVal = new ArrayList<>(found.cardinality());
+        for (int pos = found.nextSetBit(0); pos >= 0; pos = found.nextSetBit(pos + 1))
+            retVal.add(this.subsystems[pos]);
+        return retVal;
+    }
+
+    /**
+     * @return the indexed subsystem descriptors
+     */
+    public List<SubsystemDescriptor> getSubsystems() {
+        return Arrays.asList(this.subsystems);
+    }
+
+}
@@ -3,8 +3,12 @@
  */
 package org.theseed.subsystems.core;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -15,14 +19,17 @@ import java.util.stream.IntStream;
  * This object contains the bitmap for a particular variant specification. It provides methods for translating
  * the bits to conjunctions, finding common subsets, and other operations.
  *
+ * The bitmap is stored as an array of long words, so that subset tests and intersections work a word at a
+ * time.  All the rulebit sets for a subsystem have the same number of words.
+ *
  * @author Bruce Parrello
  *
  */
 public class RuleBits implements Comparable<RuleBits> {
 
     // FIELDS
-    /** basic bit set indicating the roles in use */
-    private BitSet roleBits;
+    /** bit map indicating the roles in use, stored as long words */
+    private long[] roleBits;
     /** number of bits set */
     private int size;
     /** relevant subsystem */
@@ -40,13 +47,13 @@ public class RuleBits implements Comparable<RuleBits> {
         this.size = 0;
         // We need to create the bit map.  Note we will skip the auxiliary roles.
         final int width = cols.size();
-        this.roleBits = new BitSet(width);
+        this.roleBits = new long[wordCount(this.parent)];
         BitSet auxMap = this.parent.getAuxMap();
         // Loop through the role positions checking for presence.
         for (int i = 0; i < width; i++) {
             if (! auxMap.get(i) && ! cols.get(i).isEmpty()) {
                 this.size++;
-                this.roleBits.set(i);
+                this.roleBits[i >>> 6] |= 1L << i;
             }
         }
     }
@@ -58,10 +65,44 @@ public class RuleBits implements Comparable<RuleBits> {
      */
     protected RuleBits(CoreSubsystem sub) {
         this.parent = sub;
-        this.roleBits = new BitSet(sub.getRoleCount());
+        this.roleBits = new long[wordCount(sub)];
         this.size = 0;
     }
 
+    /**
+     * @return the number of long words needed for a bit map of the roles in a subsystem
+     *
+     * @param sub	subsystem of interest
+     */
+    private static int wordCount(CoreSubsystem sub) {
+        return (sub.getRoleCount() + 63) >>> 6;
+    }
+
+    /**
+     * @return TRUE if the role at the specified position is in this set
+     *
+     * @param i		position of the role of interest
+     */
+    private boolean get(int i) {
+        final int w = i >>> 6;
+        return (w < this.roleBits.length && (this.roleBits[w] & (1L << i)) != 0);
+    }
+
+    /**
+     * @return TRUE if every role in this set is also in another set
+     *
+     * @param other		other set to check
+     */
+    private boolean isSubsetOf(RuleBits other) {
+        boolean retVal = true;
+        final int n = this.roleBits.length;
+        for (int w = 0; w < n && retVal; w++) {
+            long otherWord = (w < other.roleBits.length ? other.roleBits[w] : 0);
+            retVal = ((this.roleBits[w] & ~otherWord) == 0);
+        }
+        return retVal;
+    }
+
     @Override
     public int compareTo(RuleBits o) {
         // Compare the cardinality. Bigger sets compare first.
@@ -72,18 +113,10 @@ public class RuleBits implements Comparable<RuleBits> {
             retVal = this.parent.getName().compareTo(o.parent.getName());
             if (retVal == 0) {
                 // Now we compare hash codes. This is for performance.
-                retVal = this.hashCode() - o.hashCode();
+                retVal = Integer.compare(this.hashCode(), o.hashCode());
                 if (retVal == 0) {
-                    // Finally, we have a bit-for-bit match.
-                    int pos = 0;
-                    final int width = this.parent.getRoleCount();
-                    while (pos < width && retVal == 0) {
-                        int pos1 = this.roleBits.nextSetBit(pos+1);
-                        if (pos1 < 0) pos1 = width;
-                        pos = o.roleBits.nextSetBit(pos+1);
-                        if (pos < 0) pos = width;
-                        retVal = pos1 - pos;
-                    }
+                    // Finally, we have a word-for-word match.
+                    retVal = Arrays.compare(this.roleBits, o.roleBits);
                 }
             }
         }
@@ -100,18 +133,10 @@ public class RuleBits implements Comparable<RuleBits> {
      */
     public int subsumeCompare(RuleBits other) {
         int retVal;
-        if (this.size <= other.size) {
-            retVal = -1;
-            int pos = this.roleBits.nextSetBit(0);
-            while (pos >= 0 && retVal == -1) {
-                if (! other.roleBits.get(pos))
-                    retVal = 0;
-                else
-                    pos = this.roleBits.nextSetBit(pos + 1);
-            }
-        } else {
-            retVal = -other.subsumeCompare(this);
-        }
+        if (this.size <= other.size)
+            retVal = (this.isSubsetOf(other) ? -1 : 0);
+        else
+            retVal = (other.isSubsetOf(this) ? 1 : 0);
         return retVal;
     }
 
@@ -148,6 +173,72 @@ public class RuleBits implements Comparable<RuleBits> {
             ruleList.add(this);
     }
 
+    /**
+     * Compute the minimal sets in a collection of rulebit sets.  The result is the same as merging each set
+     * into an empty list using "mergeInto", but it scales to large collections.  Duplicates are removed
+     * first, and the distinct sets are processed from smallest to largest, so that a set only needs to be
+     * checked against the minimal sets already found.  To avoid checking every one of those, the minimal
+     * sets are indexed by their lowest role position:  a minimal set can only be a subset of a candidate
+     * if its lowest role is in the candidate.
+     *
+     * @param ruleList	collection of rulebit sets from the same subsystem
+     *
+     * @return a list of the sets that are not supersets of other sets in the collection
+     */
+    public static List<RuleBits> minimalSets(Collection<RuleBits> ruleList) {
+        // Remove the duplicates and sort by size.
+        List<RuleBits> distinct = new ArrayList<>(new HashSet<>(ruleList));
+        distinct.sort(Comparator.comparingInt(RuleBits::size));
+        List<RuleBits> retVal = new ArrayList<>();
+        if (! distinct.isEmpty()) {
+            final int width = distinct.get(0).roleBits.length * 64;
+            List<List<RuleBits>> lowIndex = new ArrayList<>(width);
+            for (int i = 0; i < width; i++)
+                lowIndex.add(new ArrayList<>(2));
+            for (RuleBits candidate : distinct) {
+                boolean minimal = true;
+                // Only sets with a lowest role in the candidate can be subsets of it.  Because the candidates
+                // are distinct and sorted by size, none of these can be equal to the candidate.
+                for (int i = candidate.nextSetBit(0); i >= 0 && minimal; i = candidate.nextSetBit(i + 1)) {
+                    for (RuleBits found : lowIndex.get(i)) {
+                        if (found.isSubsetOf(candidate)) {
+                            minimal = false;
+                            break;
+                        }
+                    }
+                }
+                if (minimal) {
+                    retVal.add(candidate);
+                    // An empty set is a subset of everything, so nothing after it can be minimal.
+                    int low = candidate.nextSetBit(0);
+                    if (low < 0)
+                        break;
+                    lowIndex.get(low).add(candidate);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the position of the first role in this set at or after the specified position, or -1 if
+     * 		   there is none
+     *
+     * @param pos	starting position
+     */
+    private int nextSetBit(int pos) {
+        int w = pos >>> 6;
+        int retVal = -1;
+        if (w < this.roleBits.length) {
+            long word = this.roleBits[w] & (-1L << pos);
+            while (word == 0 && ++w < this.roleBits.length)
+                word = this.roleBits[w];
+            if (word != 0)
+                retVal = (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+        return retVal;
+    }
+
     /**
      * Compute the intersection of a collection of rulebit sets. This essentially gives us the roles in common
      * for all the rulebit sets.
@@ -160,11 +251,17 @@ public class RuleBits implements Comparable<RuleBits> {
         // Note we only proceed if we have at least one rulebit set in our list.
         if (! ruleList.isEmpty()) {
             Iterator<RuleBits> iter = ruleList.iterator();
-            retVal.roleBits = (BitSet) iter.next().roleBits.clone();
-            while (iter.hasNext())
-                retVal.roleBits.and(iter.next().roleBits);
+            long[] bits = iter.next().roleBits.clone();
+            while (iter.hasNext()) {
+                long[] other = iter.next().roleBits;
+                for (int w = 0; w < bits.length; w++)
+                    bits[w] &= (w < other.length ? other[w] : 0);
+            }
+            retVal.roleBits = bits;
             // We must fix the size.
-            retVal.size = retVal.roleBits.cardinality();
+            retVal.size = 0;
+            for (long word : bits)
+                retVal.size += Long.bitCount(word);
         }
         return retVal;
     }
@@ -190,7 +287,7 @@ public class RuleBits implements Comparable<RuleBits> {
     public String ruleString(RuleBits common) {
         final int width = this.parent.getRoleCount();
         String retVal = IntStream.range(0, width)
-                .filter(i -> ! common.roleBits.get(i) && this.roleBits.get(i))
+                .filter(i -> ! common.get(i) && this.get(i))
                 .mapToObj(i -> this.parent.getRoleAbbr(i)).collect(Collectors.joining(" and "));
         return retVal;
     }
@@ -200,7 +297,7 @@ public class RuleBits implements Comparable<RuleBits> {
         final int prime = 31;
         int result = 1;
         result = prime * result + ((this.parent == null) ? 0 : this.parent.hashCode());
-        result = prime * result + ((this.roleBits == null) ? 0 : this.roleBits.hashCode());
+        result = prime * result + ((this.roleBits == null) ? 0 : bitHash(this.roleBits));
         return result;
     }
 
@@ -224,12 +321,27 @@ public class RuleBits implements Comparable<RuleBits> {
             if (other.roleBits != null) {
                 return false;
             }
-        } else if (!this.roleBits.equals(other.roleBits)) {
+        } else if (!Arrays.equals(this.roleBits, other.roleBits)) {
             return false;
         }
         return true;
     }
 
+    /**
+     * @return the hash code of a bit map, computed the same way as for a java.util.BitSet
+     *
+     * This keeps the ordering of rulebit sets (and therefore the generated rules) the same as it was when
+     * the bit maps were stored as BitSet objects.
+     *
+     * @param words		bit map to hash
+     */
+    private static int bitHash(long[] words) {
+        long h = 1234;
+        for (int i = words.length; --i >= 0; )
+            h ^= words[i] * (i + 1);
+        return (int) ((h >> 32) ^ h);
+    }
+
     /**
      * @return TRUE if there are no bits set in this rule map
      */
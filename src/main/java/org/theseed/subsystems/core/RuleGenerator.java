@@ -5,6 +5,7 @@ package org.theseed.subsystems.core;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +58,8 @@ public class RuleGenerator {
         this.groupMap = new TreeMap<>();
         // Create the variant code map. We use a tree map because we expect it to be small.
         this.variantMap = new TreeMap<>();
+        // Collect the distinct rulebit sets for each variant.  Many rows share the same roles, so we use hash sets.
+        Map<String, Set<RuleBits>> rowMap = new TreeMap<>();
         // Loop through the subsystem rows.
         Iterator<CoreSubsystem.Row> iter = sub.rowIterator();
         while (iter.hasNext()) {
@@ -67,13 +70,14 @@ public class RuleGenerator {
                 RuleBits ruleSet = new RuleBits(row);
                 // We skip empty sets. In general, empty sets should be inactive anyway.
                 if (! ruleSet.isEmpty()) {
-                    // Find the rulebit list for this variant and merge us in.
                     String vCode = row.getVariantCode();
-                    Collection<RuleBits> ruleBitList = this.variantMap.computeIfAbsent(vCode, x -> new TreeSet<RuleBits>());
-                    ruleSet.mergeInto(ruleBitList);
+                    rowMap.computeIfAbsent(vCode, x -> new HashSet<RuleBits>()).add(ruleSet);
                 }
             }
         }
+        // Now keep only the minimal sets for each variant.
+        for (Map.Entry<String, Set<RuleBits>> rowEntry : rowMap.entrySet())
+            this.variantMap.put(rowEntry.getKey(), new TreeSet<RuleBits>(RuleBits.minimalSets(rowEntry.getValue())));
     }
 
     /**
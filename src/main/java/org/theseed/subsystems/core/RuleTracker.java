@@ -0,0 +1,77 @@
+/**
+ *
+ */
+package org.theseed.subsystems.core;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * This object collects the role abbreviations found and not found during a single rule evaluation.  A
+ * tracker is passed explicitly to the rule check, so each evaluation has its own, and rules can be
+ * evaluated on multiple threads at once.  When no tracker is passed, nothing is recorded.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class RuleTracker {
+
+    // FIELDS
+    /** abbreviations of roles found */
+    private final Set<String> found;
+    /** abbreviations of roles not found */
+    private final Set<String> notFound;
+
+    /**
+     * Create a new, empty rule tracker.
+     */
+    public RuleTracker() {
+        this.found = new TreeSet<>();
+        this.notFound = new TreeSet<>();
+    }
+
+    /**
+     * Record the results of a primitive-rule match.
+     *
+     * @param abbr		role abbreviation
+     * @param present	TRUE if the role was found, else FALSE
+     */
+    public void record(String abbr, boolean present) {
+        if (present)
+            this.found.add(abbr);
+        else
+            this.notFound.add(abbr);
+    }
+
+    /**
+     * @return the abbreviations of the roles found
+     */
+    public Set<String> getFound() {
+        return this.found;
+    }
+
+    /**
+     * @return the abbreviations of the roles not found
+     */
+    public Set<String> getNotFound() {
+        return this.notFound;
+    }
+
+    /**
+     * @return TRUE if nothing has been recorded
+     */
+    public boolean isEmpty() {
+        return this.found.isEmpty() && this.notFound.isEmpty();
+    }
+
+    /**
+     * @return a string containing the abbreviations of the found roles, a slash, and the abbreviations of the missing roles
+     */
+    @Override
+    public String toString() {
+        return StringUtils.join(this.found, ",") + "/" + StringUtils.join(this.notFound, ",");
+    }
+
+}
@@ -3,6 +3,8 @@
  */
 package org.theseed.subsystems.core;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Set;
 
 import org.theseed.basic.ParseFailureException;
@@ -37,8 +39,24 @@ public class SubsystemBasicRule extends SubsystemRule {
     }
 
     @Override
-    public boolean check(Set<String> roleSet) {
-        return this.parm.check(roleSet);
+    public boolean check(Set<String> roleSet, RuleTracker tracker) {
+        return this.parm.check(roleSet, tracker);
+    }
+
+    @Override
+    protected void compile(CompiledRule.Builder program) {
+        this.parm.compile(program);
+    }
+
+    @Override
+    protected Set<String> requiredRoles() {
+        return this.parm.requiredRoles();
+    }
+
+    @Override
+    protected void write(DataOutput out) throws IOException {
+        // A basic rule has no effect, so we only write the parameter.
+        this.parm.write(out);
     }
 
     @Override
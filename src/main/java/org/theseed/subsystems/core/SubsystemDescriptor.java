@@ -6,6 +6,7 @@ package org.theseed.subsystems.core;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +37,10 @@ public class SubsystemDescriptor implements Serializable, Comparable<SubsystemDe
     private final List<String> roleNames;
     /** variant rules */
     private final LinkedHashMap<String, SubsystemRule> variantRules;
+    /** variant codes for the compiled rules, in priority order */
+    private transient String[] compiledCodes;
+    /** compiled variant rules, in priority order */
+    private transient volatile CompiledRule[] compiledRules;
     /** serialization object ID */
     private static final long serialVersionUID = 8444755932664902942L;
 
@@ -67,6 +72,22 @@ public class SubsystemDescriptor implements Serializable, Comparable<SubsystemDe
         this.variantRules = sub.getVariantRuleMap();
     }
 
+    /**
+     * Create a subsystem descriptor from its components.
+     *
+     * @param name			subsystem name
+     * @param classes		array of classifications (superclass, class, subclass)
+     * @param roleNames		list of role names, in order
+     * @param variantRules	map of variant codes to rules, in priority order
+     */
+    protected SubsystemDescriptor(String name, String[] classes, List<String> roleNames,
+            LinkedHashMap<String, SubsystemRule> variantRules) {
+        this.name = name;
+        this.classes = classes;
+        this.roleNames = roleNames;
+        this.variantRules = variantRules;
+    }
+
     /**
      * Attempt to project this subsystem into a genome using the genome's role presence map.
      * This method is thread-safe. You can have multiple projections into the same genome
@@ -92,6 +113,139 @@ public class SubsystemDescriptor implements Serializable, Comparable<SubsystemDe
                 retVal = vCode;
             }
         }
+        return this.connect(genome, retVal, roleSet, roleMap, activeFlag);
+    }
+
+    /**
+     * Attempt to project this subsystem into a genome using compiled rules.  The rules must have been
+     * compiled with the same ordinal map used to build the role bit set.  Like the uncompiled version,
+     * this method is thread-safe.
+     *
+     * @param genome		target genome for projection
+     * @param roleSet		role presence map
+     * @param roleBits		role bit set for the genome
+     * @param roleMap		role ID definition map
+     * @param activeFlag	if TRUE, only active variants will be projected
+     *
+     * @return the variant code of the projected subsystem row, or NULL if the subsystem is not present
+     */
+    public String project(Genome genome, Map<String, Set<String>> roleSet, long[] roleBits, StrictRoleMap roleMap,
+            boolean activeFlag) {
+        String retVal = this.findVariant(roleBits);
+        return this.connect(genome, retVal, roleSet, roleMap, activeFlag);
+    }
+
+    /**
+     * Compile the variant rules of this descriptor into bit set programs.
+     *
+     * @param ordinals	role ordinal map for the role bit sets
+     */
+    public void compile(RoleOrdinalMap ordinals) {
+        final int n = this.variantRules.size();
+        String[] codes = new String[n];
+        CompiledRule[] rules = new CompiledRule[n];
+        int i = 0;
+        for (var ruleEntry : this.variantRules.entrySet()) {
+            codes[i] = ruleEntry.getKey();
+            rules[i] = CompiledRule.compile(ruleEntry.getValue(), ordinals);
+            i++;
+        }
+        this.compiledCodes = codes;
+        this.compiledRules = rules;
+    }
+
+    /**
+     * @return a copy of this descriptor with its variant rules compiled
+     *
+     * The copy shares the (immutable) name, classification, roles, and source rules, but has its own
+     * compiled rules, so this descriptor is not changed.
+     *
+     * @param ordinals	role ordinal map for the role bit sets
+     */
+    public SubsystemDescriptor compiledCopy(RoleOrdinalMap ordinals) {
+        SubsystemDescriptor retVal = new SubsystemDescriptor(this.name, this.classes, this.roleNames, this.variantRules);
+        retVal.compile(ordinals);
+        return retVal;
+    }
+
+    /**
+     * Install pre-compiled variant rules.  The rules must be in the same order as the variant rule map.
+     *
+     * @param rules		compiled variant rules, in priority order
+     */
+    protected void setCompiledRules(CompiledRule[] rules) {
+        if (rules.length != this.variantRules.size())
+            throw new IllegalArgumentException("Subsystem " + this.name + " has " + this.variantRules.size()
+                    + " variant rules but " + rules.length + " compiled rules were specified.");
+        this.compiledCodes = this.variantRules.keySet().toArray(new String[rules.length]);
+        this.compiledRules = rules;
+    }
+
+    /**
+     * @return the compiled variant rules, in priority order, or NULL if the rules have not been compiled
+     */
+    protected CompiledRule[] getCompiledRules() {
+        return this.compiledRules;
+    }
+
+    /**
+     * @return the variant rule map, in priority order
+     */
+    protected LinkedHashMap<String, SubsystemRule> getVariantRules() {
+        return this.variantRules;
+    }
+
+    /**
+     * Compute the required roles for this subsystem.  The subsystem can only be projected onto a genome
+     * that has at least one of these roles.
+     *
+     * @return the set of required role IDs, or NULL if the subsystem must always be checked
+     */
+    public Set<String> getRequiredRoles() {
+        Set<String> retVal = new HashSet<>();
+        var iter = this.variantRules.values().iterator();
+        while (iter.hasNext() && retVal != null) {
+            Set<String> ruleRoles = iter.next().requiredRoles();
+            if (ruleRoles == null)
+                retVal = null;
+            else
+                retVal.addAll(ruleRoles);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the variant code of the first compiled rule satisfied by a role bit set, or NULL if none is satisfied
+     *
+     * @param roleBits	role bit set for the genome
+     */
+    public String findVariant(long[] roleBits) {
+        final CompiledRule[] rules = this.compiledRules;
+        if (rules == null)
+            throw new IllegalStateException("Variant rules for " + this.name + " have not been compiled.");
+        String retVal = null;
+        final int n = rules.length;
+        for (int i = 0; i < n && retVal == null; i++) {
+            if (rules[i].check(roleBits))
+                retVal = this.compiledCodes[i];
+        }
+        return retVal;
+    }
+
+    /**
+     * Connect this subsystem to a genome if the variant found is appropriate.
+     *
+     * @param genome		target genome for projection
+     * @param vCode			variant code found, or NULL if no variant was found
+     * @param roleSet		role presence map
+     * @param roleMap		role ID definition map
+     * @param activeFlag	if TRUE, only active variants will be projected
+     *
+     * @return the variant code of the projected subsystem row, or NULL if the subsystem was not projected
+     */
+    private String connect(Genome genome, String vCode, Map<String, Set<String>> roleSet, StrictRoleMap roleMap,
+            boolean activeFlag) {
+        String retVal = vCode;
         // Make sure this is a worthwhile variant.
         if (retVal != null && activeFlag && ! VariantId.isActive(retVal))
             retVal = null;
@@ -0,0 +1,315 @@
+/**
+ *
+ */
+package org.theseed.subsystems.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.subsystems.StrictRoleMap;
+
+/**
+ * This object loads CoreSEED subsystem directories in parallel.  Reading a subsystem is dominated by file
+ * latency (the spreadsheet, notes, and rule files), so the directories are read on a dedicated pool whose
+ * size is independent of the number of processors.  The role definition map is shared by all the loads and
+ * must not be modified while a load is in progress.
+ *
+ * Error statistics (bad role names, bad rule identifiers, and unreadable subsystems) are accumulated across
+ * all the loads.  A subsystem that cannot be read is logged and skipped.
+ *
+ * The signature of each subsystem directory is computed when it is read, so that an existing projector can
+ * be updated incrementally:  only the directories whose tracked files have changed are read again.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SubsystemDirectoryLoader {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(SubsystemDirectoryLoader.class);
+    /** role definition map */
+    private final StrictRoleMap roleMap;
+    /** maximum number of subsystems to read at once */
+    private final int threads;
+    /** number of subsystems read */
+    private final LongAdder readCount;
+    /** number of subsystems without rules */
+    private final LongAdder noRuleCount;
+    /** number of bad role names found */
+    private final LongAdder badRoleCount;
+    /** set of bad rule identifiers found */
+    private final Set<String> badIds;
+    /** map of unreadable subsystem directories to error messages */
+    private final Map<String, String> failures;
+    /** map of subsystem names to the signatures of the directories read */
+    private final Map<String, SubsystemSignature> signatures;
+    /** number of subsystems found unchanged during an update */
+    private final LongAdder unchangedCount;
+
+    /** default number of threads */
+    public static final int DEFAULT_THREADS = 16;
+
+    /**
+     * Create a subsystem directory loader.
+     *
+     * @param roleMap	role definition map
+     * @param threads	maximum number of subsystems to read at once
+     */
+    public SubsystemDirectoryLoader(StrictRoleMap roleMap, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Thread count must be at least 1.");
+        this.roleMap = roleMap;
+        this.threads = threads;
+        this.readCount = new LongAdder();
+        this.noRuleCount = new LongAdder();
+        this.badRoleCount = new LongAdder();
+        this.badIds = ConcurrentHashMap.newKeySet();
+        this.failures = new ConcurrentHashMap<>();
+        this.signatures = new ConcurrentHashMap<>();
+        this.unchangedCount = new LongAdder();
+    }
+
+    /**
+     * Apply a function to each of a set of subsystem directories on a dedicated pool.
+     *
+     * @param subDirs	subsystem directories to process
+     * @param function	function to apply to each directory
+     *
+     * @return a list of the non-NULL results, in the same order as the directories
+     */
+    private <T> List<T> runAll(Collection<File> subDirs, Function<File, T> function) {
+        List<T> retVal = new ArrayList<>(subDirs.size());
+        ForkJoinPool pool = new ForkJoinPool(this.threads);
+        try {
+            List<CompletableFuture<T>> futures = new ArrayList<>(subDirs.size());
+            for (File subDir : subDirs)
+                futures.add(CompletableFuture.supplyAsync(() -> function.apply(subDir), pool));
+            for (CompletableFuture<T> future : futures) {
+                T result = future.join();
+                if (result != null)
+                    retVal.add(result);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return retVal;
+    }
+
+    /**
+     * Read a set of subsystem directories.
+     *
+     * @param subDirs	subsystem directories to read
+     *
+     * @return a list of the subsystems read, in the same order as the directories (unreadable subsystems are
+     * 		   omitted)
+     */
+    public List<CoreSubsystem> load(Collection<File> subDirs) {
+        List<CoreSubsystem> retVal = this.runAll(subDirs, x -> this.read(x));
+        log.info("{} subsystems read, {} failed.  {} bad role names and {} bad identifiers found.",
+                this.readCount.sum(), this.failures.size(), this.badRoleCount.sum(), this.badIds.size());
+        return retVal;
+    }
+
+    /**
+     * Read a single subsystem directory and record its error statistics.
+     *
+     * @param subDir	subsystem directory to read
+     *
+     * @return the subsystem read, or NULL if the subsystem could not be read
+     */
+    private CoreSubsystem read(File subDir) {
+        CoreSubsystem retVal = null;
+        try {
+            // The signature is computed first, so a change made during the read will be caught next time.
+            SubsystemSignature signature = SubsystemSignature.compute(subDir);
+            retVal = new CoreSubsystem(subDir, this.roleMap);
+            this.signatures.put(retVal.getName(), signature);
+            this.readCount.increment();
+            this.badRoleCount.add(retVal.getBadRoleCount());
+            this.badIds.addAll(retVal.getBadIds());
+            if (! retVal.hasRules())
+                this.noRuleCount.increment();
+        } catch (IOException | ParseFailureException e) {
+            log.error("Error reading subsystem directory {}: {}", subDir, e.toString());
+            this.failures.put(subDir.toString(), e.toString());
+        }
+        return retVal;
+    }
+
+    /**
+     * Build a subsystem rule projector from a set of subsystem directories.  Only subsystems with rules are
+     * included.
+     *
+     * @param subDirs	subsystem directories to read
+     *
+     * @return a projector for the subsystems read
+     */
+    public SubsystemRuleProjector buildProjector(Collection<File> subDirs) {
+        List<CoreSubsystem> subs = this.load(subDirs);
+        SubsystemRuleProjector retVal = new SubsystemRuleProjector(this.roleMap,
+                new HashMap<>(subs.size() * 4 / 3 + 1), null);
+        for (CoreSubsystem sub : subs) {
+            if (sub.hasRules())
+                retVal.addSubsystem(sub, this.signatures.get(sub.getName()));
+            else
+                retVal.setSignature(sub.getName(), this.signatures.get(sub.getName()));
+        }
+        log.info("{} subsystems added to projector.", retVal.size());
+        return retVal;
+    }
+
+    /**
+     * Update a subsystem rule projector from a set of subsystem directories.  Only the directories whose
+     * tracked files have changed since the projector last saw them are read.  Subsystems no longer present
+     * in the directory set are removed.  If a changed directory cannot be read, its old descriptor is kept,
+     * but it will be read again on the next update.
+     *
+     * @param projector		projector to update; it must use this loader's role definition map
+     * @param subDirs		current set of subsystem directories
+     *
+     * @return the number of subsystems added, replaced, or removed
+     */
+    public int update(SubsystemRuleProjector projector, Collection<File> subDirs) {
+        // Find the directories that have changed.
+        Set<String> oldNames = projector.getTrackedNames();
+        List<File> changed = this.runAll(subDirs, x -> this.checkDirectory(projector, x));
+        log.info("{} subsystem directories checked, {} changed.", subDirs.size(), changed.size());
+        int retVal = 0;
+        // Remove the subsystems that are gone.
+        Set<String> current = subDirs.stream().map(x -> CoreSubsystem.dirToName(x)).collect(Collectors.toSet());
+        for (String subName : oldNames) {
+            if (! current.contains(subName)) {
+                projector.removeSubsystem(subName);
+                retVal++;
+            }
+        }
+        // Read the changed directories and swap in their descriptors.
+        for (File subDir : changed)
+            projector.setSignature(CoreSubsystem.dirToName(subDir), null);
+        for (CoreSubsystem sub : this.load(changed)) {
+            String subName = sub.getName();
+            if (sub.hasRules())
+                projector.addSubsystem(sub, this.signatures.get(subName));
+            else {
+                projector.removeSubsystem(subName);
+                projector.setSignature(subName, this.signatures.get(subName));
+            }
+            retVal++;
+        }
+        log.info("{} subsystems updated in projector.", retVal);
+        return retVal;
+    }
+
+    /**
+     * Check a subsystem directory against the signature recorded in a projector.  If it is unchanged, the
+     * projector's signature is refreshed.
+     *
+     * @param projector		projector containing the old signatures
+     * @param subDir		subsystem directory to check
+     *
+     * @return the directory if it must be read again, or NULL if it is unchanged
+     */
+    private File checkDirectory(SubsystemRuleProjector projector, File subDir) {
+        File retVal = subDir;
+        String subName = CoreSubsystem.dirToName(subDir);
+        SubsystemSignature signature = projector.getSignature(subName);
+        if (signature != null) {
+            try {
+                SubsystemSignature newSignature = signature.refresh(subDir);
+                if (newSignature != null) {
+                    if (newSignature != signature)
+                        projector.setSignature(subName, newSignature);
+                    this.unchangedCount.increment();
+                    retVal = null;
+                }
+            } catch (IOException e) {
+                log.warn("Error checking subsystem directory {}: {}", subDir, e.toString());
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Build a subsystem rule projector from a CoreSEED data directory.
+     *
+     * @param coreDir		CoreSEED data directory
+     * @param roleFile		role definition file
+     * @param filterFile	name of a tab-delimited file with headers containing subsystem names in the first
+     * 						column, or NULL to use all the subsystems
+     * @param threads		maximum number of subsystems to read at once
+     *
+     * @return a projector for the subsystems with rules
+     *
+     * @throws IOException
+     */
+    public static SubsystemRuleProjector buildProjector(File coreDir, File roleFile, File filterFile, int threads)
+            throws IOException {
+        StrictRoleMap roleMap = StrictRoleMap.load(roleFile);
+        log.info("{} roles loaded from {}.", roleMap.size(), roleFile);
+        List<File> subDirs = CoreSubsystem.getFilteredSubsystemDirectories(coreDir, filterFile);
+        SubsystemDirectoryLoader loader = new SubsystemDirectoryLoader(roleMap, threads);
+        return loader.buildProjector(subDirs);
+    }
+
+    /**
+     * @return the number of subsystems read successfully
+     */
+    public long getReadCount() {
+        return this.readCount.sum();
+    }
+
+    /**
+     * @return the number of subsystems found unchanged during updates
+     */
+    public long getUnchangedCount() {
+        return this.unchangedCount.sum();
+    }
+
+    /**
+     * @return the number of subsystems read that had no rules
+     */
+    public long getNoRuleCount() {
+        return this.noRuleCount.sum();
+    }
+
+    /**
+     * @return the total number of bad role names found
+     */
+    public long getBadRoleCount() {
+        return this.badRoleCount.sum();
+    }
+
+    /**
+     * @return the set of bad rule identifiers found, sorted
+     */
+    public Set<String> getBadIds() {
+        return Collections.unmodifiableSet(new TreeSet<>(this.badIds));
+    }
+
+    /**
+     * @return a map of unreadable subsystem directory names to error messages, sorted
+     */
+    public Map<String, String> getFailures() {
+        return Collections.unmodifiableMap(new TreeMap<>(this.failures));
+    }
+
+}
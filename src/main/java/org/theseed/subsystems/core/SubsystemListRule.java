@@ -3,7 +3,12 @@
  */
 package org.theseed.subsystems.core;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -112,6 +117,19 @@ public class SubsystemListRule extends SubsystemRule {
         this.setup();
     }
 
+    /**
+     * Construct a complete subsystem list rule.
+     *
+     * @param mode		mode of the rule
+     * @param num		number of sub-rules that must be satisfied
+     * @param rules		list of sub-rules
+     */
+    protected SubsystemListRule(Mode mode, int num, List<SubsystemRule> rules) {
+        this.mode = mode;
+        this.num = num;
+        this.rules = rules;
+    }
+
     /**
      * Initialize the rule list.
      */
@@ -128,17 +146,83 @@ public class SubsystemListRule extends SubsystemRule {
     }
 
     @Override
-    public boolean check(Set<String> roleSet) {
+    public boolean check(Set<String> roleSet, RuleTracker tracker) {
         // Loop through the list of sub-rules, setting the return to TRUE if the desired number are true.
         int found = 0;
         final int n = this.rules.size();
         for (int i = 0; i < n && found < this.num; i++) {
-            if (this.rules.get(i).check(roleSet))
+            if (this.rules.get(i).check(roleSet, tracker))
                 found++;
         }
         return (found >= this.num);
     }
 
+    @Override
+    protected void compile(CompiledRule.Builder program) {
+        // If all the sub-rules are distinct roles, we can test them with a single mask.
+        final int n = this.rules.size();
+        String[] roleIds = new String[n];
+        Set<String> distinct = new HashSet<>(n * 4 / 3 + 1);
+        boolean simple = true;
+        for (int i = 0; simple && i < n; i++) {
+            SubsystemRule subRule = this.normalize(this.rules.get(i));
+            if (subRule instanceof SubsystemPrimitiveRule primitive) {
+                roleIds[i] = primitive.getRoleId();
+                simple = distinct.add(roleIds[i]);
+            } else
+                simple = false;
+        }
+        if (simple)
+            program.roleCount(this.num, roleIds);
+        else {
+            for (SubsystemRule subRule : this.rules)
+                subRule.compile(program);
+            program.count(this.num, n);
+        }
+    }
+
+    @Override
+    protected void write(DataOutput out) throws IOException {
+        out.writeByte(TAG_LIST);
+        out.writeByte(this.mode.ordinal());
+        out.writeInt(this.num);
+        out.writeInt(this.rules.size());
+        for (SubsystemRule subRule : this.rules)
+            subRule.write(out);
+    }
+
+    @Override
+    protected Set<String> requiredRoles() {
+        Set<String> retVal;
+        final int n = this.rules.size();
+        if (this.num <= 0) {
+            // This rule is always satisfied.
+            retVal = null;
+        } else if (this.num > n) {
+            // This rule can never be satisfied.
+            retVal = Collections.emptySet();
+        } else {
+            // If at least "num" sub-rules must be satisfied, then any group of (n - num + 1) sub-rules must
+            // contain a satisfied one.  We use the sub-rules with the smallest requirement sets.
+            final int needed = n - this.num + 1;
+            List<Set<String>> subSets = new ArrayList<>(n);
+            for (SubsystemRule subRule : this.rules) {
+                Set<String> subSet = subRule.requiredRoles();
+                if (subSet != null)
+                    subSets.add(subSet);
+            }
+            if (subSets.size() < needed)
+                retVal = null;
+            else {
+                subSets.sort(Comparator.comparingInt(Set::size));
+                retVal = new HashSet<>();
+                for (int i = 0; i < needed; i++)
+                    retVal.addAll(subSets.get(i));
+            }
+        }
+        return retVal;
+    }
+
     /**
      * @return the mode of this rule
      */
@@ -3,6 +3,8 @@
  */
 package org.theseed.subsystems.core;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Set;
 
 import org.theseed.basic.ParseFailureException;
@@ -28,6 +30,21 @@ public class SubsystemNegativeRule extends SubsystemRule {
         this.parm = null;
     }
 
+    /**
+     * Construct an unary rule with a known parameter.
+     *
+     * @param parm	parameter rule to invert
+     */
+    protected SubsystemNegativeRule(SubsystemRule parm) {
+        this.parm = parm;
+    }
+
+    @Override
+    protected void write(DataOutput out) throws IOException {
+        out.writeByte(TAG_NEGATIVE);
+        this.parm.write(out);
+    }
+
     @Override
     protected void addParm(SubsystemRule subRule, RuleCompiler compiler) throws ParseFailureException {
         this.parm = subRule;
@@ -37,8 +54,20 @@ public class SubsystemNegativeRule extends SubsystemRule {
 
 
      @Override
-    public boolean check(Set<String> roleSet) {
-        return ! this.parm.check(roleSet);
+    public boolean check(Set<String> roleSet, RuleTracker tracker) {
+        return ! this.parm.check(roleSet, tracker);
+    }
+
+    @Override
+    protected void compile(CompiledRule.Builder program) {
+        this.parm.compile(program);
+        program.not();
+    }
+
+    @Override
+    protected Set<String> requiredRoles() {
+        // An inverted rule is satisfied when roles are missing, so nothing is required.
+        return null;
     }
 
     @Override
@@ -3,6 +3,8 @@
  */
 package org.theseed.subsystems.core;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Set;
 
 import org.theseed.basic.ParseFailureException;
@@ -18,8 +20,6 @@ public class SubsystemPrimitiveRule extends SubsystemRule {
     // FIELDS
     /** role of interest */
     private String roleId;
-    /** parent core subsystem, if tracking is desired */
-    private transient CoreSubsystem parent;
     /** role abbreviation, if tracking is desired */
     private transient String abbr;
     /** serialization object ID */
@@ -32,18 +32,15 @@ public class SubsystemPrimitiveRule extends SubsystemRule {
      */
     public SubsystemPrimitiveRule(String role) {
         this.roleId = role;
-        this.parent = null;
         this.abbr = "";
     }
 
     /**
-     * Denote we want to track this rule during evaluation.
+     * Specify the abbreviation to use for this rule when it is tracked during evaluation.
      *
-     * @param subsystem		parent subsystem
      * @param name			abbreviation
      */
-    protected void setTracking(CoreSubsystem subsystem, String name) {
-        this.parent = subsystem;
+    protected void setTracking(String name) {
         this.abbr = name;
     }
 
@@ -53,13 +50,36 @@ public class SubsystemPrimitiveRule extends SubsystemRule {
     }
 
     @Override
-    public boolean check(Set<String> roleSet) {
+    public boolean check(Set<String> roleSet, RuleTracker tracker) {
         boolean retVal = roleSet.contains(this.roleId);
-        if (this.parent != null)
-            this.parent.record(this.abbr, retVal);
+        if (tracker != null)
+            tracker.record(this.abbr, retVal);
         return retVal;
     }
 
+    @Override
+    protected void compile(CompiledRule.Builder program) {
+        program.role(this.roleId);
+    }
+
+    @Override
+    protected Set<String> requiredRoles() {
+        return Set.of(this.roleId);
+    }
+
+    @Override
+    protected void write(DataOutput out) throws IOException {
+        out.writeByte(TAG_PRIMITIVE);
+        out.writeUTF(this.roleId);
+    }
+
+    /**
+     * @return the ID of the role of interest
+     */
+    protected String getRoleId() {
+        return this.roleId;
+    }
+
     @Override
     public int hashCode() {
         return 17 * this.roleId.hashCode() + 1;
@@ -0,0 +1,392 @@
+/**
+ *
+ */
+package org.theseed.subsystems.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.subsystems.StrictRole;
+import org.theseed.subsystems.StrictRoleMap;
+
+/**
+ * This class reads and writes subsystem rule projectors in a compact, versioned binary format.  Unlike
+ * the old object-stream format, the subsystem rules are stored both as rule trees and as compiled
+ * postfix programs, along with the role ordinals and the required-role index, so a loaded projector
+ * is ready to use without any parsing or compilation.
+ *
+ * The file layout is as follows.  All integers are big-endian and all strings are modified UTF-8.
+ *
+ *  header				magic number (int), format version (int)
+ *  role table			role count (int), then the ID and name of each role
+ *  ordinal table		ordinal count (int), then the role ID for each ordinal
+ *  subsystem table		subsystem count (int), then for each subsystem
+ *  	name, superclass, class, subclass
+ *  	role count (int), then each role name
+ *  	variant count (int), then for each variant the variant code, the rule tree, and the compiled rule
+ *  	required-ordinal count (int, -1 if the subsystem must always be checked), then each ordinal
+ *  signature table		signature count (int), then the subsystem name and directory signature for each
+ *  					subsystem whose directory signature is known (version 2 and above)
+ *
+ * Loading can be done through a buffered stream or directly from a read-only memory-mapped buffer.  The
+ * mapped load reads the fields straight out of the mapping, so the file is not copied through a stream buffer.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SubsystemProjectorFile {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(SubsystemProjectorFile.class);
+    /** magic number identifying the file format ("SRPJ") */
+    public static final int MAGIC = 0x5352504A;
+    /** current format version */
+    public static final int VERSION = 2;
+    /** buffer size for stream I/O */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * This is a binary data reader over a byte buffer, used to read memory-mapped files.
+     */
+    private static class BufferInput implements DataInput {
+
+        /** buffer being read */
+        private final ByteBuffer buffer;
+
+        /**
+         * Create a data reader for a byte buffer.
+         *
+         * @param buffer	buffer to read (must be big-endian)
+         */
+        protected BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Insure there are enough bytes left in the buffer.
+         *
+         * @param n		number of bytes needed
+         *
+         * @throws EOFException
+         */
+        private void need(int n) throws EOFException {
+            if (this.buffer.remaining() < n)
+                throw new EOFException("Unexpected end of mapped projector file.");
+        }
+
+        @Override
+        public void readFully(byte[] b) throws IOException {
+            this.readFully(b, 0, b.length);
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            this.need(len);
+            this.buffer.get(b, off, len);
+        }
+
+        @Override
+        public int skipBytes(int n) throws IOException {
+            int retVal = Math.min(Math.max(n, 0), this.buffer.remaining());
+            this.buffer.position(this.buffer.position() + retVal);
+            return retVal;
+        }
+
+        @Override
+        public boolean readBoolean() throws IOException {
+            return (this.readByte() != 0);
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            this.need(Byte.BYTES);
+            return this.buffer.get();
+        }
+
+        @Override
+        public int readUnsignedByte() throws IOException {
+            return this.readByte() & 0xFF;
+        }
+
+        @Override
+        public short readShort() throws IOException {
+            this.need(Short.BYTES);
+            return this.buffer.getShort();
+        }
+
+        @Override
+        public int readUnsignedShort() throws IOException {
+            return this.readShort() & 0xFFFF;
+        }
+
+        @Override
+        public char readChar() throws IOException {
+            this.need(Character.BYTES);
+            return this.buffer.getChar();
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            this.need(Integer.BYTES);
+            return this.buffer.getInt();
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            this.need(Long.BYTES);
+            return this.buffer.getLong();
+        }
+
+        @Override
+        public float readFloat() throws IOException {
+            this.need(Float.BYTES);
+            return this.buffer.getFloat();
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            this.need(Double.BYTES);
+            return this.buffer.getDouble();
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            throw new UnsupportedOperationException("Projector files do not contain text lines.");
+        }
+
+        @Override
+        public String readUTF() throws IOException {
+            try {
+                return DataInputStream.readUTF(this);
+            } catch (BufferUnderflowException e) {
+                throw new EOFException("Unexpected end of mapped projector file.");
+            }
+        }
+
+    }
+
+    /**
+     * Save a subsystem rule projector to a binary file.
+     *
+     * @param projector		projector to save
+     * @param outFile		output file
+     *
+     * @throws IOException
+     */
+    public static void save(SubsystemRuleProjector projector, File outFile) throws IOException {
+        // Insure the rules are compiled.
+        RoleSubsystemIndex index = projector.getIndex();
+        RoleOrdinalMap ordinals = index.getOrdinals();
+        StrictRoleMap roleMap = projector.usefulRoles();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFile),
+                BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            // Write the role table.
+            out.writeInt(roleMap.size());
+            for (StrictRole role : roleMap) {
+                out.writeUTF(role.getId());
+                out.writeUTF(role.getName());
+            }
+            // Write the ordinal table.
+            final int nOrdinals = ordinals.size();
+            out.writeInt(nOrdinals);
+            for (int i = 0; i < nOrdinals; i++)
+                out.writeUTF(ordinals.getRoleId(i));
+            // Write the subsystem table.
+            List<SubsystemDescriptor> subs = index.getSubsystems();
+            out.writeInt(subs.size());
+            for (SubsystemDescriptor desc : subs) {
+                out.writeUTF(desc.getName());
+                for (String className : desc.getClasses())
+                    out.writeUTF(className);
+                List<String> roleNames = desc.getRoleNames();
+                out.writeInt(roleNames.size());
+                for (String roleName : roleNames)
+                    out.writeUTF(roleName);
+                CompiledRule[] compiled = desc.getCompiledRules();
+                out.writeInt(compiled.length);
+                int i = 0;
+                for (Map.Entry<String, SubsystemRule> variant : desc.getVariantRules().entrySet()) {
+                    out.writeUTF(variant.getKey());
+                    variant.getValue().write(out);
+                    compiled[i].write(out);
+                    i++;
+                }
+                int[] required = RoleSubsystemIndex.requiredOrdinals(desc, ordinals);
+                if (required == null)
+                    out.writeInt(-1);
+                else {
+                    out.writeInt(required.length);
+                    for (int ordinal : required)
+                        out.writeInt(ordinal);
+                }
+            }
+            // Write the signature table.
+            Map<String, SubsystemSignature> signatures = new TreeMap<>(projector.getSignatures());
+            out.writeInt(signatures.size());
+            for (Map.Entry<String, SubsystemSignature> entry : signatures.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        }
+        log.info("{} subsystems and {} roles saved to {}.", index.size(), roleMap.size(), outFile);
+    }
+
+    /**
+     * @return TRUE if the specified file is in this binary format, else FALSE
+     *
+     * @param inFile	file to check
+     *
+     * @throws IOException
+     */
+    public static boolean isBinary(File inFile) throws IOException {
+        boolean retVal = false;
+        if (inFile.length() >= 8) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(inFile))) {
+                retVal = (in.readInt() == MAGIC);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Load a subsystem rule projector from a binary file using a buffered stream.
+     *
+     * @param inFile	input file
+     *
+     * @return the projector loaded
+     *
+     * @throws IOException
+     */
+    public static SubsystemRuleProjector load(File inFile) throws IOException {
+        return load(inFile, false);
+    }
+
+    /**
+     * Load a subsystem rule projector from a binary file.
+     *
+     * @param inFile	input file
+     * @param mapped	TRUE to read the file through a read-only memory map, FALSE to use a buffered stream
+     *
+     * @return the projector loaded
+     *
+     * @throws IOException
+     */
+    public static SubsystemRuleProjector load(File inFile, boolean mapped) throws IOException {
+        SubsystemRuleProjector retVal;
+        // A single mapped buffer is limited to 2GB, so larger files are always streamed.
+        if (mapped && inFile.length() <= Integer.MAX_VALUE) {
+            try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                retVal = read(new BufferInput(buffer));
+            }
+        } else {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile),
+                    BUFFER_SIZE))) {
+                retVal = read(in);
+            }
+        }
+        log.info("Subsystem projector loaded from {}.", inFile);
+        return retVal;
+    }
+
+    /**
+     * Read a subsystem rule projector from a binary input stream.
+     *
+     * @param in	binary input stream positioned at the header
+     *
+     * @return the projector read
+     *
+     * @throws IOException
+     */
+    protected static SubsystemRuleProjector read(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Input is not a binary subsystem projector file.");
+        int version = in.readInt();
+        if (version < 1 || version > VERSION)
+            throw new IOException("Unsupported subsystem projector file version " + version + ".");
+        // Read the role table.
+        StrictRoleMap roleMap = new StrictRoleMap();
+        final int nRoles = in.readInt();
+        for (int i = 0; i < nRoles; i++) {
+            String roleId = in.readUTF();
+            String roleName = in.readUTF();
+            roleMap.put(new StrictRole(roleId, roleName));
+        }
+        // Read the ordinal table.
+        final int nOrdinals = in.readInt();
+        List<String> roleIds = new ArrayList<>(nOrdinals);
+        for (int i = 0; i < nOrdinals; i++)
+            roleIds.add(in.readUTF());
+        RoleOrdinalMap ordinals = new RoleOrdinalMap(roleIds);
+        // Read the subsystem table.
+        final int nSubs = in.readInt();
+        log.info("Reading {} roles and {} subsystem descriptors.", nRoles, nSubs);
+        SubsystemDescriptor[] subs = new SubsystemDescriptor[nSubs];
+        int[][] required = new int[nSubs][];
+        Map<String, SubsystemDescriptor> subMap = new HashMap<>(nSubs * 4 / 3 + 1);
+        for (int s = 0; s < nSubs; s++) {
+            String name = in.readUTF();
+            String[] classes = new String[3];
+            for (int i = 0; i < 3; i++)
+                classes[i] = in.readUTF();
+            final int nNames = in.readInt();
+            List<String> roleNames = new ArrayList<>(nNames);
+            for (int i = 0; i < nNames; i++)
+                roleNames.add(in.readUTF());
+            final int nVariants = in.readInt();
+            LinkedHashMap<String, SubsystemRule> variantRules = new LinkedHashMap<>(nVariants * 4 / 3 + 1);
+            CompiledRule[] compiled = new CompiledRule[nVariants];
+            for (int i = 0; i < nVariants; i++) {
+                String vCode = in.readUTF();
+                variantRules.put(vCode, SubsystemRule.read(in));
+                compiled[i] = CompiledRule.read(in);
+            }
+            SubsystemDescriptor desc = new SubsystemDescriptor(name, classes, roleNames, variantRules);
+            desc.setCompiledRules(compiled);
+            final int nRequired = in.readInt();
+            if (nRequired >= 0) {
+                required[s] = new int[nRequired];
+                for (int i = 0; i < nRequired; i++)
+                    required[s][i] = in.readInt();
+            }
+            subs[s] = desc;
+            subMap.put(name, desc);
+        }
+        RoleSubsystemIndex index = new RoleSubsystemIndex(ordinals, subs, required);
+        SubsystemRuleProjector retVal = new SubsystemRuleProjector(roleMap, subMap, index);
+        // Read the signature table, if any.
+        if (version >= 2) {
+            final int nSigs = in.readInt();
+            for (int i = 0; i < nSigs; i++) {
+                String name = in.readUTF();
+                retVal.setSignature(name, SubsystemSignature.read(in));
+            }
+        }
+        return retVal;
+    }
+
+}
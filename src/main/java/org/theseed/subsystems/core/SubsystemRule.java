@@ -3,7 +3,12 @@
  */
 package org.theseed.subsystems.core;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import org.theseed.basic.ParseFailureException;
@@ -28,6 +33,11 @@ public abstract class SubsystemRule implements Serializable {
     // FIELDS
     /** serialization object ID */
     private static final long serialVersionUID = -1773990479324882478L;
+    /** binary rule tags */
+    protected static final byte TAG_FAIL = 0;
+    protected static final byte TAG_PRIMITIVE = 1;
+    protected static final byte TAG_NEGATIVE = 2;
+    protected static final byte TAG_LIST = 3;
 
     /**
      * During compilation, this method adds a sub-rule to this rule.
@@ -44,7 +54,74 @@ public abstract class SubsystemRule implements Serializable {
      *
      * @return TRUE if it matches, else FALSE
      */
-    public abstract boolean check(Set<String> roleSet);
+    public boolean check(Set<String> roleSet) {
+        return this.check(roleSet, null);
+    }
+
+    /**
+     * Verify that this rule matches the specified role set, recording the roles examined.
+     *
+     * @param roleSet	role set to check
+     * @param tracker	tracker for recording the roles found and not found, or NULL if no tracking is desired
+     *
+     * @return TRUE if it matches, else FALSE
+     */
+    public abstract boolean check(Set<String> roleSet, RuleTracker tracker);
+
+    /**
+     * Add the instructions for this rule to a compiled rule program.
+     *
+     * @param program	builder for the compiled rule
+     */
+    protected abstract void compile(CompiledRule.Builder program);
+
+    /**
+     * Compute the required roles for this rule.  The rule can only be satisfied if at least one of
+     * the required roles is present.  An empty set means the rule can never be satisfied.
+     *
+     * @return the set of required role IDs, or NULL if the rule can be satisfied without any particular role
+     */
+    protected abstract Set<String> requiredRoles();
+
+    /**
+     * Write this rule to a binary output stream.  The rule is written in prefix order, with a tag byte
+     * identifying each rule type.
+     *
+     * @param out	binary output stream
+     *
+     * @throws IOException
+     */
+    protected abstract void write(DataOutput out) throws IOException;
+
+    /**
+     * Read a rule written by "write" from a binary input stream.
+     *
+     * @param in	binary input stream
+     *
+     * @return the rule read
+     *
+     * @throws IOException
+     */
+    protected static SubsystemRule read(DataInput in) throws IOException {
+        SubsystemRule retVal;
+        byte tag = in.readByte();
+        switch (tag) {
+        case TAG_FAIL -> retVal = new FailRule();
+        case TAG_PRIMITIVE -> retVal = new SubsystemPrimitiveRule(in.readUTF());
+        case TAG_NEGATIVE -> retVal = new SubsystemNegativeRule(read(in));
+        case TAG_LIST -> {
+            SubsystemListRule.Mode mode = SubsystemListRule.Mode.values()[in.readByte()];
+            int num = in.readInt();
+            final int n = in.readInt();
+            List<SubsystemRule> rules = new ArrayList<>(n);
+            for (int i = 0; i < n; i++)
+                rules.add(read(in));
+            retVal = new SubsystemListRule(mode, num, rules);
+        }
+        default -> throw new IOException("Invalid rule tag " + tag + " in binary rule.");
+        }
+        return retVal;
+    }
 
     /**
      * @return the hash code for this rule
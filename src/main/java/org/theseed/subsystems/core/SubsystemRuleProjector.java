@@ -5,7 +5,6 @@ package org.theseed.subsystems.core;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -14,6 +13,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,11 +24,14 @@ import org.theseed.subsystems.StrictRole;
 import org.theseed.subsystems.StrictRoleMap;
 
 /**
- * This object will project subsystems onto a genome using rules. It is serializable to an from an object stream.
- * Note there is no provision for subsystems without rules. If a subsystem has no rules, the rules need to be
+ * This object will project subsystems onto a genome using rules. It is saved in a versioned binary format
+ * (see SubsystemProjectorFile) that includes the compiled rules, but it can still be loaded from the old object
+ * stream format.  Note there is no provision for subsystems without rules. If a subsystem has no rules, the rules need to be
  * generated using the RuleGenerator class.
  *
- * The projector consists of a strict role map and a descriptor for each subsystem.
+ * The projector consists of a strict role map and a descriptor for each subsystem.  The compiled rules depend
+ * on the role definitions, so the projector locks its role map when it is created.  A map passed in by the
+ * caller becomes read-only as well.
  *
  *
  * @author Bruce Parrello
@@ -43,6 +47,10 @@ public class SubsystemRuleProjector implements Serializable {
     private StrictRoleMap roleMap;
     /** list of subsystem descriptors */
     private Map<String, SubsystemDescriptor> subsystems;
+    /** map of subsystem names to directory signatures; this includes subsystems left out because they have no rules */
+    private transient Map<String, SubsystemSignature> signatures;
+    /** compiled rules and role index, or NULL if the rules have not been compiled */
+    private transient volatile RoleSubsystemIndex index;
     /** serialization object ID */
     private static final long serialVersionUID = 3404995748940446240L;
 
@@ -51,7 +59,9 @@ public class SubsystemRuleProjector implements Serializable {
      */
     public SubsystemRuleProjector() {
         this.roleMap = new StrictRoleMap();
+        this.roleMap.setReadOnly();
         this.subsystems = new HashMap<String, SubsystemDescriptor>();
+        this.signatures = new ConcurrentHashMap<>();
     }
 
     /**
@@ -67,20 +77,72 @@ public class SubsystemRuleProjector implements Serializable {
             log.info("{} roles loaded from {}.", this.roleMap.size(), roleFile);
         } else
             this.roleMap = new StrictRoleMap();
+        this.roleMap.setReadOnly();
         this.subsystems = new HashMap<String, SubsystemDescriptor>(1000);
+        this.signatures = new ConcurrentHashMap<>();
     }
 
     /**
-     * Load a subsystem projector from a binary save file.
+     * Create a subsystem rule projector from pre-built components.
+     *
+     * @param roleMap		subsystem role map
+     * @param subsystems	map of subsystem names to descriptors
+     * @param index			compiled rule index for the descriptors, or NULL if it has not been built
+     */
+    protected SubsystemRuleProjector(StrictRoleMap roleMap, Map<String, SubsystemDescriptor> subsystems,
+            RoleSubsystemIndex index) {
+        this.roleMap = roleMap;
+        this.roleMap.setReadOnly();
+        this.subsystems = subsystems;
+        this.signatures = new ConcurrentHashMap<>();
+        this.index = index;
+    }
+
+    /**
+     * Load a subsystem projector from a binary save file.  Both the current binary format and the old
+     * object stream format are supported.
      *
      * @param projectorFile		name of the save file containing the projector
      *
      * @return the projector loaded from the file
      *
      * @throws IOException
-     * @throws ClassNotFoundException
      */
     public static SubsystemRuleProjector load(File projectorFile) throws IOException {
+        return load(projectorFile, false);
+    }
+
+    /**
+     * Load a subsystem projector from a binary save file, optionally using a memory map.  Both the current
+     * binary format and the old object stream format are supported; the memory map is only used for the
+     * current format.
+     *
+     * @param projectorFile		name of the save file containing the projector
+     * @param mapped			TRUE to read the file through a read-only memory map
+     *
+     * @return the projector loaded from the file
+     *
+     * @throws IOException
+     */
+    public static SubsystemRuleProjector load(File projectorFile, boolean mapped) throws IOException {
+        SubsystemRuleProjector retVal;
+        if (SubsystemProjectorFile.isBinary(projectorFile))
+            retVal = SubsystemProjectorFile.load(projectorFile, mapped);
+        else
+            retVal = loadLegacy(projectorFile);
+        return retVal;
+    }
+
+    /**
+     * Load a subsystem projector from a save file in the old object stream format.
+     *
+     * @param projectorFile		name of the save file containing the projector
+     *
+     * @return the projector loaded from the file
+     *
+     * @throws IOException
+     */
+    private static SubsystemRuleProjector loadLegacy(File projectorFile) throws IOException {
         SubsystemRuleProjector retVal = null;
         try (FileInputStream inStream = new FileInputStream(projectorFile)) {
             ObjectInputStream in = new ObjectInputStream(inStream);
@@ -106,8 +168,11 @@ public class SubsystemRuleProjector implements Serializable {
         log.info("Reading subsystem role map.");
         this.roleMap = new StrictRoleMap();
         this.roleMap.readObject(in);
+        this.roleMap.setReadOnly();
         int subCount = in.readInt();
         this.subsystems = new HashMap<String, SubsystemDescriptor>(subCount * 5 / 3 + 1);
+        // The old format does not contain directory signatures.
+        this.signatures = new ConcurrentHashMap<>();
         log.info("Reading {} subsystem descriptors.", subCount);
         for (int i = 0; i < subCount; i++) {
             SubsystemDescriptor desc = (SubsystemDescriptor) in.readObject();
@@ -146,7 +211,7 @@ public class SubsystemRuleProjector implements Serializable {
     }
 
     /**
-     * @return the subsystem role map
+     * @return the subsystem role map (read-only)
      */
     public StrictRoleMap usefulRoles() {
         return this.roleMap;
@@ -174,27 +239,53 @@ public class SubsystemRuleProjector implements Serializable {
      * @param activeFlag		TRUE to project only active subsystems, else FALSE
      */
     public void project(Genome genome, Map<String, Set<String>> rolePresenceMap, boolean activeFlag) {
+        // Insure the rules are compiled.
+        RoleSubsystemIndex ruleIndex = this.getIndex();
         // Erase the existing subsystems.
         genome.clearSubsystems();
-        // Project from the subsystem descriptors.
-        this.subsystems.values().parallelStream()
-                .forEach(x -> x.project(genome, rolePresenceMap, this.roleMap, activeFlag));
+        // Convert the genome's roles to a bit set.  This is done once, and then shared by all the subsystems.
+        long[] roleBits = ruleIndex.getOrdinals().toBits(rolePresenceMap.keySet());
+        // Project from the subsystem descriptors that share roles with the genome.
+        ruleIndex.getCandidates(roleBits).parallelStream()
+                .forEach(x -> x.project(genome, rolePresenceMap, roleBits, this.roleMap, activeFlag));
     }
 
     /**
-     * Save this projector to a file.
+     * Get the compiled rule index for this projector.  The first time this is called, the variant rules
+     * of all the subsystems are compiled and indexed by role.
+     *
+     * @return the compiled rule index
+     */
+    public RoleSubsystemIndex getIndex() {
+        RoleSubsystemIndex retVal = this.index;
+        if (retVal == null) {
+            synchronized (this) {
+                retVal = this.index;
+                if (retVal == null) {
+                    retVal = new RoleSubsystemIndex(this.roleMap, this.subsystems.values());
+                    this.index = retVal;
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Save this projector to a file in the binary projector format.
      *
      * @param projectorFile		output file for the save
      *
      * @throws IOException
      */
     public void save(File projectorFile) throws IOException {
-        try (FileOutputStream fileStream = new FileOutputStream(projectorFile)) {
-            ObjectOutputStream out = new ObjectOutputStream(fileStream);
-            out.writeObject(this);
-            out.close();
-        }
-        log.info("Subsystem projector saved to {}.", projectorFile);
+        SubsystemProjectorFile.save(this, projectorFile);
+    }
+
+    /**
+     * @return the number of subsystems in this projector
+     */
+    public int size() {
+        return this.subsystems.size();
     }
 
     /**
@@ -225,8 +316,89 @@ public class SubsystemRuleProjector implements Serializable {
      * @param sub	subsystem object loaded from the directory
      */
     public void addSubsystem(CoreSubsystem sub) {
+        this.addSubsystem(sub, null);
+    }
+
+    /**
+     * Add a new subsystem definition to the projector, along with the signature of its source directory.
+     * The signature allows an incremental rebuild to skip the subsystem if its directory has not changed.
+     *
+     * @param sub		subsystem object loaded from the directory
+     * @param signature	signature of the subsystem directory, or NULL if it is unknown
+     */
+    public void addSubsystem(CoreSubsystem sub, SubsystemSignature signature) {
         SubsystemDescriptor subDesc = new SubsystemDescriptor(sub);
-        this.subsystems.put(sub.getName(), subDesc);
+        synchronized (this) {
+            this.subsystems.put(sub.getName(), subDesc);
+            // An unknown signature means the subsystem will always be reloaded.
+            this.setSignature(sub.getName(), signature);
+            // The rule index will need to be rebuilt.
+            this.index = null;
+        }
+    }
+
+    /**
+     * Remove a subsystem from the projector.
+     *
+     * @param subName	name of the subsystem to remove
+     *
+     * @return TRUE if the subsystem was found and removed, else FALSE
+     */
+    public boolean removeSubsystem(String subName) {
+        boolean retVal;
+        synchronized (this) {
+            retVal = (this.subsystems.remove(subName) != null);
+            this.signatures.remove(subName);
+            if (retVal)
+                this.index = null;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the directory signature for a subsystem, or NULL if it is unknown
+     *
+     * @param subName	name of the subsystem of interest
+     */
+    public SubsystemSignature getSignature(String subName) {
+        return this.signatures.get(subName);
+    }
+
+    /**
+     * Store the directory signature for a subsystem.  The subsystem need not be in the projector; a
+     * subsystem without rules is tracked so that it is not reloaded needlessly.
+     *
+     * @param subName		name of the subsystem of interest
+     * @param signature		signature of the subsystem directory, or NULL to forget the signature
+     */
+    public void setSignature(String subName, SubsystemSignature signature) {
+        if (signature == null)
+            this.signatures.remove(subName);
+        else
+            this.signatures.put(subName, signature);
+    }
+
+    /**
+     * @return a map of subsystem names to directory signatures
+     */
+    protected Map<String, SubsystemSignature> getSignatures() {
+        return this.signatures;
+    }
+
+    /**
+     * @return the names of the subsystems in this projector
+     */
+    public synchronized Set<String> getSubsystemNames() {
+        return new TreeSet<>(this.subsystems.keySet());
+    }
+
+    /**
+     * @return the names of the subsystems in this projector or with a known directory signature
+     */
+    public synchronized Set<String> getTrackedNames() {
+        Set<String> retVal = new TreeSet<>(this.subsystems.keySet());
+        retVal.addAll(this.signatures.keySet());
+        return retVal;
     }
 
 }
@@ -0,0 +1,205 @@
+/**
+ *
+ */
+package org.theseed.subsystems.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * This object records the state of the files in a subsystem directory that affect the subsystem's
+ * descriptor in a rule projector:  the classification, the spreadsheet, and the two rule files.  For
+ * each file, it stores the length and modification time, and it stores an MD5 digest of all the file
+ * contents together.
+ *
+ * To check a directory, we first compare the lengths and modification times.  If they all match, the
+ * directory is unchanged.  Otherwise, the digest is recomputed, so that a file that was touched or
+ * copied without being changed is not treated as a change.
+ *
+ * Signatures are immutable.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SubsystemSignature {
+
+    // FIELDS
+    /** length and modification time of each tracked file (-1 for a missing file) */
+    private final long[] stamps;
+    /** MD5 digest of the tracked files' contents */
+    private final byte[] digest;
+
+    /** names of the tracked files in a subsystem directory */
+    protected static final String[] TRACKED_FILES = new String[] { "CLASSIFICATION", "spreadsheet",
+            "checkvariant_definitions", "checkvariant_rules" };
+    /** separator fed to the digest between files */
+    private static final byte[] FILE_SEPARATOR = new byte[] { 0 };
+
+    /**
+     * Create a signature from its components.
+     *
+     * @param stamps	length and modification time of each tracked file
+     * @param digest	MD5 digest of the tracked files' contents
+     */
+    protected SubsystemSignature(long[] stamps, byte[] digest) {
+        this.stamps = stamps;
+        this.digest = digest;
+    }
+
+    /**
+     * Compute the signature of a subsystem directory.
+     *
+     * @param subDir	subsystem directory of interest
+     *
+     * @return the signature of the directory
+     *
+     * @throws IOException
+     */
+    public static SubsystemSignature compute(File subDir) throws IOException {
+        // We take the stamps first, so that if a file changes while we are computing, the next check
+        // will find a difference.
+        long[] stamps = computeStamps(subDir);
+        byte[] digest = computeDigest(subDir);
+        return new SubsystemSignature(stamps, digest);
+    }
+
+    /**
+     * @return the length and modification time of each tracked file in a subsystem directory
+     *
+     * @param subDir	subsystem directory of interest
+     */
+    private static long[] computeStamps(File subDir) {
+        long[] retVal = new long[TRACKED_FILES.length * 2];
+        for (int i = 0; i < TRACKED_FILES.length; i++) {
+            File trackedFile = new File(subDir, TRACKED_FILES[i]);
+            if (trackedFile.isFile()) {
+                retVal[i * 2] = trackedFile.length();
+                retVal[i * 2 + 1] = trackedFile.lastModified();
+            } else {
+                retVal[i * 2] = -1;
+                retVal[i * 2 + 1] = -1;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the MD5 digest of the tracked files in a subsystem directory
+     *
+     * @param subDir	subsystem directory of interest
+     *
+     * @throws IOException
+     */
+    private static byte[] computeDigest(File subDir) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 digest is not available: " + e.toString());
+        }
+        byte[] buffer = new byte[8192];
+        for (String fileName : TRACKED_FILES) {
+            File trackedFile = new File(subDir, fileName);
+            if (trackedFile.isFile()) {
+                try (InputStream inStream = new FileInputStream(trackedFile)) {
+                    for (int n = inStream.read(buffer); n >= 0; n = inStream.read(buffer))
+                        md.update(buffer, 0, n);
+                }
+            }
+            md.update(FILE_SEPARATOR);
+        }
+        return md.digest();
+    }
+
+    /**
+     * Determine whether a subsystem directory still has this signature.
+     *
+     * @param subDir	subsystem directory to check
+     *
+     * @return TRUE if the tracked files are unchanged, else FALSE
+     *
+     * @throws IOException
+     */
+    public boolean matches(File subDir) throws IOException {
+        return (this.refresh(subDir) != null);
+    }
+
+    /**
+     * Check a subsystem directory against this signature and return an up-to-date signature if it is
+     * unchanged.  If only the lengths and modification times differ, the returned signature has the new
+     * values, so that the next check can use the fast path.
+     *
+     * @param subDir	subsystem directory to check
+     *
+     * @return a current signature for the directory, or NULL if the tracked files have changed
+     *
+     * @throws IOException
+     */
+    public SubsystemSignature refresh(File subDir) throws IOException {
+        SubsystemSignature retVal = null;
+        long[] newStamps = computeStamps(subDir);
+        if (Arrays.equals(this.stamps, newStamps))
+            retVal = this;
+        else if (Arrays.equals(this.digest, computeDigest(subDir)))
+            retVal = new SubsystemSignature(newStamps, this.digest);
+        return retVal;
+    }
+
+    /**
+     * Write this signature to a binary output stream.
+     *
+     * @param out	binary output stream
+     *
+     * @throws IOException
+     */
+    protected void write(DataOutput out) throws IOException {
+        out.writeInt(this.stamps.length);
+        for (long stamp : this.stamps)
+            out.writeLong(stamp);
+        out.writeInt(this.digest.length);
+        out.write(this.digest);
+    }
+
+    /**
+     * Read a signature written by "write" from a binary input stream.
+     *
+     * @param in	binary input stream
+     *
+     * @return the signature read
+     *
+     * @throws IOException
+     */
+    protected static SubsystemSignature read(DataInput in) throws IOException {
+        long[] stamps = new long[in.readInt()];
+        for (int i = 0; i < stamps.length; i++)
+            stamps[i] = in.readLong();
+        byte[] digest = new byte[in.readInt()];
+        in.readFully(digest);
+        return new SubsystemSignature(stamps, digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.digest);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        SubsystemSignature other = (SubsystemSignature) obj;
+        return Arrays.equals(this.digest, other.digest);
+    }
+
+}
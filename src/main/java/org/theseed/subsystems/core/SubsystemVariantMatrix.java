@@ -0,0 +1,722 @@
+/**
+ *
+ */
+package org.theseed.subsystems.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.genome.Feature;
+import org.theseed.genome.Genome;
+import org.theseed.genome.SubsystemRow;
+
+/**
+ * This object is a persistent matrix of subsystem projection results across a large genome collection.  Each
+ * genome and each subsystem is assigned an ordinal, and each occupied cell contains a variant code.  The
+ * cells are stored in row order (by genome, then subsystem), and a column index lists the cells for each
+ * subsystem in genome order, so both "what subsystems does this genome have" and "which genomes implement
+ * this subsystem" are answered without scanning the whole matrix.
+ *
+ * The feature IDs for each cell are kept in a separate file (the matrix file name with ".fids" appended), and
+ * are only read when requested.  The main matrix file has the following layout.
+ *
+ *  header				magic number (int), format version (int)
+ *  genome table		genome count (int), then each genome ID
+ *  subsystem table		subsystem count (int), then each subsystem name
+ *  variant table		variant count (int), then each variant code
+ *  row starts			genome count + 1 ints, the position of each genome's first cell
+ *  cells				cell count (int), then the subsystem ordinal and variant ordinal of each cell
+ *  features			a flag byte (1 if there is a feature file), then for each cell the feature file
+ *  					offset (long, -1 if none) and byte length (int)
+ *
+ * The column index is rebuilt when the matrix is loaded.  A loaded matrix is read-only and can be queried
+ * by multiple threads at once.  It must be closed when it is no longer needed, since it holds the feature
+ * file open.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SubsystemVariantMatrix implements AutoCloseable {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(SubsystemVariantMatrix.class);
+    /** genome IDs, indexed by genome ordinal */
+    private final String[] genomes;
+    /** map of genome IDs to ordinals */
+    private final Map<String, Integer> genomeIndex;
+    /** subsystem names, indexed by subsystem ordinal */
+    private final String[] subsystems;
+    /** map of subsystem names to ordinals */
+    private final Map<String, Integer> subIndex;
+    /** variant codes, indexed by variant ordinal */
+    private final String[] variants;
+    /** map of variant codes to ordinals */
+    private final Map<String, Integer> variantIndex;
+    /** position of the first cell for each genome, plus a trailing end position */
+    private final int[] rowStart;
+    /** subsystem ordinal for each cell */
+    private final int[] cellSub;
+    /** variant ordinal for each cell */
+    private final int[] cellVariant;
+    /** position of the first column-index entry for each subsystem, plus a trailing end position */
+    private final int[] colStart;
+    /** cell positions for each subsystem, in genome order */
+    private final int[] colCells;
+    /** feature file offset for each cell, or NULL if there is no feature file */
+    private final long[] fidStart;
+    /** feature list byte length for each cell, or NULL if there is no feature file */
+    private final int[] fidLength;
+    /** open channel for the feature file, or NULL if there is none */
+    private final FileChannel fidChannel;
+
+    /** magic number identifying the file format ("SVMX") */
+    public static final int MAGIC = 0x53564D58;
+    /** current format version */
+    public static final int VERSION = 1;
+    /** suffix for the feature file name */
+    public static final String FID_SUFFIX = ".fids";
+    /** buffer size for stream I/O */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * This class builds a variant matrix file.  Genomes are added one at a time, and their feature lists are
+     * written to the feature file immediately, so only the variant codes are kept in memory.  If a genome is
+     * added more than once, the last version is kept.
+     *
+     * The builder can be used by multiple threads at once.
+     */
+    public static class Builder implements AutoCloseable {
+
+        /** output matrix file */
+        private final File outFile;
+        /** output stream for the feature file */
+        private final DataOutputStream fidStream;
+        /** current position in the feature file */
+        private long fidPos;
+        /** list of genome IDs, in ordinal order */
+        private final List<String> genomes;
+        /** map of genome IDs to ordinals */
+        private final Map<String, Integer> genomeIndex;
+        /** list of subsystem names, in ordinal order */
+        private final List<String> subsystems;
+        /** map of subsystem names to ordinals */
+        private final Map<String, Integer> subIndex;
+        /** list of variant codes, in ordinal order */
+        private final List<String> variants;
+        /** map of variant codes to ordinals */
+        private final Map<String, Integer> variantIndex;
+        /** list of rows, in genome ordinal order */
+        private final List<Row> rows;
+        /** TRUE if the builder has been closed */
+        private boolean closed;
+
+        /**
+         * This object contains the cells for one genome, sorted by subsystem ordinal.
+         */
+        private static class Row {
+
+            /** subsystem ordinals */
+            private final int[] subs;
+            /** variant ordinals */
+            private final int[] codes;
+            /** feature file offsets (-1 if none) */
+            private final long[] fidStarts;
+            /** feature list byte lengths */
+            private final int[] fidLengths;
+
+            /**
+             * Create an empty row with the specified number of cells.
+             *
+             * @param n		number of cells
+             */
+            private Row(int n) {
+                this.subs = new int[n];
+                this.codes = new int[n];
+                this.fidStarts = new long[n];
+                this.fidLengths = new int[n];
+            }
+
+        }
+
+        /**
+         * Create a builder for a variant matrix file.
+         *
+         * @param outFile	output matrix file; the feature file will have the same name with ".fids" appended
+         *
+         * @throws IOException
+         */
+        public Builder(File outFile) throws IOException {
+            this.outFile = outFile;
+            this.fidStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fidFile(outFile)),
+                    BUFFER_SIZE));
+            this.fidPos = 0;
+            this.genomes = new ArrayList<>();
+            this.genomeIndex = new HashMap<>();
+            this.subsystems = new ArrayList<>();
+            this.subIndex = new HashMap<>();
+            this.variants = new ArrayList<>();
+            this.variantIndex = new HashMap<>();
+            this.rows = new ArrayList<>();
+            this.closed = false;
+        }
+
+        /**
+         * Add the subsystems in a genome to the matrix, along with the features that implement them.
+         *
+         * @param genome	genome to add
+         *
+         * @throws IOException
+         */
+        public void add(Genome genome) throws IOException {
+            // Sort the subsystems by name and collect their features outside the lock.
+            Map<String, String> variantMap = new TreeMap<>();
+            Map<String, byte[]> fidMap = new HashMap<>();
+            for (SubsystemRow subRow : genome.getSubsystems()) {
+                String subName = subRow.getName();
+                variantMap.put(subName, subRow.getVariantCode());
+                Set<String> fids = new TreeSet<>();
+                for (SubsystemRow.Role role : subRow.getRoles()) {
+                    for (Feature feat : role.getFeatures())
+                        fids.add(feat.getId());
+                }
+                fidMap.put(subName, encodeFids(fids));
+            }
+            this.store(genome.getId(), variantMap, fidMap);
+        }
+
+        /**
+         * Add a genome's subsystem variant codes to the matrix, without features.
+         *
+         * @param genomeId		ID of the genome
+         * @param variantMap	map of subsystem names to variant codes
+         *
+         * @throws IOException
+         */
+        public void add(String genomeId, Map<String, String> variantMap) throws IOException {
+            this.store(genomeId, variantMap, Collections.emptyMap());
+        }
+
+        /**
+         * Add all the genomes in a variant table to the matrix, without features.
+         *
+         * @param table		variant table to add
+         *
+         * @throws IOException
+         */
+        public void add(SubsystemVariantTable table) throws IOException {
+            for (String genomeId : new TreeSet<>(table.getGenomes()))
+                this.add(genomeId, table.getVariants(genomeId));
+        }
+
+        /**
+         * Store a genome's row.
+         *
+         * @param genomeId		ID of the genome
+         * @param variantMap	map of subsystem names to variant codes
+         * @param fidMap		map of subsystem names to encoded feature lists (subsystems without features
+         * 						can be omitted)
+         *
+         * @throws IOException
+         */
+        private synchronized void store(String genomeId, Map<String, String> variantMap, Map<String, byte[]> fidMap)
+                throws IOException {
+            if (this.closed)
+                throw new IllegalStateException("Cannot add genomes to a closed variant matrix builder.");
+            // Sort the cells by subsystem ordinal.
+            TreeMap<Integer, String> sorted = new TreeMap<>();
+            for (Map.Entry<String, String> entry : variantMap.entrySet())
+                sorted.put(ordinal(entry.getKey(), this.subsystems, this.subIndex), entry.getKey());
+            Row row = new Row(sorted.size());
+            int i = 0;
+            for (Map.Entry<Integer, String> entry : sorted.entrySet()) {
+                String subName = entry.getValue();
+                row.subs[i] = entry.getKey();
+                row.codes[i] = ordinal(variantMap.get(subName), this.variants, this.variantIndex);
+                byte[] fids = fidMap.get(subName);
+                if (fids == null) {
+                    row.fidStarts[i] = -1;
+                    row.fidLengths[i] = 0;
+                } else {
+                    row.fidStarts[i] = this.fidPos;
+                    row.fidLengths[i] = fids.length;
+                    this.fidStream.write(fids);
+                    this.fidPos += fids.length;
+                }
+                i++;
+            }
+            int gIdx = ordinal(genomeId, this.genomes, this.genomeIndex);
+            if (gIdx < this.rows.size())
+                this.rows.set(gIdx, row);
+            else
+                this.rows.add(row);
+        }
+
+        /**
+         * Write the matrix file and close the feature file.
+         *
+         * @return the matrix, loaded from the file
+         *
+         * @throws IOException
+         */
+        public SubsystemVariantMatrix build() throws IOException {
+            synchronized (this) {
+                this.close();
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(this.outFile), BUFFER_SIZE))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    writeStrings(out, this.genomes);
+                    writeStrings(out, this.subsystems);
+                    writeStrings(out, this.variants);
+                    // Write the row starts.
+                    int pos = 0;
+                    for (Row row : this.rows) {
+                        out.writeInt(pos);
+                        pos += row.subs.length;
+                    }
+                    out.writeInt(pos);
+                    // Write the cells.
+                    out.writeInt(pos);
+                    for (Row row : this.rows) {
+                        for (int i = 0; i < row.subs.length; i++) {
+                            out.writeInt(row.subs[i]);
+                            out.writeInt(row.codes[i]);
+                        }
+                    }
+                    // Write the feature locations.
+                    out.writeByte(1);
+                    for (Row row : this.rows) {
+                        for (int i = 0; i < row.subs.length; i++) {
+                            out.writeLong(row.fidStarts[i]);
+                            out.writeInt(row.fidLengths[i]);
+                        }
+                    }
+                }
+                log.info("Variant matrix with {} genomes and {} subsystems written to {}.", this.genomes.size(),
+                        this.subsystems.size(), this.outFile);
+            }
+            return SubsystemVariantMatrix.load(this.outFile);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (! this.closed) {
+                this.fidStream.close();
+                this.closed = true;
+            }
+        }
+
+        /**
+         * @return the number for a string, assigning a new one if necessary
+         *
+         * @param key		string to find
+         * @param list		list of strings in number order
+         * @param index		map of strings to numbers
+         */
+        private static int ordinal(String key, List<String> list, Map<String, Integer> index) {
+            Integer retVal = index.get(key);
+            if (retVal == null) {
+                retVal = list.size();
+                list.add(key);
+                index.put(key, retVal);
+            }
+            return retVal;
+        }
+
+        /**
+         * @return the encoded form of a feature list
+         *
+         * @param fids	feature IDs to encode
+         *
+         * @throws IOException
+         */
+        private static byte[] encodeFids(Collection<String> fids) throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(fids.size() * 24 + 4);
+            try (DataOutputStream out = new DataOutputStream(buffer)) {
+                out.writeInt(fids.size());
+                for (String fid : fids)
+                    out.writeUTF(fid);
+            }
+            return buffer.toByteArray();
+        }
+
+        /**
+         * Write a string table to a binary output stream.
+         *
+         * @param out		binary output stream
+         * @param strings	list of strings to write
+         *
+         * @throws IOException
+         */
+        private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+            out.writeInt(strings.size());
+            for (String string : strings)
+                out.writeUTF(string);
+        }
+
+    }
+
+    /**
+     * Construct a variant matrix from its components and build the column index.
+     *
+     * @param genomes		genome IDs, in ordinal order
+     * @param subsystems	subsystem names, in ordinal order
+     * @param variants		variant codes, in ordinal order
+     * @param rowStart		position of the first cell for each genome, plus a trailing end position
+     * @param cellSub		subsystem ordinal for each cell
+     * @param cellVariant	variant ordinal for each cell
+     * @param fidStart		feature file offset for each cell, or NULL if there is no feature file
+     * @param fidLength		feature list byte length for each cell, or NULL if there is no feature file
+     * @param fidChannel	open channel for the feature file, or NULL if there is none
+     */
+    private SubsystemVariantMatrix(String[] genomes, String[] subsystems, String[] variants, int[] rowStart,
+            int[] cellSub, int[] cellVariant, long[] fidStart, int[] fidLength, FileChannel fidChannel) {
+        this.genomes = genomes;
+        this.genomeIndex = indexOf(genomes);
+        this.subsystems = subsystems;
+        this.subIndex = indexOf(subsystems);
+        this.variants = variants;
+        this.variantIndex = indexOf(variants);
+        this.rowStart = rowStart;
+        this.cellSub = cellSub;
+        this.cellVariant = cellVariant;
+        this.fidStart = fidStart;
+        this.fidLength = fidLength;
+        this.fidChannel = fidChannel;
+        // Build the column index.  Because the cells are in genome order, a counting sort by subsystem
+        // leaves each column in genome order, too.
+        this.colStart = new int[subsystems.length + 1];
+        for (int sub : cellSub)
+            this.colStart[sub + 1]++;
+        for (int i = 0; i < subsystems.length; i++)
+            this.colStart[i + 1] += this.colStart[i];
+        this.colCells = new int[cellSub.length];
+        int[] fill = Arrays.copyOf(this.colStart, subsystems.length);
+        for (int c = 0; c < cellSub.length; c++)
+            this.colCells[fill[cellSub[c]]++] = c;
+    }
+
+    /**
+     * @return a map from strings to their positions in an array
+     *
+     * @param strings	array of strings to index
+     */
+    private static Map<String, Integer> indexOf(String[] strings) {
+        Map<String, Integer> retVal = new HashMap<>(strings.length * 4 / 3 + 1);
+        for (int i = 0; i < strings.length; i++)
+            retVal.put(strings[i], i);
+        return retVal;
+    }
+
+    /**
+     * @return the name of the feature file for a matrix file
+     *
+     * @param matrixFile	matrix file of interest
+     */
+    public static File fidFile(File matrixFile) {
+        return new File(matrixFile.getPath() + FID_SUFFIX);
+    }
+
+    /**
+     * Load a variant matrix from a file.  If the feature file is missing, the matrix is loaded without features.
+     *
+     * @param inFile	matrix file to load
+     *
+     * @return the matrix loaded
+     *
+     * @throws IOException
+     */
+    public static SubsystemVariantMatrix load(File inFile) throws IOException {
+        SubsystemVariantMatrix retVal;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile),
+                BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(inFile + " is not a subsystem variant matrix file.");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported variant matrix file version " + version + " in " + inFile + ".");
+            String[] genomes = readStrings(in);
+            String[] subsystems = readStrings(in);
+            String[] variants = readStrings(in);
+            int[] rowStart = new int[genomes.length + 1];
+            for (int i = 0; i < rowStart.length; i++)
+                rowStart[i] = in.readInt();
+            final int nCells = in.readInt();
+            int[] cellSub = new int[nCells];
+            int[] cellVariant = new int[nCells];
+            for (int c = 0; c < nCells; c++) {
+                cellSub[c] = in.readInt();
+                cellVariant[c] = in.readInt();
+            }
+            long[] fidStart = null;
+            int[] fidLength = null;
+            FileChannel fidChannel = null;
+            File fidFile = fidFile(inFile);
+            if (in.readByte() != 0 && fidFile.canRead()) {
+                fidStart = new long[nCells];
+                fidLength = new int[nCells];
+                for (int c = 0; c < nCells; c++) {
+                    fidStart[c] = in.readLong();
+                    fidLength[c] = in.readInt();
+                }
+                fidChannel = FileChannel.open(fidFile.toPath(), StandardOpenOption.READ);
+            }
+            retVal = new SubsystemVariantMatrix(genomes, subsystems, variants, rowStart, cellSub, cellVariant,
+                    fidStart, fidLength, fidChannel);
+        }
+        log.info("Variant matrix with {} genomes, {} subsystems, and {} cells loaded from {}.",
+                retVal.getGenomeCount(), retVal.getSubsystemCount(), retVal.getCellCount(), inFile);
+        return retVal;
+    }
+
+    /**
+     * @return a string table read from a binary input stream
+     *
+     * @param in	binary input stream
+     *
+     * @throws IOException
+     */
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] retVal = new String[in.readInt()];
+        for (int i = 0; i < retVal.length; i++)
+            retVal[i] = in.readUTF();
+        return retVal;
+    }
+
+    /**
+     * @return the cell position for a genome and subsystem, or -1 if the cell is empty
+     *
+     * @param genomeId	ID of the genome of interest
+     * @param subName	name of the subsystem of interest
+     */
+    private int findCell(String genomeId, String subName) {
+        int retVal = -1;
+        Integer g = this.genomeIndex.get(genomeId);
+        Integer s = this.subIndex.get(subName);
+        if (g != null && s != null) {
+            int pos = Arrays.binarySearch(this.cellSub, this.rowStart[g], this.rowStart[g + 1], s);
+            if (pos >= 0)
+                retVal = pos;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the variant code for a subsystem in a genome, or NULL if the subsystem is not present
+     *
+     * @param genomeId	ID of the genome of interest
+     * @param subName	name of the subsystem of interest
+     */
+    public String getVariant(String genomeId, String subName) {
+        int c = this.findCell(genomeId, subName);
+        return (c < 0 ? null : this.variants[this.cellVariant[c]]);
+    }
+
+    /**
+     * @return a map of subsystem names to variant codes for a genome (empty if the genome is not in the matrix)
+     *
+     * @param genomeId	ID of the genome of interest
+     */
+    public Map<String, String> getVariants(String genomeId) {
+        Map<String, String> retVal = new TreeMap<>();
+        Integer g = this.genomeIndex.get(genomeId);
+        if (g != null) {
+            for (int c = this.rowStart[g]; c < this.rowStart[g + 1]; c++)
+                retVal.put(this.subsystems[this.cellSub[c]], this.variants[this.cellVariant[c]]);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return a map of genome IDs to variant codes for a subsystem (empty if the subsystem is not in the matrix)
+     *
+     * @param subName	name of the subsystem of interest
+     */
+    public Map<String, String> getGenomeVariants(String subName) {
+        Map<String, String> retVal = new TreeMap<>();
+        Integer s = this.subIndex.get(subName);
+        if (s != null) {
+            for (int i = this.colStart[s]; i < this.colStart[s + 1]; i++) {
+                int c = this.colCells[i];
+                retVal.put(this.genomes[this.genomeOf(c)], this.variants[this.cellVariant[c]]);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the IDs of the genomes that implement a subsystem in a specific variant
+     *
+     * @param subName	name of the subsystem of interest
+     * @param vCode		variant code of interest
+     */
+    public Set<String> getGenomes(String subName, String vCode) {
+        Set<String> retVal = new TreeSet<>();
+        Integer s = this.subIndex.get(subName);
+        Integer v = this.variantIndex.get(vCode);
+        if (s != null && v != null) {
+            final int vOrdinal = v;
+            for (int i = this.colStart[s]; i < this.colStart[s + 1]; i++) {
+                int c = this.colCells[i];
+                if (this.cellVariant[c] == vOrdinal)
+                    retVal.add(this.genomes[this.genomeOf(c)]);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the ordinal of the genome containing a cell
+     *
+     * This is the last genome whose row starts at or before the cell.  Empty rows share their start
+     * position with the following row, so the last such genome is the one that actually holds the cell.
+     *
+     * @param cell	position of the cell of interest
+     */
+    private int genomeOf(int cell) {
+        int lo = 0;
+        int hi = this.genomes.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (this.rowStart[mid] <= cell)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * @return a map of variant codes to genome counts for a subsystem
+     *
+     * @param subName	name of the subsystem of interest
+     */
+    public Map<String, Integer> getVariantCounts(String subName) {
+        Map<String, Integer> retVal = new TreeMap<>();
+        Integer s = this.subIndex.get(subName);
+        if (s != null) {
+            int[] counts = new int[this.variants.length];
+            for (int i = this.colStart[s]; i < this.colStart[s + 1]; i++)
+                counts[this.cellVariant[this.colCells[i]]]++;
+            for (int v = 0; v < counts.length; v++) {
+                if (counts[v] > 0)
+                    retVal.put(this.variants[v], counts[v]);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of genomes that implement a subsystem
+     *
+     * @param subName	name of the subsystem of interest
+     */
+    public int getGenomeCount(String subName) {
+        Integer s = this.subIndex.get(subName);
+        return (s == null ? 0 : this.colStart[s + 1] - this.colStart[s]);
+    }
+
+    /**
+     * Get the features that implement a subsystem in a genome.  The features are read from the feature file.
+     *
+     * @param genomeId	ID of the genome of interest
+     * @param subName	name of the subsystem of interest
+     *
+     * @return the set of feature IDs (empty if the cell is empty or there is no feature information)
+     *
+     * @throws IOException
+     */
+    public Set<String> getFeatures(String genomeId, String subName) throws IOException {
+        Set<String> retVal = new TreeSet<>();
+        int c = this.findCell(genomeId, subName);
+        if (c >= 0 && this.fidChannel != null && this.fidStart[c] >= 0) {
+            // Positional reads do not move the channel position, so this is safe for multiple threads.
+            ByteBuffer buffer = ByteBuffer.allocate(this.fidLength[c]);
+            long pos = this.fidStart[c];
+            while (buffer.hasRemaining()) {
+                int n = this.fidChannel.read(buffer, pos + buffer.position());
+                if (n < 0)
+                    throw new IOException("Feature file is truncated.");
+            }
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()))) {
+                final int n = in.readInt();
+                for (int i = 0; i < n; i++)
+                    retVal.add(in.readUTF());
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if this matrix has feature information
+     */
+    public boolean hasFeatures() {
+        return (this.fidChannel != null);
+    }
+
+    /**
+     * @return the IDs of the genomes in this matrix, in ordinal order
+     */
+    public List<String> getGenomeIds() {
+        return Collections.unmodifiableList(Arrays.asList(this.genomes));
+    }
+
+    /**
+     * @return the names of the subsystems in this matrix, in ordinal order
+     */
+    public List<String> getSubsystemNames() {
+        return Collections.unmodifiableList(Arrays.asList(this.subsystems));
+    }
+
+    /**
+     * @return the number of genomes in this matrix
+     */
+    public int getGenomeCount() {
+        return this.genomes.length;
+    }
+
+    /**
+     * @return the number of subsystems in this matrix
+     */
+    public int getSubsystemCount() {
+        return this.subsystems.length;
+    }
+
+    /**
+     * @return the number of occupied cells in this matrix
+     */
+    public int getCellCount() {
+        return this.cellSub.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.fidChannel != null)
+            this.fidChannel.close();
+    }
+
+}
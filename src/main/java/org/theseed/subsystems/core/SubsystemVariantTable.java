@@ -0,0 +1,240 @@
+/**
+ *
+ */
+package org.theseed.subsystems.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.theseed.io.CompressionUtils;
+import org.theseed.io.TabbedLineReader;
+
+/**
+ * This object is a compact table of subsystem projection results.  For each genome, it records the variant
+ * code of each subsystem projected.  The subsystem names and variant codes are stored once, and each
+ * genome's row is a pair of parallel integer arrays, sorted by subsystem index.
+ *
+ * Rows can be added from multiple threads at once.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SubsystemVariantTable {
+
+    // FIELDS
+    /** list of subsystem names, indexed by subsystem number */
+    private final List<String> subsystems;
+    /** map of subsystem names to subsystem numbers */
+    private final Map<String, Integer> subIndex;
+    /** list of variant codes, indexed by variant number */
+    private final List<String> variants;
+    /** map of variant codes to variant numbers */
+    private final Map<String, Integer> variantIndex;
+    /** map of genome IDs to rows */
+    private final Map<String, Row> rows;
+
+    /** header line for saved tables */
+    private static final String HEADER = "genome_id\tsubsystem\tvariant";
+
+    /**
+     * This class represents the projection results for a single genome.
+     */
+    protected static class Row {
+
+        /** subsystem numbers, in ascending order */
+        private final int[] subs;
+        /** variant numbers, parallel to the subsystem numbers */
+        private final int[] codes;
+
+        /**
+         * Create a row from the parallel arrays.
+         *
+         * @param subs		subsystem numbers, in ascending order
+         * @param codes		variant numbers, parallel to the subsystem numbers
+         */
+        protected Row(int[] subs, int[] codes) {
+            this.subs = subs;
+            this.codes = codes;
+        }
+
+    }
+
+    /**
+     * Create an empty variant table.
+     */
+    public SubsystemVariantTable() {
+        this.subsystems = new ArrayList<>();
+        this.subIndex = new HashMap<>();
+        this.variants = new ArrayList<>();
+        this.variantIndex = new HashMap<>();
+        this.rows = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Store the projection results for a genome.  Any previous results for the genome are replaced.
+     *
+     * @param genomeId		ID of the genome
+     * @param variantMap	map of subsystem names to variant codes for the subsystems projected
+     */
+    public void put(String genomeId, Map<String, String> variantMap) {
+        // Sort the subsystems by number.
+        TreeMap<Integer, Integer> sorted = new TreeMap<>();
+        synchronized (this) {
+            for (Map.Entry<String, String> entry : variantMap.entrySet()) {
+                int sub = ordinal(entry.getKey(), this.subsystems, this.subIndex);
+                int code = ordinal(entry.getValue(), this.variants, this.variantIndex);
+                sorted.put(sub, code);
+            }
+        }
+        final int n = sorted.size();
+        int[] subs = new int[n];
+        int[] codes = new int[n];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : sorted.entrySet()) {
+            subs[i] = entry.getKey();
+            codes[i] = entry.getValue();
+            i++;
+        }
+        this.rows.put(genomeId, new Row(subs, codes));
+    }
+
+    /**
+     * @return the number for a string, assigning a new one if necessary
+     *
+     * @param key		string to find
+     * @param list		list of strings in number order
+     * @param index		map of strings to numbers
+     */
+    private static int ordinal(String key, List<String> list, Map<String, Integer> index) {
+        Integer retVal = index.get(key);
+        if (retVal == null) {
+            retVal = list.size();
+            list.add(key);
+            index.put(key, retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the variant code for a subsystem in a genome, or NULL if the subsystem is not present
+     *
+     * @param genomeId	ID of the genome of interest
+     * @param subName	name of the subsystem of interest
+     */
+    public String getVariant(String genomeId, String subName) {
+        String retVal = null;
+        Row row = this.rows.get(genomeId);
+        if (row != null) {
+            synchronized (this) {
+                Integer sub = this.subIndex.get(subName);
+                if (sub != null) {
+                    int pos = Arrays.binarySearch(row.subs, sub);
+                    if (pos >= 0)
+                        retVal = this.variants.get(row.codes[pos]);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return a map of subsystem names to variant codes for a genome (empty if the genome is not in the table)
+     *
+     * @param genomeId	ID of the genome of interest
+     */
+    public Map<String, String> getVariants(String genomeId) {
+        Map<String, String> retVal;
+        Row row = this.rows.get(genomeId);
+        if (row == null)
+            retVal = Collections.emptyMap();
+        else {
+            retVal = new TreeMap<>();
+            synchronized (this) {
+                for (int i = 0; i < row.subs.length; i++)
+                    retVal.put(this.subsystems.get(row.subs[i]), this.variants.get(row.codes[i]));
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the IDs of the genomes in this table
+     */
+    public Set<String> getGenomes() {
+        return this.rows.keySet();
+    }
+
+    /**
+     * @return the number of genomes in this table
+     */
+    public int size() {
+        return this.rows.size();
+    }
+
+    /**
+     * @return the total number of subsystem projections in this table
+     */
+    public int getCellCount() {
+        return this.rows.values().stream().mapToInt(x -> x.subs.length).sum();
+    }
+
+    /**
+     * Save this table to a tab-delimited file.  There is one line per projected subsystem in each genome,
+     * sorted by genome ID and subsystem name.  A genome with no subsystems gets a single line with empty
+     * subsystem and variant fields, so that it is not lost.  If the file name ends in ".gz", the output will
+     * be compressed.
+     *
+     * @param outFile	output file
+     *
+     * @throws IOException
+     */
+    public void save(File outFile) throws IOException {
+        try (PrintWriter writer = CompressionUtils.openWriter(outFile)) {
+            writer.println(HEADER);
+            for (String genomeId : new TreeMap<>(this.rows).keySet()) {
+                Map<String, String> variantMap = this.getVariants(genomeId);
+                if (variantMap.isEmpty())
+                    writer.println(genomeId + "\t\t");
+                for (Map.Entry<String, String> entry : variantMap.entrySet())
+                    writer.println(genomeId + "\t" + entry.getKey() + "\t" + entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Load a table from a tab-delimited file created by "save".
+     *
+     * @param inFile	input file
+     *
+     * @return the table loaded
+     *
+     * @throws IOException
+     */
+    public static SubsystemVariantTable load(File inFile) throws IOException {
+        SubsystemVariantTable retVal = new SubsystemVariantTable();
+        Map<String, Map<String, String>> genomeMap = new HashMap<>();
+        try (TabbedLineReader inStream = new TabbedLineReader(inFile)) {
+            for (TabbedLineReader.Line line : inStream) {
+                Map<String, String> variantMap = genomeMap.computeIfAbsent(line.get(0), x -> new HashMap<>());
+                // An empty subsystem name marks a genome with no subsystems.
+                String subName = line.get(1);
+                if (! subName.isEmpty())
+                    variantMap.put(subName, line.get(2));
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> entry : genomeMap.entrySet())
+            retVal.put(entry.getKey(), entry.getValue());
+        return retVal;
+    }
+
+}
@@ -10,6 +10,9 @@ import java.io.IOException;
 import java.util.List;
 
 import org.junit.jupiter.api.Test;
+import org.theseed.locations.Location;
+import org.theseed.locations.Region;
+import org.theseed.sequence.PackedDna;
 import org.theseed.sequence.Sequence;
 
 /**
@@ -48,4 +51,66 @@ public class TestContigs {
         cleaned = Contig.cleanParts(dirtyDna);
         assertThat(cleaned, contains("acgt", "gggg", "tttt"));
     }
+
+    @Test
+    public void testPacking() throws IOException {
+        // Start with a contig full of exceptions.
+        String dna = "acgtnacgtuuacgtacgtacgtacgtacgtacgtacgtryacgggggtttccca";
+        Contig contig = new Contig("test", dna, 11);
+        Region region = new Region(3, 40);
+        String expected = contig.getDna(region);
+        String expectedR = Contig.reverse(expected);
+        contig.pack(false);
+        assertThat(contig.isPacked(), equalTo(true));
+        assertThat(contig.getSequence(), equalTo(dna));
+        assertThat(contig.getRSequence(), equalTo(Contig.reverse(dna)));
+        assertThat(contig.getDna(region), equalTo(expected));
+        assertThat(contig.getReverseDna(region), equalTo(expectedR));
+        assertThat(contig.getDna(new Region(50, 100)), equalTo(dna.substring(49)));
+        // Verify the kmers on both strands.
+        for (boolean reverse : new boolean[] { false, true }) {
+            String strand = (reverse ? Contig.reverse(dna) : dna);
+            PackedDna.Cursor cursor = contig.kmerCursor(5, reverse);
+            int pos = 0;
+            while (cursor.next()) {
+                String kmer = cursor.getKmerString();
+                int kPos = cursor.getPosition();
+                assertThat(kmer, equalTo(strand.substring(kPos, kPos + 5)));
+                assertThat(kmer, kPos, greaterThanOrEqualTo(pos));
+                for (int i = pos; i < kPos; i++)
+                    assertThat(strand.substring(i, i + 5), matchesPattern(".*[^acgt].*"));
+                pos = kPos + 1;
+            }
+        }
+        // Now verify an entire genome.
+        Genome genome = new Genome(new File("data", "1002870.3.gto"));
+        Genome packed = new Genome(new File("data", "1002870.3.gto"));
+        packed.packContigs(true);
+        for (Contig contig1 : genome.getContigs()) {
+            Contig contig2 = packed.getContig(contig1.getId());
+            assertThat(contig2.isPacked(), equalTo(true));
+            assertThat(contig2, equalTo(contig1));
+            assertThat(contig2.getRSequence(), equalTo(contig1.getRSequence()));
+        }
+        for (Feature feat : genome.getFeatures()) {
+            Location loc = feat.getLocation();
+            assertThat(feat.getId(), packed.getDna(loc), equalTo(genome.getDna(loc)));
+        }
+        contig.unpack();
+        assertThat(contig.isPacked(), equalTo(false));
+        assertThat(contig.getSequence(), equalTo(dna));
+        // The unpacked contig reads its kmers straight from the string.  They must match the packed ones.
+        Contig packedContig = new Contig("test", dna, 11);
+        packedContig.pack(false);
+        for (boolean reverse : new boolean[] { false, true }) {
+            PackedDna.Cursor cursor1 = contig.kmerCursor(5, reverse);
+            PackedDna.Cursor cursor2 = packedContig.kmerCursor(5, reverse);
+            while (cursor2.next()) {
+                assertThat(cursor1.next(), equalTo(true));
+                assertThat(cursor1.getPosition(), equalTo(cursor2.getPosition()));
+                assertThat(cursor1.getKmer(), equalTo(cursor2.getKmer()));
+            }
+            assertThat(cursor1.next(), equalTo(false));
+        }
+    }
 }
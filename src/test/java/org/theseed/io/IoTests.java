@@ -4,13 +4,20 @@
 package org.theseed.io;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Strings;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.arrayContaining;
@@ -761,4 +768,55 @@ public class IoTests {
             assertThat(reader.hasNext(), equalTo(false));
         }
     }
+
+    @Test
+    public void testCompression() throws IOException {
+        // Compress a tab-delimited file and verify it reads the same.
+        File inFile = new File("data", "simple.tbl");
+        // The compressed files need a ".gz" suffix, so they are temporary files instead of ".ser" files.
+        File gzFile = File.createTempFile("simple", ".tbl.gz", new File("data"));
+        try (TabbedLineReader reader = new TabbedLineReader(inFile);
+                PrintWriter writer = CompressionUtils.openWriter(gzFile)) {
+            writer.println(reader.header());
+            for (TabbedLineReader.Line line : reader)
+                writer.println(line.getAll());
+        }
+        assertThat(CompressionUtils.isCompressed(gzFile), equalTo(true));
+        assertThat(CompressionUtils.isCompressed(inFile), equalTo(false));
+        try (TabbedLineReader reader = new TabbedLineReader(inFile);
+                TabbedLineReader gzReader = new TabbedLineReader(gzFile)) {
+            assertThat(gzReader.getLabels(), arrayContaining(reader.getLabels()));
+            for (TabbedLineReader.Line line : reader) {
+                assertThat(gzReader.hasNext(), equalTo(true));
+                assertThat(gzReader.next().getAll(), equalTo(line.getAll()));
+            }
+            assertThat(gzReader.hasNext(), equalTo(false));
+        }
+        // Test multiple blocks and a small ring buffer.
+        File blockFile = File.createTempFile("blocks", ".gz", new File("data"));
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) ((i * 7) % 61);
+        try (OutputStream outStream = new ParallelGzipOutputStream(new FileOutputStream(blockFile), 1000)) {
+            outStream.write(data, 0, 50000);
+            for (int i = 50000; i < data.length; i++)
+                outStream.write(data[i]);
+        }
+        try (InputStream inStream = new ThreadedInputStream(new GZIPInputStream(new FileInputStream(blockFile)), 100)) {
+            byte[] buffer = inStream.readAllBytes();
+            assertThat(Arrays.equals(buffer, data), equalTo(true));
+        }
+        try (InputStream inStream = CompressionUtils.openInput(blockFile)) {
+            for (int i = 0; i < data.length; i++)
+                assertThat(inStream.read(), equalTo(data[i] & 0xFF));
+            assertThat(inStream.read(), equalTo(-1));
+        }
+        // Test an empty compressed file.
+        CompressionUtils.openOutput(blockFile).close();
+        try (InputStream inStream = CompressionUtils.openInput(blockFile)) {
+            assertThat(inStream.read(), equalTo(-1));
+        }
+        FileUtils.forceDelete(gzFile);
+        FileUtils.forceDelete(blockFile);
+    }
 }
@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestMeanComputer {
+
+    @Test
+    void testMeans() {
+        List<Double> nums = Arrays.asList(4.0, 1.0, 9.0, 3.0, 3.0, 100.0, 7.0, 2.0, 5.0, 6.0);
+        BitSet good = new BitSet();
+        good.set(0, 10);
+        good.clear(5);
+        // Sorted good values are 1, 2, 3, 3, 4, 5, 6, 7, 9.
+        assertThat(MeanComputer.getGood(nums, good), contains(4.0, 1.0, 9.0, 3.0, 3.0, 7.0, 2.0, 5.0, 6.0));
+        MeanComputer trimean = MeanComputer.Type.TRIMEAN.create();
+        assertThat(trimean.goodMean(nums, good), closeTo(4.0 / 2.0 + (2.5 + 6.5) / 4.0, 1e-10));
+        MeanComputer middle = MeanComputer.Type.MIDDLE.create();
+        assertThat(middle.goodMean(nums, good), closeTo(30.0 / 7.0, 1e-10));
+        assertThat(middle.goodMean(Arrays.asList(2.0, 2.0, 2.0)), equalTo(2.0));
+        MeanComputer max = MeanComputer.Type.MAX.create();
+        assertThat(max.goodMean(nums, good), equalTo(9.0));
+        assertThat(max.goodMean(nums), equalTo(100.0));
+        MeanComputer sigma = MeanComputer.Type.SIGMA1.create();
+        assertThat(sigma.goodMean(Arrays.asList(5.0)), equalTo(5.0));
+        // The array versions must match the list versions, and must only use the specified segment.
+        double[] buffer = new double[] { -50.0, 4.0, 1.0, 9.0, 3.0, 3.0, 7.0, 2.0, 5.0, 6.0, 50.0 };
+        for (MeanComputer.Type type : MeanComputer.Type.values()) {
+            MeanComputer computer = type.create();
+            double expected = computer.goodMean(nums, good);
+            double[] work = Arrays.copyOf(buffer, buffer.length);
+            assertThat(type.toString(), computer.goodMean(work, 1, 9), equalTo(expected));
+            assertThat(type.toString(), work[0], equalTo(-50.0));
+            assertThat(type.toString(), work[10], equalTo(50.0));
+            assertThat(type.toString(), computer.goodMean(work, 1, 0), equalTo(0.0));
+        }
+    }
+
+    @Test
+    void testSelect() {
+        double[] nums = new double[] { 5.0, 3.0, 3.0, 8.0, 1.0, 3.0, 9.0, 0.0, 3.0, 7.0 };
+        double[] sorted = Arrays.copyOf(nums, nums.length);
+        Arrays.sort(sorted);
+        for (int k = 0; k < nums.length; k++) {
+            double[] work = Arrays.copyOf(nums, nums.length);
+            assertThat(MeanComputer.select(work, 0, work.length - 1, k), equalTo(sorted[k]));
+            for (int i = 0; i < k; i++)
+                assertThat(work[i], lessThanOrEqualTo(work[k]));
+            for (int i = k + 1; i < work.length; i++)
+                assertThat(work[i], greaterThanOrEqualTo(work[k]));
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.theseed.basic.ParseFailureException;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestXMatrixReporter implements XMatrixReporter.IParms {
+
+    @Override
+    public boolean getClearFlag() {
+        return true;
+    }
+
+    @Override
+    public String getNegLabel() {
+        return "none";
+    }
+
+    @Test
+    void testCsvOutput() throws IOException, ParseFailureException {
+        final int nRows = 3000;
+        List<String> featCols = Arrays.asList("f1", "f2", "f3");
+        // Build the data.  The values include some that need exponents and some that are missing.
+        List<String> ids = new ArrayList<>(nRows);
+        List<double[]> rows = new ArrayList<>(nRows);
+        List<String> values = new ArrayList<>(nRows);
+        List<String> expected = new ArrayList<>(nRows);
+        for (int i = 0; i < nRows; i++) {
+            String id = "row" + i;
+            double[] feats = new double[] { i * 0.25, (i % 7 == 0 ? Double.NaN : i * 1.0e-5), -i * 1.0e10 };
+            String value = Integer.toString(i % 3);
+            ids.add(id);
+            rows.add(feats);
+            values.add(value);
+            expected.add(id + "," + feats[0] + "," + feats[1] + "," + feats[2] + "," + value);
+        }
+        // Write the first half one row at a time, reusing the feature array, and the second half as a batch.
+        File outFile = new File("data", "xmatrix_csv.ser");
+        File colFile = new File("data", "xmatrix_col.ser");
+        try (XMatrixReporter reporter = XMatrixReporter.Type.CSV.create(this, outFile)) {
+            reporter.setColumnarFile(colFile);
+            reporter.setHeaders("id", featCols, "out");
+            // A row of the wrong width is rejected before anything is written.
+            try {
+                reporter.processRow("bad", new double[featCols.size() - 1], "0");
+                assertThat("Exception should have been thrown.", false);
+            } catch (IllegalArgumentException e) { }
+            final int half = nRows / 2;
+            double[] buffer = new double[featCols.size()];
+            for (int i = 0; i < half; i++) {
+                System.arraycopy(rows.get(i), 0, buffer, 0, buffer.length);
+                reporter.processRow(ids.get(i), buffer, values.get(i));
+            }
+            reporter.processRows(ids.subList(half, nRows), i -> rows.get(half + i).clone(),
+                    values.subList(half, nRows));
+            reporter.finish();
+        }
+        List<String> lines = Files.readAllLines(outFile.toPath());
+        assertThat(lines, equalTo(expected));
+        // Verify the columnar copy.
+        XMatrixColumnarFile.Contents contents = XMatrixColumnarFile.load(colFile);
+        assertThat(contents.getHeaders(), arrayContaining("id", "f1", "f2", "f3", "out"));
+        assertThat(contents.size(), equalTo(nRows));
+        assertThat(contents.getIds(), equalTo(ids));
+        assertThat(contents.getValues(), equalTo(values));
+        for (int c = 0; c < featCols.size(); c++) {
+            double[] column = contents.getColumn(c);
+            assertThat(column.length, equalTo(nRows));
+            for (int i = 0; i < nRows; i++)
+                assertThat(ids.get(i) + "/" + c, Double.compare(column[i], rows.get(i)[c]), equalTo(0));
+        }
+        FileUtils.forceDelete(outFile);
+        FileUtils.forceDelete(colFile);
+    }
+
+}
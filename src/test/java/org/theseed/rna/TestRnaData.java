@@ -5,19 +5,30 @@ package org.theseed.rna;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.junit.jupiter.api.Test;
 import org.theseed.genome.Feature;
 import org.theseed.genome.Genome;
+import org.theseed.reports.MeanComputer;
+import org.theseed.stats.CorrelationVariance;
 
 /**
  * @author Bruce Parrello
@@ -162,6 +173,83 @@ public class TestRnaData {
                 assertThat(fid + "/" + jobName, subRow.getWeight(subIdx), equalTo(testRow.getWeight(testIdx)));
             }
         }
+        // Now load the subset directly from the file.
+        assertThat(RnaDataFile.isBinary(saveFile), equalTo(true));
+        RnaData fileSub = RnaData.loadSubset(saveFile, subset);
+        assertThat(fileSub.size(), equalTo(2));
+        assertThat(fileSub.rows(), equalTo(subRna.rows()));
+        assertThat(fileSub.getJob(0).getName(), equalTo("job2"));
+        assertThat(fileSub.getJob(1).getName(), equalTo("job1"));
+        for (RnaData.Row subRow : subRna.getRows()) {
+            String fid = subRow.getFeat().getId();
+            RnaData.Row fileRow = fileSub.getRow(fid);
+            assertThat(fid, fileRow.getNeighbor(), equalTo(subRow.getNeighbor()));
+            for (int i = 0; i < 2; i++)
+                assertThat(fid + "/" + i, fileRow.getWeight(i), equalTo(subRow.getWeight(i)));
+        }
+        // Test the subset view.
+        RnaData viewRna = testRna.getSubsetView(subset);
+        assertThat(viewRna.isView(), equalTo(true));
+        assertThat(viewRna.size(), equalTo(2));
+        assertThat(viewRna.rows(), equalTo(subRna.rows()));
+        assertThat(viewRna.getJob(0), sameInstance(testRna.getJob("job2")));
+        assertThat(viewRna.getColIdx("job1"), equalTo(1));
+        assertThat(viewRna.getColIdx("job0"), equalTo(-1));
+        for (RnaData.Row subRow : subRna.getRows()) {
+            String fid = subRow.getFeat().getId();
+            RnaData.Row viewRow = viewRna.getRow(fid);
+            assertThat(fid, viewRow.getFeat(), sameInstance(subRow.getFeat()));
+            assertThat(fid, viewRow.size(), equalTo(2));
+            for (int i = 0; i < 2; i++) {
+                assertThat(fid + "/" + i, viewRow.getWeight(i), equalTo(subRow.getWeight(i)));
+                assertThat(fid + "/" + i, viewRow.isGood(i), equalTo(subRow.isGood(i)));
+            }
+            assertThat(fid, viewRna.getBaseline(viewRow), equalTo(subRna.getBaseline(subRow)));
+        }
+        RnaData viewView = viewRna.getSubsetView(Arrays.asList("job1"));
+        assertThat(viewView.getRow(f1.getId()).getWeight(0), equalTo(testRna.getRow(f1.getId()).getWeight(0)));
+        RnaData.Row viewRow = viewRna.getRow(f3.getId());
+        try {
+            viewRow.store("job2", true, 1.0);
+            fail("Stored a value in a subset view.");
+        } catch (UnsupportedOperationException e) {
+            // this is good
+        }
+        try {
+            viewRna.addJob("job3", 1.0, 1.0, "old3", false);
+            fail("Added a sample to a subset view.");
+        } catch (UnsupportedOperationException e) {
+            // this is good
+        }
+        try {
+            viewRna.getSubsetView(Arrays.asList("job0"));
+            fail("Created a view with an invalid sample.");
+        } catch (IllegalArgumentException e) {
+            // this is good
+        }
+        File viewFile = new File("data", "rna_view.ser");
+        viewRna.save(viewFile);
+        RnaData fileView = RnaData.load(viewFile);
+        assertThat(fileView.isView(), equalTo(false));
+        assertThat(fileView.size(), equalTo(2));
+        assertThat(fileView.getRow(f3.getId()).getWeight(0), equalTo(viewRow.getWeight(0)));
+        FileUtils.forceDelete(viewFile);
+        // Test the cluster aggregation.
+        Map<String, Set<String>> clusterMap = new TreeMap<>();
+        clusterMap.put("c1", new TreeSet<>(Arrays.asList("job1", "job2")));
+        clusterMap.put("c0", new TreeSet<>(Arrays.asList("job0", "job9")));
+        RnaData clusterRna = testRna.getClusterData(clusterMap, MeanComputer.Type.TRIMEAN);
+        assertThat(clusterRna.size(), equalTo(2));
+        assertThat(clusterRna.rows(), equalTo(testRna.rows()));
+        assertThat(clusterRna.getJob(0).getName(), equalTo("c0"));
+        assertThat(clusterRna.getJob(1).getName(), equalTo("c1"));
+        RnaData.Row clusterRow = clusterRna.getRow(f1.getId());
+        assertThat(clusterRow.getNeighbor(), equalTo(testRna.getRow(f1.getId()).getNeighbor()));
+        assertThat(clusterRow.getWeight(0), nullValue());
+        assertThat(clusterRow.getValue(1), equalTo(102.0));
+        clusterRow = clusterRna.getRow(f3.getId());
+        assertThat(clusterRow.getWeight(0), nullValue());
+        assertThat(clusterRow.getValue(1), equalTo(202.0));
     }
 
     @Test
@@ -228,6 +316,281 @@ public class TestRnaData {
         assertThat(row, nullValue());
         Map<String, Double> baseMap = data.getBaselines();
         assertThat(baseMap, not(nullValue()));
+        // Verify the cached statistics against the descriptive statistics.
+        for (RnaData.Row row2 : data) {
+            String fid = row2.getFeat().getId();
+            RowStatistics cached = row2.getStatistics();
+            DescriptiveStatistics stats = RnaData.getStats(row2);
+            assertThat(fid, cached.getN(), equalTo((int) stats.getN()));
+            if (stats.getN() == 0) {
+                // With no good values, everything is undefined.
+                assertThat(fid, Double.isNaN(cached.getPercentile(50.0)), equalTo(true));
+                assertThat(fid, Double.isNaN(cached.getMean()), equalTo(true));
+                assertThat(fid, Double.isNaN(cached.getTrimean()), equalTo(true));
+            } else {
+                // DescriptiveStatistics does not accept a 0th percentile, so we check that against the minimum.
+                assertThat(fid, cached.getPercentile(0.0), closeTo(stats.getMin(), 1e-6));
+                for (double pct : new double[] { 10.0, 25.0, 50.0, 75.0, 100.0 })
+                    assertThat(fid, cached.getPercentile(pct), closeTo(stats.getPercentile(pct), 1e-6));
+                assertThat(fid, cached.getMean(), closeTo(stats.getMean(), 1e-6));
+                assertThat(fid, cached.getStandardDeviation(), closeTo(stats.getStandardDeviation(), 1e-6));
+                assertThat(fid, baseMap.get(fid), equalTo(cached.getTrimean()));
+            }
+        }
+        // Verify that a change to a row invalidates its statistics.
+        row = data.getRow(f3.getId());
+        RowStatistics oldStats = row.getStatistics();
+        assertThat(row.getStatistics(), sameInstance(oldStats));
+        row.store("job1", false, 5.0);
+        RowStatistics newStats = row.getStatistics();
+        assertThat(newStats, not(sameInstance(oldStats)));
+        assertThat(newStats.getN(), equalTo(3));
+    }
+
+    @Test
+    public void testMatrix() {
+        ExpressionMatrix matrix = new ExpressionMatrix(2, 10);
+        for (int r = 0; r < 200; r++) {
+            assertThat(matrix.addRow(), equalTo(r));
+            matrix.set(r, 0, (r % 2 == 0), r + 1.0);
+            if (r % 5 != 0)
+                matrix.set(r, 1, true, -1.0);
+        }
+        assertThat(matrix.addColumn(), equalTo(2));
+        matrix.set(150, 2, true, 4.0);
+        assertThat(matrix.rows(), equalTo(200));
+        assertThat(matrix.cols(), equalTo(3));
+        assertThat(matrix.get(99, 0), equalTo(100.0));
+        assertThat(matrix.isExactHit(99, 0), equalTo(false));
+        assertThat(matrix.isExactHit(100, 0), equalTo(true));
+        assertThat(Double.isNaN(matrix.get(100, 1)), equalTo(true));
+        assertThat(matrix.isGood(100, 1), equalTo(false));
+        assertThat(Double.isNaN(matrix.get(149, 2)), equalTo(true));
+        assertThat(matrix.countExpressed(0), equalTo(100));
+        assertThat(matrix.countExpressed(1), equalTo(0));
+        assertThat(matrix.countExpressed(2), equalTo(1));
+        assertThat(matrix.columnSum(0), closeTo(20100.0, 0.001));
+        assertThat(matrix.columnSum(1), closeTo(-160.0, 0.001));
+        matrix.set(2, 0, true, Double.NaN);
+        assertThat(matrix.isExactHit(2, 0), equalTo(false));
+        matrix.scaleColumn(0, 2.0);
+        assertThat(matrix.get(99, 0), equalTo(200.0));
+        // Keep every third row.
+        int[] keep = new int[67];
+        for (int i = 0; i < keep.length; i++)
+            keep[i] = i * 3;
+        // Writing the kept rows must produce the same blocks as the compacted matrix, without changing anything.
+        ByteBuffer selected = ByteBuffer.allocate(ExpressionMatrix.columnBlockSize(keep.length) * matrix.cols());
+        for (int c = 0; c < matrix.cols(); c++)
+            matrix.writeColumn(c, keep, selected);
+        assertThat(selected.hasRemaining(), equalTo(false));
+        assertThat(matrix.rows(), equalTo(200));
+        matrix.compact(keep);
+        assertThat(matrix.rows(), equalTo(67));
+        ByteBuffer compacted = ByteBuffer.allocate(matrix.columnBlockSize() * matrix.cols());
+        for (int c = 0; c < matrix.cols(); c++)
+            matrix.writeColumn(c, compacted);
+        assertThat(Arrays.equals(selected.array(), compacted.array()), equalTo(true));
+        for (int i = 0; i < keep.length; i++) {
+            int r = keep[i];
+            assertThat(Integer.toString(r), matrix.get(i, 0), equalTo((r + 1) * 2.0));
+            assertThat(Integer.toString(r), matrix.isExactHit(i, 0), equalTo(r % 2 == 0));
+            assertThat(Integer.toString(r), Double.isNaN(matrix.get(i, 1)), equalTo(r % 5 == 0));
+            assertThat(Integer.toString(r), matrix.get(i, 2) == 4.0, equalTo(r == 150));
+        }
+        assertThat(matrix.countExpressed(0), equalTo(34));
+    }
+
+    @Test
+    public void testParallelPasses() {
+        // Build two copies of a matrix large enough to be processed in parallel.
+        final int rows = 500;
+        final int cols = 200;
+        ExpressionMatrix matrix = new ExpressionMatrix(cols, rows);
+        ExpressionMatrix serial = new ExpressionMatrix(cols, rows);
+        for (int r = 0; r < rows; r++) {
+            matrix.addRow();
+            serial.addRow();
+            for (int c = 0; c < cols; c++) {
+                if ((r + c) % 11 != 0) {
+                    double value = ((r * 31 + c * 17) % 97) / 7.0;
+                    matrix.set(r, c, (r + c) % 3 != 0, value);
+                    serial.set(r, c, (r + c) % 3 != 0, value);
+                }
+            }
+        }
+        int[] counts = matrix.countExpressed();
+        double[] totals = matrix.normalizeColumns(1000000.0);
+        for (int c = 0; c < cols; c++) {
+            assertThat(Integer.toString(c), counts[c], equalTo(serial.countExpressed(c)));
+            double total = serial.columnSum(c);
+            assertThat(Integer.toString(c), totals[c], equalTo(total));
+            serial.scaleColumn(c, 1000000.0 / total);
+            for (int r = 0; r < rows; r++)
+                assertThat(r + "/" + c, matrix.get(r, c), equalTo(serial.get(r, c)));
+        }
+    }
+
+    @Test
+    public void testIngestion() throws IOException, ClassNotFoundException {
+        Genome gto = new Genome(new File("data", "MG1655-wild.gto"));
+        Feature f1 = gto.getFeature("fig|511145.183.peg.3580");
+        Feature f2 = gto.getFeature("fig|511145.183.peg.4072");
+        Feature f3 = gto.getFeature("fig|511145.183.peg.4078");
+        RnaData data = new RnaData();
+        data.addJob("old1", 1.0, 1.0, "o1", false);
+        RnaData.Row row = data.getRow(f1, null);
+        row.store("old1", true, 10.0);
+        File checkFile = new File("data", "rna_ingest.ser");
+        List<Integer> sources = Arrays.asList(1, 2, 3, 4, 5, 6);
+        try (RnaDataIngester ingester = new RnaDataIngester(data, checkFile, 4)) {
+            ingester.ingest(sources, (x, i) -> {
+                RnaDataIngester.Sample sample = x.newSample("new" + i, i, i * 0.1, "n" + i, false);
+                sample.store(f1.getId(), true, i * 100.0);
+                sample.store(f2, f3, (i % 2 == 0), i * 200.0);
+                sample.store("fig|511145.183.peg.99999", true, 1.0);
+                sample.setReadStats(i * 10, i * 1000L, 50.0);
+                return sample;
+            });
+            assertThat(ingester.getSampleCount(), equalTo(6));
+            assertThat(ingester.getNewRowCount(), equalTo(1));
+            assertThat(ingester.getBadFeatureCount(), equalTo(6));
+            assertThat(ingester.getCheckpointCount(), equalTo(1));
+        }
+        assertThat(data.size(), equalTo(7));
+        assertThat(data.rows(), equalTo(2));
+        RnaData loaded = RnaData.load(checkFile);
+        assertThat(loaded.size(), equalTo(7));
+        assertThat(loaded.rows(), equalTo(2));
+        for (int i = 1; i <= 6; i++) {
+            String jobName = "new" + i;
+            RnaData.JobData job = loaded.getJob(jobName);
+            assertThat(jobName, job.getProduction(), equalTo((double) i));
+            assertThat(jobName, job.getReadCount(), equalTo(i * 10));
+            // The samples are committed in list order.
+            int col = loaded.getColIdx(jobName);
+            assertThat(jobName, col, equalTo(i));
+            RnaData.Weight w = loaded.getRow(f1.getId()).getWeight(col);
+            assertThat(jobName, w.getWeight(), equalTo(i * 100.0));
+            assertThat(jobName, w.isExactHit(), equalTo(true));
+            row = loaded.getRow(f2.getId());
+            assertThat(jobName, row.getNeighbor().getId(), equalTo(f3.getId()));
+            w = row.getWeight(col);
+            assertThat(jobName, w.getWeight(), equalTo(i * 200.0));
+            assertThat(jobName, w.isExactHit(), equalTo(i % 2 == 0));
+        }
+        assertThat(loaded.getRow(f2.getId()).getWeight(0), nullValue());
+        assertThat(loaded.getRow(f1.getId()).getWeight(0).getWeight(), equalTo(10.0));
+        FileUtils.forceDelete(checkFile);
+    }
+
+    @Test
+    public void testCorrelator() throws IOException {
+        Genome gto = new Genome(new File("data", "MG1655-wild.gto"));
+        String[] fids = new String[] { "fig|511145.183.peg.3580", "fig|511145.183.peg.4072",
+                "fig|511145.183.peg.4078", "fig|511145.183.peg.4076", "fig|511145.183.peg.4025" };
+        RnaData data = new RnaData();
+        final int nJobs = 9;
+        for (int j = 0; j < nJobs; j++)
+            data.addJob("job" + j, 1.0, 1.0, "old" + j, false);
+        for (int f = 0; f < fids.length; f++) {
+            RnaData.Row row = data.getRow(gto.getFeature(fids[f]), null);
+            for (int j = 0; j < nJobs; j++) {
+                // Row 2 is a monotone function of row 0, and row 4 has a masked value.
+                double value = ((f + 3) * (j + 1) * 7 % 13) + j * 0.5;
+                if (f == 2)
+                    value = Math.pow(((0 + 3) * (j + 1) * 7 % 13) + j * 0.5, 3);
+                row.store("job" + j, ! (f == 4 && j == 3), value);
+            }
+        }
+        // Test the Pearson correlations against a direct computation.
+        ExpressionCorrelator pearson = ExpressionCorrelator.forRows(data, ExpressionCorrelator.Type.PEARSON);
+        assertThat(pearson.size(), equalTo(fids.length));
+        List<String> labels = pearson.getLabels();
+        double[][] scores = pearson.computeMatrix();
+        CorrelationVariance checker = new CorrelationVariance();
+        ExpressionCorrelator trimean = ExpressionCorrelator.forRows(data, ExpressionCorrelator.Type.TRIMEAN_ERROR);
+        assertThat(trimean.getLabels(), equalTo(labels));
+        double[][] errors = trimean.computeMatrix();
+        for (int i = 0; i < labels.size(); i++) {
+            RnaData.Row rowI = data.getRow(labels.get(i));
+            assertThat(scores[i][i], closeTo(1.0, 1e-9));
+            for (int j = 0; j < labels.size(); j++) {
+                RnaData.Row rowJ = data.getRow(labels.get(j));
+                double[] x = IntStream.range(0, nJobs).filter(k -> rowI.isGood(k) && rowJ.isGood(k))
+                        .mapToDouble(k -> rowI.getValue(k)).toArray();
+                double[] y = IntStream.range(0, nJobs).filter(k -> rowI.isGood(k) && rowJ.isGood(k))
+                        .mapToDouble(k -> rowJ.getValue(k)).toArray();
+                double xMean = Arrays.stream(x).average().getAsDouble();
+                double yMean = Arrays.stream(y).average().getAsDouble();
+                double sxy = 0.0, sxx = 0.0, syy = 0.0;
+                for (int k = 0; k < x.length; k++) {
+                    sxy += (x[k] - xMean) * (y[k] - yMean);
+                    sxx += (x[k] - xMean) * (x[k] - xMean);
+                    syy += (y[k] - yMean) * (y[k] - yMean);
+                }
+                String label = labels.get(i) + "/" + labels.get(j);
+                assertThat(label, scores[i][j], closeTo(sxy / Math.sqrt(sxx * syy), 1e-9));
+                assertThat(label, scores[j][i], equalTo(scores[i][j]));
+                assertThat(label, errors[i][j], closeTo(checker.variation(x, y), 1e-12));
+            }
+        }
+        // The monotone pair has a perfect Spearman correlation.
+        ExpressionCorrelator spearman = ExpressionCorrelator.forRows(data, ExpressionCorrelator.Type.SPEARMAN);
+        int idx0 = labels.indexOf(fids[0]);
+        int idx2 = labels.indexOf(fids[2]);
+        assertThat(spearman.score(idx0, idx2), closeTo(1.0, 1e-9));
+        assertThat(pearson.score(idx0, idx2), lessThan(1.0));
+        // The Spearman scores must rank each pair on its shared positions only.
+        double[][] rhos = spearman.computeMatrix();
+        for (int i = 0; i < labels.size(); i++) {
+            RnaData.Row rowI = data.getRow(labels.get(i));
+            for (int j = 0; j < labels.size(); j++) {
+                RnaData.Row rowJ = data.getRow(labels.get(j));
+                int[] shared = IntStream.range(0, nJobs).filter(k -> rowI.isGood(k) && rowJ.isGood(k)).toArray();
+                double[] x = ranks(Arrays.stream(shared).mapToDouble(k -> rowI.getValue(k)).toArray());
+                double[] y = ranks(Arrays.stream(shared).mapToDouble(k -> rowJ.getValue(k)).toArray());
+                String label = labels.get(i) + "/" + labels.get(j);
+                assertThat(label, rhos[i][j], closeTo(new PearsonsCorrelation().correlation(x, y), 1e-9));
+            }
+        }
+        // Verify the best-partner lists against the matrix.
+        ExpressionCorrelator.Neighbor[][] best = pearson.computeBest(2);
+        for (int i = 0; i < labels.size(); i++) {
+            assertThat(best[i].length, equalTo(2));
+            assertThat(best[i][0].getScore(), greaterThanOrEqualTo(best[i][1].getScore()));
+            for (int j = 0; j < labels.size(); j++) {
+                if (j != i && j != best[i][0].getIndex() && j != best[i][1].getIndex())
+                    assertThat(scores[i][j], lessThanOrEqualTo(best[i][1].getScore()));
+            }
+            assertThat(best[i][0].getScore(), equalTo(scores[i][best[i][0].getIndex()]));
+        }
+        // Sample correlations use the columns.
+        ExpressionCorrelator samples = ExpressionCorrelator.forSamples(data, ExpressionCorrelator.Type.PEARSON);
+        assertThat(samples.size(), equalTo(nJobs));
+        assertThat(samples.getLabels().get(3), equalTo("job3"));
+        assertThat(samples.score(3, 3), closeTo(1.0, 1e-9));
+    }
+
+    /**
+     * @return the ranks of the values in an array, with ties getting the average rank
+     *
+     * @param values	array of values to rank
+     */
+    private static double[] ranks(double[] values) {
+        double[] retVal = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            int less = 0;
+            int equal = 0;
+            for (double v : values) {
+                if (v < values[i])
+                    less++;
+                else if (v == values[i])
+                    equal++;
+            }
+            retVal[i] = less + (equal + 1) / 2.0;
+        }
+        return retVal;
     }
 
 }
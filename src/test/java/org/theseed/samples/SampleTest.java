@@ -5,6 +5,7 @@ package org.theseed.samples;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.fail;
 
 import java.io.File;
 import java.io.IOException;
@@ -312,4 +313,82 @@ public class SampleTest {
         assertThat(testMap.get(samp6), equalTo(6));
         assertThat(testMap.get(samp7), equalTo(7));
     }
+
+    @Test
+    public void testIntern() {
+        SampleId.clearInternCache();
+        SampleId samp1 = SampleId.intern("M_0_TA1_C_asdT_metL-rhtA_DtdhDmetL_I_24_M1");
+        SampleId samp1a = SampleId.intern("M_0_TA1_C_asdT_metL-rhtA_DtdhDmetL_I_24_M1");
+        SampleId samp1b = SampleId.intern("M_0_TA1_C_asdT_rhtA-metL_DmetLDtdh_I_24_M1");
+        assertThat(samp1a == samp1, equalTo(true));
+        assertThat(samp1b == samp1, equalTo(false));
+        assertThat(samp1b, equalTo(samp1));
+        assertThat(samp1b.compareTo(samp1), equalTo(0));
+        assertThat(samp1b.hashCode(), equalTo(samp1.hashCode()));
+        assertThat(SampleId.internCacheSize(), equalTo(2));
+        assertThat(samp1.isShared(), equalTo(true));
+        // A shared sample ID cannot be modified, but a copy can.
+        try {
+            samp1.increment();
+            fail("Modified a shared sample ID.");
+        } catch (UnsupportedOperationException e) {
+            // this is good
+        }
+        SampleId samp2 = new SampleId(samp1);
+        assertThat(samp2.isShared(), equalTo(false));
+        samp2.increment();
+        assertThat(samp2.toString(), equalTo("M_0_TA1_C_asdT_metL-rhtA_DtdhDmetL_I_24_M1_rep1"));
+        assertThat(samp1.toString(), equalTo("M_0_TA1_C_asdT_metL-rhtA_DtdhDmetL_I_24_M1"));
+        // Verify that shared and unshared sample IDs sort the same way.
+        SampleId samp3 = new SampleId("M_0_TA1_C_asdT_metL-rhtA_Dtdh_I_24_M1");
+        SampleId samp4 = SampleId.intern("M_0_TA1_C_asdT_metL_DtdhDmetL_I_24_M1");
+        SampleId samp5 = SampleId.intern("M_0_TA1_C_asdT_metL-rhtA_DtdhDmetL_I_4p5_M1");
+        assertThat(samp1.compareTo(samp3), greaterThan(0));
+        assertThat(samp3.compareTo(samp1), lessThan(0));
+        assertThat(samp1.compareTo(samp4), greaterThan(0));
+        assertThat(samp1.compareTo(samp5), greaterThan(0));
+        assertThat(samp1.compareTo(samp2), lessThan(0));
+        SampleId samp6 = samp4.addInsert("rhtA");
+        assertThat(samp6.isShared(), equalTo(false));
+        assertThat(samp6, equalTo(samp1));
+        assertThat(samp6.compareTo(samp1), equalTo(0));
+        SampleId.clearInternCache();
+        assertThat(SampleId.internCacheSize(), equalTo(0));
+    }
+
+    @Test
+    public void testIndex() {
+        List<String> names = List.of("7_0_TA1_C_asdO_000_D000_I_24_M1", "7_0_TA1_C_asdO_000_D000_0_24_M1",
+                "7_0_TA1_C_asdO_000_D000_I_9_M1", "7_0_TA1_C_asdO_000_DtdhDmetL_I_24_M1",
+                "7_0_TA1_C_asdO_000_DmetLDtdh_I_9_M1", "M_0_TA1_C_asdO_000_DmetLDtdh_I_24_M1",
+                "M_0_TA1_C_asdO_rhtA-metL_D000_I_24_M1", "M_0_TA1_C_asdO_metL-rhtA_D000_0_24_M1",
+                "7_0_TA1_C_asdO_000_D000_I_24_M1", "7_0_TA1_C_asdO_000_D000_I_4p5_M2");
+        SampleIndex index = SampleIndex.fromNames(names);
+        assertThat(index.size(), equalTo(9));
+        List<SampleId> samples = index.getSamples();
+        for (int i = 0; i < samples.size(); i++) {
+            assertThat(index.getPosition(samples.get(i)), equalTo(i));
+            assertThat(index.getSample(i), sameInstance(samples.get(i)));
+            if (i > 0)
+                assertThat(samples.get(i - 1).compareTo(samples.get(i)), lessThan(0));
+        }
+        assertThat(index.getPosition(new SampleId("7_0_TA1_C_asdO_000_D000_I_24_M1")), greaterThanOrEqualTo(0));
+        assertThat(index.getPosition(new SampleId("7_0_TA1_C_asdO_000_D000_I_12_M1")), equalTo(-1));
+        List<SampleId> found = index.query().strain("7_0_TA1_C_asdO_000_D000").time(24.0).iptg(true).list();
+        assertThat(found, contains(new SampleId("7_0_TA1_C_asdO_000_D000_I_24_M1")));
+        found = index.query().strain("7_0_TA1_C_asdO_000_DmetLDtdh").list();
+        assertThat(found, contains(new SampleId("7_0_TA1_C_asdO_000_DmetLDtdh_I_9_M1"),
+                new SampleId("7_0_TA1_C_asdO_000_DtdhDmetL_I_24_M1")));
+        found = index.query().with(SampleId.INSERT_COL, "metL-rhtA").list();
+        assertThat(found, contains(new SampleId("M_0_TA1_C_asdO_metL-rhtA_D000_0_24_M1"),
+                new SampleId("M_0_TA1_C_asdO_metL-rhtA_D000_I_24_M1")));
+        assertThat(index.query().with(SampleId.STRAIN_COL, "7").iptg(true).count(), equalTo(5));
+        assertThat(index.query().time(4.5).medium("M2").count(), equalTo(1));
+        assertThat(index.query().time(4.5).medium("M1").count(), equalTo(0));
+        assertThat(index.query().strain("7_0_TA1").count(), equalTo(0));
+        assertThat(index.query().with(SampleId.MEDIA_COL, "M3").list(), empty());
+        assertThat(index.getValues(SampleId.STRAIN_COL), contains("7", "M"));
+        assertThat(index.getTimePoints(), contains(4.5, 9.0, 24.0));
+        SampleId.clearInternCache();
+    }
 }
@@ -6,12 +6,17 @@ package org.theseed.sequence;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.Test;
 import org.theseed.genome.Contig;
 import org.theseed.genome.Genome;
@@ -63,4 +68,147 @@ class SequenceTests {
         }
     }
 
+    @Test
+    void testFastaParsing() throws IOException {
+        String text = "junk line\r\n>seq1  first comment \r\nACGTac\r\n  \r\ngtTT\r\n>seq2\r\n>seq3 c3\nAAA >x\nccc";
+        List<Sequence> seqs = new ArrayList<>();
+        try (FastaInputStream inStream = new FastaInputStream(new ByteArrayInputStream(text.getBytes()))) {
+            for (Sequence seq : inStream)
+                seqs.add(seq);
+        }
+        assertThat(seqs.size(), equalTo(3));
+        assertThat(seqs.get(0), equalTo(new Sequence("seq1", "first comment", "ACGTacgtTT")));
+        assertThat(seqs.get(0).getComment(), equalTo("first comment"));
+        assertThat(seqs.get(1).getLabel(), equalTo("seq2"));
+        assertThat(seqs.get(1).getComment(), equalTo(""));
+        assertThat(seqs.get(1).getSequence(), equalTo(""));
+        assertThat(seqs.get(2).getComment(), equalTo("c3"));
+        assertThat(seqs.get(2).getSequence(), equalTo("AAA >xccc"));
+        // Now use the visitor mode on a real file and compare.
+        File fastaFile = new File("data", "test.fa");
+        List<Sequence> expected = FastaInputStream.readAll(fastaFile);
+        List<Sequence> visited = new ArrayList<>();
+        try (FastaInputStream inStream = new FastaInputStream(fastaFile)) {
+            int count = inStream.visitAll((label, comment, seq) -> visited.add(new Sequence(label.toString(),
+                    comment.toString(), seq.toString())));
+            assertThat(count, equalTo(expected.size()));
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            Sequence seq = visited.get(i);
+            assertThat(seq.getLabel(), equalTo(expected.get(i).getLabel()));
+            assertThat(seq.getComment(), equalTo(expected.get(i).getComment()));
+            assertThat(seq.getSequence(), equalTo(expected.get(i).getSequence()));
+        }
+        // The character views must agree with the strings when the text is not ASCII.
+        text = ">\u00e9t\u00e9 \u4e2d\u6587\nac\u00e9\ngt\n>plain\nacgt\n";
+        List<String> views = new ArrayList<>();
+        try (FastaInputStream inStream = new FastaInputStream(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)))) {
+            inStream.visitAll((label, comment, seq) -> {
+                views.add(label.toString());
+                views.add(comment.toString());
+                views.add(seq.toString());
+                StringBuilder chars = new StringBuilder(seq.length());
+                for (int i = 0; i < seq.length(); i++)
+                    chars.append(seq.charAt(i));
+                views.add(chars.toString());
+                views.add(seq.subSequence(1, seq.length()).toString());
+            });
+        }
+        assertThat(views, contains("\u00e9t\u00e9", "\u4e2d\u6587", "ac\u00e9gt", "ac\u00e9gt", "c\u00e9gt",
+                "plain", "", "acgt", "acgt", "cgt"));
+    }
+
+    @Test
+    void testIndexedFasta() throws IOException {
+        Genome gto = new Genome(new File("data", "34004.7.gto"));
+        File fastaFile = new File("data", "indexed.fa.ser");
+        File indexFile = FastaIndex.indexFileFor(fastaFile);
+        if (indexFile.exists())
+            indexFile.delete();
+        List<Sequence> seqs = gto.getContigs().stream().map(x -> new Sequence(x.getId(), x.getDescription(), x.getSequence()))
+                .collect(Collectors.toList());
+        seqs.add(new Sequence("empty", "no sequence here", ""));
+        seqs.add(new Sequence("\u00e9t\u00e9", "label in UTF-8", "acgtacgtac"));
+        try (FastaOutputStream fastaOut = new FastaOutputStream(fastaFile)) {
+            fastaOut.write(seqs);
+        }
+        try (IndexedFastaReader reader = new IndexedFastaReader(fastaFile)) {
+            assertThat(indexFile.exists(), equalTo(true));
+            assertThat(reader.getIndex().size(), equalTo(seqs.size()));
+            for (Sequence seq : seqs) {
+                Sequence found = reader.getSequence(seq.getLabel());
+                assertThat(seq.getLabel(), found, equalTo(seq));
+                assertThat(seq.getLabel(), found.getComment(), equalTo(seq.getComment()));
+                int len = seq.length();
+                if (len > 200) {
+                    assertThat(reader.getRegion(seq.getLabel(), 59, 181), equalTo(seq.getSequence().substring(58, 181)));
+                    assertThat(reader.getRegion(seq.getLabel(), len - 10, len + 10), equalTo(seq.getSequence().substring(len - 11)));
+                    Location loc = Location.create(seq.getLabel(), "-", 100, 130, 150, 160);
+                    assertThat(reader.getDna(loc), equalTo(seq.getDna(loc)));
+                }
+            }
+            assertThat(reader.getSequence("not-here"), nullValue());
+        }
+        // Verify the saved index loads properly.
+        FastaIndex index = FastaIndex.load(indexFile);
+        FastaIndex built = FastaIndex.build(fastaFile);
+        for (FastaIndex.Entry entry : built.getEntries()) {
+            FastaIndex.Entry loaded = index.get(entry.getLabel());
+            assertThat(loaded.getLength(), equalTo(entry.getLength()));
+            assertThat(loaded.getOffset(), equalTo(entry.getOffset()));
+            assertThat(loaded.getLineBases(), equalTo(entry.getLineBases()));
+            assertThat(loaded.getLineWidth(), equalTo(entry.getLineWidth()));
+        }
+        // Verify we can get an index without saving it.
+        FileUtils.forceDelete(indexFile);
+        FastaIndex unsaved = FastaIndex.getIndex(fastaFile, false);
+        assertThat(unsaved.size(), equalTo(seqs.size()));
+        assertThat(indexFile.exists(), equalTo(false));
+        // Verify that whitespace inside a sequence line is rejected.
+        File badFile = new File("data", "indexed_bad.fa.ser");
+        Files.writeString(badFile.toPath(), ">bad1\nacgt\nac gt\n", StandardCharsets.UTF_8);
+        try {
+            FastaIndex.build(badFile);
+            assertThat("Exception should have been thrown.", false);
+        } catch (IOException e) { }
+        FileUtils.forceDelete(badFile);
+        FileUtils.forceDelete(fastaFile);
+    }
+
+    @Test
+    void testFastaWriting() throws IOException {
+        List<Sequence> seqs = FastaInputStream.readAll(new File("data", "test.fa"));
+        seqs.add(new Sequence("unicode", "comment \u00e9t\u00e9", "acgt"));
+        seqs.add(new Sequence("\u00fcnicode", "\u4e2d\u6587 \ud83d\ude00", "acgt\u00e9acgt"));
+        // Write the sequences serially.
+        ByteArrayOutputStream serial = new ByteArrayOutputStream();
+        try (FastaOutputStream outStream = new FastaOutputStream(serial)) {
+            outStream.setLineWidth(20);
+            outStream.write(seqs);
+        }
+        // Write them in parallel, making the list big enough to have multiple batches.
+        List<Sequence> bigList = new ArrayList<>();
+        for (int i = 0; i < 400; i++)
+            bigList.addAll(seqs);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        try (FastaOutputStream outStream = new FastaOutputStream(parallel)) {
+            outStream.setLineWidth(20);
+            outStream.writeParallel(bigList);
+        }
+        String serialText = serial.toString(StandardCharsets.UTF_8);
+        assertThat(parallel.toString(StandardCharsets.UTF_8), equalTo(serialText.repeat(400)));
+        assertThat(serialText, startsWith(">label1\ntgtgcagcgagccctacagc\ncttggagggaacaacacgga\n"));
+        // Read the serial output back in.
+        List<Sequence> readBack = new ArrayList<>();
+        try (FastaInputStream inStream = new FastaInputStream(new ByteArrayInputStream(serial.toByteArray()))) {
+            for (Sequence seq : inStream)
+                readBack.add(seq);
+        }
+        assertThat(readBack.size(), equalTo(seqs.size()));
+        for (int i = 0; i < seqs.size(); i++) {
+            assertThat(readBack.get(i), equalTo(seqs.get(i)));
+            assertThat(readBack.get(i).getComment(), equalTo(seqs.get(i).getComment()));
+        }
+    }
+
 }
@@ -12,6 +12,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -20,6 +21,7 @@ import org.junit.jupiter.api.Test;
 import org.theseed.basic.ParseFailureException;
 import org.theseed.genome.Feature;
 import org.theseed.genome.Genome;
+import org.theseed.subsystems.StrictRole;
 import org.theseed.subsystems.StrictRoleMap;
 
 /**
@@ -199,6 +201,31 @@ class TestCoreSubsystem {
         assertThat(desc2, equalTo(desc));
     }
 
+    @Test
+    void testRuleAnalysis() throws IOException, ParseFailureException {
+        StrictRoleMap roleMap = StrictRoleMap.load(new File("data/ss_test/Subsystems", "core.roles.in.subsystems"));
+        File inDir = new File("data/ss_test/Subsystems", "Histidine_Biosynthesis");
+        CoreSubsystem sub = new CoreSubsystem(inDir, roleMap);
+        // Use every other role in the subsystem.
+        Set<String> roleSet = new HashSet<>();
+        for (int i = 0; i < sub.getRoleCount(); i += 2) {
+            String roleId = sub.getRoleId(sub.getRole(i));
+            if (roleId != null)
+                roleSet.add(roleId);
+        }
+        String ruleName = sub.getVariantRuleMap().keySet().iterator().next();
+        String analysis = sub.analyzeRule(ruleName, roleSet);
+        assertThat(analysis, equalTo(sub.analyze(ruleName, roleSet).toString()));
+        int tracked = sub.getFound().size() + sub.getNotFound().size();
+        assertThat(tracked, greaterThan(0));
+        // Applying the rules discards the analysis results.
+        sub.applyRules(roleSet);
+        assertThat(sub.getFound(), empty());
+        assertThat(sub.getNotFound(), empty());
+        assertThat(sub.analyzeRule("no such rule", roleSet), equalTo("<no match>"));
+        assertThat(sub.getFound(), empty());
+    }
+
     @Test
     void testSubsystemCompiler() throws IOException, ParseFailureException, ClassNotFoundException {
         StrictRoleMap roleMap = StrictRoleMap.load(new File("data/ss_test/Subsystems", "core.roles.in.subsystems"));
@@ -234,4 +261,39 @@ class TestCoreSubsystem {
 
     }
 
+    @Test
+    void testFunctionCache() throws IOException {
+        StrictRoleMap roleMap = StrictRoleMap.load(new File("data/ss_test/Subsystems", "core.roles.in.subsystems"));
+        Genome gto = new Genome(new File("data/ss_test_gto", "1215343.11.gto"));
+        // Compute each feature's roles twice.  The second pass should be all cache hits.
+        for (Feature feat : gto.getFeatures()) {
+            List<StrictRole> roles = feat.getUsefulRoles(roleMap);
+            assertThat(feat.getId(), roleMap.usefulRoles(feat.getFunction()), equalTo(roles));
+        }
+        var stats = roleMap.getCacheStats();
+        long misses = stats.getMisses();
+        assertThat(misses, lessThanOrEqualTo((long) gto.getFeatureCount()));
+        assertThat(stats.size(), equalTo((int) misses));
+        assertThat(stats.getHits(), greaterThanOrEqualTo((long) gto.getFeatureCount()));
+        // Adding a role should reset the cache.
+        roleMap.findOrInsert("Totally fake role for cache testing");
+        assertThat(roleMap.getCacheStats().size(), equalTo(0));
+        var roles = roleMap.cachedRoles("Totally fake role for cache testing / hypothetical protein");
+        assertThat(roles.size(), equalTo(1));
+        assertThat(roles.get(0).getName(), equalTo("Totally fake role for cache testing"));
+        // Adding an alias does not change the role count, but it must still reset the cache.
+        assertThat(roleMap.cachedRoles("Another name for the fake role"), empty());
+        roleMap.addAlias(roles.get(0).getId(), "Another name for the fake role");
+        roles = roleMap.cachedRoles("Another name for the fake role");
+        assertThat(roles.size(), equalTo(1));
+        assertThat(roles.get(0).getName(), equalTo("Totally fake role for cache testing"));
+        // Insure the cache is bounded.
+        roleMap.setCacheSize(10);
+        for (Feature feat : gto.getFeatures())
+            feat.getUsefulRoles(roleMap);
+        stats = roleMap.getCacheStats();
+        assertThat(stats.size(), lessThanOrEqualTo(10));
+        assertThat(stats.getEvictions(), greaterThan(0L));
+    }
+
 }
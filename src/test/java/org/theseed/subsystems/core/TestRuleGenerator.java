@@ -8,12 +8,14 @@ import static org.hamcrest.Matchers.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.Test;
@@ -101,4 +103,35 @@ class TestRuleGenerator {
         }
     }
 
+    @Test
+    void testMinimalSets() throws IOException, ParseFailureException {
+        StrictRoleMap roleMap = StrictRoleMap.load(new File("data/ss_test/Subsystems", "core.roles.in.subsystems"));
+        for (File subDir : CoreSubsystem.getSubsystemDirectories(new File("data/ss_test"))) {
+            CoreSubsystem sub = new CoreSubsystem(subDir, roleMap);
+            // Build the rulebit sets for each variant and merge them the slow way.
+            Map<String, List<RuleBits>> rowMap = new TreeMap<>();
+            Map<String, Collection<RuleBits>> mergeMap = new TreeMap<>();
+            Iterator<CoreSubsystem.Row> iter = sub.rowIterator();
+            while (iter.hasNext()) {
+                CoreSubsystem.Row row = iter.next();
+                RuleBits rowBits = new RuleBits(row);
+                if (! row.isInactive() && ! rowBits.isEmpty()) {
+                    String vCode = row.getVariantCode();
+                    rowMap.computeIfAbsent(vCode, x -> new ArrayList<>()).add(rowBits);
+                    rowBits.mergeInto(mergeMap.computeIfAbsent(vCode, x -> new TreeSet<>()));
+                }
+            }
+            // The fast way must produce the same sets in the same order.
+            RuleGenerator ruleGen = new RuleGenerator(sub);
+            assertThat(sub.getName(), ruleGen.getVariantCodes(), equalTo(mergeMap.keySet()));
+            for (Map.Entry<String, Collection<RuleBits>> mergeEntry : mergeMap.entrySet()) {
+                String label = sub.getName() + " " + mergeEntry.getKey();
+                List<RuleBits> expected = new ArrayList<>(mergeEntry.getValue());
+                assertThat(label, new ArrayList<>(ruleGen.getRuleBits(mergeEntry.getKey())), equalTo(expected));
+                List<RuleBits> minimal = RuleBits.minimalSets(rowMap.get(mergeEntry.getKey()));
+                assertThat(label, minimal, containsInAnyOrder(expected.toArray()));
+            }
+        }
+    }
+
 }
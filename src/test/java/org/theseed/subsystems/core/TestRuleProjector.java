@@ -8,10 +8,19 @@ import static org.hamcrest.Matchers.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.Test;
 import org.theseed.basic.ParseFailureException;
+import org.theseed.genome.Feature;
 import org.theseed.genome.Genome;
+import org.theseed.genome.SubsystemRow;
 import org.theseed.subsystems.StrictRoleMap;
 
 /**
@@ -45,4 +54,270 @@ class TestRuleProjector {
         assertThat(vCode, equalTo("dirty"));
     }
 
+    /**
+     * @return a projector built from the test subsystem directory
+     *
+     * @throws IOException
+     * @throws ParseFailureException
+     */
+    private static SubsystemRuleProjector buildProjector() throws IOException, ParseFailureException {
+        SubsystemRuleProjector retVal = new SubsystemRuleProjector(new File("data/ss_test/Subsystems",
+                "core.roles.in.subsystems"));
+        for (File subDir : CoreSubsystem.getSubsystemDirectories(new File("data/ss_test"))) {
+            CoreSubsystem sub = new CoreSubsystem(subDir, retVal.usefulRoles());
+            if (sub.hasRules())
+                retVal.addSubsystem(sub);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the test genomes for projection
+     *
+     * @throws IOException
+     */
+    private static List<Genome> loadGenomes() throws IOException {
+        List<Genome> retVal = new ArrayList<>();
+        for (String gtoName : new String[] { "data/ss_test_gto/1215343.11.gto", "data/1035377.13.gto",
+                "data/1262806.3.gto", "data/360106.5.gto" })
+            retVal.add(new Genome(new File(gtoName)));
+        return retVal;
+    }
+
+    /**
+     * @return the variant codes for a genome computed by the uncompiled, set-based rules of each descriptor
+     *
+     * @param projector		projector containing the subsystem descriptors
+     * @param genome		genome to project
+     */
+    private static Map<String, String> setBasedProjection(SubsystemRuleProjector projector, Genome genome) {
+        StrictRoleMap roleMap = projector.usefulRoles();
+        genome.clearSubsystems();
+        var roleSet = roleMap.getRolePresenceMap(genome);
+        Map<String, String> retVal = new TreeMap<>();
+        for (SubsystemDescriptor desc : projector.getIndex().getSubsystems()) {
+            String vCode = desc.project(genome, roleSet, roleMap);
+            if (vCode != null)
+                retVal.put(desc.getName(), vCode);
+        }
+        return retVal;
+    }
+
+    @Test
+    void testBatchProjection() throws IOException, ParseFailureException {
+        SubsystemRuleProjector projector = buildProjector();
+        List<Genome> genomes = loadGenomes();
+        BatchSubsystemProjector batch = new BatchSubsystemProjector(projector, false);
+        SubsystemVariantTable table = batch.projectAll(genomes.stream(), null);
+        assertThat(table.size(), equalTo(genomes.size()));
+        assertThat(batch.getGenomeCount(), equalTo((long) genomes.size()));
+        // The index compiles its own copies of the descriptors, and the role map is locked.
+        for (SubsystemDescriptor desc : projector.getIndex().getSubsystems())
+            assertThat(desc.getName(), projector.getSubsystem(desc.getName()).getCompiledRules(), nullValue());
+        assertThat(projector.usefulRoles().isReadOnly(), equalTo(true));
+        try {
+            projector.usefulRoles().findOrInsert("Fake role for testing the lock");
+            assertThat("Exception should have been thrown.", false);
+        } catch (UnsupportedOperationException e) { }
+        for (Genome genome : genomes) {
+            // Project the old way and compare.
+            projector.project(genome, false);
+            Map<String, String> expected = new TreeMap<>();
+            for (SubsystemRow row : genome.getSubsystems())
+                expected.put(row.getName(), row.getVariantCode());
+            assertThat(genome.getId(), table.getVariants(genome.getId()), equalTo(expected));
+            for (Map.Entry<String, String> entry : expected.entrySet())
+                assertThat(table.getVariant(genome.getId(), entry.getKey()), equalTo(entry.getValue()));
+            // Both of those use the compiled rules, so also compare against the uncompiled rules.
+            assertThat(genome.getId(), table.getVariants(genome.getId()), equalTo(setBasedProjection(projector, genome)));
+        }
+        // Now write the projections back into the genomes.
+        List<Genome> written = new ArrayList<>();
+        SubsystemVariantTable table2 = batch.projectAll(genomes.stream(), x -> { synchronized (written) { written.add(x); } });
+        assertThat(written.size(), equalTo(genomes.size()));
+        for (Genome genome : genomes) {
+            Map<String, String> actual = new TreeMap<>();
+            for (SubsystemRow row : genome.getSubsystems())
+                actual.put(row.getName(), row.getVariantCode());
+            assertThat(actual, equalTo(table2.getVariants(genome.getId())));
+        }
+        // Verify that the table survives a save and load, including a genome with no subsystems.
+        table.put("empty.1", Map.of());
+        File tableFile = new File("data", "variant_table.ser");
+        table.save(tableFile);
+        SubsystemVariantTable loaded = SubsystemVariantTable.load(tableFile);
+        FileUtils.forceDelete(tableFile);
+        assertThat(loaded.size(), equalTo(table.size()));
+        assertThat(loaded.getCellCount(), equalTo(table.getCellCount()));
+        assertThat(loaded.getGenomes().contains("empty.1"), equalTo(true));
+        for (String genomeId : table.getGenomes())
+            assertThat(genomeId, loaded.getVariants(genomeId), equalTo(table.getVariants(genomeId)));
+    }
+
+    @Test
+    void testBinaryFormat() throws IOException, ParseFailureException {
+        SubsystemRuleProjector projector = buildProjector();
+        File saveFile = new File("data", "projector_bin.ser");
+        projector.save(saveFile);
+        assertThat(SubsystemProjectorFile.isBinary(saveFile), equalTo(true));
+        SubsystemRuleProjector loaded = SubsystemRuleProjector.load(saveFile);
+        SubsystemRuleProjector mapped = SubsystemRuleProjector.load(saveFile, true);
+        FileUtils.forceDelete(saveFile);
+        assertThat(loaded.size(), equalTo(projector.size()));
+        assertThat(mapped.size(), equalTo(projector.size()));
+        assertThat(loaded.usefulRoles().size(), equalTo(projector.usefulRoles().size()));
+        for (SubsystemDescriptor desc : projector.getIndex().getSubsystems()) {
+            SubsystemDescriptor desc2 = loaded.getSubsystem(desc.getName());
+            assertThat(desc.getName(), desc2, equalTo(desc));
+            assertThat(desc.getName(), desc2.getClasses(), arrayContaining(desc.getClasses()));
+            assertThat(desc.getName(), desc2.getRequiredRoles(), equalTo(desc.getRequiredRoles()));
+            assertThat(desc.getName(), mapped.getSubsystem(desc.getName()), equalTo(desc));
+        }
+        // The loaded projectors must produce the same projections as the original.
+        for (Genome genome : loadGenomes()) {
+            projector.project(genome, false);
+            Map<String, String> expected = new TreeMap<>();
+            for (SubsystemRow row : genome.getSubsystems())
+                expected.put(row.getName(), row.getVariantCode());
+            loaded.project(genome, false);
+            Map<String, String> actual = new TreeMap<>();
+            for (SubsystemRow row : genome.getSubsystems())
+                actual.put(row.getName(), row.getVariantCode());
+            assertThat(genome.getId(), actual, equalTo(expected));
+            // The loaded compiled rules must also agree with the loaded rule trees.
+            assertThat(genome.getId(), actual, equalTo(setBasedProjection(loaded, genome)));
+            mapped.project(genome, false);
+            Map<String, String> mappedActual = new TreeMap<>();
+            for (SubsystemRow row : genome.getSubsystems())
+                mappedActual.put(row.getName(), row.getVariantCode());
+            assertThat(genome.getId(), mappedActual, equalTo(expected));
+        }
+    }
+
+    @Test
+    void testParallelLoader() throws IOException, ParseFailureException {
+        SubsystemRuleProjector expected = buildProjector();
+        List<File> subDirs = CoreSubsystem.getSubsystemDirectories(new File("data/ss_test"));
+        SubsystemDirectoryLoader loader = new SubsystemDirectoryLoader(expected.usefulRoles(), 4);
+        SubsystemRuleProjector projector = loader.buildProjector(subDirs);
+        assertThat(loader.getReadCount() + loader.getFailures().size(), equalTo((long) subDirs.size()));
+        assertThat(projector.size(), equalTo(expected.size()));
+        for (SubsystemDescriptor desc : expected.getIndex().getSubsystems())
+            assertThat(desc.getName(), projector.getSubsystem(desc.getName()), equalTo(desc));
+        // The statistics must match a serial load.
+        long badRoles = 0;
+        for (File subDir : subDirs)
+            badRoles += new CoreSubsystem(subDir, expected.usefulRoles()).getBadRoleCount();
+        assertThat(loader.getBadRoleCount(), equalTo(badRoles));
+    }
+
+    @Test
+    void testIncrementalUpdate() throws IOException, ParseFailureException {
+        // Make a copy of the subsystem directory that we can modify.
+        File coreDir = new File("data", "ss_update");
+        if (coreDir.exists())
+            FileUtils.forceDelete(coreDir);
+        FileUtils.copyDirectory(new File("data/ss_test"), coreDir);
+        StrictRoleMap roleMap = StrictRoleMap.load(new File("data/ss_test/Subsystems", "core.roles.in.subsystems"));
+        List<File> subDirs = CoreSubsystem.getSubsystemDirectories(coreDir);
+        SubsystemDirectoryLoader loader = new SubsystemDirectoryLoader(roleMap, 2);
+        SubsystemRuleProjector projector = loader.buildProjector(subDirs);
+        // Save and reload the projector.  The signatures must survive.
+        File saveFile = new File("data", "projector_update.ser");
+        projector.save(saveFile);
+        projector = SubsystemRuleProjector.load(saveFile);
+        FileUtils.forceDelete(saveFile);
+        for (File subDir : subDirs)
+            assertThat(subDir.toString(), projector.getSignature(CoreSubsystem.dirToName(subDir)), notNullValue());
+        // Nothing has changed, and touching a file does not count as a change.
+        File hisDir = new File(coreDir, "Subsystems/Histidine_Biosynthesis");
+        File ruleFile = new File(hisDir, "checkvariant_rules");
+        ruleFile.setLastModified(ruleFile.lastModified() + 10000);
+        loader = new SubsystemDirectoryLoader(projector.usefulRoles(), 2);
+        assertThat(loader.update(projector, subDirs), equalTo(0));
+        assertThat(loader.getUnchangedCount(), equalTo((long) subDirs.size()));
+        assertThat(loader.getReadCount(), equalTo(0L));
+        // Change the rules for one subsystem and remove another.
+        FileUtils.writeStringToFile(ruleFile, "active.0.0 means all\n-1 means not any\n", "UTF-8");
+        SubsystemDescriptor expected = new SubsystemDescriptor(new CoreSubsystem(hisDir, projector.usefulRoles()));
+        assertThat(projector.getSubsystem("Histidine Biosynthesis"), not(equalTo(expected)));
+        // This subsystem has no rules, so it is only tracked by its signature.
+        assertThat(projector.getSignature("Cluster with dapF"), notNullValue());
+        FileUtils.forceDelete(new File(coreDir, "Subsystems/Cluster_with_dapF"));
+        subDirs = CoreSubsystem.getSubsystemDirectories(coreDir);
+        loader = new SubsystemDirectoryLoader(projector.usefulRoles(), 2);
+        assertThat(loader.update(projector, subDirs), equalTo(2));
+        assertThat(loader.getReadCount(), equalTo(1L));
+        assertThat(projector.getSubsystem("Histidine Biosynthesis"), equalTo(expected));
+        assertThat(projector.getSignature("Cluster with dapF"), nullValue());
+        // The updated projector must match a full rebuild.
+        SubsystemRuleProjector rebuilt = new SubsystemDirectoryLoader(projector.usefulRoles(), 2).buildProjector(subDirs);
+        assertThat(projector.getSubsystemNames(), equalTo(rebuilt.getSubsystemNames()));
+        for (String subName : rebuilt.getSubsystemNames())
+            assertThat(subName, projector.getSubsystem(subName), equalTo(rebuilt.getSubsystem(subName)));
+        FileUtils.forceDelete(coreDir);
+    }
+
+    @Test
+    void testVariantMatrix() throws IOException, ParseFailureException {
+        SubsystemRuleProjector projector = buildProjector();
+        List<Genome> genomes = loadGenomes();
+        File matrixFile = new File("data", "variants.ser");
+        SubsystemVariantMatrix matrix;
+        try (SubsystemVariantMatrix.Builder builder = new SubsystemVariantMatrix.Builder(matrixFile)) {
+            for (Genome genome : genomes) {
+                projector.project(genome, false);
+                builder.add(genome);
+            }
+            matrix = builder.build();
+        }
+        try {
+            assertThat(matrix.getGenomeCount(), equalTo(genomes.size()));
+            assertThat(matrix.hasFeatures(), equalTo(true));
+            Map<String, Map<String, String>> columns = new TreeMap<>();
+            for (Genome genome : genomes) {
+                String genomeId = genome.getId();
+                Map<String, String> expected = new TreeMap<>();
+                for (SubsystemRow row : genome.getSubsystems()) {
+                    String subName = row.getName();
+                    expected.put(subName, row.getVariantCode());
+                    columns.computeIfAbsent(subName, x -> new TreeMap<>()).put(genomeId, row.getVariantCode());
+                    assertThat(matrix.getVariant(genomeId, subName), equalTo(row.getVariantCode()));
+                    Set<String> fids = new TreeSet<>();
+                    for (SubsystemRow.Role role : row.getRoles()) {
+                        for (Feature feat : role.getFeatures())
+                            fids.add(feat.getId());
+                    }
+                    assertThat(genomeId + " " + subName, matrix.getFeatures(genomeId, subName), equalTo(fids));
+                }
+                assertThat(genomeId, matrix.getVariants(genomeId), equalTo(expected));
+            }
+            assertThat(matrix.getVariant("missing", "missing"), nullValue());
+            for (Map.Entry<String, Map<String, String>> column : columns.entrySet()) {
+                String subName = column.getKey();
+                assertThat(subName, matrix.getGenomeVariants(subName), equalTo(column.getValue()));
+                assertThat(subName, matrix.getGenomeCount(subName), equalTo(column.getValue().size()));
+                int total = 0;
+                for (Map.Entry<String, Integer> count : matrix.getVariantCounts(subName).entrySet()) {
+                    Set<String> found = matrix.getGenomes(subName, count.getKey());
+                    assertThat(subName, found.size(), equalTo(count.getValue()));
+                    for (String genomeId : found)
+                        assertThat(subName, column.getValue().get(genomeId), equalTo(count.getKey()));
+                    total += count.getValue();
+                }
+                assertThat(subName, total, equalTo(column.getValue().size()));
+            }
+        } finally {
+            matrix.close();
+        }
+        // Reload the matrix and spot-check it.
+        try (SubsystemVariantMatrix matrix2 = SubsystemVariantMatrix.load(matrixFile)) {
+            assertThat(matrix2.getCellCount(), equalTo(matrix.getCellCount()));
+            for (String genomeId : matrix.getGenomeIds())
+                assertThat(matrix2.getVariants(genomeId), equalTo(matrix.getVariants(genomeId)));
+        }
+        FileUtils.forceDelete(matrixFile);
+        FileUtils.forceDelete(SubsystemVariantMatrix.fidFile(matrixFile));
+    }
+
 }
@@ -6,12 +6,17 @@ package org.theseed.subsystems.core;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
 import org.theseed.basic.ParseFailureException;
+import org.theseed.subsystems.StrictRole;
+import org.theseed.subsystems.StrictRoleMap;
 
 /**
  * @author Bruce Parrello
@@ -107,4 +112,77 @@ class TestSubsystemRules {
         assertThat(compiled.check(roles), equalTo(true));
     }
 
+    @Test
+    void testRulePrograms() throws ParseFailureException {
+        Map<String, SubsystemRule> nameSpace = Map.of(
+                "1.3",   new SubsystemPrimitiveRule("MethCoaMuta"),
+                "1.3.N", new SubsystemPrimitiveRule("MethCoaMutaN"),
+                "1.3.C", new SubsystemPrimitiveRule("MethCoaMutaC"),
+                "1.3l",  new SubsystemPrimitiveRule("MethCoaMutaL"),
+                "1.3s1(a)", new SubsystemPrimitiveRule("MethCoaMutaLs"),
+                "mcl1",  new SubsystemPrimitiveRule("MalyCoaLyas"),
+                "6", new SubsystemPrimitiveRule("MalyCoaLyas"),
+                "bad", new SubsystemPrimitiveRule("NotInMap")
+                );
+        // Note that the last role is not in the role map.
+        String[] roleIds = new String[] { "MethCoaMuta", "MethCoaMutaN", "MethCoaMutaC", "MethCoaMutaL",
+                "MethCoaMutaLs", "MalyCoaLyas", "NotInMap" };
+        StrictRoleMap roleMap = new StrictRoleMap();
+        for (int i = 0; i < roleIds.length - 1; i++)
+            roleMap.put(new StrictRole(roleIds[i], "role " + roleIds[i]));
+        RoleOrdinalMap ordinals = new RoleOrdinalMap(roleMap);
+        assertThat(ordinals.size(), equalTo(roleIds.length - 1));
+        assertThat(ordinals.getOrdinal("NotInMap"), equalTo(-1));
+        String[] rules = new String[] { "1.3 or (1.3.N and 1.3.C) or 2 of {1.3l, 1.3s1(a), 6}",
+                "(mcl1 and not (1 of {1.3, (1.3.N)}) or (1.3s1(a) and not 1.3.C)",
+                "1 of { 1.3, 1.3.C, 1.3.N and 1.3s1(a) } and mcl1",
+                "2 of {1 of { 1.3, 1.3.C, 1.3.N and 1.3s1(a) }, mcl1}",
+                "2 of {mcl1, 6, 1.3}", "1.3 and bad", "not bad", "2 of {1.3, 1.3.N, bad}", "2 of {1.3 and mcl1, 1.3.N, 1.3.C and 6, not bad}", "1.3l and not 1.3",
+                "3 of {1.3, 1.3.N}" };
+        for (String rule : rules) {
+            SubsystemRule parsed = RuleCompiler.parseRule(rule, nameSpace);
+            CompiledRule compiled = CompiledRule.compile(parsed, ordinals);
+            // Try every combination of roles.
+            for (int mask = 0; mask < (1 << roleIds.length); mask++) {
+                Set<String> roles = new HashSet<>();
+                for (int i = 0; i < roleIds.length; i++) {
+                    if ((mask & (1 << i)) != 0)
+                        roles.add(roleIds[i]);
+                }
+                // If the rule is satisfied, one of its required roles must be present.
+                Set<String> required = parsed.requiredRoles();
+                if (required != null && parsed.check(roles))
+                    assertThat(rule + " for " + roles, required.stream().anyMatch(x -> roles.contains(x)), equalTo(true));
+                // Roles not in the map are never found in a genome, so we only test those against the tree.
+                if (! roles.contains("NotInMap"))
+                    assertThat(rule + " for " + roles, compiled.check(ordinals.toBits(roles)), equalTo(parsed.check(roles)));
+            }
+        }
+    }
+
+    @Test
+    void testRuleTracking() throws ParseFailureException {
+        Map<String, SubsystemRule> nameSpace = new HashMap<>();
+        String[] abbrs = new String[] { "a", "b", "c", "d" };
+        for (String abbr : abbrs) {
+            var rule = new SubsystemPrimitiveRule("Role" + abbr);
+            rule.setTracking(abbr);
+            nameSpace.put(abbr, rule);
+        }
+        SubsystemRule rule = RuleCompiler.parseRule("a and (b or c) and not d", nameSpace);
+        assertThat(rule.check(Set.of("Rolea", "Rolec")), equalTo(true));
+        // Evaluate the rule with a different role set on each thread, each with its own tracker.
+        List<Set<String>> roleSets = List.of(Set.of("Rolea", "Rolec"), Set.of("Roleb", "Roled"),
+                Set.of("Rolea", "Roleb", "Roled"), Set.of());
+        List<String> expected = List.of("a,c/b,d", "b,d/a", "a,b,d/", "/a,b,c,d");
+        for (int pass = 0; pass < 10; pass++) {
+            List<String> actual = roleSets.parallelStream().map(x -> {
+                RuleTracker tracker = new RuleTracker();
+                rule.check(x, tracker);
+                return tracker.toString();
+            }).collect(Collectors.toList());
+            assertThat(actual, equalTo(expected));
+        }
+    }
+
 }